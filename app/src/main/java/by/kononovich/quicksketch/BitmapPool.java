@@ -0,0 +1,93 @@
+package by.kononovich.quicksketch;
+
+import android.graphics.Bitmap;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Пул освобожденных Bitmap для повторного использования вместо создания
+ * новых: плитки слоев, их копии для отмены, сборки слоев, изображения для
+ * сохранения и образцы в диалоговых окнах. Объем хранимых Bitmap ограничен;
+ * не поместившиеся (начиная с давно возвращенных) не освобождаются через
+ * recycle, а только удаляются из пула: они могут еще выводиться из списков
+ * отображения аппаратного ускорения и освобождаются сборщиком мусора.
+ * Пул общий для приложения и используется из нескольких потоков
+ */
+
+public class BitmapPool {
+    // Объем пула по умолчанию
+    private static final long DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+
+    private static final BitmapPool shared = new BitmapPool(DEFAULT_MAX_BYTES);
+
+    private final LinkedList<Bitmap> bitmaps = new LinkedList<>();  // Последние возвращенные - в начале
+    private long maxBytes;
+    private long bytes;
+
+    public BitmapPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public static BitmapPool getShared() {
+        return shared;
+    }
+
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        trimToSize();
+    }
+
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    // Изменяемый Bitmap заданных размеров и формата: из пула, если такой
+    // есть, иначе новый. Содержимое Bitmap из пула не определено
+    public Bitmap obtain(int width, int height, Bitmap.Config config) {
+        synchronized (this) {
+            for (Iterator<Bitmap> it = bitmaps.iterator(); it.hasNext(); ) {
+                Bitmap bitmap = it.next();
+                if (bitmap.getWidth() == width && bitmap.getHeight() == height &&
+                        bitmap.getConfig() == config) {
+                    it.remove();
+                    bytes -= bytesOf(bitmap);
+                    return bitmap;
+                }
+            }
+        }
+        return Bitmap.createBitmap(width, height, config);
+    }
+
+    // Возврат Bitmap, который больше нигде не используется (повторный
+    // возврат того же Bitmap не учитывается)
+    public synchronized void release(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || bitmaps.contains(bitmap))
+            return;
+        if (!bitmap.isMutable() || bytesOf(bitmap) > maxBytes)
+            return;
+        bitmaps.addFirst(bitmap);
+        bytes += bytesOf(bitmap);
+        trimToSize();
+    }
+
+    // Удаление всех Bitmap из пула
+    public synchronized void clear() {
+        bitmaps.clear();
+        bytes = 0;
+    }
+
+    public synchronized long getSize() {
+        return bytes;
+    }
+
+    private void trimToSize() {
+        while (bytes > maxBytes) {
+            bytes -= bytesOf(bitmaps.removeLast());
+        }
+    }
+
+    private static long bytesOf(Bitmap bitmap) {
+        return (long) bitmap.getRowBytes() * bitmap.getHeight();
+    }
+}
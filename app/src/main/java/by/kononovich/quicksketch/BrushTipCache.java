@@ -0,0 +1,45 @@
+package by.kononovich.quicksketch;
+
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+/**
+ * Кэш растеризованных кончиков кисти для сочетаний (форма, размер,
+ * жесткость, цвет). При рисовании отпечатков кончик берется из кэша;
+ * давно не использовавшиеся кончики вытесняются при превышении объема.
+ * Вытесненные Bitmap не освобождаются через recycle: они могут еще
+ * выводиться аппаратным ускорением из записанного списка отображения
+ */
+
+public class BrushTipCache {
+    private final LruCache<Long, Bitmap> tips;
+
+    // maxBytes - наибольший объем пикселов всех кончиков
+    public BrushTipCache(int maxBytes) {
+        tips = new LruCache<Long, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(Long key, Bitmap tip) {
+                return tip.getRowBytes() * tip.getHeight();
+            }
+        };
+    }
+
+    // Кончик кисти brush для линии толщиной width цвета color
+    public Bitmap get(Brush brush, float width, int color) {
+        int size = Brush.tipSize(width);
+        // Ключ: цвет (32 бита), размер (16), жесткость (8), форма (8)
+        long key = (long) color << 32 | (long) (size & 0xFFFF) << 16 | brush.encode() & 0xFFFF;
+        Bitmap tip = tips.get(key);
+        if (tip == null) {
+            tip = Bitmap.createBitmap(brush.rasterize(size, color), size, size,
+                    Bitmap.Config.ARGB_8888);
+            tips.put(key, tip);
+        }
+        return tip;
+    }
+
+    // Удаление всех кончиков
+    public void clear() {
+        tips.evictAll();
+    }
+}
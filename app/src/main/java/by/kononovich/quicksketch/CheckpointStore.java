@@ -0,0 +1,160 @@
+package by.kononovich.quicksketch;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Копии непустых плиток слоя, сделанные через каждые interval линий этого слоя.
+ * Отмена восстанавливает ближайшую копию и повторяет только линии после нее,
+ * поэтому ее стоимость не зависит от длины истории
+ */
+
+public class CheckpointStore {
+    private final List<Bitmap[]> snapshots = new ArrayList<>(); // Копии плиток изображения
+    private final List<Integer> strokeCounts = new ArrayList<>(); // Количество линий в каждой копии (по возрастанию)
+    private final List<Boolean> fills = new ArrayList<>(); // Есть ли в копии результат заливки
+    private final List<Boolean> afterFill = new ArrayList<>(); // Копия снята сразу после заливки
+    private int interval;
+    private int pending;  // Линий слоя после последней копии
+    private long memoryBudget;  // Максимальный объем копий в байтах
+
+    public CheckpointStore(int interval, long memoryBudget) {
+        this.interval = interval;
+        this.memoryBudget = memoryBudget;
+    }
+
+    public void setInterval(int interval) {
+        this.interval = Math.max(1, interval);
+    }
+
+    public int getInterval() {
+        return interval;
+    }
+
+    public void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+        trimToBudget();
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    // Линия слоя завершена (strokeCount - количество линий журнала):
+    // копия сохраняется через каждые interval линий этого слоя, а не
+    // журнала, в котором линии всех слоев
+    public void onStrokeCommitted(int strokeCount, TileStore tiles) {
+        if (++pending >= interval)
+            save(strokeCount, tiles);
+    }
+
+    // Сохранение копии независимо от интервала (например, после стирания линий)
+    public void save(int strokeCount, TileStore tiles) {
+        save(strokeCount, tiles, false);
+    }
+
+    // Сохранение копии сразу после заливки: повтор линий от такой копии не
+    // выполняет заливку заново, поэтому эти копии вытесняются последними
+    public void onFillCommitted(int strokeCount, TileStore tiles) {
+        save(strokeCount, tiles, true);
+    }
+
+    private void save(int strokeCount, TileStore tiles, boolean fill) {
+        pending = 0;
+        int existing = strokeCounts.indexOf(strokeCount);
+        if (existing >= 0) {
+            if (fill)
+                afterFill.set(existing, true);
+            return;
+        }
+
+        // Копия не помещается в бюджет даже одна
+        if (tiles.allocatedBytes() > memoryBudget)
+            return;
+
+        // Копии хранятся по возрастанию количества линий
+        int index = strokeCounts.size();
+        while (index > 0 && strokeCounts.get(index - 1) > strokeCount)
+            index--;
+        snapshots.add(index, tiles.copyTiles());
+        strokeCounts.add(index, strokeCount);
+        fills.add(index, tiles.hasFills());
+        afterFill.add(index, fill);
+        trimToBudget();
+    }
+
+    // Восстановление ближайшей копии, содержащей не более strokeCount линий;
+    // возвращает количество линий в копии или -1, если подходящей копии нет
+    public int restore(int strokeCount, TileStore tiles) {
+        for (int i = strokeCounts.size() - 1; i >= 0; i--) {
+            if (strokeCounts.get(i) <= strokeCount) {
+                pending = 0;
+                tiles.restoreTiles(snapshots.get(i));
+                tiles.setHasFills(fills.get(i));
+                return strokeCounts.get(i);
+            }
+        }
+        return -1;
+    }
+
+    // Удаление копий, содержащих больше strokeCount линий (история повтора отброшена)
+    public void discardAfter(int strokeCount) {
+        for (int i = strokeCounts.size() - 1; i >= 0 && strokeCounts.get(i) > strokeCount; i--)
+            remove(i);
+    }
+
+    // Линии removed (номера по возрастанию) удалены из журнала: количество
+    // линий в копиях уменьшается на число удаленных линий перед ними.
+    // Копии, содержащие удаленные линии, должны быть удалены заранее
+    public void removeStrokes(int[] removed) {
+        for (int i = strokeCounts.size() - 1; i >= 0; i--) {
+            int before = Arrays.binarySearch(removed, strokeCounts.get(i));
+            int count = strokeCounts.get(i) - (before >= 0 ? before : -before - 1);
+            if (i + 1 < strokeCounts.size() && strokeCounts.get(i + 1) == count)
+                remove(i);  // Копия с тем же количеством линий уже есть
+            else
+                strokeCounts.set(i, count);
+        }
+    }
+
+    // Линия вставлена в журнал на место index: количество линий в копиях
+    // после него увеличивается. Копии, в которых она должна быть, должны
+    // быть удалены заранее
+    public void insertStroke(int index) {
+        for (int i = strokeCounts.size() - 1; i >= 0 && strokeCounts.get(i) > index; i--)
+            strokeCounts.set(i, strokeCounts.get(i) + 1);
+    }
+
+    // Удаление всех копий
+    public void clear() {
+        for (int i = snapshots.size() - 1; i >= 0; i--)
+            remove(i);
+    }
+
+    // Удаление самых старых копий, пока их объем превышает бюджет
+    // (копии после заливок - только когда других не осталось)
+    private void trimToBudget() {
+        while (!snapshots.isEmpty() && usedBytes() > memoryBudget) {
+            int index = afterFill.indexOf(false);
+            remove(index >= 0 ? index : 0);
+        }
+    }
+
+    private long usedBytes() {
+        long bytes = 0;
+        for (Bitmap[] snapshot : snapshots)
+            bytes += TileStore.bytesOf(snapshot);
+        return bytes;
+    }
+
+    private void remove(int index) {
+        for (Bitmap tile : snapshots.remove(index))
+            BitmapPool.getShared().release(tile);
+        strokeCounts.remove(index);
+        fills.remove(index);
+        afterFill.remove(index);
+    }
+}
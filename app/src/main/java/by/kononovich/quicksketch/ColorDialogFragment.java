@@ -50,8 +50,8 @@ public class ColorDialogFragment extends DialogFragment {
       blueSeekBar.setOnSeekBarChangeListener(colorChangedListener);
 
       // Использование текущего цвета линии для инициализации
-      final QuickSketchView quickSketchView = getSketchFragment().getQuickSketchView();
-      color = quickSketchView.getDrawingColor();
+      final SketchEngine sketchEngine = getSketchFragment().getSketchEngine();
+      color = sketchEngine.getDrawingColor();
       alphaSeekBar.setProgress(Color.alpha(color));
       redSeekBar.setProgress(Color.red(color));
       greenSeekBar.setProgress(Color.green(color));
@@ -61,7 +61,7 @@ public class ColorDialogFragment extends DialogFragment {
       builder.setPositiveButton(R.string.button_set_color,
          new DialogInterface.OnClickListener() {
             public void onClick(DialogInterface dialog, int id) {
-               quickSketchView.setDrawingColor(color);
+               sketchEngine.setDrawingColor(color);
             }
          }
       );
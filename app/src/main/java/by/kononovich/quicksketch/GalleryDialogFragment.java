@@ -0,0 +1,134 @@
+package by.kononovich.quicksketch;
+
+import android.app.AlertDialog;
+import android.app.Dialog;
+import android.content.ActivityNotFoundException;
+import android.content.ContentUris;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.provider.MediaStore;
+import android.support.v4.app.DialogFragment;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AbsListView;
+import android.widget.AdapterView;
+import android.widget.BaseAdapter;
+import android.widget.GridView;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+// Используется для просмотра сохраненных рисунков: эскизы загружаются
+// в фоновых потоках, выбранный рисунок открывается в приложении просмотра
+public class GalleryDialogFragment extends DialogFragment {
+    private ThumbnailLoader thumbnailLoader;
+    private long[] ids = new long[0];
+    private long[] datesTaken = new long[0];
+    private int thumbnailSize;
+    private BaseAdapter adapter;
+
+    @Override
+    public Dialog onCreateDialog(Bundle bundle) {
+        // Создание диалогового окна
+        AlertDialog.Builder builder =
+                new AlertDialog.Builder(getActivity());
+        View galleryDialogView =
+                getActivity().getLayoutInflater().inflate(
+                        R.layout.fragment_gallery, null);
+        builder.setView(galleryDialogView);
+
+        // Назначение сообщения AlertDialog
+        builder.setTitle(R.string.title_gallery_dialog);
+
+        thumbnailLoader = ThumbnailLoader.getShared(getActivity());
+        thumbnailSize = getResources().getDimensionPixelSize(R.dimen.gallery_thumbnail_size);
+        GridView gridView = (GridView) galleryDialogView.findViewById(R.id.galleryGridView);
+        final TextView emptyView =
+                (TextView) galleryDialogView.findViewById(R.id.galleryEmptyTextView);
+
+        adapter = new BaseAdapter() {
+            @Override
+            public int getCount() {
+                return ids.length;
+            }
+
+            @Override
+            public Object getItem(int position) {
+                return ids[position];
+            }
+
+            @Override
+            public long getItemId(int position) {
+                return ids[position];
+            }
+
+            @Override
+            public View getView(int position, View convertView, ViewGroup parent) {
+                // Представления повторно используются при прокрутке
+                ImageView imageView = (ImageView) convertView;
+                if (imageView == null) {
+                    imageView = new ImageView(getActivity());
+                    imageView.setLayoutParams(new AbsListView.LayoutParams(
+                            ViewGroup.LayoutParams.MATCH_PARENT, thumbnailSize));
+                    imageView.setScaleType(ImageView.ScaleType.CENTER_CROP);
+                }
+                thumbnailLoader.load(ids[position], datesTaken[position], thumbnailSize,
+                        imageView);
+                return imageView;
+            }
+        };
+        gridView.setAdapter(adapter);
+        gridView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+            @Override
+            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+                Intent intent = new Intent(Intent.ACTION_VIEW, ContentUris.withAppendedId(
+                        MediaStore.Images.Media.EXTERNAL_CONTENT_URI, id));
+                try {
+                    startActivity(intent);
+                } catch (ActivityNotFoundException e) {
+                    // Нет приложения просмотра изображений
+                }
+            }
+        });
+
+        // Список сохраненных рисунков загружается в фоновом потоке
+        thumbnailLoader.loadSaves(new ThumbnailLoader.SavesCallback() {
+            @Override
+            public void onSavesLoaded(long[] savedIds, long[] savedDates) {
+                ids = savedIds;
+                datesTaken = savedDates;
+                adapter.notifyDataSetChanged();
+                emptyView.setVisibility(ids.length == 0 ? View.VISIBLE : View.GONE);
+            }
+        });
+
+        builder.setPositiveButton(R.string.button_done, null);
+        return builder.create(); // Возвращение диалогового окна
+    }
+
+    // Возвращает ссылку на MainActivityFragment
+    private MainActivityFragment getSketchFragment() {
+        return (MainActivityFragment) getFragmentManager().findFragmentById(
+                R.id.sketchFragment);
+    }
+
+    // Сообщает MainActivityFragment, что диалоговое окно находится на экране
+    @Override
+    public void onAttach(Context context) {
+        super.onAttach(context);
+        MainActivityFragment fragment = getSketchFragment();
+
+        if (fragment != null)
+            fragment.setDialogOnScreen(true);
+    }
+
+    // Сообщает MainActivityFragment, что диалоговое окно не отображается
+    @Override
+    public void onDetach() {
+        super.onDetach();
+        MainActivityFragment fragment = getSketchFragment();
+
+        if (fragment != null)
+            fragment.setDialogOnScreen(false);
+    }
+}
@@ -0,0 +1,252 @@
+package by.kononovich.quicksketch;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.media.MediaScannerConnection;
+import android.net.Uri;
+import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.provider.MediaStore;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сохранение изображений в галерее и документов в папке загрузок в фоновом
+ * потоке. Запросы выполняются по очереди; данные кодируются сразу в поток
+ * вывода, результат сообщается в потоке пользовательского интерфейса
+ */
+
+public class ImageSaver {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Описание изображений приложения в MediaStore (по нему их находит галерея)
+    public static final String DESCRIPTION = "QuickSketch Drawing";
+
+    // Формат сохраняемого изображения
+    public enum Format {
+        PNG(Bitmap.CompressFormat.PNG, "image/png", ".png"),
+        JPEG(Bitmap.CompressFormat.JPEG, "image/jpeg", ".jpg"),
+        WEBP(Bitmap.CompressFormat.WEBP, "image/webp", ".webp");
+
+        private final Bitmap.CompressFormat compressFormat;
+        private final String mimeType;
+        private final String extension;
+
+        Format(Bitmap.CompressFormat compressFormat, String mimeType, String extension) {
+            this.compressFormat = compressFormat;
+            this.mimeType = mimeType;
+            this.extension = extension;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+    }
+
+    // Уведомление о завершении сохранения (вызывается в главном потоке)
+    public interface Callback {
+        void onSaveFinished(Uri uri);  // uri == null - ошибка сохранения
+    }
+
+    // Изображение, собираемое в один Bitmap в потоке сохранения
+    public interface Source {
+        Bitmap toBitmap();
+        void recycle();  // Освобождение данных снимка
+    }
+
+    // Последовательность кадров; кадры выводятся в потоке сохранения
+    public interface Frames {
+        Bitmap next();  // null - кадров больше нет
+        void recycle();  // Освобождение данных кадров
+    }
+
+    // Документ, записываемый в поток вывода в потоке сохранения
+    public interface Document {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    private final ContentResolver contentResolver;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Один фоновый поток; завершается, если сохранений долго нет
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1,
+            30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    return new Thread(runnable, "QuickSketch-save");
+                }
+            });
+
+    public ImageSaver(ContentResolver contentResolver) {
+        this.contentResolver = contentResolver;
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    // Постановка снимка в очередь на сохранение; снимок освобождается после сохранения
+    public void save(final Source snapshot, final String title,
+                     final Format format, final int quality, final Callback callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                final Uri uri = write(snapshot, title, format, quality);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onSaveFinished(uri);
+                    }
+                });
+            }
+        });
+    }
+
+    // Постановка документа в очередь на запись в файл fileName папки загрузок
+    public void saveDocument(final Document document, final String fileName,
+                             final String mimeType, final Context context,
+                             final Callback callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                final Uri uri = writeDocument(document, fileName, mimeType, context);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onSaveFinished(uri);
+                    }
+                });
+            }
+        });
+    }
+
+    // Постановка кадров в очередь на запись в папку directoryName папки загрузок
+    // (файлы frame_00000.png, frame_00001.png и т. д.). Каждый кадр кодируется
+    // до получения следующего, поэтому кадры не накапливаются в памяти
+    public void saveFrames(final Frames frames, final String directoryName,
+                           final Callback callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                final Uri uri = writeFrames(frames, directoryName);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onSaveFinished(uri);
+                    }
+                });
+            }
+        });
+    }
+
+    // Количество сохранений, ожидающих в очереди или выполняющихся
+    public int getPendingCount() {
+        return executor.getQueue().size() + executor.getActiveCount();
+    }
+
+    // Сборка снимка и кодирование в новую запись MediaStore
+    private Uri write(Source snapshot, String title, Format format, int quality) {
+        ContentValues values = new ContentValues();
+        values.put(MediaStore.Images.Media.TITLE, title);
+        values.put(MediaStore.Images.Media.DISPLAY_NAME, title + format.extension);
+        values.put(MediaStore.Images.Media.DESCRIPTION, DESCRIPTION);
+        values.put(MediaStore.Images.Media.MIME_TYPE, format.mimeType);
+        values.put(MediaStore.Images.Media.DATE_ADDED, System.currentTimeMillis() / 1000);
+        values.put(MediaStore.Images.Media.DATE_TAKEN, System.currentTimeMillis());
+
+        Bitmap bitmap = null;
+        Uri uri = null;
+        try {
+            bitmap = snapshot.toBitmap();
+            snapshot.recycle();  // Копии плиток больше не нужны
+
+            uri = contentResolver.insert(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, values);
+            if (uri == null)
+                return null;
+
+            OutputStream out = new BufferedOutputStream(
+                    contentResolver.openOutputStream(uri), BUFFER_SIZE);
+            try {
+                if (!bitmap.compress(format.compressFormat, quality, out))
+                    throw new IOException("Bitmap.compress failed");
+            } finally {
+                out.close();
+            }
+            return uri;
+        } catch (IOException | RuntimeException e) {
+            // Незавершенная запись удаляется из галереи
+            if (uri != null)
+                contentResolver.delete(uri, null, null);
+            return null;
+        } finally {
+            snapshot.recycle();
+            BitmapPool.getShared().release(bitmap);
+        }
+    }
+
+    // Запись документа в файл; файл сообщается медиасканеру, чтобы он был
+    // виден другим приложениям
+    private Uri writeDocument(Document document, String fileName, String mimeType,
+                              Context context) {
+        File directory = Environment.getExternalStoragePublicDirectory(
+                Environment.DIRECTORY_DOWNLOADS);
+        File file = new File(directory, fileName);
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs())
+                return null;
+            OutputStream out = new FileOutputStream(file);
+            try {
+                document.writeTo(out);
+            } finally {
+                out.close();
+            }
+        } catch (IOException | RuntimeException e) {
+            file.delete();  // Незавершенный файл удаляется
+            return null;
+        }
+        MediaScannerConnection.scanFile(context, new String[]{file.getPath()},
+                new String[]{mimeType}, null);
+        return Uri.fromFile(file);
+    }
+
+    // Запись кадров в файлы PNG. Медиасканеру файлы не сообщаются: их может
+    // быть много тысяч, и в галерее они не нужны
+    private Uri writeFrames(Frames frames, String directoryName) {
+        File directory = new File(Environment.getExternalStoragePublicDirectory(
+                Environment.DIRECTORY_DOWNLOADS), directoryName);
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs())
+                return null;
+            int number = 0;
+            for (Bitmap frame = frames.next(); frame != null; frame = frames.next()) {
+                File file = new File(directory, String.format(Locale.US,
+                        "frame_%05d.png", number++));
+                OutputStream out = new BufferedOutputStream(new FileOutputStream(file),
+                        BUFFER_SIZE);
+                try {
+                    if (!frame.compress(Bitmap.CompressFormat.PNG, 100, out))
+                        throw new IOException("Bitmap.compress failed");
+                } finally {
+                    out.close();
+                }
+            }
+            return Uri.fromFile(directory);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        } finally {
+            frames.recycle();
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package by.kononovich.quicksketch;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+
+/**
+ * Слой рисунка: прозрачные плитки, копии для отмены и параметры наложения
+ * (видимость, непрозрачность, режим смешивания). Неактивный слой может
+ * быть выгружен - плитки хранятся сжатыми в PNG, пока слой не понадобится
+ */
+
+public class Layer {
+    // Режим наложения слоя на нижележащие
+    public enum Blend {
+        NORMAL(PorterDuff.Mode.SRC_OVER),
+        MULTIPLY(PorterDuff.Mode.MULTIPLY),
+        SCREEN(PorterDuff.Mode.SCREEN),
+        DARKEN(PorterDuff.Mode.DARKEN),
+        LIGHTEN(PorterDuff.Mode.LIGHTEN),
+        ADD(PorterDuff.Mode.ADD),
+        OVERLAY(PorterDuff.Mode.OVERLAY);
+
+        private final PorterDuff.Mode mode;
+
+        Blend(PorterDuff.Mode mode) {
+            this.mode = mode;
+        }
+    }
+
+    private final int id;  // Постоянный идентификатор (записывается в журнал линий)
+    private final TileStore tiles;
+    private final CheckpointStore checkpoints;
+    private boolean visible = true;
+    private int opacity = 255;
+    private Blend blend = Blend.NORMAL;
+    private final Paint paint = new Paint();  // Наложение слоя при выводе
+    private byte[][] compressed;  // Сжатые плитки выгруженного слоя
+    private long lastUsed;  // Когда слой последний раз был активным
+
+    Layer(int id, int width, int height, float scale, CheckpointStore checkpoints) {
+        this.id = id;
+        this.checkpoints = checkpoints;
+        tiles = new TileStore(width, height, Color.TRANSPARENT, scale);
+        paint.setFilterBitmap(true);  // Уменьшенные плитки растягиваются при выводе
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    // Плитки слоя; выгруженный слой перед этим загружается
+    public TileStore getTiles() {
+        load();
+        return tiles;
+    }
+
+    CheckpointStore getCheckpoints() {
+        return checkpoints;
+    }
+
+    public boolean isVisible() {
+        return visible;
+    }
+
+    void setVisible(boolean visible) {
+        this.visible = visible;
+    }
+
+    public int getOpacity() {
+        return opacity;
+    }
+
+    void setOpacity(int opacity) {
+        this.opacity = Math.max(0, Math.min(255, opacity));
+        paint.setAlpha(this.opacity);
+    }
+
+    public Blend getBlend() {
+        return blend;
+    }
+
+    void setBlend(Blend blend) {
+        this.blend = blend;
+        paint.setXfermode(blend == Blend.NORMAL ? null : new PorterDuffXfermode(blend.mode));
+    }
+
+    // Параметры наложения слоя
+    Paint getPaint() {
+        return paint;
+    }
+
+    // Вывод слоя с его непрозрачностью и режимом наложения
+    void draw(Canvas canvas, Rect clip) {
+        draw(canvas, clip, 0);
+    }
+
+    // Вывод уровня level пирамиды уменьшенных копий (выгруженный слой
+    // выводится исходными плитками: пирамида не хранится сжатой)
+    void draw(Canvas canvas, Rect clip, int level) {
+        if (compressed != null)
+            tiles.drawCompressed(compressed, canvas, clip, paint);
+        else
+            tiles.draw(canvas, clip, paint, level);
+    }
+
+    // Выгрузка плиток в сжатом виде
+    void spill() {
+        if (compressed == null)
+            compressed = tiles.compressTiles();
+    }
+
+    // Загрузка выгруженных плиток
+    void load() {
+        if (compressed != null) {
+            tiles.decompressTiles(compressed);
+            compressed = null;
+        }
+    }
+
+    boolean isSpilled() {
+        return compressed != null;
+    }
+
+    // Объем памяти загруженных плиток (выгруженный слой - 0)
+    long allocatedBytes() {
+        return compressed != null ? 0 : tiles.allocatedBytes();
+    }
+
+    long getLastUsed() {
+        return lastUsed;
+    }
+
+    void setLastUsed(long lastUsed) {
+        this.lastUsed = lastUsed;
+    }
+
+    // Освобождение плиток и копий слоя
+    void release() {
+        compressed = null;
+        tiles.clear();
+        checkpoints.clear();
+    }
+}
@@ -0,0 +1,588 @@
+package by.kononovich.quicksketch;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Стопка слоев над белым листом; линии рисуются на активном слое.
+ * Слои ниже и выше активного хранятся собранными в два Bitmap, поэтому
+ * при рисовании выводятся только они и плитки активного слоя, а не все
+ * слои. Если над активным есть слои с особым режимом наложения, весь
+ * рисунок хранится собранным в третьем Bitmap, в котором после изменения
+ * активного слоя пересобираются только измененные плитки. Неактивные
+ * слои, не помещающиеся в бюджет памяти, выгружаются в сжатом виде
+ * (начиная с давно не использовавшихся). Непрозрачные
+ * изображения (сборка нижних слоев на листе, сохраняемое изображение)
+ * создаются в формате opaqueConfig, например RGB_565 для экономии памяти.
+ * Плитки слоев, сборка слоев выше активного и копии для отмены всегда
+ * ARGB_8888: слоям нужна прозрачность, в том числе нижнему (его можно
+ * скрыть или сделать полупрозрачным), поэтому память плиток уменьшает
+ * только масштаб scale
+ */
+
+public class LayerStack {
+    public static final int MAX_LAYERS = 16;
+
+    private final List<Layer> layers = new ArrayList<>();  // Снизу вверх
+    private int active;  // Индекс активного слоя
+    private int nextId;
+    private int width;
+    private int height;
+    private final float scale;  // Масштаб плиток слоев
+    private final Bitmap.Config opaqueConfig;
+    private final BitmapPool pool = BitmapPool.getShared();
+    private long useCounter;  // Счетчик для выбора давно не использовавшихся слоев
+
+    // Параметры копий для отмены (бюджет делится между слоями) и бюджет плиток слоев
+    private int checkpointInterval;
+    private long checkpointBudget;
+    private long memoryBudget;
+
+    // Собранные слои ниже активного (на белом листе) и выше активного
+    private Bitmap below;
+    private Bitmap above;
+    private boolean belowValid;
+    private boolean aboveValid;
+    // Уровень пирамиды плиток, на котором собраны сборки: сборки хранятся
+    // в том же разрешении, что и плитки этого уровня (масштаб scale / 2^level)
+    private int belowLevel;
+    private int aboveLevel;
+    // Сборка всего рисунка, когда над активным есть слои с особым режимом
+    // наложения, и номер изменения плиток активного слоя, до которого она собрана
+    private Bitmap composite;
+    private boolean compositeValid;
+    private int compositeLevel;
+    private long compositeChanges;
+    private final Rect compositeRegion = new Rect();
+    private final Paint cachePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Rect cacheSource = new Rect();
+    private final RectF cacheTarget = new RectF();
+    private final Paint paperPaint = new Paint();
+    private final Rect imageRect = new Rect();
+
+    public LayerStack(int width, int height, int checkpointInterval, long checkpointBudget,
+                      long memoryBudget) {
+        this(width, height, 1, Bitmap.Config.ARGB_8888, checkpointInterval, checkpointBudget,
+                memoryBudget);
+    }
+
+    public LayerStack(int width, int height, float scale, Bitmap.Config opaqueConfig,
+                      int checkpointInterval, long checkpointBudget, long memoryBudget) {
+        this.width = width;
+        this.height = height;
+        this.scale = scale;
+        this.opaqueConfig = opaqueConfig;
+        this.checkpointInterval = checkpointInterval;
+        this.checkpointBudget = checkpointBudget;
+        this.memoryBudget = memoryBudget;
+        paperPaint.setColor(Color.WHITE);
+        imageRect.set(0, 0, width, height);
+        clear();
+    }
+
+    // Пустая копия стопки: те же слои, размеры и формат хранения, без
+    // содержимого и копий для отмены
+    public LayerStack emptyCopy() {
+        LayerStack copy = new LayerStack(width, height, scale, opaqueConfig,
+                Integer.MAX_VALUE, 0, memoryBudget);
+        copy.restoreState(encodeState());
+        return copy;
+    }
+
+    public float getScale() {
+        return scale;
+    }
+
+    public Bitmap.Config getOpaqueConfig() {
+        return opaqueConfig;
+    }
+
+    public int size() {
+        return layers.size();
+    }
+
+    public Layer get(int index) {
+        return layers.get(index);
+    }
+
+    public Layer getActive() {
+        return layers.get(active);
+    }
+
+    public int getActiveIndex() {
+        return active;
+    }
+
+    // Слой с идентификатором id или null, если слой удален
+    public Layer findById(int id) {
+        for (Layer layer : layers)
+            if (layer.getId() == id)
+                return layer;
+        return null;
+    }
+
+    public int indexOf(Layer layer) {
+        return layers.indexOf(layer);
+    }
+
+    public void setActive(int index) {
+        active = index;
+        Layer layer = layers.get(index);
+        layer.load();
+        layer.setLastUsed(++useCounter);
+        invalidateCaches();
+    }
+
+    // Новый слой над активным; он становится активным (null - слоев слишком много)
+    public Layer add() {
+        if (layers.size() >= MAX_LAYERS)
+            return null;
+        Layer layer = newLayer(nextId++);
+        layers.add(active + 1, layer);
+        setActive(active + 1);
+        updateCheckpointBudgets();
+        return layer;
+    }
+
+    // Удаление слоя (последний слой не удаляется)
+    public boolean remove(int index) {
+        if (layers.size() == 1)
+            return false;
+        layers.remove(index).release();
+        if (index < active || active == layers.size())
+            active--;
+        setActive(active);
+        updateCheckpointBudgets();
+        return true;
+    }
+
+    // Перемещение слоя; активным остается тот же слой
+    public void move(int from, int to) {
+        Layer activeLayer = getActive();
+        layers.add(to, layers.remove(from));
+        active = layers.indexOf(activeLayer);
+        invalidateCaches();
+    }
+
+    public void setVisible(int index, boolean visible) {
+        layers.get(index).setVisible(visible);
+        invalidateCaches();
+    }
+
+    public void setOpacity(int index, int opacity) {
+        layers.get(index).setOpacity(opacity);
+        invalidateCaches();
+    }
+
+    public void setBlend(int index, Layer.Blend blend) {
+        layers.get(index).setBlend(blend);
+        invalidateCaches();
+    }
+
+    // Изменение размеров всех слоев; возвращает true, если изменилась сетка плиток
+    // (копии для отмены при этом удаляются)
+    public boolean resize(int newWidth, int newHeight) {
+        if (newWidth == width && newHeight == height)
+            return false;
+        width = newWidth;
+        height = newHeight;
+        imageRect.set(0, 0, width, height);
+        releaseCaches();
+
+        boolean changed = false;
+        for (Layer layer : layers) {
+            // Сжатые плитки привязаны к прежней сетке
+            if (layer.getTiles().resize(newWidth, newHeight)) {
+                layer.getCheckpoints().clear();
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    // Удаление всех слоев; остается один пустой слой
+    public void clear() {
+        for (Layer layer : layers)
+            layer.release();
+        layers.clear();
+        layers.add(newLayer(0));
+        nextId = 1;
+        setActive(0);
+        updateCheckpointBudgets();
+    }
+
+    // Освобождение плиток, копий и сборок всех слоев (стопка больше не используется)
+    public void release() {
+        for (Layer layer : layers)
+            layer.release();
+        releaseCaches();
+    }
+
+    // Удаление копий для отмены, содержащих больше strokeCount линий
+    public void discardCheckpointsAfter(int strokeCount) {
+        for (Layer layer : layers)
+            layer.getCheckpoints().discardAfter(strokeCount);
+    }
+
+    // Линии removed (номера по возрастанию) слоя layer удалены из журнала:
+    // копии этого слоя, содержащие их, удаляются, в копиях остальных слоев
+    // сдвигаются номера (layer = null - слой удален)
+    public void removeStrokes(Layer layer, int[] removed) {
+        if (layer != null)
+            layer.getCheckpoints().discardAfter(removed[0]);
+        for (Layer other : layers)
+            other.getCheckpoints().removeStrokes(removed);
+    }
+
+    // Линия слоя layer вставлена в журнал на место index (перед линиями
+    // других устройств): копии этого слоя после него удаляются, в копиях
+    // остальных слоев сдвигаются номера
+    public void insertStroke(Layer layer, int index) {
+        if (layer != null)
+            layer.getCheckpoints().discardAfter(index);
+        for (Layer other : layers)
+            other.getCheckpoints().insertStroke(index);
+    }
+
+    public void setCheckpointInterval(int interval) {
+        checkpointInterval = interval;
+        for (Layer layer : layers)
+            layer.getCheckpoints().setInterval(interval);
+    }
+
+    public void setCheckpointMemoryBudget(long bytes) {
+        checkpointBudget = bytes;
+        updateCheckpointBudgets();
+    }
+
+    // Бюджет памяти плиток всех слоев
+    public void setMemoryBudget(long bytes) {
+        memoryBudget = bytes;
+        trimMemory();
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    // Отметка всех плиток активного слоя как измененных; сборки строятся заново
+    public void markAllDirty() {
+        getActive().getTiles().markAllDirty();
+        invalidateCaches();
+    }
+
+    // Содержимое или параметры неактивных слоев изменились
+    public void invalidateCaches() {
+        belowValid = false;
+        aboveValid = false;
+        compositeValid = false;
+    }
+
+    // Вывод листа, слоев ниже активного и активного слоя
+    public void drawBelow(Canvas canvas, Rect clip) {
+        drawBelow(canvas, clip, 1);
+    }
+
+    // Вывод в масштабе zoom: при уменьшении сборка и плитки берутся с уровня
+    // пирамиды уменьшенных копий, а не уменьшаются из исходных при каждом выводе
+    public void drawBelow(Canvas canvas, Rect clip, float zoom) {
+        if (hasBlendedAbove()) {
+            // Слои выше активного уже в сборке всего рисунка (drawAbove ничего
+            // не выводит); рисуемые линии до завершения выводятся поверх нее
+            int level = tileLevel(zoom);
+            ensureComposite(level);
+            drawCache(canvas, composite, clip, level);
+            return;
+        }
+        if (active == 0) {
+            canvas.drawRect(clip, paperPaint);
+        } else {
+            int level = tileLevel(zoom);
+            ensureBelow(level);
+            drawCache(canvas, below, clip, level);
+        }
+        Layer layer = getActive();
+        if (layer.isVisible())
+            layer.draw(canvas, clip, tileLevel(zoom));
+    }
+
+    // Вывод слоев выше активного
+    public void drawAbove(Canvas canvas, Rect clip) {
+        drawAbove(canvas, clip, 1);
+    }
+
+    public void drawAbove(Canvas canvas, Rect clip, float zoom) {
+        if (hasBlendedAbove())
+            return;
+        boolean visible = false;
+        for (int i = active + 1; i < layers.size(); i++)
+            visible |= layers.get(i).isVisible();
+        if (!visible)
+            return;
+        int level = tileLevel(zoom);
+        ensureAbove(level);
+        drawCache(canvas, above, clip, level);
+    }
+
+    // Есть ли над активным видимые слои с режимом, отличным от обычного:
+    // они смешиваются со всеми нижними слоями, поэтому отдельно не собираются
+    private boolean hasBlendedAbove() {
+        for (int i = active + 1; i < layers.size(); i++)
+            if (layers.get(i).isVisible() && layers.get(i).getBlend() != Layer.Blend.NORMAL)
+                return true;
+        return false;
+    }
+
+    // Уровень пирамиды плиток слоев (хранятся в масштабе scale) для вывода
+    // в масштабе zoom
+    private int tileLevel(float zoom) {
+        return ViewTransform.mipLevel(scale, zoom, TileStore.MIP_LEVELS);
+    }
+
+    // Разрешение сборки уровня level относительно изображения
+    private float cacheResolution(int level) {
+        return scale / (1 << level);
+    }
+
+    // Вывод части clip сборки уровня level
+    private void drawCache(Canvas canvas, Bitmap cache, Rect clip, int level) {
+        float resolution = cacheResolution(level);
+        if (resolution == 1) {
+            canvas.drawBitmap(cache, clip, clip, null);
+            return;
+        }
+        cacheSource.set((int) Math.floor(clip.left * resolution),
+                (int) Math.floor(clip.top * resolution),
+                (int) Math.ceil(clip.right * resolution), (int) Math.ceil(clip.bottom * resolution));
+        cacheTarget.set(cacheSource.left / resolution, cacheSource.top / resolution,
+                cacheSource.right / resolution, cacheSource.bottom / resolution);
+        canvas.drawBitmap(cache, cacheSource, cacheTarget, cachePaint);
+    }
+
+    private void ensureBelow(int level) {
+        if (belowValid && belowLevel == level)
+            return;
+        below = obtainCache(below, opaqueConfig, level);
+        below.eraseColor(Color.WHITE);
+        Canvas canvas = cacheCanvas(below, cacheResolution(level));
+        for (int i = 0; i < active; i++)
+            if (layers.get(i).isVisible())
+                layers.get(i).draw(canvas, imageRect, level);
+        belowValid = true;
+        belowLevel = level;
+        trimMemory();
+    }
+
+    private void ensureAbove(int level) {
+        if (aboveValid && aboveLevel == level)
+            return;
+        above = obtainCache(above, Bitmap.Config.ARGB_8888, level);
+        above.eraseColor(Color.TRANSPARENT);
+        Canvas canvas = cacheCanvas(above, cacheResolution(level));
+        for (int i = active + 1; i < layers.size(); i++)
+            if (layers.get(i).isVisible())
+                layers.get(i).draw(canvas, imageRect, level);
+        aboveValid = true;
+        aboveLevel = level;
+        trimMemory();
+    }
+
+    // Сборка всего рисунка; после изменения только активного слоя
+    // пересобираются его измененные плитки. Слои выше активного нужны при
+    // каждой пересборке, поэтому они загружаются и выгружаются последними
+    private void ensureComposite(int level) {
+        TileStore tiles = getActive().getTiles();
+        compositeRegion.setEmpty();
+        if (compositeValid && compositeLevel == level) {
+            if (!tiles.collectChangedSince(compositeChanges, compositeRegion))
+                return;
+        } else {
+            composite = obtainCache(composite, opaqueConfig, level);
+            compositeRegion.set(imageRect);
+            for (int i = active + 1; i < layers.size(); i++) {
+                if (layers.get(i).isVisible()) {
+                    layers.get(i).load();
+                    layers.get(i).setLastUsed(++useCounter);
+                }
+            }
+        }
+        compositeChanges = tiles.getChangeCount();
+
+        Canvas canvas = cacheCanvas(composite, cacheResolution(level));
+        canvas.clipRect(compositeRegion);
+        if (active == 0) {
+            canvas.drawRect(compositeRegion, paperPaint);
+        } else {
+            ensureBelow(level);
+            drawCache(canvas, below, compositeRegion, level);
+        }
+        for (int i = active; i < layers.size(); i++)
+            if (layers.get(i).isVisible())
+                layers.get(i).draw(canvas, compositeRegion, level);
+        compositeValid = true;
+        compositeLevel = level;
+        trimMemory();
+    }
+
+    // Canvas сборки в координатах изображения
+    private static Canvas cacheCanvas(Bitmap cache, float resolution) {
+        Canvas canvas = new Canvas(cache);
+        canvas.scale(resolution, resolution);
+        return canvas;
+    }
+
+    // Bitmap сборки уровня level: в режиме экономии памяти сборки, как и
+    // плитки, меньше изображения (прежний Bitmap используется повторно)
+    private Bitmap obtainCache(Bitmap cache, Bitmap.Config config, int level) {
+        float resolution = cacheResolution(level);
+        int cacheWidth = Math.max(1, (int) Math.ceil(width * resolution));
+        int cacheHeight = Math.max(1, (int) Math.ceil(height * resolution));
+        if (cache != null && cache.getWidth() == cacheWidth && cache.getHeight() == cacheHeight)
+            return cache;
+        pool.release(cache);
+        return pool.obtain(cacheWidth, cacheHeight, config);
+    }
+
+    // Сборки возвращаются в пул (например, при изменении размеров)
+    private void releaseCaches() {
+        pool.release(below);
+        pool.release(above);
+        pool.release(composite);
+        below = null;
+        above = null;
+        composite = null;
+        invalidateCaches();
+    }
+
+    // Выгрузка давно не использовавшихся неактивных слоев, пока плитки
+    // всех слоев не поместятся в бюджет; активный слой всегда загружен
+    private void trimMemory() {
+        long used = 0;
+        for (Layer layer : layers)
+            used += layer.allocatedBytes();
+
+        while (used > memoryBudget) {
+            Layer oldest = null;
+            for (Layer layer : layers)
+                if (layer != getActive() && layer.allocatedBytes() > 0 &&
+                        (oldest == null || layer.getLastUsed() < oldest.getLastUsed()))
+                    oldest = layer;
+            if (oldest == null)
+                return;
+            used -= oldest.allocatedBytes();
+            oldest.spill();
+        }
+    }
+
+    private Layer newLayer(int id) {
+        return new Layer(id, width, height, scale,
+                new CheckpointStore(checkpointInterval, checkpointBudget));
+    }
+
+    // Бюджет копий для отмены делится поровну между слоями
+    private void updateCheckpointBudgets() {
+        for (Layer layer : layers)
+            layer.getCheckpoints().setMemoryBudget(checkpointBudget / layers.size());
+    }
+
+    // Описание слоев (без содержимого) для журнала: следующий идентификатор,
+    // идентификатор активного слоя, количество слоев и для каждого -
+    // идентификатор, видимость, непрозрачность и режим наложения
+    public int[] encodeState() {
+        int[] state = new int[3 + layers.size() * 4];
+        state[0] = nextId;
+        state[1] = getActive().getId();
+        state[2] = layers.size();
+        for (int i = 0; i < layers.size(); i++) {
+            Layer layer = layers.get(i);
+            state[3 + i * 4] = layer.getId();
+            state[4 + i * 4] = layer.isVisible() ? 1 : 0;
+            state[5 + i * 4] = layer.getOpacity();
+            state[6 + i * 4] = layer.getBlend().ordinal();
+        }
+        return state;
+    }
+
+    // Пустые слои по описанию encodeState (содержимое повторяется из журнала линий)
+    public void restoreState(int[] state) {
+        if (state == null || state.length < 3 || state[2] < 1 ||
+                state.length < 3 + state[2] * 4)
+            return;
+
+        for (Layer layer : layers)
+            layer.release();
+        layers.clear();
+        Layer.Blend[] blends = Layer.Blend.values();
+        int activeIndex = 0;
+        for (int i = 0; i < state[2]; i++) {
+            Layer layer = newLayer(state[3 + i * 4]);
+            layer.setVisible(state[4 + i * 4] != 0);
+            layer.setOpacity(state[5 + i * 4]);
+            int blend = state[6 + i * 4];
+            layer.setBlend(blend < blends.length ? blends[blend] : Layer.Blend.NORMAL);
+            if (layer.getId() == state[1])
+                activeIndex = i;
+            layers.add(layer);
+        }
+        nextId = state[0];
+        setActive(activeIndex);
+        updateCheckpointBudgets();
+    }
+
+    // Снимок видимых слоев для сохранения; слои собираются в потоке сохранения
+    public ImageSaver.Source snapshot() {
+        List<TileStore.Snapshot> snapshots = new ArrayList<>();
+        List<Paint> paints = new ArrayList<>();
+        for (Layer layer : layers) {
+            if (layer.isVisible()) {
+                snapshots.add(layer.getTiles().snapshot());
+                paints.add(new Paint(layer.getPaint()));
+            }
+        }
+        trimMemory();
+        return new Snapshot(snapshots, paints, width, height, opaqueConfig);
+    }
+
+    // Копии плиток видимых слоев и их параметры наложения
+    private static class Snapshot implements ImageSaver.Source {
+        private final List<TileStore.Snapshot> layers;
+        private final List<Paint> paints;
+        private final int width;
+        private final int height;
+        private final Bitmap.Config config;
+
+        Snapshot(List<TileStore.Snapshot> layers, List<Paint> paints, int width, int height,
+                 Bitmap.Config config) {
+            this.layers = layers;
+            this.paints = paints;
+            this.width = width;
+            this.height = height;
+            this.config = config;
+        }
+
+        // Плитки слоев не перекрываются, поэтому каждая выводится прямо
+        // на лист с параметрами наложения слоя, без сборки слоя целиком
+        @Override
+        public Bitmap toBitmap() {
+            Bitmap bitmap = BitmapPool.getShared().obtain(width, height, config);
+            bitmap.eraseColor(Color.WHITE);
+            Canvas canvas = new Canvas(bitmap);
+            for (int i = 0; i < layers.size(); i++)
+                layers.get(i).draw(canvas, paints.get(i));
+            return bitmap;
+        }
+
+        @Override
+        public void recycle() {
+            for (TileStore.Snapshot layer : layers)
+                layer.recycle();
+        }
+    }
+}
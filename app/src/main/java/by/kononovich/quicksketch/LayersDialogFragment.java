@@ -0,0 +1,192 @@
+package by.kononovich.quicksketch;
+
+import android.app.AlertDialog;
+import android.app.Dialog;
+import android.content.Context;
+import android.os.Bundle;
+import android.support.v4.app.DialogFragment;
+import android.view.View;
+import android.widget.AdapterView;
+import android.widget.ArrayAdapter;
+import android.widget.Button;
+import android.widget.CheckBox;
+import android.widget.CompoundButton;
+import android.widget.ListView;
+import android.widget.SeekBar;
+import android.widget.SeekBar.OnSeekBarChangeListener;
+import android.widget.Spinner;
+
+// Используется для выбора активного слоя и настройки слоев;
+// изменения применяются сразу
+public class LayersDialogFragment extends DialogFragment {
+    private SketchEngine sketchEngine;
+    private ArrayAdapter<String> layerAdapter;
+    private ListView layerListView;
+    private CheckBox visibleCheckBox;
+    private SeekBar opacitySeekBar;
+    private Spinner blendSpinner;
+    private Button removeButton;
+    private Button raiseButton;
+    private Button lowerButton;
+
+    @Override
+    public Dialog onCreateDialog(Bundle bundle) {
+        // Создание диалогового окна
+        AlertDialog.Builder builder =
+                new AlertDialog.Builder(getActivity());
+        View layersDialogView =
+                getActivity().getLayoutInflater().inflate(
+                        R.layout.fragment_layers, null);
+        builder.setView(layersDialogView);
+
+        // Назначение сообщения AlertDialog
+        builder.setTitle(R.string.title_layers_dialog);
+
+        sketchEngine = getSketchFragment().getSketchEngine();
+        layerListView = (ListView) layersDialogView.findViewById(R.id.layerListView);
+        visibleCheckBox = (CheckBox) layersDialogView.findViewById(R.id.layerVisibleCheckBox);
+        opacitySeekBar = (SeekBar) layersDialogView.findViewById(R.id.layerOpacitySeekBar);
+        blendSpinner = (Spinner) layersDialogView.findViewById(R.id.layerBlendSpinner);
+        removeButton = (Button) layersDialogView.findViewById(R.id.removeLayerButton);
+        raiseButton = (Button) layersDialogView.findViewById(R.id.raiseLayerButton);
+        lowerButton = (Button) layersDialogView.findViewById(R.id.lowerLayerButton);
+        Button addButton = (Button) layersDialogView.findViewById(R.id.addLayerButton);
+
+        layerAdapter = new ArrayAdapter<>(getActivity(),
+                android.R.layout.simple_list_item_single_choice);
+        layerListView.setAdapter(layerAdapter);
+        layerListView.setOnItemClickListener(layerSelected);
+        visibleCheckBox.setOnCheckedChangeListener(visibleChanged);
+        opacitySeekBar.setOnSeekBarChangeListener(opacityChanged);
+        blendSpinner.setOnItemSelectedListener(blendChanged);
+        addButton.setOnClickListener(buttonClicked);
+        removeButton.setOnClickListener(buttonClicked);
+        raiseButton.setOnClickListener(buttonClicked);
+        lowerButton.setOnClickListener(buttonClicked);
+        updateViews();
+
+        builder.setPositiveButton(R.string.button_done, null);
+        return builder.create(); // Возвращение диалогового окна
+    }
+
+    // Список показывает слои сверху вниз
+    private int toLayerIndex(int position) {
+        return sketchEngine.getLayerCount() - 1 - position;
+    }
+
+    // Заполнение списка и элементов управления по активному слою
+    private void updateViews() {
+        int count = sketchEngine.getLayerCount();
+        int active = sketchEngine.getActiveLayerIndex();
+        layerAdapter.clear();
+        for (int i = count - 1; i >= 0; i--)
+            layerAdapter.add(getString(R.string.layer_name, sketchEngine.getLayerId(i) + 1));
+        layerListView.setItemChecked(count - 1 - active, true);
+
+        visibleCheckBox.setChecked(sketchEngine.isLayerVisible(active));
+        opacitySeekBar.setProgress(sketchEngine.getLayerOpacity(active));
+        blendSpinner.setSelection(sketchEngine.getLayerBlend(active).ordinal());
+        removeButton.setEnabled(count > 1);
+        raiseButton.setEnabled(active < count - 1);
+        lowerButton.setEnabled(active > 0);
+    }
+
+    // Возвращает ссылку на MainActivityFragment
+    private MainActivityFragment getSketchFragment() {
+        return (MainActivityFragment) getFragmentManager().findFragmentById(
+                R.id.sketchFragment);
+    }
+
+    // Сообщает MainActivityFragment, что диалоговое окно находится на экране
+    @Override
+    public void onAttach(Context context) {
+        super.onAttach(context);
+        MainActivityFragment fragment = getSketchFragment();
+
+        if (fragment != null)
+            fragment.setDialogOnScreen(true);
+    }
+
+    // Сообщает MainActivityFragment, что диалоговое окно не отображается
+    @Override
+    public void onDetach() {
+        super.onDetach();
+        MainActivityFragment fragment = getSketchFragment();
+
+        if (fragment != null)
+            fragment.setDialogOnScreen(false);
+    }
+
+    // Выбор активного слоя
+    private final AdapterView.OnItemClickListener layerSelected =
+            new AdapterView.OnItemClickListener() {
+                @Override
+                public void onItemClick(AdapterView<?> parent, View view, int position,
+                                        long id) {
+                    sketchEngine.setActiveLayer(toLayerIndex(position));
+                    updateViews();
+                }
+            };
+
+    // Добавление, удаление и перемещение активного слоя
+    private final View.OnClickListener buttonClicked = new View.OnClickListener() {
+        @Override
+        public void onClick(View view) {
+            int active = sketchEngine.getActiveLayerIndex();
+            switch (view.getId()) {
+                case R.id.addLayerButton:
+                    sketchEngine.addLayer();
+                    break;
+                case R.id.removeLayerButton:
+                    sketchEngine.removeLayer(active);
+                    break;
+                case R.id.raiseLayerButton:
+                    sketchEngine.moveLayer(active, active + 1);
+                    break;
+                case R.id.lowerLayerButton:
+                    sketchEngine.moveLayer(active, active - 1);
+                    break;
+            }
+            updateViews();
+        }
+    };
+
+    private final CompoundButton.OnCheckedChangeListener visibleChanged =
+            new CompoundButton.OnCheckedChangeListener() {
+                @Override
+                public void onCheckedChanged(CompoundButton button, boolean checked) {
+                    int active = sketchEngine.getActiveLayerIndex();
+                    if (sketchEngine.isLayerVisible(active) != checked)
+                        sketchEngine.setLayerVisible(active, checked);
+                }
+            };
+
+    private final OnSeekBarChangeListener opacityChanged = new OnSeekBarChangeListener() {
+        @Override
+        public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
+            if (fromUser)  // Изменено пользователем (не программой)
+                sketchEngine.setLayerOpacity(sketchEngine.getActiveLayerIndex(), progress);
+        }
+
+        @Override
+        public void onStartTrackingTouch(SeekBar seekBar) {}
+
+        @Override
+        public void onStopTrackingTouch(SeekBar seekBar) {}
+    };
+
+    private final AdapterView.OnItemSelectedListener blendChanged =
+            new AdapterView.OnItemSelectedListener() {
+                @Override
+                public void onItemSelected(AdapterView<?> parent, View view, int position,
+                                           long id) {
+                    int active = sketchEngine.getActiveLayerIndex();
+                    Layer.Blend blend = Layer.Blend.values()[position];
+                    if (sketchEngine.getLayerBlend(active) != blend)
+                        sketchEngine.setLayerBlend(active, blend);
+                }
+
+                @Override
+                public void onNothingSelected(AdapterView<?> parent) {}
+            };
+}
@@ -6,19 +6,35 @@ import android.content.Context;
 import android.content.DialogInterface;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Paint;
 import android.os.Build;
 import android.os.Bundle;
 import android.support.v4.app.DialogFragment;
 import android.support.v4.content.ContextCompat;
 import android.view.View;
+import android.widget.AdapterView;
 import android.widget.ImageView;
 import android.widget.SeekBar;
 import android.widget.SeekBar.OnSeekBarChangeListener;
+import android.widget.Spinner;
+import android.widget.TextView;
 
-// Используется для выбора толщины линии
+// Используется для выбора толщины линии и кисти
 public class LineWidthDialogFragment extends DialogFragment {
     private ImageView widthImageView;
+    private SeekBar widthSeekBar;
+    private Spinner brushSpinner;
+    private SeekBar hardnessSeekBar;
+    private TextView hardnessTextView;
+
+    // Образец линии выбранной кистью; Bitmap берется из пула и
+    // возвращается в него при закрытии окна
+    private Bitmap bitmap;
+    private Canvas canvas;
+    private final BrushTipCache tipCache = new BrushTipCache(1024 * 1024);
+    private final BrushStamper stamper = new BrushStamper();
+    private Bitmap previewTip;
 
     @Override
     public Dialog onCreateDialog(Bundle bundle) {
@@ -34,19 +50,30 @@ public class LineWidthDialogFragment extends DialogFragment {
         builder.setTitle(R.string.title_line_width_dialog);
 
         widthImageView = (ImageView) lineWidthDialogView.findViewById(R.id.widthImageView);
-
-        // Настройка widthSeekBar
-        final QuickSketchView quickSketchView = getSketchFragment().getQuickSketchView();
-        final SeekBar widthSeekBar = (SeekBar)
-                lineWidthDialogView.findViewById(R.id.widthSeekBar);
+        bitmap = BitmapPool.getShared().obtain(400, 100, Bitmap.Config.ARGB_8888);
+        canvas = new Canvas(bitmap);
+
+        // Настройка widthSeekBar, выбора кисти и жесткости
+        final SketchEngine sketchEngine = getSketchFragment().getSketchEngine();
+        Brush brush = sketchEngine.getBrush();
+        widthSeekBar = (SeekBar) lineWidthDialogView.findViewById(R.id.widthSeekBar);
+        brushSpinner = (Spinner) lineWidthDialogView.findViewById(R.id.brushSpinner);
+        hardnessSeekBar = (SeekBar) lineWidthDialogView.findViewById(R.id.hardnessSeekBar);
+        hardnessTextView = (TextView) lineWidthDialogView.findViewById(R.id.hardnessTextView);
+        brushSpinner.setSelection(brush.getShape().ordinal());
+        hardnessSeekBar.setProgress(brush.getHardness());
+        widthSeekBar.setProgress(sketchEngine.getLineWidth());
         widthSeekBar.setOnSeekBarChangeListener(lineWidthChanged);
-        widthSeekBar.setProgress(quickSketchView.getLineWidth());
+        hardnessSeekBar.setOnSeekBarChangeListener(lineWidthChanged);
+        brushSpinner.setOnItemSelectedListener(brushChanged);
+        updatePreview();
 
         // Добавление кнопк
         builder.setPositiveButton(R.string.button_set_line_width,
                 new DialogInterface.OnClickListener() {
                     public void onClick(DialogInterface dialog, int id) {
-                        quickSketchView.setLineWidth(widthSeekBar.getProgress());
+                        sketchEngine.setLineWidth(widthSeekBar.getProgress());
+                        sketchEngine.setBrush(getSelectedBrush());
                     }
                 }
         );
@@ -70,6 +97,14 @@ public class LineWidthDialogFragment extends DialogFragment {
             fragment.setDialogOnScreen(true);
     }
 
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        widthImageView.setImageDrawable(null);
+        BitmapPool.getShared().release(bitmap);
+        bitmap = null;
+    }
+
     @Override
     public void onDetach() {
         super.onDetach();
@@ -79,33 +114,88 @@ public class LineWidthDialogFragment extends DialogFragment {
             fragment.setDialogOnScreen(false);
     }
 
-    // OnSeekBarChangeListener для SeekBar в диалоговом окне толщины линии
+    // Кисть, выбранная в диалоговом окне
+    private Brush getSelectedBrush() {
+        Brush.Shape shape = Brush.Shape.values()[brushSpinner.getSelectedItemPosition()];
+        return shape == Brush.Shape.LINE ? Brush.LINE :
+                new Brush(shape, hardnessSeekBar.getProgress());
+    }
+
+    // Перерисовка образца линии для текущих толщины и кисти
+    private void updatePreview() {
+        int width = widthSeekBar.getProgress();
+        int color = getSketchFragment().getSketchEngine().getDrawingColor();
+        Brush brush = getSelectedBrush();
+        // Для заливки второй ползунок задает допуск цвета
+        hardnessSeekBar.setEnabled(brush.getShape() != Brush.Shape.LINE && !brush.isEraser());
+        hardnessTextView.setText(brush.isFill() ? R.string.label_tolerance : R.string.label_hardness);
+
+        // Стирание объекта Bitmap и перерисовка линии
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            bitmap.eraseColor(
+                    getResources().getColor(android.R.color.transparent,
+                            getContext().getTheme()));
+        } else {
+            bitmap.eraseColor(
+                    ContextCompat.getColor(getContext(), android.R.color.transparent));
+
+        }
+
+        if (brush.isStamped()) {
+            // Отпечатки кончика из кэша, как при рисовании
+            previewTip = tipCache.get(brush, width, color);
+            stamper.begin(30, 50, brush.getSpacing(width), previewTarget);
+            stamper.lineTo(370, 50, previewTarget);
+        } else if (brush.isEraser()) {
+            // Образец ластика - его контур
+            Paint p = new Paint();
+            p.setAntiAlias(true);
+            p.setStyle(Paint.Style.STROKE);
+            p.setColor(Color.GRAY);
+            canvas.drawCircle(200, 50, Math.max(width / 2f, 2), p);
+        } else if (brush.isFill()) {
+            // Образец заливки - прямоугольник цветом рисования
+            Paint p = new Paint();
+            p.setColor(color);
+            canvas.drawRect(30, 20, 370, 80, p);
+        } else {
+            // Настройка объекта Paint для текущего значения SeekBar
+            Paint p = new Paint();
+            p.setColor(color);
+            p.setStrokeCap(Paint.Cap.ROUND);
+            p.setStrokeWidth(width);
+            canvas.drawLine(30, 50, 370, 50, p);
+        }
+        widthImageView.setImageBitmap(bitmap);
+    }
+
+    private final BrushStamper.Target previewTarget = new BrushStamper.Target() {
+        @Override
+        public void stamp(float x, float y) {
+            canvas.drawBitmap(previewTip, x - previewTip.getWidth() / 2f,
+                    y - previewTip.getHeight() / 2f, null);
+        }
+    };
+
+    // OnItemSelectedListener для выбора кисти
+    private final AdapterView.OnItemSelectedListener brushChanged =
+            new AdapterView.OnItemSelectedListener() {
+                @Override
+                public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                    updatePreview();
+                }
+
+                @Override
+                public void onNothingSelected(AdapterView<?> parent) {
+                } // required
+            };
+
+    // OnSeekBarChangeListener для толщины линии и жесткости кисти
     private final OnSeekBarChangeListener lineWidthChanged =
             new OnSeekBarChangeListener() {
-                final Bitmap bitmap = Bitmap.createBitmap(
-                        400, 100, Bitmap.Config.ARGB_8888);
-                final Canvas canvas = new Canvas(bitmap);
-
                 @Override
                 public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
-                    // Настройка объекта Paint для текущего значения SeekBar
-                    Paint p = new Paint();
-                    p.setColor(getSketchFragment().getQuickSketchView().getDrawingColor());
-                    p.setStrokeCap(Paint.Cap.ROUND);
-                    p.setStrokeWidth(progress);
-
-                    // Стирание объекта Bitmap и перерисовка линии
-                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-                        bitmap.eraseColor(
-                                getResources().getColor(android.R.color.transparent,
-                                        getContext().getTheme()));
-                    } else {
-                        bitmap.eraseColor(
-                                ContextCompat.getColor(getContext(), android.R.color.transparent));
-
-                    }
-                    canvas.drawLine(30, 50, 370, 50, p);
-                    widthImageView.setImageBitmap(bitmap);
+                    updatePreview();
                 }
 
                 @Override
@@ -117,5 +207,3 @@ public class LineWidthDialogFragment extends DialogFragment {
                 } // required
             };
 }
-
-
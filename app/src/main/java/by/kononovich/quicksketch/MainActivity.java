@@ -6,6 +6,10 @@ import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
 import android.support.v7.widget.Toolbar;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.Arrays;
+
 public class MainActivity extends AppCompatActivity {
 
     @Override
@@ -27,4 +31,16 @@ public class MainActivity extends AppCompatActivity {
             setRequestedOrientation(
                     ActivityInfo.SCREEN_ORIENTATION_PORTRAIT);
     }
+
+    // Показатели производительности рисования:
+    // adb shell dumpsys activity by.kononovich.quicksketch [--json]
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        MainActivityFragment fragment = (MainActivityFragment)
+                getSupportFragmentManager().findFragmentById(R.id.sketchFragment);
+        if (fragment != null && fragment.getSketchEngine() != null)
+            fragment.getSketchEngine().dumpMetrics(prefix, writer,
+                    args != null && Arrays.asList(args).contains("--json"));
+    }
 }
@@ -2,15 +2,15 @@ package by.kononovich.quicksketch;
 
 import android.Manifest;
 import android.app.AlertDialog;
-import android.content.Context;
+import android.app.ProgressDialog;
 import android.content.DialogInterface;
+import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
-import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
-import android.hardware.SensorManager;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.preference.PreferenceManager;
 import android.support.v4.app.Fragment;
 import android.view.LayoutInflater;
 import android.view.Menu;
@@ -18,56 +18,127 @@ import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.Toast;
 
 public class MainActivityFragment extends Fragment {
-    private QuickSketchView quickSketchView;  // Обработка событий касания и рисования
-    private float acceleration;          // используются для пересчета изменений в
-    private float currentAcceleration;   //  ускорении устройства
-    private float lastAcceleration;    // для выявления события встряхивания
+    private SketchEngine sketchEngine;  // Обработка событий касания и рисования
+    private ShakeSensor shakeSensor;    // для выявления события встряхивания
     private boolean dialogOnScreen = false; // для предотвращения одновременного появления нескольких диалоговых окон
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private ProgressDialog fillProgressDialog;  // Ход долгой заливки
+    private VectorExporter.Format exportFormat;  // null - сохранение изображения в галерее
+    private float timeLapseSpeed;  // Больше 0 - сохранение кадров воспроизведения
 
-    // Используется для обнаружения встряхивания устройства (средняя величина для многих устройств)
-    private static final int ACCELERATION_THRESHOLD = 100000;
+    // Окно хода заливки появляется, только если заливка идет дольше этого времени
+    private static final long FILL_PROGRESS_DELAY = 300;
 
     // Используется для идентификации запросов на использование
     // внешнего хранилища; необходимо для работы функции сохранения
     private static final int SAVE_IMAGE_PERMISSION_REQUEST_CODE = 1;
 
+    // Ключи для сохранения параметров рисования в Bundle
+    private static final String KEY_DRAWING_COLOR = "drawing_color";
+    private static final String KEY_LINE_WIDTH = "line_width";
+    private static final String KEY_BRUSH = "brush";
+    // Тег фрагмента, хранящего рисунок при изменении конфигурации
+    private static final String STATE_FRAGMENT_TAG = "sketch state";
+    // Настройка: выводить рисунок в отдельном потоке
+    private static final String PREF_RENDER_THREAD = "render_thread";
+    // Настройка: измерять задержку и выводить окно показателей
+    private static final String PREF_METRICS = "metrics";
+    // Настройка: режим экономии памяти (если не задана - по объему памяти устройства)
+    private static final String PREF_LOW_MEMORY = "low_memory";
+    // Настройки: подключаться к общему холсту и адрес ретранслятора
+    private static final String PREF_SHARE = "share";
+    private static final String PREF_SHARE_ADDRESS = "share_address";
+    private static final int DEFAULT_SHARE_PORT = 7070;
+
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
                              Bundle savedInstanceState) {
         super.onCreateView(inflater, container, savedInstanceState);
-        View view = inflater.inflate(R.layout.fragment_main, container, false);
+        // Поверхность рисования выбирается в настройках: вывод в потоке
+        // интерфейса (QuickSketchView) или в отдельном потоке (QuickSketchSurfaceView)
+        View view = inflater.inflate(isRenderThreadEnabled() ?
+                R.layout.fragment_main_surface : R.layout.fragment_main, container, false);
 
         setHasOptionsMenu(true); // у фрагмента имеются команды меню
 
-        quickSketchView = (QuickSketchView) view.findViewById(R.id.sketchView);
+        sketchEngine = ((SketchSurface) view.findViewById(R.id.sketchView)).getEngine();
+
+        // Рисунок, оставшийся от прежнего экземпляра представления
+        SketchStateFragment stateFragment = getStateFragment();
+        if (stateFragment == null) {
+            getFragmentManager().beginTransaction()
+                    .add(new SketchStateFragment(), STATE_FRAGMENT_TAG).commit();
+        } else if (stateFragment.getState() != null) {
+            sketchEngine.restoreState(stateFragment.getState());
+        }
+
+        // Параметры рисования (рисунок после завершения процесса восстанавливается из журнала)
+        if (savedInstanceState != null) {
+            sketchEngine.setDrawingColor(
+                    savedInstanceState.getInt(KEY_DRAWING_COLOR, sketchEngine.getDrawingColor()));
+            sketchEngine.setLineWidth(
+                    savedInstanceState.getInt(KEY_LINE_WIDTH, sketchEngine.getLineWidth()));
+            sketchEngine.setBrush(Brush.decode(
+                    savedInstanceState.getInt(KEY_BRUSH, sketchEngine.getBrush().encode())));
+        }
+
+        // События акселерометра обрабатываются в отдельном потоке,
+        // о встряхивании сообщается в потоке интерфейса
+        shakeSensor = new ShakeSensor(getActivity(), new ShakeDetector.Listener() {
+            @Override
+            public void onShake() {
+                // Проверяем нет ли на экране других диалоговых окон
+                if (!dialogOnScreen && isResumed())
+                    confirmErase();
+            }
+        }, handler);
 
-        // Инициализация параметров ускорения
-        acceleration = 0.00f;
-        currentAcceleration = SensorManager.GRAVITY_EARTH;
-        lastAcceleration = SensorManager.GRAVITY_EARTH;
+        sketchEngine.setFillListener(fillListener);
+        if (isMetricsEnabled())
+            sketchEngine.setMetricsOverlayVisible(true);
+        SharedPreferences preferences =
+                PreferenceManager.getDefaultSharedPreferences(getActivity());
+        if (preferences.contains(PREF_LOW_MEMORY))
+            sketchEngine.setLowMemoryMode(preferences.getBoolean(PREF_LOW_MEMORY, false));
 
         return view;
     }
 
+    // Сохранение состояния: в Bundle только параметры рисования,
+    // сам рисунок передается через сохраняемый фрагмент
+    @Override
+    public void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putInt(KEY_DRAWING_COLOR, sketchEngine.getDrawingColor());
+        outState.putInt(KEY_LINE_WIDTH, sketchEngine.getLineWidth());
+        outState.putInt(KEY_BRUSH, sketchEngine.getBrush().encode());
+
+        SketchStateFragment stateFragment = getStateFragment();
+        if (stateFragment != null)
+            stateFragment.setState(sketchEngine.retainState());
+    }
+
+    private SketchStateFragment getStateFragment() {
+        return (SketchStateFragment) getFragmentManager()
+                .findFragmentByTag(STATE_FRAGMENT_TAG);
+    }
+
     // Начало прослушивания событий датчика
     @Override
     public void onResume() {
         super.onResume();
         enableAccelerometerListening(); // Прослушивание события встряхивания
+        if (PreferenceManager.getDefaultSharedPreferences(getActivity())
+                .getBoolean(PREF_SHARE, false))
+            connectSharing(getShareAddress());
     }
 
     // Прослушивание события встряхивания
     private void enableAccelerometerListening() {
-        // Получение объекта SensorManager
-        SensorManager sensorManager = (SensorManager) getActivity()
-                .getSystemService(Context.SENSOR_SERVICE);
-
-        // Регистрация для прослушивания событий акселерометра
-        sensorManager.registerListener(sensorEventListener,    // объект, реагирующий на события
-                sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER),   // определяем тип датчика
-                SensorManager.SENSOR_DELAY_NORMAL);   // опеределяем частоту получения событий датчика (по умолчанию)
+        shakeSensor.start();
     }
 
     // Прекращение прослушивания событий акселерометра
@@ -75,54 +146,62 @@ public class MainActivityFragment extends Fragment {
     public void onPause() {
         super.onPause();
         disableAccelerometerListening();  // Прекращение прослушивания
+        sketchEngine.cancelFill();  // Незавершенная заливка не переживает уход с экрана
+        sketchEngine.stopTimeLapse();
+        sketchEngine.stopSharing();  // Соединение восстанавливается при возврате
     }
 
     private void disableAccelerometerListening() {
-
-        SensorManager sensorManager = (SensorManager) getActivity()
-                .getSystemService(Context.SENSOR_SERVICE);
-
-        // Прекращение прослушивания событий акселерометра
-        sensorManager.unregisterListener(sensorEventListener,
-                sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER));
+        shakeSensor.stop();
     }
 
-    // Обработчик для событий акселерометра
-    private final SensorEventListener sensorEventListener =
-            new SensorEventListener() {
-                // Проверка встряхивания по показаниям акселерометра
-                @Override
-                public void onSensorChanged(SensorEvent event) {
-                    // Проверяем нет ли на экране других диалоговых окон
-                    if (!dialogOnScreen) {
-                        // Получить значения x, y и z для SensorEvent
-                        float x = event.values[0];
-                        float y = event.values[1];
-                        float z = event.values[2];
-
-                        // Сохранить предыдущие данные ускорения
-                        lastAcceleration = currentAcceleration;
-
-                        // Вычислить текущее ускорение в м/с2
-                        // в направлениях x (влево/вправо), y (вверх/ вниз) и z (вперед/назад)
-                        currentAcceleration = x * x + y * y + z * z;
-
-                        // Вычислить изменение ускорения
-                        acceleration = currentAcceleration *
-                                (currentAcceleration - lastAcceleration);
-
-                        // Если изменение превышает заданный порог - пользователь перемещает устройство
-                        // достаточно быстро и перемещение может интерпретироваться как встряхивание.
-                        if (acceleration > ACCELERATION_THRESHOLD)
-                            confirmErase();
-                    }
-                }
+    // Отображение хода заливки с возможностью отмены
+    private final SketchEngine.FillListener fillListener = new SketchEngine.FillListener() {
+        @Override
+        public void onFillStarted() {
+            handler.postDelayed(showFillProgress, FILL_PROGRESS_DELAY);
+        }
+
+        @Override
+        public void onFillProgress(int percent) {
+            if (fillProgressDialog != null)
+                fillProgressDialog.setProgress(percent);
+        }
 
-                // Обязательный метод интерфейса SensorEventListener  - без изменений
+        @Override
+        public void onFillFinished() {
+            handler.removeCallbacks(showFillProgress);
+            if (fillProgressDialog != null) {
+                fillProgressDialog.dismiss();
+                fillProgressDialog = null;
+            }
+        }
+    };
+
+    private final Runnable showFillProgress = new Runnable() {
+        @Override
+        public void run() {
+            fillProgressDialog = new ProgressDialog(getActivity());
+            fillProgressDialog.setMessage(getString(R.string.message_filling));
+            fillProgressDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+            fillProgressDialog.setMax(100);
+            fillProgressDialog.setCanceledOnTouchOutside(false);
+            fillProgressDialog.setButton(DialogInterface.BUTTON_NEGATIVE,
+                    getString(R.string.button_cancel), new DialogInterface.OnClickListener() {
+                        @Override
+                        public void onClick(DialogInterface dialog, int which) {
+                            sketchEngine.cancelFill();
+                        }
+                    });
+            fillProgressDialog.setOnCancelListener(new DialogInterface.OnCancelListener() {
                 @Override
-                public void onAccuracyChanged(Sensor sensor, int accuracy) {
+                public void onCancel(DialogInterface dialog) {
+                    sketchEngine.cancelFill();
                 }
-            };
+            });
+            fillProgressDialog.show();
+        }
+    };
 
     // Подтверждение стирания рисунка
     private void confirmErase() {
@@ -135,11 +214,50 @@ public class MainActivityFragment extends Fragment {
     public void onCreateOptionsMenu(Menu menu, MenuInflater inflater) {
         super.onCreateOptionsMenu(menu, inflater);
         inflater.inflate(R.menu.sketch_fragment_menu, menu);
+        menu.findItem(R.id.render_thread).setChecked(isRenderThreadEnabled());
+        menu.findItem(R.id.metrics).setChecked(isMetricsEnabled());
+        menu.findItem(R.id.low_memory).setChecked(sketchEngine.isLowMemoryMode());
+    }
+
+    @Override
+    public void onPrepareOptionsMenu(Menu menu) {
+        super.onPrepareOptionsMenu(menu);
+        // Соединение могло быть разорвано
+        menu.findItem(R.id.share_canvas).setChecked(sketchEngine.isSharing());
+    }
+
+    // Включен ли вывод рисунка в отдельном потоке
+    private boolean isRenderThreadEnabled() {
+        return PreferenceManager.getDefaultSharedPreferences(getActivity())
+                .getBoolean(PREF_RENDER_THREAD, false);
+    }
+
+    // Смена поверхности рисования; рисунок передается новой поверхности
+    // через SketchStateFragment при пересоздании активности
+    private void setRenderThreadEnabled(boolean enabled) {
+        PreferenceManager.getDefaultSharedPreferences(getActivity()).edit()
+                .putBoolean(PREF_RENDER_THREAD, enabled).apply();
+        getActivity().recreate();
+    }
+
+    // Включены ли измерения производительности с окном показателей
+    private boolean isMetricsEnabled() {
+        return PreferenceManager.getDefaultSharedPreferences(getActivity())
+                .getBoolean(PREF_METRICS, false);
+    }
+
+    private void setMetricsEnabled(boolean enabled) {
+        PreferenceManager.getDefaultSharedPreferences(getActivity()).edit()
+                .putBoolean(PREF_METRICS, enabled).apply();
+        sketchEngine.setMetricsEnabled(enabled);
+        sketchEngine.setMetricsOverlayVisible(enabled);
     }
 
     // Обработка выбора команд меню
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
+        // Любая команда завершает воспроизведение рисунка
+        sketchEngine.stopTimeLapse();
 
         switch (item.getItemId()) {
             case R.id.color:
@@ -151,12 +269,68 @@ public class MainActivityFragment extends Fragment {
                         new LineWidthDialogFragment();
                 widthDialog.show(getFragmentManager(), "line width dialog");
                 return true;
+            case R.id.layers:
+                LayersDialogFragment layersDialog = new LayersDialogFragment();
+                layersDialog.show(getFragmentManager(), "layers dialog");
+                return true;
+            case R.id.time_lapse:
+                TimeLapseDialogFragment timeLapseDialog = new TimeLapseDialogFragment();
+                timeLapseDialog.show(getFragmentManager(), "time lapse dialog");
+                return true;
+            case R.id.gallery:
+                GalleryDialogFragment galleryDialog = new GalleryDialogFragment();
+                galleryDialog.show(getFragmentManager(), "gallery dialog");
+                return true;
+            case R.id.share_canvas:
+                if (sketchEngine.isSharing()) {
+                    PreferenceManager.getDefaultSharedPreferences(getActivity()).edit()
+                            .putBoolean(PREF_SHARE, false).apply();
+                    sketchEngine.stopSharing();
+                } else {
+                    ShareCanvasDialogFragment shareDialog = new ShareCanvasDialogFragment();
+                    shareDialog.show(getFragmentManager(), "share dialog");
+                }
+                return true;
+            case R.id.reset_zoom:
+                sketchEngine.resetView();  // Масштаб 1:1 без сдвига
+                return true;
+            case R.id.undo:
+                sketchEngine.undo();  // Отменить последнюю линию
+                return true;
+            case R.id.redo:
+                sketchEngine.redo();  // Повторить отмененную линию
+                return true;
             case R.id.delete_drawing:
                 confirmErase();  // Получить подтверждение перед стиранием
                 return true;
+            case R.id.render_thread:
+                setRenderThreadEnabled(!item.isChecked());
+                return true;
+            case R.id.metrics:
+                item.setChecked(!item.isChecked());
+                setMetricsEnabled(item.isChecked());
+                return true;
+            case R.id.low_memory:
+                item.setChecked(!item.isChecked());
+                PreferenceManager.getDefaultSharedPreferences(getActivity()).edit()
+                        .putBoolean(PREF_LOW_MEMORY, item.isChecked()).apply();
+                sketchEngine.setLowMemoryMode(item.isChecked());
+                return true;
             case R.id.save:
+                exportFormat = null;
+                timeLapseSpeed = 0;
                 savePicture();  // Проверить разрешение и сохранить рисунок
                 return true;
+            case R.id.export_svg:
+                exportFormat = VectorExporter.Format.SVG;
+                timeLapseSpeed = 0;
+                savePicture();
+                return true;
+            case R.id.export_pdf:
+                exportFormat = VectorExporter.Format.PDF;
+                timeLapseSpeed = 0;
+                savePicture();
+                return true;
         }
         return super.onOptionsItemSelected(item);
     }
@@ -201,14 +375,32 @@ public class MainActivityFragment extends Fragment {
                             SAVE_IMAGE_PERMISSION_REQUEST_CODE);
                 }
             } else {  // Если разрешение уже имеет разрешение для записи
-                quickSketchView.saveImage();  // Сохранить изображение
+                saveDrawing();  // Сохранить изображение
             }
         } else {
-            quickSketchView.saveImage();
+            saveDrawing();
         }
 
     }
 
+    // Сохранение кадров воспроизведения с множителем скорости speed
+    // (после проверки разрешения)
+    public void exportTimeLapse(float speed) {
+        exportFormat = null;
+        timeLapseSpeed = speed;
+        savePicture();
+    }
+
+    // Сохранение рисунка в галерее, векторный экспорт или сохранение кадров
+    private void saveDrawing() {
+        if (timeLapseSpeed > 0)
+            sketchEngine.exportTimeLapse(timeLapseSpeed);
+        else if (exportFormat != null)
+            sketchEngine.exportVector(exportFormat);
+        else
+            sketchEngine.saveImage();
+    }
+
     // Вызывается системой, когда пользователь предоставляет
     // или отклоняет разрешение для сохранения изображения
     @Override
@@ -218,14 +410,48 @@ public class MainActivityFragment extends Fragment {
         switch (requestCode) {
             case SAVE_IMAGE_PERMISSION_REQUEST_CODE:
                 if (grantResults[0] == PackageManager.PERMISSION_GRANTED)
-                    quickSketchView.saveImage();
+                    saveDrawing();
                 return;
         }
     }
 
 
-    public QuickSketchView getQuickSketchView() {
-        return quickSketchView;
+    // Адрес ретранслятора общего холста, использованный последним
+    public String getShareAddress() {
+        return PreferenceManager.getDefaultSharedPreferences(getActivity())
+                .getString(PREF_SHARE_ADDRESS, "");
+    }
+
+    // Подключение к общему холсту по адресу "узел:порт" (порт можно не указывать)
+    public void startSharing(String address) {
+        if (!connectSharing(address)) {
+            Toast.makeText(getActivity(), R.string.message_share_address_invalid,
+                    Toast.LENGTH_SHORT).show();
+            return;
+        }
+        PreferenceManager.getDefaultSharedPreferences(getActivity()).edit()
+                .putBoolean(PREF_SHARE, true)
+                .putString(PREF_SHARE_ADDRESS, address).apply();
+    }
+
+    private boolean connectSharing(String address) {
+        int separator = address.lastIndexOf(':');
+        String host = separator >= 0 ? address.substring(0, separator) : address;
+        int port = DEFAULT_SHARE_PORT;
+        try {
+            if (separator >= 0)
+                port = Integer.parseInt(address.substring(separator + 1));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        if (host.isEmpty() || port <= 0 || port > 65535)
+            return false;
+        sketchEngine.startSharing(host, port);
+        return true;
+    }
+
+    public SketchEngine getSketchEngine() {
+        return sketchEngine;
     }
 
     // Проверяет, отображается ли диалоговое окно
@@ -0,0 +1,160 @@
+package by.kononovich.quicksketch;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.os.Process;
+import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+
+/**
+ * Поверхность рисования, выводящая изображение в собственном потоке.
+ * Поток перерисовывает только измененную область: содержимое остальной
+ * части буфера сохраняется, поэтому новые сегменты линии появляются
+ * без перерисовки всего рисунка и не ждут работы потока интерфейса
+ * (диалоги, меню, датчики)
+ */
+
+public class QuickSketchSurfaceView extends SurfaceView
+        implements SketchSurface, SurfaceHolder.Callback {
+    private final SketchEngine engine;  // Рисунок и обработка касаний
+    private RenderThread renderThread;  // Существует, пока существует Surface
+
+    public QuickSketchSurfaceView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        getHolder().addCallback(this);
+        engine = new SketchEngine(context, new SketchEngine.Host() {
+            @Override
+            public void invalidateRegion(Rect dirty) {
+                RenderThread thread = renderThread;
+                if (thread != null)
+                    thread.requestRender(dirty);
+            }
+
+            @Override
+            public void invalidateAll() {
+                RenderThread thread = renderThread;
+                if (thread != null)
+                    thread.requestRender(null);
+            }
+        });
+    }
+
+    @Override
+    public SketchEngine getEngine() {
+        return engine;
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        if (!isInEditMode())
+            engine.attach();  // Восстановление рисунка из журнала
+    }
+
+    // Обработка события касания (в потоке интерфейса; вывод - в потоке RenderThread)
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        return engine.onTouchEvent(event);
+    }
+
+    @Override
+    public void surfaceCreated(SurfaceHolder holder) {
+        renderThread = new RenderThread(holder);
+        renderThread.start();
+    }
+
+    @Override
+    public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+        engine.setSize(width, height);
+        renderThread.requestRender(null);  // Новый буфер выводится целиком
+    }
+
+    @Override
+    public void surfaceDestroyed(SurfaceHolder holder) {
+        // После возврата из метода Surface использовать нельзя
+        renderThread.quit();
+        renderThread = null;
+    }
+
+    // Поток, выводящий измененные области рисунка на Surface
+    private class RenderThread extends Thread {
+        private final SurfaceHolder holder;
+        private final Rect pending = new Rect();  // Область, ожидающая вывода
+        private final Rect dirty = new Rect();    // Область, выводимая сейчас
+        private boolean full;     // Вывести всю поверхность
+        private boolean running = true;
+
+        RenderThread(SurfaceHolder holder) {
+            super("QuickSketch-render");
+            this.holder = holder;
+        }
+
+        // Добавление области к ожидающей выводу (null - вся поверхность)
+        synchronized void requestRender(Rect region) {
+            if (region == null)
+                full = true;
+            else
+                pending.union(region);
+            notify();
+        }
+
+        // Остановка потока с ожиданием завершения вывода
+        void quit() {
+            synchronized (this) {
+                running = false;
+                notify();
+            }
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    join();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_DISPLAY);
+            while (true) {
+                // Ожидание запроса на вывод
+                synchronized (this) {
+                    while (running && !full && pending.isEmpty()) {
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                    if (!running)
+                        return;
+
+                    if (full)
+                        dirty.set(0, 0, getWidth(), getHeight());
+                    else
+                        dirty.set(pending);
+                    pending.setEmpty();
+                    full = false;
+                }
+
+                // lockCanvas ждет свободного буфера (синхронизация с частотой экрана)
+                // и может расширить dirty; вне dirty сохраняется прежнее содержимое
+                Canvas canvas = holder.lockCanvas(dirty);
+                if (canvas == null)
+                    continue;
+                try {
+                    engine.draw(canvas);
+                } finally {
+                    holder.unlockCanvasAndPost(canvas);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package by.kononovich.quicksketch;
+
+/**
+ * Распознавание встряхивания по показаниям акселерометра.
+ * Фильтр высоких частот убирает силу тяжести; встряхиванием считается
+ * не менее minPeaks всплесков линейного ускорения выше порога за время
+ * window; после срабатывания новые встряхивания игнорируются в течение
+ * debounce. Не зависит от Android и не создает объектов при обработке отсчетов
+ */
+
+public class ShakeDetector {
+    // Параметры по умолчанию
+    public static final float DEFAULT_THRESHOLD = 12f;  // Линейное ускорение, м/с2
+    public static final int DEFAULT_MIN_PEAKS = 4;      // Всплесков за окно
+    public static final long DEFAULT_WINDOW_NANOS = 600000000L;    // 0.6 с
+    public static final long DEFAULT_DEBOUNCE_NANOS = 1500000000L; // 1.5 с
+    // Постоянная времени фильтра силы тяжести (с)
+    private static final float GRAVITY_TIME_CONSTANT = 0.1f;
+
+    // Уведомление о встряхивании
+    public interface Listener {
+        void onShake();
+    }
+
+    private final float threshold;
+    private final long window;
+    private final long debounce;
+    private final long[] peakTimes;  // Время последних всплесков (кольцевой буфер)
+    private Listener listener;
+
+    private float gravityX;  // Оценка силы тяжести
+    private float gravityY;
+    private float gravityZ;
+    private long lastTimestamp;
+    private boolean started;      // Получен первый отсчет
+    private boolean aboveThreshold; // Ускорение сейчас выше порога
+    private int peakCount;        // Всплесков в буфере
+    private int nextPeak;         // Позиция для следующего всплеска
+    private long lastShake;
+    private boolean shaken;       // Было хотя бы одно срабатывание
+
+    public ShakeDetector(float threshold, int minPeaks, long windowNanos, long debounceNanos) {
+        this.threshold = threshold;
+        this.window = windowNanos;
+        this.debounce = debounceNanos;
+        peakTimes = new long[minPeaks];
+    }
+
+    public ShakeDetector() {
+        this(DEFAULT_THRESHOLD, DEFAULT_MIN_PEAKS, DEFAULT_WINDOW_NANOS, DEFAULT_DEBOUNCE_NANOS);
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    // Сброс состояния (например, после перерыва в получении данных)
+    public void reset() {
+        started = false;
+        aboveThreshold = false;
+        peakCount = 0;
+        nextPeak = 0;
+    }
+
+    // Обработка отсчета акселерометра (timestamp - время отсчета в наносекундах);
+    // возвращает true, если распознано встряхивание
+    public boolean onSample(long timestamp, float x, float y, float z) {
+        if (!started) {
+            // Первый отсчет считается силой тяжести
+            gravityX = x;
+            gravityY = y;
+            gravityZ = z;
+            lastTimestamp = timestamp;
+            started = true;
+            return false;
+        }
+
+        // Фильтр низких частот выделяет силу тяжести, остаток - линейное ускорение
+        float dt = Math.max(0, (timestamp - lastTimestamp) / 1e9f);
+        lastTimestamp = timestamp;
+        float alpha = GRAVITY_TIME_CONSTANT / (GRAVITY_TIME_CONSTANT + dt);
+        gravityX = alpha * gravityX + (1 - alpha) * x;
+        gravityY = alpha * gravityY + (1 - alpha) * y;
+        gravityZ = alpha * gravityZ + (1 - alpha) * z;
+        float linearX = x - gravityX;
+        float linearY = y - gravityY;
+        float linearZ = z - gravityZ;
+        float magnitudeSquared = linearX * linearX + linearY * linearY + linearZ * linearZ;
+
+        // Всплеск - переход ускорения через порог снизу вверх
+        boolean above = magnitudeSquared > threshold * threshold;
+        boolean peak = above && !aboveThreshold;
+        aboveThreshold = above;
+        if (!peak)
+            return false;
+
+        // Повторные срабатывания в течение debounce игнорируются
+        if (shaken && timestamp - lastShake < debounce)
+            return false;
+
+        // Самый старый из minPeaks последних всплесков должен попасть в окно
+        peakTimes[nextPeak] = timestamp;
+        nextPeak = (nextPeak + 1) % peakTimes.length;
+        peakCount = Math.min(peakCount + 1, peakTimes.length);
+        if (peakCount < peakTimes.length || timestamp - peakTimes[nextPeak] > window)
+            return false;
+
+        lastShake = timestamp;
+        shaken = true;
+        peakCount = 0;
+        if (listener != null)
+            listener.onShake();
+        return true;
+    }
+}
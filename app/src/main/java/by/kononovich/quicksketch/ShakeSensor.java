@@ -0,0 +1,89 @@
+package by.kononovich.quicksketch;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+/**
+ * Подключение ShakeDetector к акселерометру. События датчика обрабатываются
+ * в отдельном потоке и доставляются пакетами (аппаратная буферизация),
+ * чтобы реже будить процессор; о встряхивании сообщается через handler
+ */
+
+public class ShakeSensor {
+    // Период опроса и наибольшая задержка доставки пакета событий (мкс)
+    private static final int SAMPLING_PERIOD_US = 20000;
+    private static final int MAX_REPORT_LATENCY_US = 200000;
+
+    private final SensorManager sensorManager;
+    private final Sensor accelerometer;
+    private final ShakeDetector detector = new ShakeDetector();
+    private HandlerThread sensorThread;  // Поток обработки событий датчика
+
+    // listener вызывается в потоке handler
+    public ShakeSensor(Context context, final ShakeDetector.Listener listener,
+                       final Handler handler) {
+        sensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
+        accelerometer = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+        detector.setListener(new ShakeDetector.Listener() {
+            @Override
+            public void onShake() {
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onShake();
+                    }
+                });
+            }
+        });
+    }
+
+    // Начало прослушивания событий акселерометра
+    public void start() {
+        if (accelerometer == null || sensorThread != null)
+            return;
+
+        sensorThread = new HandlerThread("QuickSketch-sensor");
+        sensorThread.start();
+        Handler sensorHandler = new Handler(sensorThread.getLooper());
+        detector.reset();
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            // Пакетная доставка событий (если датчик поддерживает буферизацию)
+            sensorManager.registerListener(sensorEventListener, accelerometer,
+                    SAMPLING_PERIOD_US, MAX_REPORT_LATENCY_US, sensorHandler);
+        } else {
+            sensorManager.registerListener(sensorEventListener, accelerometer,
+                    SAMPLING_PERIOD_US, sensorHandler);
+        }
+    }
+
+    // Прекращение прослушивания событий акселерометра
+    public void stop() {
+        if (sensorThread == null)
+            return;
+
+        sensorManager.unregisterListener(sensorEventListener, accelerometer);
+        sensorThread.quit();
+        sensorThread = null;
+    }
+
+    // Обработчик событий акселерометра (в потоке sensorThread)
+    private final SensorEventListener sensorEventListener = new SensorEventListener() {
+        @Override
+        public void onSensorChanged(SensorEvent event) {
+            detector.onSample(event.timestamp, event.values[0], event.values[1],
+                    event.values[2]);
+        }
+
+        // Обязательный метод интерфейса SensorEventListener  - без изменений
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {
+        }
+    };
+}
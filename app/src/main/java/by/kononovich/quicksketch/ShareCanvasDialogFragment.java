@@ -0,0 +1,72 @@
+package by.kononovich.quicksketch;
+
+import android.app.AlertDialog;
+import android.app.Dialog;
+import android.content.Context;
+import android.content.DialogInterface;
+import android.os.Bundle;
+import android.support.v4.app.DialogFragment;
+import android.view.View;
+import android.widget.EditText;
+
+// Используется для подключения к общему холсту: ввод адреса ретранслятора
+public class ShareCanvasDialogFragment extends DialogFragment {
+    private EditText addressEditText;
+
+    @Override
+    public Dialog onCreateDialog(Bundle bundle) {
+        // Создание диалогового окна
+        AlertDialog.Builder builder =
+                new AlertDialog.Builder(getActivity());
+        View shareDialogView =
+                getActivity().getLayoutInflater().inflate(
+                        R.layout.fragment_share, null);
+        builder.setView(shareDialogView);
+
+        // Назначение сообщения AlertDialog
+        builder.setTitle(R.string.title_share_dialog);
+
+        // Последний использованный адрес
+        addressEditText = (EditText) shareDialogView.findViewById(R.id.shareAddressEditText);
+        if (bundle == null)
+            addressEditText.setText(getSketchFragment().getShareAddress());
+
+        builder.setPositiveButton(R.string.button_connect,
+                new DialogInterface.OnClickListener() {
+                    public void onClick(DialogInterface dialog, int id) {
+                        getSketchFragment().startSharing(
+                                addressEditText.getText().toString().trim());
+                    }
+                }
+        );
+        builder.setNegativeButton(R.string.button_cancel, null);
+
+        return builder.create(); // Возвращение диалогового окна
+    }
+
+    // Возвращает ссылку на MainActivityFragment
+    private MainActivityFragment getSketchFragment() {
+        return (MainActivityFragment) getFragmentManager().findFragmentById(
+                R.id.sketchFragment);
+    }
+
+    // Сообщает MainActivityFragment, что диалоговое окно находится на экране
+    @Override
+    public void onAttach(Context context) {
+        super.onAttach(context);
+        MainActivityFragment fragment = getSketchFragment();
+
+        if (fragment != null)
+            fragment.setDialogOnScreen(true);
+    }
+
+    // Сообщает MainActivityFragment, что диалоговое окно не отображается
+    @Override
+    public void onDetach() {
+        super.onDetach();
+        MainActivityFragment fragment = getSketchFragment();
+
+        if (fragment != null)
+            fragment.setDialogOnScreen(false);
+    }
+}
@@ -0,0 +1,254 @@
+package by.kononovich.quicksketch;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.RectF;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Подключение к общему холсту: свои линии передаются другим устройствам
+ * через ретранслятор, их линии принимаются. Принятые пакеты копятся и
+ * применяются владельцем в потоке интерфейса (receiveBatches); линии,
+ * которые рисуют на других устройствах, выводятся контурами, а завершенные
+ * ждут в очереди, пока владелец не добавит их в рисунок. Методы, кроме
+ * drawFrame, вызываются под блокировкой владельца
+ */
+
+public class ShareSession {
+    // Вызывается под блокировкой владельца, кроме onBatchesReceived и
+    // onDisconnected (в потоке интерфейса)
+    public interface Listener {
+        // Изменилась область линии другого устройства (с учетом толщины width)
+        void onRemoteRegionChanged(float left, float top, float right, float bottom,
+                                   float width);
+        // Завершенная линия другого устройства встала в очередь (pollStroke)
+        void onRemoteStrokeQueued();
+        void onBatchesReceived();
+        void onDisconnected(StrokeStreamWriter writer);
+    }
+
+    private final Listener listener;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private StrokeStreamWriter writer;  // null - холст не общий
+    private StrokeStreamLink link;
+    private final StrokeStreamReader reader;
+    private final List<byte[]> receivedBatches = new ArrayList<>();
+    private final Map<StrokeStreamReader.RemoteStroke, Path> remotePaths = new HashMap<>();
+    // Завершенные линии других устройств, ждущие добавления (по порядку)
+    private final List<StrokeStreamReader.RemoteStroke> queuedStrokes = new ArrayList<>();
+    private final Paint paintRemote;
+    private final RectF pathBounds = new RectF();
+
+    // Копии контуров для вывода кадра вне блокировки владельца; контуры и
+    // кисти создаются, только когда линий больше, чем было в прежних кадрах
+    private final List<Path> framePaths = new ArrayList<>();
+    private final List<Paint> framePaints = new ArrayList<>();
+    private int frameCount;
+
+    public ShareSession(Listener listener) {
+        this.listener = listener;
+        paintRemote = new Paint();
+        paintRemote.setAntiAlias(true);
+        paintRemote.setStyle(Paint.Style.STROKE);
+        paintRemote.setStrokeCap(Paint.Cap.ROUND);
+        reader = new StrokeStreamReader(remoteListener);
+    }
+
+    // Линии других устройств общего холста
+    private final StrokeStreamReader.Listener remoteListener = new StrokeStreamReader.Listener() {
+        @Override
+        public void onStrokeUpdated(StrokeStreamReader.RemoteStroke stroke, int from) {
+            Path path = remotePaths.get(stroke);
+            if (path == null) {
+                path = new Path();
+                remotePaths.put(stroke, path);
+            }
+            float[] points = stroke.getPoints();
+            if (from == 0) {
+                path.reset();
+                path.moveTo(points[0], points[1]);
+                listener.onRemoteRegionChanged(points[0], points[1], points[0], points[1],
+                        stroke.getWidth());
+                from = 1;
+            }
+            // Те же сегменты, что и у своих линий (SketchEngine.extendPath)
+            for (int i = from; i < stroke.getPointCount(); i++) {
+                float lastX = points[i * 2 - 2];
+                float lastY = points[i * 2 - 1];
+                float startX = i > 1 ? (lastX + points[i * 2 - 4]) / 2 : lastX;
+                float startY = i > 1 ? (lastY + points[i * 2 - 3]) / 2 : lastY;
+                float endX = (points[i * 2] + lastX) / 2;
+                float endY = (points[i * 2 + 1] + lastY) / 2;
+                path.quadTo(lastX, lastY, endX, endY);
+                listener.onRemoteRegionChanged(Math.min(startX, Math.min(lastX, endX)),
+                        Math.min(startY, Math.min(lastY, endY)),
+                        Math.max(startX, Math.max(lastX, endX)),
+                        Math.max(startY, Math.max(lastY, endY)), stroke.getWidth());
+            }
+        }
+
+        @Override
+        public void onStrokeRemoved(StrokeStreamReader.RemoteStroke stroke) {
+            Path path = remotePaths.remove(stroke);
+            if (path != null) {
+                path.computeBounds(pathBounds, false);
+                listener.onRemoteRegionChanged(pathBounds.left, pathBounds.top,
+                        pathBounds.right, pathBounds.bottom, stroke.getWidth());
+            }
+        }
+
+        @Override
+        public void onStrokeCommitted(StrokeStreamReader.RemoteStroke stroke) {
+            queuedStrokes.add(stroke);
+            listener.onRemoteStrokeQueued();
+        }
+    };
+
+    // Подключение через ретранслятор host:port; возвращает номер этого
+    // устройства для отметок своих линий
+    public int start(String host, int port) {
+        stop();
+        // Номер устройства не равен нулю: нулевой номер в отметках линий
+        // означает, что линия нарисована без общего холста
+        final StrokeStreamWriter connection =
+                new StrokeStreamWriter(1 + new Random().nextInt(Integer.MAX_VALUE - 1));
+        writer = connection;
+        link = new StrokeStreamLink(host, port, connection,
+                new StrokeStreamLink.Callback() {
+                    @Override
+                    public void onBatchReceived(byte[] batch) {
+                        // Поток приема не ждет вывода рисунка
+                        synchronized (receivedBatches) {
+                            receivedBatches.add(batch);
+                            if (receivedBatches.size() == 1)
+                                mainHandler.post(batchesReceived);
+                        }
+                    }
+
+                    @Override
+                    public void onDisconnected(IOException error) {
+                        mainHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                listener.onDisconnected(connection);
+                            }
+                        });
+                    }
+                });
+        link.start();
+        return connection.getPeer();
+    }
+
+    private final Runnable batchesReceived = new Runnable() {
+        @Override
+        public void run() {
+            listener.onBatchesReceived();
+        }
+    };
+
+    // Отключение; false - холст не был общим. Линии в очереди остаются
+    public boolean stop() {
+        if (link == null)
+            return false;
+        link.close();
+        link = null;
+        writer = null;
+        synchronized (receivedBatches) {
+            receivedBatches.clear();
+        }
+        reader.clear();
+        remotePaths.clear();
+        return true;
+    }
+
+    public boolean isSharing() {
+        return link != null;
+    }
+
+    // Соединение writer все еще используется (не закрыто и не заменено)
+    public boolean isConnection(StrokeStreamWriter writer) {
+        return writer != null && writer == this.writer;
+    }
+
+    // Применение накопленных пакетов: линии других устройств обновляются,
+    // завершенные встают в очередь
+    public void receiveBatches() {
+        byte[][] batches;
+        synchronized (receivedBatches) {
+            batches = receivedBatches.toArray(new byte[receivedBatches.size()][]);
+            receivedBatches.clear();
+        }
+        for (byte[] batch : batches)
+            reader.receive(batch);
+    }
+
+    // Следующая завершенная линия другого устройства (null - очередь пуста)
+    public StrokeStreamReader.RemoteStroke pollStroke() {
+        return queuedStrokes.isEmpty() ? null : queuedStrokes.remove(0);
+    }
+
+    // Возврат линии в начало очереди (ее заливка отменена и начнется заново)
+    public void requeueStroke(StrokeStreamReader.RemoteStroke stroke) {
+        queuedStrokes.add(0, stroke);
+    }
+
+    // Отказ от линий в очереди (рисунок стерт или заменен)
+    public void clearQueue() {
+        queuedStrokes.clear();
+    }
+
+    // Передача своих линий (ничего не делают, если холст не общий)
+    public void begin(int pointer, float x, float y, int color, float width, int brush,
+                      int layer) {
+        if (writer != null)
+            writer.begin(pointer, x, y, color, width, brush, layer);
+    }
+
+    public void addPoint(int pointer, float x, float y) {
+        if (writer != null)
+            writer.addPoint(pointer, x, y);
+    }
+
+    public void commit(int pointer, float[] xy, int pointCount, int color, float width,
+                       int brush, int layer, long stamp) {
+        if (writer != null)
+            writer.commit(pointer, xy, pointCount, color, width, brush, layer,
+                    StrokeLog.stampClock(stamp));
+    }
+
+    public void cancel(int pointer) {
+        if (writer != null)
+            writer.cancel(pointer);
+    }
+
+    // Копирование контуров линий других устройств для вывода кадра
+    public void copyFrame() {
+        frameCount = 0;
+        for (Map.Entry<StrokeStreamReader.RemoteStroke, Path> entry : remotePaths.entrySet()) {
+            if (frameCount == framePaths.size()) {
+                framePaths.add(new Path());
+                framePaints.add(new Paint(paintRemote));
+            }
+            framePaths.get(frameCount).set(entry.getValue());
+            Paint paint = framePaints.get(frameCount);
+            paint.setColor(entry.getKey().getColor());
+            paint.setStrokeWidth(entry.getKey().getWidth());
+            frameCount++;
+        }
+    }
+
+    // Вывод скопированных контуров (в потоке вывода)
+    public void drawFrame(Canvas canvas) {
+        for (int i = 0; i < frameCount; i++)
+            canvas.drawPath(framePaths.get(i), framePaints.get(i));
+    }
+}
@@ -0,0 +1,1978 @@
+package by.kononovich.quicksketch;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.app.ActivityManagerCompat;
+import android.view.Gravity;
+import android.view.MotionEvent;
+import android.widget.Toast;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Рисунок и обработка касаний, общие для всех поверхностей рисования.
+ * Поверхность передает события касания и размеры, а движок сообщает ей,
+ * какую область нужно перерисовать. Методы синхронизированы, поскольку
+ * поверхность может выводить изображение в отдельном потоке. Заливка,
+ * касание ластика, общий холст и воспроизведение ведутся в FillController,
+ * EraserSession, ShareSession и TimeLapseController под блокировкой движка
+ */
+
+public class SketchEngine {
+    // Поверхность, на которой выводится рисунок
+    public interface Host {
+        void invalidateRegion(Rect dirty);  // Перерисовать область
+        void invalidateAll();               // Перерисовать всю поверхность
+    }
+
+    // Ход выполнения заливки (вызывается в потоке интерфейса)
+    public interface FillListener {
+        void onFillStarted();
+        void onFillProgress(int percent);
+        void onFillFinished();
+    }
+
+    // Запас в пикселах вокруг сегмента (сглаживание краев и закругленные концы)
+    private static final float DIRTY_MARGIN = 2;
+    // Параметры копий изображения для отмены по умолчанию
+    private static final int CHECKPOINT_INTERVAL = 20;
+    private static final long CHECKPOINT_MEMORY_BUDGET = 32 * 1024 * 1024;
+    // Наибольший объем загруженных плиток всех слоев по умолчанию
+    private static final long LAYER_MEMORY_BUDGET = 48 * 1024 * 1024;
+    // Режим экономии памяти: плитки слоев хранятся в половинном масштабе
+    // (но в ARGB_8888, см. LayerStack), непрозрачные изображения - в
+    // RGB_565, пул Bitmap меньше. Включается
+    // по умолчанию на устройствах с малым объемом памяти (класс памяти в МБ)
+    private static final float LOW_MEMORY_SCALE = 0.5f;
+    private static final int LOW_MEMORY_CLASS = 64;
+    private static final long BITMAP_POOL_BYTES = 4 * 1024 * 1024;
+    private static final long LOW_MEMORY_POOL_BYTES = 1024 * 1024;
+    // Файл журнала рисунка во внутреннем хранилище приложения
+    private static final String JOURNAL_FILE = "sketch.journal";
+    // Наибольший объем кэша кончиков кисти
+    private static final int TIP_CACHE_BYTES = 4 * 1024 * 1024;
+    // Размер ячейки сетки поиска линий и наименьший радиус ластика (dp)
+    private static final int INDEX_CELL_SIZE = 64;
+    private static final float MIN_ERASER_RADIUS = 6;
+    // Допустимое отклонение упрощенной линии по умолчанию (dp)
+    private static final float SIMPLIFY_TOLERANCE = 0.25f;
+    // Второй палец, коснувшийся экрана не позже этого срока после первого,
+    // начинает жест масштаба и сдвига (иначе оба пальца рисуют)
+    private static final long GESTURE_DELAY_MILLIS = 150;
+    // Цвет поверхности вокруг рисунка при масштабе и сдвиге
+    private static final int OUTSIDE_COLOR = 0xff9e9e9e;
+
+    // Заливка выполняется в фоновом потоке; проверку цвета и запись пикселов
+    // он делит с потоками FILL_WORKERS (общими для всех поверхностей)
+    private static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+    private static final ThreadPoolExecutor FILL_EXECUTOR = newFillExecutor(1, "QuickSketch-fill");
+    private static final ThreadPoolExecutor FILL_WORKERS =
+            newFillExecutor(Math.max(1, PARALLELISM - 1), "QuickSketch-fill-worker");
+
+    private final Context context;
+    private final Host host;
+
+    // Слои изображения, хранящиеся плитками. Плитки и сами слои меняются
+    // только под tileLock (вдобавок к блокировке движка): поток вывода
+    // выводит их под tileLock, не занимая движок на время вывода кадра
+    private LayerStack layers;
+    private final Object tileLock = new Object();
+    private final Paint paintLine;  // Используется для рисования линий на Bitmap
+
+    // Кисть рисуемых линий; кисти отпечатков рисуют прямо на плитках
+    // по мере движения пальца, кончик берется из кэша
+    private Brush brush = Brush.LINE;
+    private final BrushTipCache tipCache = new BrushTipCache(TIP_CACHE_BYTES);
+    private Bitmap brushTip;  // Кончик текущей кисти (цвет и толщина paintLine)
+    private Bitmap stampTip;  // Кончик, которым ставятся отпечатки сейчас
+    private final Paint paintStamp;
+    private final BrushStamper[] stampers = new BrushStamper[PointerStateTable.MAX_POINTERS];
+    private TileStore stampTiles;  // Плитки слоя, на который ставятся отпечатки
+
+    // Заливка области; пока она выполняется, касания не рисуют
+    private final FloodFill floodFill = new FloodFill(FILL_WORKERS, PARALLELISM);
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final FillController<FillSeed> fills;
+    private FillListener fillListener;
+    private final Rect fillBounds = new Rect();
+
+    // Повторное рисование линий из журнала
+    private final StrokeRenderer renderer = new StrokeRenderer(floodFill, tipCache);
+
+    // Ластик удаляет линии активного слоя целиком; линии под пальцем
+    // находятся по сетке, а заново рисуется только область удаленных линий.
+    // Во время касания задетые линии только скрываются; из журнала они
+    // удаляются одной записью, когда палец отведен
+    private final StrokeIndex strokeIndex = new StrokeIndex(INDEX_CELL_SIZE);
+    private final Paint paintEraser;  // Контур ластика под пальцем
+    private final EraserSession eraser = new EraserSession();
+    private final float[] strokeBounds = new float[4];
+    private final Rect eraseBounds = new Rect();
+
+    // Упрощение точек завершенных линий
+    private final StrokeSimplifier simplifier;
+
+    // Воспроизведение рисунка; кадры выводятся с частотой обновления экрана
+    private final TimeLapseController timeLapses;
+
+    // Журнал завершенных линий; копии изображения для отмены/повтора хранятся в слоях
+    private StrokeLog strokeLog = new StrokeLog();
+    private int checkpointInterval = CHECKPOINT_INTERVAL;
+    private long checkpointMemoryBudget = CHECKPOINT_MEMORY_BUDGET;
+    private long layerMemoryBudget = LAYER_MEMORY_BUDGET;
+    private boolean lowMemory;
+
+    // Журнал рисунка на диске для восстановления после аварийного завершения
+    private SketchJournal journal;
+    private boolean recovering;  // Журнал еще читается
+
+    // Фоновое сохранение изображений
+    private ImageSaver imageSaver;
+    private ImageSaver.Format saveFormat = ImageSaver.Format.JPEG;
+    private int saveQuality = 90;
+
+    // Данные нарисованных контуров Path и содержащихся в них точек,
+    // индексированные идентификатором пальца
+    private final PointerStateTable<Path> pointers;
+
+    // Фильтры отсчетов касания (по одному на палец) и продолжение линии
+    // от последнего сегмента до текущего (предсказанного) положения пальца
+    private final float density;
+    private final StrokeFilter[] filters = new StrokeFilter[PointerStateTable.MAX_POINTERS];
+    private final Path[] tails = new Path[PointerStateTable.MAX_POINTERS];
+    private final RectF[] tailBounds = new RectF[PointerStateTable.MAX_POINTERS];
+    private float predictionMillis;
+
+    // Область, которую необходимо перерисовать после обработки события касания
+    private final Rect dirtyRect = new Rect();
+    private final RectF pathBounds = new RectF();
+    private final Rect clipBounds = new Rect();
+
+    // Копия состояния кадра для вывода вне блокировки движка: контуры и
+    // продолжения рисуемых линий, отпечатки продолжений, линии других
+    // устройств, масштаб и ластик. Объекты создаются заранее и заполняются
+    // копированием под блокировкой движка
+    private static final int FRAME_NONE = 0;
+    private static final int FRAME_PATH = 1;
+    private static final int FRAME_STAMPS = 2;
+    private final int[] frameLines = new int[PointerStateTable.MAX_POINTERS];
+    private final Path[] framePaths = new Path[PointerStateTable.MAX_POINTERS];
+    private final Path[] frameTails = new Path[PointerStateTable.MAX_POINTERS];
+    private final BrushStamper[] frameStampers = new BrushStamper[PointerStateTable.MAX_POINTERS];
+    private final float[] frameTailPoints = new float[PointerStateTable.MAX_POINTERS * 4];
+    private final Paint framePaint = new Paint();
+    private final Paint frameStampPaint;
+    private Bitmap frameTip;
+    private Canvas stampCanvas;  // Canvas поверхности при выводе продолжения линии
+    private final Matrix frameMatrix = new Matrix();
+    private boolean frameIdentity;
+    private float frameZoom;
+    private boolean frameEraser;
+    private float frameEraserX;
+    private float frameEraserY;
+    private float frameEraserRadius;
+    private boolean partialInvalidation = true; // false - всегда перерисовывать все представление
+    private boolean historicalSamples = true; // учитывать промежуточные отсчеты MotionEvent
+
+    // Масштаб и сдвиг рисунка на поверхности; касания переводятся в
+    // координаты рисунка, а области перерисовки - в координаты поверхности
+    private final ViewTransform view = new ViewTransform();
+    private final Matrix viewMatrix = new Matrix();
+    private final Rect screenRect = new Rect();
+    // Жест двумя пальцами: идентификаторы пальцев и их прежние положения
+    private boolean gesturing;
+    private final int[] gesturePointers = new int[2];
+    private final float[] gesturePoints = new float[4];
+    private long fillDownTime;  // Время касания, начавшего выполняемую заливку
+
+    // Показатели задержки и длительности вывода (null - измерения выключены)
+    private SketchMetrics metrics;
+
+    // Общий холст: линии, которые рисуют на других устройствах, выводятся
+    // контурами поверх активного слоя; завершенные добавляются в рисунок
+    // по порядку, а пока выполняется заливка, ждут ее завершения
+    private final ShareSession share;
+
+
+    public SketchEngine(Context context, Host host) {
+        this.context = context;
+        this.host = host;
+
+        // Контуры для всех возможных пальцев создаются заранее
+        Path[] paths = new Path[PointerStateTable.MAX_POINTERS];
+        for (int i = 0; i < paths.length; i++)
+            paths[i] = new Path();
+        pointers = new PointerStateTable<>(paths);
+
+        for (int i = 0; i < tails.length; i++) {
+            stampers[i] = new BrushStamper();
+            tails[i] = new Path();
+            framePaths[i] = new Path();
+            frameTails[i] = new Path();
+            frameStampers[i] = new BrushStamper();
+            tailBounds[i] = new RectF(0, 0, -1, -1);  // Продолжения нет
+        }
+        density = context.getResources().getDisplayMetrics().density;
+        ActivityManager activityManager =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        lowMemory = ActivityManagerCompat.isLowRamDevice(activityManager) ||
+                activityManager.getMemoryClass() <= LOW_MEMORY_CLASS;
+        BitmapPool.getShared().setMaxBytes(lowMemory ? LOW_MEMORY_POOL_BYTES : BITMAP_POOL_BYTES);
+        simplifier = new StrokeSimplifier(SIMPLIFY_TOLERANCE * density);
+        setStrokeFilterFactory(null);
+
+        // Исходные параметры рисуемых линий
+        paintLine = new Paint(); // линия, которую в настоящий момент рисует пользователь
+        paintLine.setAntiAlias(true);            // Сглаживание краев
+        paintLine.setColor(Color.BLACK);         // По умолчанию черный цвет
+        paintLine.setStyle(Paint.Style.STROKE);  // Сплошная линия
+        paintLine.setStrokeWidth(5);             // Толщина линии по умолчанию
+        paintLine.setStrokeCap(Paint.Cap.ROUND); // Закругленные концы
+
+        paintStamp = new Paint();
+        paintStamp.setFilterBitmap(true);  // Отпечатки в дробных координатах
+        frameStampPaint = new Paint(paintStamp);
+        paintEraser = new Paint();
+        paintEraser.setAntiAlias(true);
+        paintEraser.setStyle(Paint.Style.STROKE);
+        paintEraser.setColor(Color.GRAY);
+
+        fills = new FillController<>(floodFill, FILL_EXECUTOR, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                mainHandler.post(command);
+            }
+        }, fillResults);
+        timeLapses = new TimeLapseController(density, new TimeLapseController.Listener() {
+            @Override
+            public void onTimeLapseFrame(long frameTimeNanos) {
+                advanceTimeLapse(frameTimeNanos);
+            }
+        });
+        share = new ShareSession(shareListener);
+    }
+
+    private static ThreadPoolExecutor newFillExecutor(int threads, final String name) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, name);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);  // Потоки не держатся без заливки
+        return executor;
+    }
+
+    // Отпечаток кисти на плитках слоя
+    private final BrushStamper.Target tileTarget = new BrushStamper.Target() {
+        @Override
+        public void stamp(float x, float y) {
+            stampTiles.drawBitmap(stampTip, x - stampTip.getWidth() / 2f,
+                    y - stampTip.getHeight() / 2f, paintStamp);
+        }
+    };
+
+    // Отпечаток кисти на поверхности (продолжение линии до пальца)
+    private final BrushStamper.Target screenTarget = new BrushStamper.Target() {
+        @Override
+        public void stamp(float x, float y) {
+            stampCanvas.drawBitmap(frameTip, x - frameTip.getWidth() / 2f,
+                    y - frameTip.getHeight() / 2f, frameStampPaint);
+        }
+    };
+
+    // Линии других устройств общего холста
+    private final ShareSession.Listener shareListener = new ShareSession.Listener() {
+        @Override
+        public void onRemoteRegionChanged(float left, float top, float right, float bottom,
+                                          float width) {
+            includeInDirtyRect(left, top, right, bottom, width);
+        }
+
+        @Override
+        public void onRemoteStrokeQueued() {
+            applyQueuedStrokes();
+        }
+
+        @Override
+        public void onBatchesReceived() {
+            applyReceivedBatches();
+        }
+
+        @Override
+        public void onDisconnected(StrokeStreamWriter writer) {
+            sharingFailed(writer);
+        }
+    };
+
+    private final Runnable applyReceivedBatches = new Runnable() {
+        @Override
+        public void run() {
+            applyReceivedBatches();
+        }
+    };
+
+    // Данные рисунка, переживающие пересоздание поверхности
+    // (поворот, многооконный режим) без копирования пикселов
+    public static class State {
+        private final LayerStack layers;
+        private final StrokeLog strokeLog;
+        private final SketchJournal journal;
+
+        private State(LayerStack layers, StrokeLog strokeLog, SketchJournal journal) {
+            this.layers = layers;
+            this.strokeLog = strokeLog;
+            this.journal = journal;
+        }
+    }
+
+    // Передача рисунка для нового экземпляра поверхности
+    public synchronized State retainState() {
+        synchronized (tileLock) {
+            finishErase();
+            return new State(layers, strokeLog, journal);
+        }
+    }
+
+    // Использование рисунка прежнего экземпляра; вызывается до отображения
+    public synchronized void restoreState(State state) {
+        synchronized (tileLock) {
+            cancelPendingFill();
+            eraser.clear();  // Скрытые линии относятся к прежнему журналу
+            share.clearQueue();
+            layers = state.layers;
+            strokeLog = state.strokeLog;
+            journal = state.journal;
+            recovering = false;
+            if (layers != null)
+                layers.markAllDirty();
+        }
+    }
+
+    // Подключение поверхности к окну: восстановление рисунка из журнала
+    // в фоновом потоке (если рисунок не был передан прежним экземпляром)
+    public synchronized void attach() {
+        if (journal == null) {
+            journal = new SketchJournal(new File(context.getFilesDir(), JOURNAL_FILE));
+            recovering = true;
+            final Handler handler = new Handler(Looper.getMainLooper());
+            journal.recover(new SketchJournal.RecoveryCallback() {
+                @Override
+                public void onRecovered(final StrokeLog log) {
+                    handler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            adoptRecoveredStrokes(log);
+                        }
+                    });
+                }
+            });
+        }
+    }
+
+    // Линии из журнала помещаются перед линиями, нарисованными во время чтения
+    private synchronized void adoptRecoveredStrokes(StrokeLog recovered) {
+        synchronized (tileLock) {
+            if (!recovering)
+                return;  // Рисунок был стерт до завершения чтения
+            recovering = false;
+            if (recovered.size() == 0)
+                return;
+            finishErase();  // Номера линий сессии меняются
+
+            StrokeLog session = new StrokeLog();
+            for (int i = 0; i < strokeLog.size(); i++)
+                session.append(strokeLog, i);
+            // Слои из журнала используются, если во время чтения они не менялись
+            int[] layerState = strokeLog.getLayerState();
+            boolean recoveredLayers = layerState == null && recovered.getLayerState() != null;
+            if (recoveredLayers)
+                layerState = recovered.getLayerState();
+            strokeLog.clear();
+            strokeLog.setLayerState(layerState);
+            for (int i = 0; i < recovered.size(); i++)
+                strokeLog.append(recovered, i);
+            for (int i = 0; i < session.size(); i++)
+                strokeLog.append(session, i);
+
+            // Если размеры уже известны, изображение строится заново
+            if (layers != null) {
+                if (recoveredLayers)
+                    layers.restoreState(layerState);
+                else
+                    layers.discardCheckpointsAfter(0);  // Копии без линий из журнала
+                TileStore tiles = layers.getActive().getTiles();
+                strokeIndex.rebuild(strokeLog, tiles.getWidth(), tiles.getHeight());
+                restoreStrokes(strokeLog.size());
+                host.invalidateAll();
+            }
+        }
+    }
+
+    // Создание слоев на основании размеров поверхности
+    public synchronized void setSize(int width, int height) {
+        synchronized (tileLock) {
+            if (layers == null) {
+                // Плитки создаются при первом рисовании; под слоями лежит белый лист
+                layers = newLayerStack(width, height);
+                layers.restoreState(strokeLog.getLayerState());
+                restoreStrokes(strokeLog.size());
+            } else {
+                // Нарисованные плитки сохраняются; копии для отмены относятся к прежней сетке
+                layers.resize(width, height);
+            }
+            applyView();
+            strokeIndex.rebuild(strokeLog, width, height);
+        }
+    }
+
+    private LayerStack newLayerStack(int width, int height) {
+        return lowMemory ?
+                new LayerStack(width, height, LOW_MEMORY_SCALE, Bitmap.Config.RGB_565,
+                        checkpointInterval, checkpointMemoryBudget, layerMemoryBudget) :
+                new LayerStack(width, height, checkpointInterval, checkpointMemoryBudget,
+                        layerMemoryBudget);
+    }
+
+    // Включение/отключение режима экономии памяти; нарисованное
+    // изображение строится заново из журнала в новом формате
+    public synchronized void setLowMemoryMode(boolean enabled) {
+        synchronized (tileLock) {
+            if (enabled == lowMemory)
+                return;
+            lowMemory = enabled;
+            BitmapPool.getShared().setMaxBytes(enabled ? LOW_MEMORY_POOL_BYTES : BITMAP_POOL_BYTES);
+            if (layers == null)
+                return;  // Слои будут созданы в новом формате
+
+            cancelPendingFill();
+            finishErase();
+            stopTimeLapse();
+            pointers.clear();  // Незавершенные линии относятся к прежним плиткам
+            LayerStack previous = layers;
+            TileStore tiles = previous.getActive().getTiles();
+            layers = newLayerStack(tiles.getWidth(), tiles.getHeight());
+            layers.restoreState(previous.encodeState());
+            previous.release();
+            restoreStrokes(strokeLog.size());
+            host.invalidateAll();
+        }
+    }
+
+    public synchronized boolean isLowMemoryMode() {
+        return lowMemory;
+    }
+
+    // Стирание рисунка
+    public synchronized void clear() {
+        synchronized (tileLock) {
+            cancelPendingFill();
+            share.clearQueue();  // Принятые до стирания линии стираются вместе с рисунком
+            eraser.clear();
+            pointers.clear();  // Удалить все контуры и предыдущие точки
+            strokeLog.clear();  // Удалить историю линий и слоев
+            strokeIndex.clear();
+            layers.clear();  // Очистка изображения; остается один слой
+            host.invalidateAll();  // Перерисовать изображение
+
+            // Журнал на диске становится пустым
+            recovering = false;
+            if (journal != null) {
+                journal.appendClear();
+                journal.compact(0);
+            }
+        }
+    }
+
+    // Отмена последней завершенной линии
+    public synchronized boolean undo() {
+        synchronized (tileLock) {
+            if (!strokeLog.canUndo())
+                return false;
+            cancelPendingFill();
+            finishErase();
+            if (!strokeLog.canUndo())
+                return false;
+
+            // Заново строится только слой отмененной линии. Отменяются только
+            // свои линии: если за линией шли линии других устройств, они
+            // сдвигаются на ее место, как при удалении ластиком
+            int count = strokeLog.size();
+            int index = strokeLog.undo();
+            Layer layer = layers.findById(strokeLog.getLayer(strokeLog.size()));
+            if (index < count - 1) {
+                layers.discardCheckpointsAfter(count);
+                layers.removeStrokes(layer, new int[]{index});
+                strokeIndex.remove(new int[]{index}, count);
+            }
+            if (layer != null) {
+                restoreLayer(layer, strokeLog.size());
+                invalidateLayer(layer);
+            }
+            if (journal != null) {
+                journal.appendUndo();
+                compactJournalIfNeeded();
+            }
+            return true;
+        }
+    }
+
+    // Повтор отмененной линии
+    public synchronized boolean redo() {
+        synchronized (tileLock) {
+            cancelPendingFill();
+            finishErase();
+            int count = strokeLog.size();
+            int index = strokeLog.redo();
+            if (index < 0)
+                return false;
+
+            // Линия встает на прежнее место среди линий других устройств
+            Layer layer = layers.findById(strokeLog.getLayer(index));
+            if (index < count) {
+                insertedStroke(layer, index, count);
+            } else {
+                // Линия рисуется поверх текущего изображения своего слоя
+                strokeIndex.add(strokeLog, index);
+                if (layer != null && isFill(index)) {
+                    // Результат заливки берется из копии, снятой после нее
+                    restoreLayer(layer, strokeLog.size());
+                } else if (layer != null) {
+                    drawStroke(index, layer.getTiles());
+                    layer.getCheckpoints().onStrokeCommitted(strokeLog.size(), layer.getTiles());
+                }
+            }
+            if (layer != null)
+                invalidateLayer(layer);
+            if (journal != null) {
+                journal.appendRedo();
+                compactJournalIfNeeded();
+            }
+            return true;
+        }
+    }
+
+    public synchronized boolean canUndo() {
+        return strokeLog.canUndo();
+    }
+
+    public synchronized boolean canRedo() {
+        return strokeLog.canRedo();
+    }
+
+    // Через сколько линий сохраняется копия изображения
+    public synchronized void setCheckpointInterval(int strokes) {
+        checkpointInterval = Math.max(1, strokes);
+        if (layers != null)
+            layers.setCheckpointInterval(checkpointInterval);
+    }
+
+    public synchronized int getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    // Максимальный объем памяти (в байтах) для копий изображения всех слоев
+    public synchronized void setCheckpointMemoryBudget(long bytes) {
+        checkpointMemoryBudget = bytes;
+        if (layers != null)
+            layers.setCheckpointMemoryBudget(bytes);
+    }
+
+    public synchronized long getCheckpointMemoryBudget() {
+        return checkpointMemoryBudget;
+    }
+
+    // Максимальный объем памяти (в байтах) для загруженных плиток всех слоев;
+    // неактивные слои сверх него хранятся сжатыми
+    public synchronized void setLayerMemoryBudget(long bytes) {
+        synchronized (tileLock) {
+            layerMemoryBudget = bytes;
+            if (layers != null)
+                layers.setMemoryBudget(bytes);
+        }
+    }
+
+    public synchronized long getLayerMemoryBudget() {
+        return layerMemoryBudget;
+    }
+
+    // Восстановление изображения, содержащего первые strokeCount линий журнала
+    private void restoreStrokes(int strokeCount) {
+        for (int i = 0; i < layers.size(); i++)
+            restoreLayer(layers.get(i), strokeCount);
+        layers.invalidateCaches();
+    }
+
+    // Восстановление слоя по первым strokeCount линиям журнала
+    private void restoreLayer(Layer layer, int strokeCount) {
+        TileStore tiles = layer.getTiles();
+        int from = layer.getCheckpoints().restore(strokeCount, tiles);
+        if (from < 0) {
+            tiles.clear();  // Подходящей копии нет - начинаем с чистого листа
+            from = 0;
+        }
+
+        // Повтор только линий этого слоя, нарисованных после копии; после
+        // повторенной заливки снимается копия, чтобы не выполнять ее снова
+        for (int i = from; i < strokeCount; i++) {
+            if (strokeLog.getLayer(i) != layer.getId())
+                continue;
+            drawStroke(i, tiles);
+            if (isFill(i))
+                layer.getCheckpoints().onFillCommitted(i + 1, tiles);
+        }
+    }
+
+    private boolean isFill(int index) {
+        return Brush.decode(strokeLog.getBrush(index)).isFill();
+    }
+
+    // Линия слоя layer встала в журнал на место index перед уже нарисованными
+    // линиями (count - количество линий до вставки): сетка и копии для
+    // отмены сдвигаются, слой строится заново
+    private void insertedStroke(Layer layer, int index, int count) {
+        layers.discardCheckpointsAfter(count);
+        layers.insertStroke(layer, index);
+        strokeIndex.insert(strokeLog, index);
+        if (layer != null)
+            restoreLayer(layer, strokeLog.size());
+    }
+
+    // Рисование линии журнала на плитках тем же способом, что и при касании
+    private void drawStroke(int index, TileStore tiles) {
+        renderer.draw(strokeLog, index, tiles);
+    }
+
+    // Начало заливки области, содержащей точку касания, в фоновом потоке
+    private void startFill(float x, float y) {
+        TileStore tiles = layers.getActive().getTiles();
+        int width = tiles.getWidth();
+        int height = tiles.getHeight();
+        if (x < 0 || y < 0 || x >= width || y >= height)
+            return;
+
+        // Копия пикселов активного слоя снимается сразу; рисунок (и выбор слоя)
+        // не меняется до завершения заливки. Заливка выполняется в пикселах
+        // плиток, в журнал записывается точка изображения
+        startFill(tiles, (int) x, (int) y, paintLine.getColor(), brush, null);
+        if (fillListener != null)
+            fillListener.onFillStarted();
+    }
+
+    // Заливка от точки (x, y) изображения на копии пикселов плиток tiles
+    private void startFill(TileStore tiles, int x, int y, int color, Brush fillBrush,
+                           StrokeStreamReader.RemoteStroke remote) {
+        int width = tiles.getPixelWidth();
+        int height = tiles.getPixelHeight();
+        fills.start(tiles.readPixels(), width, height,
+                Math.min((int) (x * tiles.getScale()), width - 1),
+                Math.min((int) (y * tiles.getScale()), height - 1),
+                color, fillBrush.getTolerance(), new FillSeed(x, y, fillBrush, remote));
+    }
+
+    // Заливка, ожидающая результата: точка изображения, кисть и линия
+    // другого устройства (null - своя заливка)
+    private static class FillSeed {
+        final int x;
+        final int y;
+        final Brush brush;
+        final StrokeStreamReader.RemoteStroke remote;
+
+        FillSeed(int x, int y, Brush brush, StrokeStreamReader.RemoteStroke remote) {
+            this.x = x;
+            this.y = y;
+            this.brush = brush;
+            this.remote = remote;
+        }
+    }
+
+    // Ход и результат заливки (в потоке интерфейса)
+    private final FillController.Listener<FillSeed> fillResults =
+            new FillController.Listener<FillSeed>() {
+                @Override
+                public void onFillProgress(FillController.Fill<FillSeed> fill, int percent) {
+                    reportFillProgress(fill, percent);
+                }
+
+                @Override
+                public void onFillDone(FillController.Fill<FillSeed> fill) {
+                    finishFill(fill);
+                }
+            };
+
+    // Применение результата заливки (в потоке интерфейса)
+    private synchronized void finishFill(FillController.Fill<FillSeed> fill) {
+        synchronized (tileLock) {
+            if (!fills.finish(fill))
+                return;  // Заливка отменена
+            // Линии других устройств, принятые во время заливки, рисуются после нее
+            mainHandler.post(applyReceivedBatches);
+            FillSeed seed = fill.getData();
+            if (seed.remote != null) {
+                addRemoteStroke(seed.remote, fill);
+                invalidateDirtyTiles();
+                return;
+            }
+            if (fillListener != null)
+                fillListener.onFillFinished();
+            if (fill.getFilled() <= 0 || layers == null)
+                return;
+            Layer layer = layers.getActive();
+            TileStore tiles = layer.getTiles();
+            if (!writeFill(fill, tiles))
+                return;
+
+            // Заливка записывается в журнал как линия из одной точки
+            float[] point = {seed.x, seed.y};
+            int encoded = seed.brush.encode();
+            layers.discardCheckpointsAfter(strokeLog.size());
+            strokeLog.append(point, 1, fill.getColor(), paintLine.getStrokeWidth(), encoded,
+                    layer.getId());
+            strokeIndex.add(strokeLog, strokeLog.size() - 1);
+            layer.getCheckpoints().onFillCommitted(strokeLog.size(), tiles);
+            long stamp = strokeLog.getStamp(strokeLog.size() - 1);
+            if (journal != null) {
+                journal.appendStroke(point, 1, fill.getColor(), paintLine.getStrokeWidth(),
+                        encoded, layer.getId(), StrokeLog.LOCAL, stamp);
+                compactJournalIfNeeded();
+            }
+            share.commit(StrokeStreamWriter.NO_POINTER, point, 1, fill.getColor(),
+                    paintLine.getStrokeWidth(), encoded, layer.getId(), stamp);
+            invalidateDirtyTiles();
+        }
+    }
+
+    // Запись результата заливки на плитки; false - размеры плиток
+    // изменились, и результат не подходит
+    private boolean writeFill(FillController.Fill<FillSeed> fill, TileStore tiles) {
+        if (tiles.getPixelWidth() != fill.getWidth() || tiles.getPixelHeight() != fill.getHeight())
+            return false;
+        if (fill.getFilled() > 0) {
+            int[] bounds = fill.getBounds();
+            fillBounds.set(bounds[0], bounds[1], bounds[2], bounds[3]);
+            tiles.writePixels(fill.getPixels(), fillBounds);
+        }
+        return true;
+    }
+
+    // Отмена выполняемой заливки
+    public synchronized void cancelFill() {
+        cancelPendingFill();
+    }
+
+    public synchronized boolean isFilling() {
+        return fills.isFilling();
+    }
+
+    public synchronized void setFillListener(FillListener listener) {
+        fillListener = listener;
+    }
+
+    // Заливка другого устройства не теряется: она начнется заново после
+    // изменения рисунка, вызвавшего отмену
+    private void cancelPendingFill() {
+        FillController.Fill<FillSeed> fill = fills.cancel();
+        if (fill == null)
+            return;
+        if (fill.getData().remote != null)
+            share.requeueStroke(fill.getData().remote);
+        else if (fillListener != null)
+            fillListener.onFillFinished();
+        mainHandler.post(applyReceivedBatches);
+    }
+
+    private synchronized void reportFillProgress(FillController.Fill<FillSeed> fill, int percent) {
+        if (fill == fills.getPending() && fill.getData().remote == null && fillListener != null)
+            fillListener.onFillProgress(percent);
+    }
+
+    // Сжатие журнала, если в нем накопилось много отмененных линий;
+    // линии, доступные для повтора, остаются в журнале
+    private void compactJournalIfNeeded() {
+        if (journal.needsCompaction(strokeLog.recordedSize()))
+            journal.compact(strokeLog.size(), strokeLog.recordedSize() - strokeLog.size());
+    }
+
+    // Перерисовка области линий (dirtyRect) и измененных плиток активного слоя
+    private void invalidateDirtyTiles() {
+        invalidateDirtyRegion(true);
+    }
+
+    // Перерисовка области линий и, если collectTiles, плиток, измененных после
+    // прошлой перерисовки. Отметки плиток снимаются под tileLock: поток вывода
+    // в это время может выводить плитки. Перемещение линий-контуров плиток не
+    // меняет и идет без tileLock, поэтому отметки оставляет следующим событиям
+    private void invalidateDirtyRegion(boolean collectTiles) {
+        if (!partialInvalidation) {
+            host.invalidateAll();
+        } else {
+            boolean tilesChanged = false;
+            if (collectTiles) {
+                synchronized (tileLock) {
+                    tilesChanged = layers.getActive().getTiles().collectDirty(dirtyRect);
+                }
+            }
+            if (tilesChanged || !dirtyRect.isEmpty())
+                invalidateImageRegion(dirtyRect);
+        }
+        dirtyRect.setEmpty();
+    }
+
+    // Перерисовка после изменения слоя: изменение неактивного слоя
+    // требует пересборки слоев выше или ниже активного
+    private void invalidateLayer(Layer layer) {
+        if (layer == layers.getActive()) {
+            invalidateDirtyTiles();
+        } else {
+            layers.invalidateCaches();
+            host.invalidateAll();
+        }
+    }
+
+    public synchronized int getLayerCount() {
+        return layers != null ? layers.size() : 1;
+    }
+
+    // Индекс активного слоя (0 - нижний)
+    public synchronized int getActiveLayerIndex() {
+        return layers != null ? layers.getActiveIndex() : 0;
+    }
+
+    public synchronized void setActiveLayer(int index) {
+        synchronized (tileLock) {
+            if (layers == null || index == layers.getActiveIndex())
+                return;
+            cancelPendingFill();
+            finishErase();
+            layers.setActive(index);
+            layersChanged();
+        }
+    }
+
+    // Добавление слоя над активным; возвращает false, если слоев слишком много
+    public synchronized boolean addLayer() {
+        synchronized (tileLock) {
+            if (layers == null)
+                return false;
+            cancelPendingFill();
+            finishErase();
+            if (layers.add() == null)
+                return false;
+            layersChanged();
+            return true;
+        }
+    }
+
+    // Удаление слоя; его линии остаются в журнале, но больше не рисуются
+    public synchronized boolean removeLayer(int index) {
+        synchronized (tileLock) {
+            if (layers == null)
+                return false;
+            cancelPendingFill();
+            finishErase();
+            if (!layers.remove(index))
+                return false;
+            layersChanged();
+            return true;
+        }
+    }
+
+    // Перемещение слоя с позиции from на позицию to
+    public synchronized void moveLayer(int from, int to) {
+        synchronized (tileLock) {
+            if (layers == null || from == to)
+                return;
+            cancelPendingFill();
+            finishErase();
+            layers.move(from, to);
+            layersChanged();
+        }
+    }
+
+    public synchronized void setLayerVisible(int index, boolean visible) {
+        synchronized (tileLock) {
+            layers.setVisible(index, visible);
+            layersChanged();
+        }
+    }
+
+    public synchronized boolean isLayerVisible(int index) {
+        return layers.get(index).isVisible();
+    }
+
+    // Непрозрачность слоя (0-255)
+    public synchronized void setLayerOpacity(int index, int opacity) {
+        synchronized (tileLock) {
+            layers.setOpacity(index, opacity);
+            layersChanged();
+        }
+    }
+
+    public synchronized int getLayerOpacity(int index) {
+        return layers.get(index).getOpacity();
+    }
+
+    public synchronized void setLayerBlend(int index, Layer.Blend blend) {
+        synchronized (tileLock) {
+            layers.setBlend(index, blend);
+            layersChanged();
+        }
+    }
+
+    public synchronized Layer.Blend getLayerBlend(int index) {
+        return layers.get(index).getBlend();
+    }
+
+    // Постоянный идентификатор слоя (используется в названии слоя)
+    public synchronized int getLayerId(int index) {
+        return layers.get(index).getId();
+    }
+
+    // Запись нового описания слоев в журнал и перерисовка
+    private void layersChanged() {
+        int[] state = layers.encodeState();
+        strokeLog.setLayerState(state);
+        if (journal != null)
+            journal.appendLayers(state);
+        host.invalidateAll();
+    }
+
+    // Назначение цвета рисуемой линии
+    public synchronized void setDrawingColor(int color) {
+        paintLine.setColor(color);
+        updateBrushTip();
+    }
+
+    // Получение цвета рисуемой линии
+    public synchronized int getDrawingColor() {
+        return paintLine.getColor();
+    }
+
+    // Назначение толщины рисуемой линии
+    public synchronized void setLineWidth(int width) {
+        paintLine.setStrokeWidth(width);
+        updateBrushTip();
+    }
+
+    // Получение толщины рисуемой линии
+    public synchronized int getLineWidth() {
+        return (int) paintLine.getStrokeWidth();
+    }
+
+    // Назначение кисти рисуемых линий
+    public synchronized void setBrush(Brush brush) {
+        synchronized (tileLock) {
+            finishErase();
+            this.brush = brush;
+            updateBrushTip();
+        }
+    }
+
+    public synchronized Brush getBrush() {
+        return brush;
+    }
+
+    // Кончик кисти для текущих цвета и толщины (растеризуется только при отсутствии в кэше)
+    private void updateBrushTip() {
+        brushTip = brush.isStamped() ?
+                tipCache.get(brush, paintLine.getStrokeWidth(), paintLine.getColor()) : null;
+    }
+
+    // Допустимое отклонение (в пикселах) линии после упрощения ее точек (0 - без упрощения)
+    public synchronized void setSimplificationTolerance(float pixels) {
+        simplifier.setTolerance(pixels);
+    }
+
+    public synchronized float getSimplificationTolerance() {
+        return simplifier.getTolerance();
+    }
+
+    // Включение/отключение перерисовки только измененной области
+    public synchronized void setPartialInvalidationEnabled(boolean enabled) {
+        partialInvalidation = enabled;
+    }
+
+    public synchronized boolean isPartialInvalidationEnabled() {
+        return partialInvalidation;
+    }
+
+    // Включение/отключение обработки промежуточных отсчетов касания
+    public synchronized void setHistoricalSamplesEnabled(boolean enabled) {
+        historicalSamples = enabled;
+    }
+
+    public synchronized boolean isHistoricalSamplesEnabled() {
+        return historicalSamples;
+    }
+
+    // Назначение фильтров отсчетов касания (null - сглаживание One Euro
+    // с порогом, зависящим от скорости и плотности экрана)
+    public synchronized void setStrokeFilterFactory(StrokeFilter.Factory factory) {
+        for (int i = 0; i < filters.length; i++)
+            filters[i] = factory != null ? factory.create() :
+                    new OneEuroStrokeFilter(density, predictionMillis);
+    }
+
+    // Время предсказания положения пальца для фильтра по умолчанию (0 - выключено)
+    public synchronized void setPredictionMillis(float millis) {
+        predictionMillis = millis;
+        setStrokeFilterFactory(null);
+    }
+
+    public synchronized float getPredictionMillis() {
+        return predictionMillis;
+    }
+
+    // Начало воспроизведения рисунка с множителем скорости speed; касание
+    // или изменение рисунка завершает воспроизведение. Вызывается в потоке
+    // интерфейса
+    public synchronized void startTimeLapse(float speed) {
+        synchronized (tileLock) {
+            if (layers == null)
+                return;  // Размеры поверхности еще неизвестны
+            finishErase();
+            timeLapses.start(strokeLog, layers, floodFill, tipCache, speed);
+            host.invalidateAll();
+        }
+    }
+
+    public synchronized void stopTimeLapse() {
+        synchronized (tileLock) {
+            if (timeLapses.stop())
+                host.invalidateAll();
+        }
+    }
+
+    public synchronized boolean isPlayingTimeLapse() {
+        return timeLapses.isPlaying();
+    }
+
+    // Сохранение кадров воспроизведения с множителем скорости speed
+    // в папку загрузок; кадры строятся в потоке сохранения
+    public synchronized void exportTimeLapse(float speed) {
+        synchronized (tileLock) {
+            if (layers == null)
+                return;
+            finishErase();
+            // Поток сохранения не использует заливку и кончики кисти движка
+            ImageSaver.Frames frames = timeLapses.frames(strokeLog, layers,
+                    new FloodFill(FILL_WORKERS, PARALLELISM),
+                    new BrushTipCache(TIP_CACHE_BYTES / 4), speed);
+            if (imageSaver == null)
+                imageSaver = new ImageSaver(context.getContentResolver());
+            imageSaver.saveFrames(frames, "QuickSketch-" + System.currentTimeMillis(),
+                    new ImageSaver.Callback() {
+                        @Override
+                        public void onSaveFinished(Uri uri) {
+                            showSaveResult(uri != null, R.string.message_time_lapse_saved);
+                        }
+                    });
+        }
+    }
+
+    // Кадр воспроизведения: перерисовка только новых сегментов
+    private synchronized void advanceTimeLapse(long frameTimeNanos) {
+        timeLapses.advance(frameTimeNanos, dirtyRect);
+        if (!partialInvalidation)
+            host.invalidateAll();
+        else if (!dirtyRect.isEmpty())
+            invalidateImageRegion(dirtyRect);
+        dirtyRect.setEmpty();
+    }
+
+    // Включение/отключение измерения задержки, длительности вывода и
+    // обработки касания; выключенные измерения ничего не стоят
+    public synchronized void setMetricsEnabled(boolean enabled) {
+        if (enabled && metrics == null) {
+            metrics = new SketchMetrics(density);
+        } else if (!enabled && metrics != null) {
+            metrics.release();
+            metrics = null;
+            host.invalidateAll();  // Убрать окно показателей
+        }
+    }
+
+    public synchronized boolean isMetricsEnabled() {
+        return metrics != null;
+    }
+
+    // Окно показателей поверх рисунка (включает измерения)
+    public synchronized void setMetricsOverlayVisible(boolean visible) {
+        if (visible)
+            setMetricsEnabled(true);
+        if (metrics != null) {
+            metrics.setOverlayVisible(visible);
+            host.invalidateAll();
+        }
+    }
+
+    public synchronized void resetMetrics() {
+        if (metrics != null)
+            metrics.reset();
+        simplifier.resetStatistics();
+    }
+
+    // Отчет о показателях (текстом или в JSON); в текстовом отчете также
+    // количество точек линий до и после упрощения
+    public synchronized void dumpMetrics(String prefix, PrintWriter writer, boolean json) {
+        if (metrics == null)
+            writer.println(prefix + "QuickSketch metrics are disabled");
+        else if (json)
+            metrics.writeJson(writer);
+        else
+            metrics.dump(prefix, writer);
+        if (!json)
+            writer.println(prefix + String.format(Locale.US,
+                    "  stroke points %d -> %d after simplification (%.1fx)",
+                    simplifier.getInputPoints(), simplifier.getOutputPoints(),
+                    simplifier.getCompressionRatio()));
+    }
+
+    // Вывод рисунка на Canvas поверхности. Под блокировкой движка только
+    // копируется состояние кадра; плитки выводятся под tileLock, так что
+    // касания, которые не меняют плиток (движение пальца с линией-контуром),
+    // не ждут вывода кадра
+    public void draw(Canvas canvas) {
+        SketchMetrics measured;
+        boolean copied;
+        synchronized (this) {
+            measured = metrics;
+            if (measured != null)
+                measured.drawStarted();
+            copied = copyFrame(canvas);
+        }
+        if (copied)
+            drawFrame(canvas);
+        if (measured == null)
+            return;
+        synchronized (this) {
+            measured.drawFinished();
+            if (measured.isOverlayVisible())
+                measured.drawOverlay(canvas);
+        }
+    }
+
+    // Копирование состояния кадра; false - выводить плитки не нужно
+    // (размеры еще неизвестны или кадр воспроизведения уже выведен)
+    private boolean copyFrame(Canvas canvas) {
+        if (layers == null)
+            return false;  // Размеры поверхности еще неизвестны
+        if (timeLapses.isPlaying()) {
+            // Воспроизведение выводит собственные слои под блокировкой движка
+            int saveCount = canvas.save();
+            if (!view.isIdentity()) {
+                canvas.drawColor(OUTSIDE_COLOR);
+                canvas.concat(viewMatrix);
+            }
+            TileStore tiles = layers.getActive().getTiles();
+            if (canvas.getClipBounds(clipBounds) &&
+                    clipBounds.intersect(0, 0, tiles.getWidth(), tiles.getHeight()))
+                timeLapses.draw(canvas, clipBounds);
+            canvas.restoreToCount(saveCount);
+            return false;
+        }
+
+        frameIdentity = view.isIdentity();
+        frameMatrix.set(viewMatrix);
+        frameZoom = view.getZoom();
+        framePaint.set(paintLine);
+        frameTip = brushTip;
+        for (int i = 0; i < pointers.capacity(); i++) {
+            frameLines[i] = FRAME_NONE;
+            if (!pointers.isActive(i))
+                continue;
+            if (brush.isStamped()) {
+                // Отпечатки линии уже на плитках; продолжение ставится только на экране
+                if (tailBounds[i].left <= tailBounds[i].right) {
+                    frameLines[i] = FRAME_STAMPS;
+                    frameStampers[i].copyFrom(stampers[i]);
+                    frameTailPoints[i * 4] = pointers.getLastX(i);
+                    frameTailPoints[i * 4 + 1] = pointers.getLastY(i);
+                    frameTailPoints[i * 4 + 2] = filters[i].getPredictedX();
+                    frameTailPoints[i * 4 + 3] = filters[i].getPredictedY();
+                }
+            } else {
+                frameLines[i] = FRAME_PATH;
+                framePaths[i].set(pointers.getPath(i));
+                frameTails[i].set(tails[i]);
+            }
+        }
+
+        share.copyFrame();
+
+        frameEraser = eraser.isActive() && brush.isEraser();
+        frameEraserX = eraser.getX();
+        frameEraserY = eraser.getY();
+        frameEraserRadius = getEraserRadius();
+        return true;
+    }
+
+    // Вывод скопированного кадра вне блокировки движка
+    private void drawFrame(Canvas canvas) {
+        int saveCount = canvas.save();
+        if (!frameIdentity) {
+            // Дальше все выводится в координатах рисунка
+            canvas.drawColor(OUTSIDE_COLOR);
+            canvas.concat(frameMatrix);
+        }
+
+        // Перерисовка листа, нижних слоев и активного слоя: только плитки,
+        // попадающие в область отсечения; рисуемые линии выводятся над ними.
+        // В уменьшенном виде плитки берутся с уровня пирамиды уменьшенных копий
+        LayerStack drawn;
+        synchronized (tileLock) {
+            drawn = layers;
+            TileStore tiles = drawn.getActive().getTiles();
+            if (!canvas.getClipBounds(clipBounds) ||
+                    !clipBounds.intersect(0, 0, tiles.getWidth(), tiles.getHeight())) {
+                canvas.restoreToCount(saveCount);
+                return;
+            }
+            drawn.drawBelow(canvas, clipBounds, frameZoom);
+        }
+
+        // Для каждой выводимой линии
+        for (int i = 0; i < frameLines.length; i++) {
+            if (frameLines[i] == FRAME_STAMPS) {
+                stampCanvas = canvas;
+                frameStampers[i].quadTo(frameTailPoints[i * 4], frameTailPoints[i * 4 + 1],
+                        frameTailPoints[i * 4 + 2], frameTailPoints[i * 4 + 3], screenTarget);
+                stampCanvas = null;
+            } else if (frameLines[i] == FRAME_PATH) {
+                canvas.drawPath(framePaths[i], framePaint);  // Рисование линии
+                canvas.drawPath(frameTails[i], framePaint);  // Продолжение до пальца
+            }
+        }
+
+        // Линии, которые сейчас рисуют на других устройствах
+        share.drawFrame(canvas);
+
+        // Слои выше активного закрывают рисуемые линии (если слои заменены
+        // во время кадра, следующий кадр выводит все заново)
+        synchronized (tileLock) {
+            if (layers == drawn)
+                drawn.drawAbove(canvas, clipBounds, frameZoom);
+        }
+        if (frameEraser)
+            canvas.drawCircle(frameEraserX, frameEraserY, frameEraserRadius, paintEraser);
+        canvas.restoreToCount(saveCount);
+    }
+
+    // Обработка события касания
+    public synchronized boolean onTouchEvent(MotionEvent event) {
+        if (metrics == null)
+            return dispatchTouchEvent(event);
+        metrics.touchStarted(event);
+        boolean handled = dispatchTouchEvent(event);
+        metrics.touchFinished();
+        if (metrics.isOverlayVisible())
+            host.invalidateRegion(metrics.getOverlayBounds());  // Новые значения
+        return handled;
+    }
+
+    // Перемещение пальцев, рисующих линии-контуры (или жест), меняет только
+    // контуры и вид: такое событие не ждет вывода плиток в потоке вывода
+    private boolean dispatchTouchEvent(MotionEvent event) {
+        if (!drawsOnTiles(event))
+            return handleTouchEvent(event);
+        synchronized (tileLock) {
+            return handleTouchEvent(event);
+        }
+    }
+
+    // Событие может менять плитки (и выполняется под tileLock)
+    private boolean drawsOnTiles(MotionEvent event) {
+        return event.getActionMasked() != MotionEvent.ACTION_MOVE ||
+                brush.isStamped() || brush.isEraser();
+    }
+
+    private boolean handleTouchEvent(MotionEvent event) {
+        if (layers == null)
+            return false;  // Размеры поверхности еще неизвестны
+        if (timeLapses.isPlaying()) {
+            // Касание завершает воспроизведение и не рисует
+            if (event.getActionMasked() == MotionEvent.ACTION_DOWN)
+                stopTimeLapse();
+            return true;
+        }
+        int action = event.getActionMasked();  // Тип события
+        int actionIndex = event.getActionIndex();  // Указатель (палец)
+
+        // Пальцы жеста масштаба и сдвига не рисуют до конца касания
+        if (action == MotionEvent.ACTION_DOWN)
+            gesturing = false;  // Конец прежнего касания мог не прийти
+        if (gesturing || startsGesture(event)) {
+            gestureTouched(event);
+            return true;
+        }
+        if (fills.isFilling())
+            return true;  // До завершения заливки рисунок не меняется
+
+        // Заливка начинается в точке касания
+        if (brush.isFill()) {
+            if (action == MotionEvent.ACTION_DOWN) {
+                fillDownTime = event.getDownTime();
+                startFill(view.toCanvasX(event.getX()), view.toCanvasY(event.getY()));
+            }
+            return true;
+        }
+
+        // Что происходит: начало касания, конец, перемещение?
+        if (brush.isEraser()) {
+            eraserTouched(event);  // Ластик следует за первым пальцем
+        } else if (action == MotionEvent.ACTION_DOWN ||
+                action == MotionEvent.ACTION_POINTER_DOWN) {
+            touchStarted(view.toCanvasX(event.getX(actionIndex)),
+                    view.toCanvasY(event.getY(actionIndex)),
+                    event.getPointerId(actionIndex), event.getEventTime()); // получаем уникальный идентификатор пальца, сохраняющийся между
+            // событиями MotionEvent до того, как пользователь отведет палец от экрана
+        } else if (action == MotionEvent.ACTION_UP ||        // пользователь отвел палец от экрана
+                action == MotionEvent.ACTION_POINTER_UP) {
+            touchEnded(event.getPointerId(actionIndex));  // рисуем завершенный контур Path на растровом изображении
+        } else {
+            touchMoved(event);
+        }
+
+        // Перерисовка только измененной области и плиток (или всего представления)
+        invalidateDirtyRegion(drawsOnTiles(event));
+        return true;   //Событие отработано
+    }
+
+    // Второй палец коснулся экрана вскоре после первого: касание - жест,
+    // а не две линии
+    private boolean startsGesture(MotionEvent event) {
+        return event.getActionMasked() == MotionEvent.ACTION_POINTER_DOWN &&
+                event.getPointerCount() == 2 &&
+                event.getEventTime() - event.getDownTime() <= GESTURE_DELAY_MILLIS;
+    }
+
+    // Жест двумя пальцами: расстояние между ними меняет масштаб, а
+    // перемещение сдвигает рисунок. То, что успел начать первый палец
+    // (линия, заливка), отменяется; ластик успевает стереть линии под ним
+    private void gestureTouched(MotionEvent event) {
+        int action = event.getActionMasked();
+        if (!gesturing) {
+            gesturing = true;
+            for (int i = 0; i < pointers.capacity(); i++)
+                if (pointers.isActive(i))
+                    cancelStroke(i);
+            if (fills.isFilling() && fillDownTime == event.getDownTime())
+                cancelPendingFill();
+            if (eraser.isActive()) {
+                includeEraserInDirtyRect();
+                eraser.stop();
+                finishErase();
+            }
+            invalidateDirtyTiles();
+        }
+
+        if (action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL) {
+            gesturing = false;
+        } else if (action == MotionEvent.ACTION_POINTER_DOWN) {
+            startGesturePointers(event, -1);
+        } else if (action == MotionEvent.ACTION_POINTER_UP) {
+            startGesturePointers(event, event.getActionIndex());  // Без отведенного пальца
+        } else if (action == MotionEvent.ACTION_MOVE && gesturePointers[0] >= 0) {
+            int first = event.findPointerIndex(gesturePointers[0]);
+            int second = event.findPointerIndex(gesturePointers[1]);
+            if (first < 0 || second < 0)
+                return;
+            float ax = event.getX(first);
+            float ay = event.getY(first);
+            float bx = event.getX(second);
+            float by = event.getY(second);
+            view.pinch(gesturePoints[0], gesturePoints[1], gesturePoints[2], gesturePoints[3],
+                    ax, ay, bx, by);
+            gesturePoints[0] = ax;
+            gesturePoints[1] = ay;
+            gesturePoints[2] = bx;
+            gesturePoints[3] = by;
+            applyView();
+            host.invalidateAll();
+        }
+    }
+
+    // Выбор двух пальцев жеста (кроме пальца с индексом skipIndex);
+    // если пальцев меньше двух, масштаб и сдвиг не меняются
+    private void startGesturePointers(MotionEvent event, int skipIndex) {
+        int count = 0;
+        for (int i = 0; i < event.getPointerCount() && count < 2; i++) {
+            if (i == skipIndex)
+                continue;
+            gesturePointers[count] = event.getPointerId(i);
+            gesturePoints[count * 2] = event.getX(i);
+            gesturePoints[count * 2 + 1] = event.getY(i);
+            count++;
+        }
+        if (count < 2)
+            gesturePointers[0] = -1;
+    }
+
+    // Отмена рисуемой линии: она не попадает в журнал, а отпечатки кисти,
+    // уже поставленные на плитках, стираются восстановлением слоя
+    private void cancelStroke(int lineID) {
+        Path path = pointers.getPath(lineID);
+        path.computeBounds(pathBounds, false);
+        includeInDirtyRect(pathBounds.left, pathBounds.top, pathBounds.right, pathBounds.bottom);
+        path.reset();
+        RectF bounds = tailBounds[lineID];
+        includeTailInDirtyRect(bounds);
+        tails[lineID].reset();
+        bounds.set(0, 0, -1, -1);
+        pointers.end(lineID);
+        share.cancel(lineID);
+        if (brush.isStamped())
+            restoreLayer(layers.getActive(), strokeLog.size());
+    }
+
+    // Масштаб рисунка на поверхности (1 - без масштаба)
+    public synchronized float getZoom() {
+        return view.getZoom();
+    }
+
+    // Возврат к исходному масштабу без сдвига
+    public synchronized void resetView() {
+        view.reset();
+        viewMatrix.reset();
+        host.invalidateAll();
+    }
+
+    // Ограничение сдвига и обновление матрицы вывода
+    private void applyView() {
+        TileStore tiles = layers.getActive().getTiles();
+        view.constrain(tiles.getWidth(), tiles.getHeight(), tiles.getWidth(), tiles.getHeight());
+        viewMatrix.setScale(view.getZoom(), view.getZoom());
+        viewMatrix.postTranslate(view.getPanX(), view.getPanY());
+    }
+
+    // Перерисовка области, заданной в координатах рисунка
+    private void invalidateImageRegion(Rect rect) {
+        if (view.isIdentity()) {
+            host.invalidateRegion(rect);
+            return;
+        }
+        screenRect.set((int) Math.floor(view.toScreenX(rect.left)),
+                (int) Math.floor(view.toScreenY(rect.top)),
+                (int) Math.ceil(view.toScreenX(rect.right)),
+                (int) Math.ceil(view.toScreenY(rect.bottom)));
+        host.invalidateRegion(screenRect);
+    }
+
+    // Перемещение ластика: скрываются линии активного слоя, которых он
+    // коснулся во всех отсчетах события; когда палец отведен, они удаляются
+    private void eraserTouched(MotionEvent event) {
+        int action = event.getActionMasked();
+        if (eraser.isActive())
+            includeEraserInDirtyRect();  // Прежний контур ластика
+
+        if (action != MotionEvent.ACTION_DOWN && action != MotionEvent.ACTION_MOVE) {
+            if (action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL) {
+                eraser.stop();
+                finishErase();
+            }
+            return;
+        }
+
+        float radius = getEraserRadius();
+        int layerId = layers.getActive().getId();
+        int hidden = eraser.size();
+        int historySize = historicalSamples ? event.getHistorySize() : 0;
+        for (int h = 0; h <= historySize; h++) {
+            float x = view.toCanvasX(h < historySize ? event.getHistoricalX(0, h) : event.getX(0));
+            float y = view.toCanvasY(h < historySize ? event.getHistoricalY(0, h) : event.getY(0));
+            eraser.collect(strokeLog, strokeIndex.hitTest(strokeLog, x, y, radius), layerId);
+        }
+        if (eraser.size() > hidden)
+            hideStrokes(hidden);
+
+        eraser.moveTo(view.toCanvasX(event.getX(0)), view.toCanvasY(event.getY(0)));
+        includeEraserInDirtyRect();
+    }
+
+    private void includeEraserInDirtyRect() {
+        float radius = getEraserRadius();
+        includeInDirtyRect(eraser.getX() - radius, eraser.getY() - radius,
+                eraser.getX() + radius, eraser.getY() + radius);
+    }
+
+    // Перерисовка области линий, задетых ластиком, начиная с from, без
+    // всех скрытых линий
+    private void hideStrokes(int from) {
+        eraseBounds.setEmpty();
+        for (int i = from; i < eraser.size(); i++) {
+            StrokeIndex.strokeBounds(strokeLog, eraser.get(i), strokeBounds);
+            eraseBounds.union((int) Math.floor(strokeBounds[0]), (int) Math.floor(strokeBounds[1]),
+                    (int) Math.ceil(strokeBounds[2]), (int) Math.ceil(strokeBounds[3]));
+        }
+        eraser.sort();
+
+        Layer layer = layers.getActive();
+        TileStore tiles = layer.getTiles();
+        if (tiles.hasFills()) {
+            // Результат заливки зависит от всего слоя - слой строится заново
+            // от копии, сделанной до первой скрытой линии
+            int first = layer.getCheckpoints().restore(eraser.get(0), tiles);
+            if (first < 0) {
+                tiles.clear();
+                first = 0;
+            }
+            for (int i = first; i < strokeLog.size(); i++)
+                if (strokeLog.getLayer(i) == layer.getId() && !eraser.isErased(i))
+                    drawStroke(i, tiles);
+            return;
+        }
+
+        // Повтор только линий слоя, пересекающих область скрытых линий
+        tiles.eraseRect(eraseBounds);
+        tiles.setClip(eraseBounds);
+        for (int stroke : strokeIndex.query(eraseBounds.left, eraseBounds.top,
+                eraseBounds.right, eraseBounds.bottom, strokeLog.size()))
+            if (strokeLog.getLayer(stroke) == layer.getId() && !eraser.isErased(stroke))
+                drawStroke(stroke, tiles);
+        tiles.setClip(null);
+    }
+
+    // Удаление скрытых ластиком линий из журнала одной записью. Номера
+    // следующих линий сдвигаются в сетке и в копиях для отмены; копии
+    // слоя с удаленными линиями заменяет копия, сделанная сразу после удаления
+    private void finishErase() {
+        int[] erased = eraser.finish();
+        if (erased == null)
+            return;
+
+        Layer layer = layers.findById(strokeLog.getLayer(erased[0]));
+        strokeIndex.remove(erased, strokeLog.size());
+        strokeLog.remove(erased);
+        if (layer != null) {
+            layers.removeStrokes(layer, erased);
+            layer.getCheckpoints().save(strokeLog.size(), layer.getTiles());
+        }
+        if (journal != null) {
+            journal.appendErase(erased);
+            compactJournalIfNeeded();
+        }
+    }
+
+    private float getEraserRadius() {
+        return Math.max(paintLine.getStrokeWidth() / 2, MIN_ERASER_RADIUS * density);
+    }
+
+    // Вызывается при касании экрана
+    private void touchStarted(float x, float y, int lineID, long time) {
+        // Идентификатор вне таблицы - касание игнорируется
+        if (!pointers.start(lineID, x, y))
+            return;
+
+        // Переход к координатам касания
+        Path path = pointers.getPath(lineID);
+        path.reset();  // Очистка Path с началом нового касания
+        path.moveTo(x, y);
+        filters[lineID].reset(x, y, time);
+        share.begin(lineID, x, y, paintLine.getColor(), paintLine.getStrokeWidth(),
+                brush.encode(), layers.getActive().getId());
+        tails[lineID].reset();
+        tailBounds[lineID].set(0, 0, -1, -1);
+        includeInDirtyRect(x, y, x, y);  // Точка касания (закругленный конец)
+
+        // Первый отпечаток кисти ставится сразу
+        if (brush.isStamped()) {
+            stampTip = brushTip;
+            stampTiles = layers.getActive().getTiles();
+            stampers[lineID].begin(x, y, brush.getSpacing(paintLine.getStrokeWidth()), tileTarget);
+        }
+    }
+
+    // Вызывается при перемещении пальца по экрану
+    private void touchMoved(MotionEvent event) {
+        // Количество промежуточных отсчетов, накопленных с предыдущего события
+        int historySize = historicalSamples ? event.getHistorySize() : 0;
+
+        // Для каждого указателя (пальца) в объекте MotionEvent
+        for (int i = 0; i < event.getPointerCount(); i++) {  // getPointerCount возвращает количество касаний
+            // Получить идентификатор и индекс указателя
+            int pointerID = event.getPointerId(i);
+            int pointerIndex = event.findPointerIndex(pointerID);
+
+            // Если указатель рисует линию
+            if (pointers.isActive(pointerID)) {
+                // Сначала промежуточные отсчеты (от старых к новым)
+                for (int h = 0; h < historySize; h++)
+                    addSample(pointerID,
+                            view.toCanvasX(event.getHistoricalX(pointerIndex, h)),
+                            view.toCanvasY(event.getHistoricalY(pointerIndex, h)),
+                            event.getHistoricalEventTime(h));
+
+                // Затем текущие координаты указателя (в координатах рисунка)
+                addSample(pointerID, view.toCanvasX(event.getX(pointerIndex)),
+                        view.toCanvasY(event.getY(pointerIndex)), event.getEventTime());
+                updateTail(pointerID);
+            }
+        }
+    }
+
+    // Передача отсчета фильтру; принятая точка добавляется к контуру
+    private void addSample(int pointerID, float x, float y, long time) {
+        StrokeFilter filter = filters[pointerID];
+        if (filter.addSample(x, y, time))
+            extendPath(pointerID, filter.getX(), filter.getY());
+    }
+
+    // Добавление к контуру сегмента, заканчивающегося в новой точке
+    private void extendPath(int pointerID, float newX, float newY) {
+        float lastX = pointers.getLastX(pointerID);
+        float lastY = pointers.getLastY(pointerID);
+        float startX = pointers.getSegmentEndX(pointerID);
+        float startY = pointers.getSegmentEndY(pointerID);
+        float endX = (newX + lastX) / 2;
+        float endY = (newY + lastY) / 2;
+
+        // Расширение контура до новой точки
+        pointers.getPath(pointerID).quadTo(lastX, lastY, endX, // для добавления геометрической кривой от предыдущей точки к новой
+                endY);
+        if (brush.isStamped()) {
+            stampTip = brushTip;
+            stampTiles = layers.getActive().getTiles();
+            stampers[pointerID].quadTo(lastX, lastY, endX, endY, tileTarget);
+        }
+
+        // Кривая лежит внутри треугольника из начала, контрольной точки и конца сегмента
+        includeInDirtyRect(
+                Math.min(startX, Math.min(lastX, endX)),
+                Math.min(startY, Math.min(lastY, endY)),
+                Math.max(startX, Math.max(lastX, endX)),
+                Math.max(startY, Math.max(lastY, endY)));
+        pointers.setSegmentEnd(pointerID, endX, endY);
+
+        // Сохранение новых координат
+        pointers.addPoint(pointerID, newX, newY);
+        share.addPoint(pointerID, newX, newY);
+    }
+
+    // Продолжение линии от конца последнего сегмента через последнюю
+    // принятую точку к текущему (предсказанному) положению пальца
+    private void updateTail(int pointerID) {
+        RectF bounds = tailBounds[pointerID];
+        includeTailInDirtyRect(bounds);  // Прежнее продолжение
+
+        StrokeFilter filter = filters[pointerID];
+        float startX = pointers.getSegmentEndX(pointerID);
+        float startY = pointers.getSegmentEndY(pointerID);
+        float lastX = pointers.getLastX(pointerID);
+        float lastY = pointers.getLastY(pointerID);
+        float endX = filter.getPredictedX();
+        float endY = filter.getPredictedY();
+
+        Path tail = tails[pointerID];
+        tail.reset();
+        tail.moveTo(startX, startY);
+        tail.quadTo(lastX, lastY, endX, endY);
+
+        bounds.set(Math.min(startX, Math.min(lastX, endX)),
+                Math.min(startY, Math.min(lastY, endY)),
+                Math.max(startX, Math.max(lastX, endX)),
+                Math.max(startY, Math.max(lastY, endY)));
+        includeTailInDirtyRect(bounds);
+    }
+
+    private void includeTailInDirtyRect(RectF bounds) {
+        if (bounds.left <= bounds.right)
+            includeInDirtyRect(bounds.left, bounds.top, bounds.right, bounds.bottom);
+    }
+
+    // Вызывается при завершении касания
+    private void touchEnded(int lineID) {
+        if (!pointers.isActive(lineID))
+            return;
+
+        // Линия доводится до последнего (сглаженного, без предсказания) положения пальца:
+        // повтор точки дает последний сегмент, заканчивающийся в ней самой
+        StrokeFilter filter = filters[lineID];
+        if (filter.getX() != pointers.getLastX(lineID) || filter.getY() != pointers.getLastY(lineID)) {
+            extendPath(lineID, filter.getX(), filter.getY());
+            extendPath(lineID, filter.getX(), filter.getY());
+        }
+
+        Layer layer = layers.getActive();
+        TileStore tiles = layer.getTiles();
+        Path path = pointers.getPath(lineID);  // Получение объекта Path
+        path.computeBounds(pathBounds, false);  // Линия на экране до упрощения
+        includeInDirtyRect(pathBounds.left, pathBounds.top,
+                pathBounds.right, pathBounds.bottom);
+        path.reset();  // Сброс объекта Path (линия рисуется на плитках по точкам журнала)
+
+        // Упрощение точек линии с ограниченной погрешностью перед записью.
+        // Отпечатки кисти уже поставлены по исходным точкам: такая линия
+        // записывается без упрощения, чтобы повтор из журнала совпал с ней
+        int pointCount = pointers.getPointCount(lineID);
+        float[] points = pointers.getPoints(lineID);
+        if (!brush.isStamped()) {
+            pointCount = simplifier.simplify(points, pointCount);
+            points = simplifier.getPoints();
+        }
+
+        // Запись линии в журнал; копии с отброшенными для повтора линиями удаляются
+        layers.discardCheckpointsAfter(strokeLog.size());
+        strokeLog.append(points, pointCount,
+                paintLine.getColor(), paintLine.getStrokeWidth(), brush.encode(), layer.getId());
+        strokeIndex.add(strokeLog, strokeLog.size() - 1);
+        if (!brush.isStamped()) {
+            // Отпечатки кисти уже на плитках, линия контуром рисуется целиком -
+            // по упрощенным точкам, так же как при повторе из журнала
+            drawStroke(strokeLog.size() - 1, tiles);
+            renderer.getPath().computeBounds(pathBounds, false);
+            includeInDirtyRect(pathBounds.left, pathBounds.top,
+                    pathBounds.right, pathBounds.bottom);
+        }
+        // Копия не снимается, пока другим пальцем ставятся отпечатки
+        // (незавершенная линия уже частично на плитках)
+        if (!brush.isStamped() || !otherPointerActive(lineID))
+            layer.getCheckpoints().onStrokeCommitted(strokeLog.size(), tiles);
+        long stamp = strokeLog.getStamp(strokeLog.size() - 1);
+        if (journal != null) {
+            // Линия дописывается в файл в потоке журнала
+            journal.appendStroke(points, pointCount,
+                    paintLine.getColor(), paintLine.getStrokeWidth(), brush.encode(),
+                    layer.getId(), StrokeLog.LOCAL, stamp);
+            compactJournalIfNeeded();
+        }
+        // Завершенная линия заменяет рисуемую на других устройствах
+        share.commit(lineID, points, pointCount, paintLine.getColor(),
+                paintLine.getStrokeWidth(), brush.encode(), layer.getId(), stamp);
+
+        // Продолжение линии больше не выводится
+        RectF bounds = tailBounds[lineID];
+        includeTailInDirtyRect(bounds);
+        tails[lineID].reset();
+        bounds.set(0, 0, -1, -1);
+        pointers.end(lineID);
+    }
+
+    private boolean otherPointerActive(int lineID) {
+        for (int i = 0; i < pointers.capacity(); i++)
+            if (i != lineID && pointers.isActive(i))
+                return true;
+        return false;
+    }
+
+    // Расширение области перерисовки с учетом толщины линии
+    private void includeInDirtyRect(float left, float top, float right, float bottom) {
+        includeInDirtyRect(left, top, right, bottom, paintLine.getStrokeWidth());
+    }
+
+    private void includeInDirtyRect(float left, float top, float right, float bottom,
+                                    float width) {
+        float margin = width / 2 + DIRTY_MARGIN;
+        dirtyRect.union((int) Math.floor(left - margin), (int) Math.floor(top - margin),
+                (int) Math.ceil(right + margin), (int) Math.ceil(bottom + margin));
+    }
+
+    // Подключение к общему холсту через ретранслятор host:port; свои
+    // линии передаются другим устройствам, их линии рисуются здесь
+    public synchronized void startSharing(String host, int port) {
+        stopSharing();
+        strokeLog.setLocalPeer(share.start(host, port));
+    }
+
+    // Отключение от общего холста; линии других устройств остаются в рисунке
+    public synchronized void stopSharing() {
+        if (share.stop())
+            host.invalidateAll();
+    }
+
+    public synchronized boolean isSharing() {
+        return share.isSharing();
+    }
+
+    private synchronized void sharingFailed(StrokeStreamWriter writer) {
+        if (!share.isConnection(writer))
+            return;  // Соединение уже закрыто или заменено
+        stopSharing();
+        Toast.makeText(context, R.string.message_sharing_disconnected, Toast.LENGTH_SHORT).show();
+    }
+
+    // Применение принятых пакетов (в потоке интерфейса); пока идет заливка,
+    // пакеты ждут ее завершения
+    private synchronized void applyReceivedBatches() {
+        synchronized (tileLock) {
+            if (layers == null)
+                return;
+            applyQueuedStrokes();
+            if (!fills.isFilling() && share.isSharing())
+                share.receiveBatches();
+            invalidateDirtyTiles();
+        }
+    }
+
+    // Завершенные линии других устройств добавляются по порядку; заливка
+    // выполняется в фоновом потоке, и следующие линии ждут ее завершения
+    private void applyQueuedStrokes() {
+        while (!fills.isFilling()) {
+            StrokeStreamReader.RemoteStroke stroke = share.pollStroke();
+            if (stroke == null)
+                return;
+            Brush strokeBrush = Brush.decode(stroke.getBrush());
+            if (!strokeBrush.isFill()) {
+                addRemoteStroke(stroke, null);
+                continue;
+            }
+            // Копия пикселов слоя снимается сразу, как и для своей заливки
+            startFill(remoteLayer(stroke).getTiles(), (int) stroke.getPoints()[0],
+                    (int) stroke.getPoints()[1], stroke.getColor(), strokeBrush, stroke);
+        }
+    }
+
+    // Слой линии другого устройства: с тем же идентификатором, если его нет - активный
+    private Layer remoteLayer(StrokeStreamReader.RemoteStroke stroke) {
+        Layer layer = layers.findById(stroke.getLayer());
+        return layer != null ? layer : layers.getActive();
+    }
+
+    // Линия другого устройства встает в журнал по отметке порядка и
+    // рисуется на своем слое (заливка - готовым результатом fill) и
+    // записывается в журнал на диске. Линия, вставшая перед уже
+    // нарисованными (одновременное рисование), перестраивает слой
+    private void addRemoteStroke(StrokeStreamReader.RemoteStroke stroke,
+                                 FillController.Fill<FillSeed> fill) {
+        Layer layer = remoteLayer(stroke);
+        TileStore tiles = layer.getTiles();
+        int count = strokeLog.size();
+        long stamp = StrokeLog.stamp(stroke.getClock(), stroke.getPeer());
+        int index = strokeLog.add(stroke.getPoints(), stroke.getPointCount(), stroke.getColor(),
+                stroke.getWidth(), stroke.getBrush(), layer.getId(), stroke.getPeer(), stamp);
+        if (index < count) {
+            insertedStroke(layer, index, count);
+        } else {
+            layers.discardCheckpointsAfter(count);
+            strokeIndex.add(strokeLog, index);
+            if (fill == null || !writeFill(fill, tiles))
+                drawStroke(index, tiles);
+            // Копия не снимается, пока на плитках активного слоя незавершенная
+            // линия отпечатков своего пальца
+            if (layer != layers.getActive() || !brush.isStamped() || !otherPointerActive(-1)) {
+                if (fill != null)
+                    layer.getCheckpoints().onFillCommitted(strokeLog.size(), tiles);
+                else
+                    layer.getCheckpoints().onStrokeCommitted(strokeLog.size(), tiles);
+            }
+        }
+        if (journal != null) {
+            journal.appendStroke(stroke.getPoints(), stroke.getPointCount(), stroke.getColor(),
+                    stroke.getWidth(), stroke.getBrush(), layer.getId(), stroke.getPeer(), stamp);
+            compactJournalIfNeeded();
+        }
+        if (layer != layers.getActive()) {
+            layers.invalidateCaches();
+            host.invalidateAll();
+        }
+    }
+
+    // Формат и качество (0-100) сохраняемого изображения
+    public synchronized void setSaveFormat(ImageSaver.Format format, int quality) {
+        saveFormat = format;
+        saveQuality = quality;
+    }
+
+    public synchronized ImageSaver.Format getSaveFormat() {
+        return saveFormat;
+    }
+
+    public synchronized int getSaveQuality() {
+        return saveQuality;
+    }
+
+    // Сохранение текущего изображения в галерее
+    public synchronized void saveImage() {
+        synchronized (tileLock) {
+            // Имя состоит из префикса "QuickSketch" и текущего времени
+            final String name = "QuickSketch-" + System.currentTimeMillis();
+
+            // Копии плиток слоев снимаются сразу, сборка, кодирование и запись -
+            // в фоновом потоке
+            if (imageSaver == null)
+                imageSaver = new ImageSaver(context.getContentResolver());
+            imageSaver.save(layers.snapshot(), name, saveFormat, saveQuality,
+                    new ImageSaver.Callback() {
+                        @Override
+                        public void onSaveFinished(Uri uri) {
+                            showSaveResult(uri != null, R.string.message_saved);
+                        }
+                    });
+        }
+    }
+
+    // Векторный экспорт линий в папку загрузок
+    public synchronized void exportVector(final VectorExporter.Format format) {
+        synchronized (tileLock) {
+            if (layers == null)
+                return;  // Размеры поверхности еще неизвестны
+            finishErase();
+            final String name = "QuickSketch-" + System.currentTimeMillis();
+
+            // Копия примененных линий снимается сразу, запись - в фоновом потоке
+            StrokeLog copy = new StrokeLog();
+            for (int i = 0; i < strokeLog.size(); i++)
+                copy.append(strokeLog, i);
+            TileStore tiles = layers.getActive().getTiles();
+            final VectorExporter exporter = new VectorExporter(copy, layers.encodeState(),
+                    tiles.getWidth(), tiles.getHeight());
+            if (imageSaver == null)
+                imageSaver = new ImageSaver(context.getContentResolver());
+            imageSaver.saveDocument(new ImageSaver.Document() {
+                        @Override
+                        public void writeTo(OutputStream out) throws IOException {
+                            exporter.export(format, out);
+                        }
+                    }, name + format.getExtension(), format.getMimeType(), context,
+                    new ImageSaver.Callback() {
+                        @Override
+                        public void onSaveFinished(Uri uri) {
+                            showSaveResult(uri != null, R.string.message_exported);
+                        }
+                    });
+        }
+    }
+
+    // Вывод сообщения о результате сохранения
+    private void showSaveResult(boolean saved, int savedMessage) {
+        if (saved) {
+            // Вывод сообщения об успешном сохранении
+            Toast message = Toast.makeText(context,
+                    savedMessage,
+                    Toast.LENGTH_LONG);
+            message.setGravity(Gravity.CENTER, message.getXOffset() / 2,
+                    message.getYOffset() / 2);
+            message.show();
+        } else {
+            // Вывод сообщения об ошибке сохранения
+            Toast message = Toast.makeText(context,
+                    R.string.message_error_saving, Toast.LENGTH_SHORT);
+            message.setGravity(Gravity.CENTER, message.getXOffset() / 2,
+                    message.getYOffset() / 2);
+            message.show();
+        }
+    }
+}
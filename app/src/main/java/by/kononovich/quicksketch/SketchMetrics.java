@@ -0,0 +1,205 @@
+package by.kononovich.quicksketch;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Debug;
+import android.view.MotionEvent;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+
+/**
+ * Показатели производительности рисования: задержка от времени события
+ * касания до завершения вывода кадра, длительность вывода и обработки
+ * касания, количество объектов, созданных при выводе и при обработке
+ * касания (только в отладочной сборке: счетчики объектов устарели и
+ * замедляют все выделения памяти процесса). Значения записываются в
+ * гистограммы без создания объектов. Движок создает показатели только
+ * при включенных измерениях
+ */
+
+public class SketchMetrics {
+    private static final long NANOS_PER_MILLI = 1000000;
+    // Подсчет созданных объектов (Debug.getThreadAllocCount)
+    private static final boolean COUNT_ALLOCATIONS = BuildConfig.DEBUG;
+    // Строки окна показателей и отступ текста (dp)
+    private static final int OVERLAY_LINES = COUNT_ALLOCATIONS ? 5 : 3;
+    private static final float OVERLAY_TEXT_SIZE = 12;
+    private static final float OVERLAY_PADDING = 4;
+
+    private final Histogram inputLatency = new Histogram();
+    private final Histogram drawTime = new Histogram();
+    private final Histogram touchTime = new Histogram();
+    private final Histogram drawAllocations = new Histogram();
+    private final Histogram touchAllocations = new Histogram();
+
+    // Время самого раннего события касания, еще не выведенного на экран (-1 - нет)
+    private long pendingEventNanos = -1;
+    private long touchStart;
+    private int touchAllocationStart;
+    private long drawStart;
+    private int drawAllocationStart;
+
+    // Окно показателей поверх рисунка
+    private boolean overlayVisible;
+    private final Paint textPaint = new Paint();
+    private final Paint backgroundPaint = new Paint();
+    private final Rect overlayBounds = new Rect();
+    private final float padding;
+
+    @SuppressWarnings("deprecation")
+    public SketchMetrics(float density) {
+        textPaint.setAntiAlias(true);
+        textPaint.setColor(Color.WHITE);
+        textPaint.setTextSize(OVERLAY_TEXT_SIZE * density);
+        backgroundPaint.setColor(0xB0000000);
+        padding = OVERLAY_PADDING * density;
+        overlayBounds.set(0, 0,
+                (int) Math.ceil(textPaint.measureText(formatLine("alloc touch", drawTime,
+                        1, "ms")) * 1.2f + padding * 2),
+                (int) Math.ceil(textPaint.getFontSpacing() * OVERLAY_LINES + padding * 2));
+        // Счетчики объектов потоков работают, пока измерения включены
+        if (COUNT_ALLOCATIONS)
+            Debug.startAllocCounting();
+    }
+
+    // Завершение измерений
+    @SuppressWarnings("deprecation")
+    public void release() {
+        if (COUNT_ALLOCATIONS)
+            Debug.stopAllocCounting();
+    }
+
+    // Начало обработки события касания. Время событий отсчитывается от
+    // того же монотонного времени, что и System.nanoTime
+    @SuppressWarnings("deprecation")
+    public void touchStarted(MotionEvent event) {
+        if (pendingEventNanos < 0)
+            pendingEventNanos = (event.getHistorySize() > 0 ?
+                    event.getHistoricalEventTime(0) : event.getEventTime()) * NANOS_PER_MILLI;
+        if (COUNT_ALLOCATIONS)
+            touchAllocationStart = Debug.getThreadAllocCount();
+        touchStart = System.nanoTime();
+    }
+
+    @SuppressWarnings("deprecation")
+    public void touchFinished() {
+        touchTime.record(System.nanoTime() - touchStart);
+        if (COUNT_ALLOCATIONS)
+            touchAllocations.record(Debug.getThreadAllocCount() - touchAllocationStart);
+    }
+
+    @SuppressWarnings("deprecation")
+    public void drawStarted() {
+        if (COUNT_ALLOCATIONS)
+            drawAllocationStart = Debug.getThreadAllocCount();
+        drawStart = System.nanoTime();
+    }
+
+    // Завершение вывода кадра: кадр показывает все обработанные события
+    @SuppressWarnings("deprecation")
+    public void drawFinished() {
+        long now = System.nanoTime();
+        drawTime.record(now - drawStart);
+        if (COUNT_ALLOCATIONS)
+            drawAllocations.record(Debug.getThreadAllocCount() - drawAllocationStart);
+        if (pendingEventNanos >= 0) {
+            inputLatency.record(now - pendingEventNanos);
+            pendingEventNanos = -1;
+        }
+    }
+
+    public void reset() {
+        inputLatency.reset();
+        drawTime.reset();
+        touchTime.reset();
+        drawAllocations.reset();
+        touchAllocations.reset();
+        pendingEventNanos = -1;
+    }
+
+    public boolean isOverlayVisible() {
+        return overlayVisible;
+    }
+
+    public void setOverlayVisible(boolean visible) {
+        overlayVisible = visible;
+    }
+
+    // Область окна показателей (перерисовывается вместе с рисунком)
+    public Rect getOverlayBounds() {
+        return overlayBounds;
+    }
+
+    // Вывод окна показателей в левом верхнем углу
+    public void drawOverlay(Canvas canvas) {
+        canvas.drawRect(overlayBounds, backgroundPaint);
+        float lineHeight = textPaint.getFontSpacing();
+        float y = padding - textPaint.ascent();
+        canvas.drawText(formatLine("input", inputLatency, NANOS_PER_MILLI, "ms"),
+                padding, y, textPaint);
+        canvas.drawText(formatLine("draw", drawTime, NANOS_PER_MILLI, "ms"),
+                padding, y + lineHeight, textPaint);
+        canvas.drawText(formatLine("touch", touchTime, NANOS_PER_MILLI, "ms"),
+                padding, y + lineHeight * 2, textPaint);
+        if (!COUNT_ALLOCATIONS)
+            return;
+        canvas.drawText(formatLine("alloc draw", drawAllocations, 1, ""),
+                padding, y + lineHeight * 3, textPaint);
+        canvas.drawText(formatLine("alloc touch", touchAllocations, 1, ""),
+                padding, y + lineHeight * 4, textPaint);
+    }
+
+    // Текстовый отчет (для dumpsys)
+    public void dump(String prefix, PrintWriter writer) {
+        writer.println(prefix + "QuickSketch metrics:");
+        dumpLine(prefix, writer, "input latency", inputLatency, NANOS_PER_MILLI, "ms");
+        dumpLine(prefix, writer, "draw time", drawTime, NANOS_PER_MILLI, "ms");
+        dumpLine(prefix, writer, "touch time", touchTime, NANOS_PER_MILLI, "ms");
+        if (!COUNT_ALLOCATIONS)
+            return;
+        dumpLine(prefix, writer, "draw allocations", drawAllocations, 1, "");
+        dumpLine(prefix, writer, "touch allocations", touchAllocations, 1, "");
+    }
+
+    // Отчет в JSON: для каждой гистограммы количество, среднее, процентили
+    // и наибольшее значение (время - в наносекундах)
+    public void writeJson(PrintWriter writer) {
+        writer.print('{');
+        writeJson(writer, "inputLatencyNanos", inputLatency);
+        writer.print(',');
+        writeJson(writer, "drawNanos", drawTime);
+        writer.print(',');
+        writeJson(writer, "touchNanos", touchTime);
+        if (COUNT_ALLOCATIONS) {
+            writer.print(',');
+            writeJson(writer, "drawAllocations", drawAllocations);
+            writer.print(',');
+            writeJson(writer, "touchAllocations", touchAllocations);
+        }
+        writer.println('}');
+    }
+
+    private static void writeJson(PrintWriter writer, String name, Histogram histogram) {
+        writer.print(String.format(Locale.US,
+                "\"%s\":{\"count\":%d,\"mean\":%.1f,\"p50\":%d,\"p90\":%d,\"p99\":%d,\"max\":%d}",
+                name, histogram.getCount(), histogram.getMean(),
+                histogram.getValueAtPercentile(50), histogram.getValueAtPercentile(90),
+                histogram.getValueAtPercentile(99), histogram.getMax()));
+    }
+
+    private static void dumpLine(String prefix, PrintWriter writer, String name,
+                                 Histogram histogram, long scale, String unit) {
+        writer.println(prefix + "  " + formatLine(name, histogram, scale, unit) +
+                String.format(Locale.US, "  (n=%d)", histogram.getCount()));
+    }
+
+    private static String formatLine(String name, Histogram histogram, long scale, String unit) {
+        return String.format(Locale.US, "%-11s p50 %6.1f  p99 %6.1f  max %6.1f %s", name,
+                (double) histogram.getValueAtPercentile(50) / scale,
+                (double) histogram.getValueAtPercentile(99) / scale,
+                (double) histogram.getMax() / scale, unit);
+    }
+}
@@ -0,0 +1,24 @@
+package by.kononovich.quicksketch;
+
+import android.os.Bundle;
+import android.support.v4.app.Fragment;
+
+// Фрагмент без интерфейса, сохраняемый при изменении конфигурации;
+// хранит рисунок (плитки и журнал линий), не помещая пикселы в Bundle
+public class SketchStateFragment extends Fragment {
+    private SketchEngine.State state;
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setRetainInstance(true);  // Фрагмент не уничтожается при повороте
+    }
+
+    public SketchEngine.State getState() {
+        return state;
+    }
+
+    public void setState(SketchEngine.State state) {
+        this.state = state;
+    }
+}
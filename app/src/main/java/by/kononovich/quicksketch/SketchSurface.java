@@ -0,0 +1,6 @@
+package by.kononovich.quicksketch;
+
+// Поверхность рисования - представление, выводящее рисунок SketchEngine
+public interface SketchSurface {
+    SketchEngine getEngine();
+}
@@ -0,0 +1,153 @@
+package by.kononovich.quicksketch;
+
+import android.graphics.Bitmap;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+/**
+ * Рисование линий журнала на плитках слоя тем же способом, что и при
+ * касании. Линию можно рисовать целиком или по частям (воспроизведение):
+ * отпечатки кисти ставятся на плитках по мере добавления точек, а линия
+ * контуром накапливается в Path и рисуется на плитках при завершении
+ */
+
+public class StrokeRenderer {
+    private final FloodFill floodFill;
+    private final BrushTipCache tipCache;
+    private final Paint paintLine;
+    private final Paint paintStamp;
+    private final Path path = new Path();
+    private final BrushStamper stamper = new BrushStamper();
+    private final Rect fillBounds = new Rect();
+
+    // Рисуемая линия
+    private StrokeLog log;
+    private int index;
+    private TileStore tiles;
+    private Brush brush;
+    private Bitmap stampTip;
+    private int drawnPoints;  // Количество уже нарисованных точек
+    private float lastX;
+    private float lastY;
+
+    public StrokeRenderer(FloodFill floodFill, BrushTipCache tipCache) {
+        this.floodFill = floodFill;
+        this.tipCache = tipCache;
+        paintLine = new Paint();
+        paintLine.setAntiAlias(true);
+        paintLine.setStyle(Paint.Style.STROKE);
+        paintLine.setStrokeCap(Paint.Cap.ROUND);
+        paintStamp = new Paint();
+        paintStamp.setFilterBitmap(true);  // Отпечатки в дробных координатах
+    }
+
+    // Отпечаток кисти на плитках слоя
+    private final BrushStamper.Target tileTarget = new BrushStamper.Target() {
+        @Override
+        public void stamp(float x, float y) {
+            tiles.drawBitmap(stampTip, x - stampTip.getWidth() / 2f,
+                    y - stampTip.getHeight() / 2f, paintStamp);
+        }
+    };
+
+    // Рисование линии index целиком
+    public void draw(StrokeLog log, int index, TileStore tiles) {
+        begin(log, index, tiles);
+        advanceTo(log.getPointCount(index), null);
+        finish();
+    }
+
+    // Начало линии index: первая точка (заливка выполняется сразу целиком,
+    // в вызывающем потоке на текущих пикселах)
+    public void begin(StrokeLog log, int index, TileStore tiles) {
+        this.log = log;
+        this.index = index;
+        this.tiles = tiles;
+        brush = Brush.decode(log.getBrush(index));
+        float width = log.getWidth(index);
+        lastX = log.getX(index, 0);
+        lastY = log.getY(index, 0);
+        drawnPoints = 1;
+
+        if (brush.isStamped()) {
+            stampTip = tipCache.get(brush, width, log.getColor(index));
+            stamper.begin(lastX, lastY, brush.getSpacing(width), tileTarget);
+        } else if (brush.isFill()) {
+            int[] pixels = tiles.readPixels();
+            int[] bounds = new int[4];
+            // Заливка в пикселах плиток (меньше изображения в режиме экономии памяти)
+            int pixelWidth = tiles.getPixelWidth();
+            int pixelHeight = tiles.getPixelHeight();
+            int seedX = Math.min((int) ((int) lastX * tiles.getScale()), pixelWidth - 1);
+            int seedY = Math.min((int) ((int) lastY * tiles.getScale()), pixelHeight - 1);
+            if (floodFill.fill(pixels, pixelWidth, pixelHeight, seedX, seedY,
+                    log.getColor(index), brush.getTolerance(), bounds, null) > 0) {
+                fillBounds.set(bounds[0], bounds[1], bounds[2], bounds[3]);
+                tiles.writePixels(pixels, fillBounds);
+            }
+        } else {
+            path.reset();
+            path.moveTo(lastX, lastY);
+            paintLine.setColor(log.getColor(index));
+            paintLine.setStrokeWidth(width);
+        }
+    }
+
+    // Добавление сегментов до точки pointCount (не включая ее); область
+    // новых сегментов без учета толщины добавляется к bounds (если не null)
+    public void advanceTo(int pointCount, RectF bounds) {
+        if (brush.isFill())
+            return;
+        for (int i = drawnPoints; i < pointCount; i++) {
+            float x = log.getX(index, i);
+            float y = log.getY(index, i);
+            float startX = (lastX + log.getX(index, Math.max(0, i - 2))) / 2;
+            float startY = (lastY + log.getY(index, Math.max(0, i - 2))) / 2;
+            float endX = (x + lastX) / 2;
+            float endY = (y + lastY) / 2;
+            if (brush.isStamped())
+                stamper.quadTo(lastX, lastY, endX, endY, tileTarget);
+            else
+                path.quadTo(lastX, lastY, endX, endY);
+
+            // Кривая лежит внутри треугольника из начала, контрольной точки и конца
+            if (bounds != null)
+                bounds.union(Math.min(startX, Math.min(lastX, endX)),
+                        Math.min(startY, Math.min(lastY, endY)),
+                        Math.max(startX, Math.max(lastX, endX)),
+                        Math.max(startY, Math.max(lastY, endY)));
+            lastX = x;
+            lastY = y;
+        }
+        drawnPoints = Math.max(drawnPoints, pointCount);
+    }
+
+    // Завершение линии: линия контуром рисуется на плитках
+    public void finish() {
+        if (isDrawingPath())
+            tiles.drawPath(path, paintLine);
+        log = null;
+        tiles = null;
+        brush = null;
+    }
+
+    // Рисуется ли линия контуром (она выводится через getPath до завершения)
+    public boolean isDrawingPath() {
+        return brush != null && !brush.isStamped() && !brush.isFill();
+    }
+
+    public int getDrawnPoints() {
+        return drawnPoints;
+    }
+
+    // Контур последней линии, рисуемой контуром
+    public Path getPath() {
+        return path;
+    }
+
+    public Paint getPaint() {
+        return paintLine;
+    }
+}
@@ -0,0 +1,236 @@
+package by.kononovich.quicksketch;
+
+import android.app.ActivityManager;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.provider.MediaStore;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Загрузка эскизов сохраненных изображений в фоновых потоках. Эскиз
+ * декодируется с уменьшением (inSampleSize) и хранится в памяти (LRU
+ * ограниченного объема) и в дисковом кэше, поэтому после перезапуска
+ * изображения заново не декодируются. Последние запросы выполняются
+ * первыми, а запросы для представлений, показывающих уже другое
+ * изображение (при прокрутке), пропускаются. Загрузчик общий для приложения
+ */
+
+public class ThumbnailLoader {
+    private static final String CACHE_DIRECTORY = "thumbnails";
+    private static final long DISK_CACHE_BYTES = 16 * 1024 * 1024;
+    // Доля класса памяти приложения для эскизов в памяти
+    private static final int MEMORY_CACHE_DIVISOR = 16;
+    private static final int THUMBNAIL_QUALITY = 85;
+    private static final int THREADS = 2;
+
+    private static ThumbnailLoader shared;
+
+    private final ContentResolver contentResolver;
+    private final LruCache<String, Bitmap> memoryCache;
+    private final File cacheDirectory;
+    private DiskCache diskCache;  // Открывается в фоновом потоке
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Очередь LIFO: видимые сейчас эскизы загружаются раньше пролистанных
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(THREADS, THREADS,
+            30, TimeUnit.SECONDS, new LinkedBlockingDeque<Runnable>() {
+                @Override
+                public boolean offer(Runnable runnable) {
+                    return offerFirst(runnable);
+                }
+            },
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    return new Thread(runnable, "QuickSketch-thumbnail");
+                }
+            });
+
+    private ThumbnailLoader(Context context) {
+        contentResolver = context.getContentResolver();
+        cacheDirectory = new File(context.getCacheDir(), CACHE_DIRECTORY);
+        ActivityManager activityManager =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        int maxBytes = activityManager.getMemoryClass() * 1024 * 1024 / MEMORY_CACHE_DIVISOR;
+        // Вытесненные эскизы не освобождаются через recycle: они могут еще выводиться
+        memoryCache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap thumbnail) {
+                return thumbnail.getRowBytes() * thumbnail.getHeight();
+            }
+        };
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    // Список сохраненных изображений (вызывается в главном потоке)
+    public interface SavesCallback {
+        void onSavesLoaded(long[] ids, long[] datesTaken);
+    }
+
+    public static synchronized ThumbnailLoader getShared(Context context) {
+        if (shared == null)
+            shared = new ThumbnailLoader(context.getApplicationContext());
+        return shared;
+    }
+
+    // Показ эскиза изображения id (MediaStore) размером не меньше size в view;
+    // dateTaken отличает новое изображение с тем же id от прежнего
+    public void load(final long id, long dateTaken, final int size, final ImageView view) {
+        final String key = id + "_" + dateTaken + "_" + size;
+        view.setTag(key);
+        Bitmap cached = memoryCache.get(key);
+        if (cached != null) {
+            view.setImageBitmap(cached);
+            return;
+        }
+        view.setImageDrawable(null);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!key.equals(view.getTag()))
+                    return;  // Представление уже показывает другое изображение
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                final Bitmap thumbnail = loadThumbnail(id, key, size);
+                if (thumbnail == null)
+                    return;
+                memoryCache.put(key, thumbnail);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (key.equals(view.getTag()))
+                            view.setImageBitmap(thumbnail);
+                    }
+                });
+            }
+        });
+    }
+
+    // Загрузка списка изображений, сохраненных приложением (новые - первыми)
+    public void loadSaves(final SavesCallback callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long[] ids = new long[0];
+                long[] dates = new long[0];
+                Cursor cursor = null;
+                try {
+                    cursor = contentResolver.query(MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
+                            new String[]{MediaStore.Images.Media._ID,
+                                    MediaStore.Images.Media.DATE_TAKEN},
+                            MediaStore.Images.Media.DESCRIPTION + " = ?",
+                            new String[]{ImageSaver.DESCRIPTION},
+                            MediaStore.Images.Media.DATE_TAKEN + " DESC");
+                    if (cursor != null) {
+                        ids = new long[cursor.getCount()];
+                        dates = new long[ids.length];
+                        for (int i = 0; i < ids.length && cursor.moveToNext(); i++) {
+                            ids[i] = cursor.getLong(0);
+                            dates[i] = cursor.getLong(1);
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    // Нет разрешения на чтение хранилища - список пуст
+                } finally {
+                    if (cursor != null)
+                        cursor.close();
+                }
+                final long[] savedIds = ids;
+                final long[] savedDates = dates;
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onSavesLoaded(savedIds, savedDates);
+                    }
+                });
+            }
+        });
+    }
+
+    // Эскиз из дискового кэша или декодированный из изображения (в фоновом потоке)
+    private Bitmap loadThumbnail(long id, String key, int size) {
+        DiskCache disk = getDiskCache();
+        byte[] data = disk.get(key);
+        if (data != null) {
+            Bitmap thumbnail = BitmapFactory.decodeByteArray(data, 0, data.length);
+            if (thumbnail != null)
+                return thumbnail;
+            disk.remove(key);
+        }
+
+        Uri uri = ContentUris.withAppendedId(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, id);
+        try {
+            // Сначала только размеры, затем декодирование с уменьшением в 2^n раз
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            decode(uri, options);
+            if (options.outWidth <= 0 || options.outHeight <= 0)
+                return null;
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = sampleSize(options.outWidth, options.outHeight, size);
+            options.inPreferredConfig = Bitmap.Config.RGB_565;  // Рисунки непрозрачны
+            Bitmap sampled = decode(uri, options);
+            if (sampled == null)
+                return null;
+
+            // Уменьшение до размера эскиза по меньшей стороне
+            float scale = (float) size / Math.min(sampled.getWidth(), sampled.getHeight());
+            Bitmap thumbnail = sampled;
+            if (scale < 1) {
+                thumbnail = Bitmap.createScaledBitmap(sampled,
+                        Math.max(1, Math.round(sampled.getWidth() * scale)),
+                        Math.max(1, Math.round(sampled.getHeight() * scale)), true);
+                sampled.recycle();
+            }
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            thumbnail.compress(Bitmap.CompressFormat.JPEG, THUMBNAIL_QUALITY, out);
+            disk.put(key, out.toByteArray());
+            return thumbnail;
+        } catch (IOException | RuntimeException e) {
+            return null;  // Изображение удалено или недоступно
+        }
+    }
+
+    private Bitmap decode(Uri uri, BitmapFactory.Options options) throws IOException {
+        InputStream in = contentResolver.openInputStream(uri);
+        if (in == null)
+            throw new IOException("Cannot open " + uri);
+        try {
+            return BitmapFactory.decodeStream(in, null, options);
+        } finally {
+            in.close();
+        }
+    }
+
+    private synchronized DiskCache getDiskCache() {
+        if (diskCache == null)
+            diskCache = new DiskCache(cacheDirectory, DISK_CACHE_BYTES);
+        return diskCache;
+    }
+
+    // Наибольший множитель уменьшения (степень 2), при котором меньшая
+    // сторона изображения остается не меньше size
+    static int sampleSize(int width, int height, int size) {
+        int sample = 1;
+        while (Math.min(width, height) / (sample * 2) >= size)
+            sample *= 2;
+        return sample;
+    }
+}
@@ -0,0 +1,698 @@
+package by.kononovich.quicksketch;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Изображение, хранящееся в виде плиток фиксированного размера.
+ * Плитка создается только при первом рисовании на ней, поэтому пустые
+ * области не занимают памяти; для каждой плитки отмечается, изменялась ли она.
+ * Плитки могут хранить изображение в уменьшенном масштабе (режим экономии
+ * памяти): рисование выполняется в координатах изображения, а при выводе
+ * плитки растягиваются. Bitmap плиток берутся из пула и возвращаются в него.
+ * Для вывода в уменьшенном виде строится пирамида уменьшенных копий:
+ * плитка уровня L собирается из четырех плиток уровня L - 1 и покрывает
+ * 2^L x 2^L исходных плиток. Уровни строятся при первом выводе, а после
+ * рисования заново собираются только плитки над измененными
+ */
+
+public class TileStore {
+    public static final int TILE_SIZE = 256;  // Размер стороны плитки в пикселах
+    public static final int MIP_LEVELS = 3;  // Уровни пирамиды (1/2, 1/4, 1/8)
+    // Запас вокруг контура (сглаживание краев и закругленные концы)
+    private static final float STROKE_MARGIN = 2;
+
+    private final int backgroundColor;
+    private final Paint backgroundPaint = new Paint();
+    private final float scale;  // Пикселов плитки на пиксел изображения (не больше 1)
+    private final BitmapPool pool = BitmapPool.getShared();
+    private int width;
+    private int height;
+    private int columns;
+    private int rows;
+    private Bitmap[] tiles;    // null - плитка пуста (цвет фона)
+    private Canvas[] canvases; // Canvas плитки в координатах всего изображения
+    private boolean[] dirty;   // Плитка изменилась после последнего collectDirty
+    private long[] changed;    // Номер последнего изменения плитки (для сборок слоев)
+    private long changeCount;  // Номер последнего изменения всех плиток
+    // Плитки уровней пирамиды (mips[L - 1]; null - уровень еще не выводился)
+    // и отметки о том, что плитка уровня устарела
+    private final Bitmap[][] mips = new Bitmap[MIP_LEVELS][];
+    private final boolean[][] mipStale = new boolean[MIP_LEVELS][];
+    private final Paint mipPaint = copyPaint();
+    private final Rect mipRect = new Rect();
+
+    private final RectF pathBounds = new RectF();
+    private final Rect tileRect = new Rect();
+    private final RectF tileBounds = new RectF();
+    private final Rect clip = new Rect();  // Область, вне которой рисование не действует
+    private boolean clipped;
+    private boolean filled;  // На плитках есть результат заливки (writePixels)
+
+    public TileStore(int width, int height, int backgroundColor) {
+        this(width, height, backgroundColor, 1);
+    }
+
+    public TileStore(int width, int height, int backgroundColor, float scale) {
+        this.backgroundColor = backgroundColor;
+        backgroundPaint.setColor(backgroundColor);
+        this.scale = scale;
+        this.width = width;
+        this.height = height;
+        columns = tilesFor(width, scale);
+        rows = tilesFor(height, scale);
+        tiles = new Bitmap[columns * rows];
+        canvases = new Canvas[columns * rows];
+        dirty = new boolean[columns * rows];
+        changed = new long[columns * rows];
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getBackgroundColor() {
+        return backgroundColor;
+    }
+
+    public float getScale() {
+        return scale;
+    }
+
+    // Изменение размеров изображения без потери нарисованного: сетка плиток
+    // только растет, плитки за пределами новых размеров сохраняются.
+    // Возвращает true, если изменилось расположение плиток в сетке
+    public boolean resize(int newWidth, int newHeight) {
+        width = newWidth;
+        height = newHeight;
+        int newColumns = Math.max(columns, tilesFor(newWidth, scale));
+        int newRows = Math.max(rows, tilesFor(newHeight, scale));
+        if (newColumns == columns && newRows == rows)
+            return false;
+
+        // Плитки переносятся в новую сетку без копирования пикселов;
+        // смещение Canvas плитки зависит только от ее строки и столбца
+        Bitmap[] newTiles = new Bitmap[newColumns * newRows];
+        Canvas[] newCanvases = new Canvas[newColumns * newRows];
+        for (int i = 0; i < tiles.length; i++) {
+            int index = (i / columns) * newColumns + i % columns;
+            newTiles[index] = tiles[i];
+            newCanvases[index] = canvases[i];
+        }
+        releaseMips();  // Сетка уровней пирамиды зависит от сетки плиток
+        tiles = newTiles;
+        canvases = newCanvases;
+        dirty = new boolean[newColumns * newRows];
+        changed = new long[newColumns * newRows];
+        columns = newColumns;
+        rows = newRows;
+        return true;
+    }
+
+    // Рисование контура на всех затронутых им плитках
+    public void drawPath(Path path, Paint paint) {
+        path.computeBounds(pathBounds, false);
+        // Контур из одной точки (касание без движения) ничего не рисует -
+        // плитки под ним не создаются
+        if (pathBounds.width() == 0 && pathBounds.height() == 0)
+            return;
+        float margin = paint.getStrokeWidth() / 2 + STROKE_MARGIN;
+        int firstColumn = Math.max(0, tileOf(pathBounds.left - margin));
+        int lastColumn = Math.min(columns - 1, tileOf(pathBounds.right + margin));
+        int firstRow = Math.max(0, tileOf(pathBounds.top - margin));
+        int lastRow = Math.min(rows - 1, tileOf(pathBounds.bottom + margin));
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                Canvas canvas = beginDraw(row * columns + column);
+                if (canvas != null) {
+                    canvas.drawPath(path, paint);
+                    endDraw(canvas);
+                }
+            }
+        }
+    }
+
+    // Рисование Bitmap (отпечатка кисти) на всех затронутых им плитках
+    public void drawBitmap(Bitmap bitmap, float left, float top, Paint paint) {
+        int firstColumn = Math.max(0, tileOf(left));
+        int lastColumn = Math.min(columns - 1, tileOf(left + bitmap.getWidth() + 1));
+        int firstRow = Math.max(0, tileOf(top));
+        int lastRow = Math.min(rows - 1, tileOf(top + bitmap.getHeight() + 1));
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                Canvas canvas = beginDraw(row * columns + column);
+                if (canvas != null) {
+                    canvas.drawBitmap(bitmap, left, top, paint);
+                    endDraw(canvas);
+                }
+            }
+        }
+    }
+
+    // Ограничение последующего рисования областью bounds (null - без ограничения)
+    public void setClip(Rect bounds) {
+        clipped = bounds != null;
+        if (clipped)
+            clip.set(bounds);
+    }
+
+    // Заполнение области bounds цветом фона (пустые плитки не создаются)
+    public void eraseRect(Rect bounds) {
+        for (int index = 0; index < tiles.length; index++) {
+            setTileRect(index);
+            if (tiles[index] == null || !tileRect.intersect(bounds))
+                continue;
+            Canvas canvas = canvases[index];
+            canvas.save();
+            canvas.clipRect(tileRect);
+            canvas.drawColor(backgroundColor, PorterDuff.Mode.SRC);
+            canvas.restore();
+            markDirty(index);
+        }
+    }
+
+    // Размеры изображения в пикселах плиток (в режиме экономии памяти
+    // меньше размеров изображения)
+    public int getPixelWidth() {
+        return (int) Math.ceil(width * scale);
+    }
+
+    public int getPixelHeight() {
+        return (int) Math.ceil(height * scale);
+    }
+
+    // Копия пикселов плиток (getPixelWidth x getPixelHeight, ARGB по строкам):
+    // уменьшенные плитки не растягиваются до размеров изображения.
+    // Пустые плитки заполняются цветом фона
+    public int[] readPixels() {
+        int pixelWidth = getPixelWidth();
+        int[] pixels = new int[pixelWidth * getPixelHeight()];
+        for (int index = 0; index < tiles.length; index++) {
+            if (!setTilePixelRect(index))
+                continue;
+            int offset = tileRect.top * pixelWidth + tileRect.left;
+            if (tiles[index] != null) {
+                tiles[index].getPixels(pixels, offset, pixelWidth,
+                        tileRect.left - (index % columns) * TILE_SIZE,
+                        tileRect.top - (index / columns) * TILE_SIZE,
+                        tileRect.width(), tileRect.height());
+            } else {
+                for (int y = 0; y < tileRect.height(); y++)
+                    Arrays.fill(pixels, offset + y * pixelWidth,
+                            offset + y * pixelWidth + tileRect.width(), backgroundColor);
+            }
+        }
+        return pixels;
+    }
+
+    // Запись области bounds (в пикселах плиток) из массива, полученного readPixels
+    public void writePixels(int[] pixels, Rect bounds) {
+        int pixelWidth = getPixelWidth();
+        for (int index = 0; index < tiles.length; index++) {
+            if (!setTilePixelRect(index) || !tileRect.intersect(bounds))
+                continue;
+            obtainCanvas(index);  // Пустая плитка создается
+            tiles[index].setPixels(pixels, tileRect.top * pixelWidth + tileRect.left, pixelWidth,
+                    tileRect.left - (index % columns) * TILE_SIZE,
+                    tileRect.top - (index / columns) * TILE_SIZE,
+                    tileRect.width(), tileRect.height());
+            markDirty(index);
+        }
+        filled = true;
+    }
+
+    // Результат заливки зависит от всех пикселов: стертую область нельзя
+    // восстановить повтором только пересекающих ее линий
+    public boolean hasFills() {
+        return filled;
+    }
+
+    void setHasFills(boolean filled) {
+        this.filled = filled;
+    }
+
+    // Вывод плиток уровня пирамиды level (0 - исходные плитки), пересекающих область clip
+    public void draw(Canvas canvas, Rect clip, Paint paint, int level) {
+        level = Math.min(level, MIP_LEVELS);
+        if (level == 0) {
+            draw(canvas, clip, paint);
+            return;
+        }
+        float span = (TILE_SIZE << level) / scale;  // Пикселов изображения на плитку уровня
+        int mipColumns = mipColumns(level);
+        int firstColumn = Math.max(0, (int) Math.floor(clip.left / span));
+        int lastColumn = Math.min(mipColumns - 1, (int) Math.floor((clip.right - 0.5f) / span));
+        int firstRow = Math.max(0, (int) Math.floor(clip.top / span));
+        int lastRow = Math.min(mipRows(level) - 1, (int) Math.floor((clip.bottom - 0.5f) / span));
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                Bitmap tile = obtainMip(level, row * mipColumns + column);
+                tileBounds.set(column * span, row * span, (column + 1) * span, (row + 1) * span);
+                if (tile != null)
+                    canvas.drawBitmap(tile, null, tileBounds, paint);
+                else if (Color.alpha(backgroundColor) != 0)
+                    canvas.drawRect(tileBounds, backgroundPaint);
+            }
+        }
+    }
+
+    // Вывод плиток, пересекающих область clip
+    public void draw(Canvas canvas, Rect clip, Paint paint) {
+        int firstColumn = Math.max(0, tileOf(clip.left));
+        int lastColumn = Math.min(columns - 1, tileOf(clip.right - 0.5f));
+        int firstRow = Math.max(0, tileOf(clip.top));
+        int lastRow = Math.min(rows - 1, tileOf(clip.bottom - 0.5f));
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                Bitmap tile = tiles[row * columns + column];
+                if (tile != null) {
+                    drawTile(canvas, tile, row * columns + column, columns, scale, paint,
+                            tileBounds);
+                } else if (Color.alpha(backgroundColor) != 0) {  // Прозрачные плитки не выводятся
+                    setTileRect(row * columns + column);
+                    canvas.drawRect(tileRect, backgroundPaint);
+                }
+            }
+        }
+    }
+
+    // Объединение прямоугольников измененных плиток; отметки об изменении сбрасываются
+    public boolean collectDirty(Rect out) {
+        boolean found = false;
+        for (int i = 0; i < dirty.length; i++) {
+            if (dirty[i]) {
+                setTileRect(i);
+                out.union(tileRect);
+                dirty[i] = false;
+                found = true;
+            }
+        }
+        return found;
+    }
+
+    // Номер последнего изменения плиток: растет при каждом изменении
+    public long getChangeCount() {
+        return changeCount;
+    }
+
+    // Объединение прямоугольников плиток, измененных после изменения с
+    // номером since (отметки collectDirty не затрагиваются)
+    public boolean collectChangedSince(long since, Rect out) {
+        boolean found = false;
+        for (int i = 0; i < changed.length; i++) {
+            if (changed[i] > since) {
+                setTileRect(i);
+                out.union(tileRect);
+                found = true;
+            }
+        }
+        return found;
+    }
+
+    // Отметка всех плиток как измененных
+    public void markAllDirty() {
+        for (int i = 0; i < dirty.length; i++)
+            markDirty(i);
+    }
+
+    // Стирание изображения: все плитки освобождаются
+    public void clear() {
+        filled = false;
+        releaseMips();
+        for (int i = 0; i < tiles.length; i++) {
+            if (tiles[i] != null) {
+                releaseTile(i);
+                markDirty(i);
+            }
+        }
+    }
+
+    // Копии непустых плиток (null для пустых); копии возвращаются в пул
+    // через BitmapPool.release
+    public Bitmap[] copyTiles() {
+        Bitmap[] copies = new Bitmap[tiles.length];
+        Paint paint = copyPaint();
+        for (int i = 0; i < tiles.length; i++) {
+            if (tiles[i] != null) {
+                copies[i] = pool.obtain(TILE_SIZE, TILE_SIZE, tiles[i].getConfig());
+                new Canvas(copies[i]).drawBitmap(tiles[i], 0, 0, paint);
+            }
+        }
+        return copies;
+    }
+
+    // Восстановление изображения из копий, полученных copyTiles
+    public void restoreTiles(Bitmap[] copies) {
+        Paint paint = copyPaint();
+        for (int i = 0; i < tiles.length; i++) {
+            Bitmap copy = i < copies.length ? copies[i] : null;
+            if (copy != null) {
+                // Пикселы плитки заменяются пикселами копии
+                obtainCanvas(i);
+                new Canvas(tiles[i]).drawBitmap(copy, 0, 0, paint);
+                markDirty(i);
+            } else if (tiles[i] != null) {
+                releaseTile(i);
+                markDirty(i);
+            }
+        }
+    }
+
+    // Сжатие непустых плиток в PNG (null для пустых); плитки освобождаются
+    public byte[][] compressTiles() {
+        byte[][] compressed = new byte[tiles.length][];
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < tiles.length; i++) {
+            if (tiles[i] != null) {
+                out.reset();
+                tiles[i].compress(Bitmap.CompressFormat.PNG, 100, out);
+                compressed[i] = out.toByteArray();
+                releaseTile(i);
+            }
+        }
+        releaseMips();
+        return compressed;
+    }
+
+    // Восстановление плиток, сжатых compressTiles (сетка плиток не должна меняться);
+    // плитки распаковываются прямо в Bitmap из пула
+    public void decompressTiles(byte[][] compressed) {
+        for (int i = 0; i < tiles.length && i < compressed.length; i++) {
+            if (compressed[i] != null) {
+                if (tiles[i] != null)
+                    releaseTile(i);
+                installTile(i, decodeTile(compressed[i]));
+                markDirty(i);
+            }
+        }
+    }
+
+    // Вывод сжатых плиток, пересекающих область clip, без их восстановления
+    public void drawCompressed(byte[][] compressed, Canvas canvas, Rect clip, Paint paint) {
+        for (int i = 0; i < compressed.length; i++) {
+            setTileRect(i);
+            if (compressed[i] != null && Rect.intersects(tileRect, clip)) {
+                Bitmap tile = decodeTile(compressed[i]);
+                drawTile(canvas, tile, i, columns, scale, paint, tileBounds);
+                pool.release(tile);
+            }
+        }
+    }
+
+    // Распаковка плитки в Bitmap из пула (если формат PNG не позволяет
+    // использовать его повторно - в новый)
+    private Bitmap decodeTile(byte[] data) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inMutable = true;
+        options.inBitmap = pool.obtain(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888);
+        try {
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        } catch (IllegalArgumentException e) {
+            pool.release(options.inBitmap);
+            options.inBitmap = null;
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
+    }
+
+    // Объем памяти, занятой плитками, в байтах
+    public long allocatedBytes() {
+        long bytes = bytesOf(tiles);
+        for (Bitmap[] level : mips)
+            if (level != null)
+                bytes += bytesOf(level);
+        return bytes;
+    }
+
+    // Объем памяти набора плиток в байтах
+    public static long bytesOf(Bitmap[] tiles) {
+        long bytes = 0;
+        for (Bitmap tile : tiles)
+            if (tile != null)
+                bytes += (long) tile.getRowBytes() * tile.getHeight();
+        return bytes;
+    }
+
+    // Сборка всего изображения в один объект Bitmap (для сохранения)
+    public Bitmap toBitmap() {
+        return compose(tiles, columns, width, height, backgroundColor, scale);
+    }
+
+    // Снимок изображения, который можно собрать в другом потоке
+    public Snapshot snapshot() {
+        return new Snapshot(copyTiles(), columns, width, height, backgroundColor, scale);
+    }
+
+    private static Bitmap compose(Bitmap[] tiles, int columns, int width, int height,
+                                  int backgroundColor, float scale) {
+        Bitmap bitmap = BitmapPool.getShared().obtain(width, height, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(backgroundColor);
+        drawTiles(tiles, columns, width, height, scale, new Canvas(bitmap), null);
+        return bitmap;
+    }
+
+    // Вывод всех непустых плиток в пределах размеров изображения
+    private static void drawTiles(Bitmap[] tiles, int columns, int width, int height,
+                                  float scale, Canvas canvas, Paint paint) {
+        RectF bounds = new RectF();
+        for (int i = 0; i < tiles.length; i++) {
+            // Плитки за пределами текущих размеров не выводятся
+            if (tiles[i] != null && (i % columns) * TILE_SIZE / scale < width &&
+                    (i / columns) * TILE_SIZE / scale < height)
+                drawTile(canvas, tiles[i], i, columns, scale, paint, bounds);
+        }
+    }
+
+    // Вывод плитки index на ее место в координатах изображения
+    private static void drawTile(Canvas canvas, Bitmap tile, int index, int columns,
+                                 float scale, Paint paint, RectF bounds) {
+        float left = (index % columns) * TILE_SIZE / scale;
+        float top = (index / columns) * TILE_SIZE / scale;
+        if (scale == 1) {
+            canvas.drawBitmap(tile, left, top, paint);
+        } else {
+            bounds.set(left, top, left + TILE_SIZE / scale, top + TILE_SIZE / scale);
+            canvas.drawBitmap(tile, null, bounds, paint);
+        }
+    }
+
+    // Копирование пикселов с заменой и сглаживанием при изменении масштаба
+    private static Paint copyPaint() {
+        Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        paint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+        return paint;
+    }
+
+    // Canvas плитки для рисования с учетом ограничения области
+    // (null - плитка вне области); плитка отмечается измененной
+    private Canvas beginDraw(int index) {
+        if (clipped) {
+            setTileRect(index);
+            if (!Rect.intersects(tileRect, clip))
+                return null;
+        }
+        Canvas canvas = obtainCanvas(index);
+        if (clipped) {
+            canvas.save();
+            canvas.clipRect(clip);
+        }
+        markDirty(index);
+        return canvas;
+    }
+
+    private void endDraw(Canvas canvas) {
+        if (clipped)
+            canvas.restore();
+    }
+
+    // Canvas плитки; плитка создается при первом обращении
+    private Canvas obtainCanvas(int index) {
+        if (tiles[index] == null) {
+            installTile(index, pool.obtain(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888));
+            tiles[index].eraseColor(backgroundColor);
+        }
+        return canvases[index];
+    }
+
+    // Плитка index и ее Canvas в координатах всего изображения
+    private void installTile(int index, Bitmap tile) {
+        tiles[index] = tile;
+        canvases[index] = new Canvas(tile);
+        canvases[index].translate(-(index % columns) * TILE_SIZE, -(index / columns) * TILE_SIZE);
+        canvases[index].scale(scale, scale);
+    }
+
+    // Отметка об изменении плитки; плитки пирамиды над ней устаревают
+    private void markDirty(int index) {
+        dirty[index] = true;
+        changed[index] = ++changeCount;
+        for (int level = 1; level <= MIP_LEVELS; level++) {
+            boolean[] stale = mipStale[level - 1];
+            if (stale == null)
+                break;  // Более мелкие уровни строятся только через этот
+            stale[mipIndex(index, level)] = true;
+        }
+    }
+
+    // Плитка уровня пирамиды (null - все покрываемые ею плитки пусты);
+    // устаревшая плитка собирается заново из четырех плиток уровня ниже
+    private Bitmap obtainMip(int level, int index) {
+        if (mips[level - 1] == null) {
+            int count = mipColumns(level) * mipRows(level);
+            mips[level - 1] = new Bitmap[count];
+            mipStale[level - 1] = new boolean[count];
+            Arrays.fill(mipStale[level - 1], true);
+        }
+        Bitmap[] levelTiles = mips[level - 1];
+        if (!mipStale[level - 1][index])
+            return levelTiles[index];
+
+        int columns = mipColumns(level);
+        int childColumns = mipColumns(level - 1);
+        int childRows = mipRows(level - 1);
+        int half = TILE_SIZE / 2;
+        Canvas canvas = null;
+        for (int dy = 0; dy < 2; dy++) {
+            for (int dx = 0; dx < 2; dx++) {
+                int childRow = (index / columns) * 2 + dy;
+                int childColumn = (index % columns) * 2 + dx;
+                if (childRow >= childRows || childColumn >= childColumns)
+                    continue;
+                int child = childRow * childColumns + childColumn;
+                Bitmap childTile = level == 1 ? tiles[child] : obtainMip(level - 1, child);
+                if (childTile == null)
+                    continue;  // Четверть остается цветом фона
+                if (canvas == null) {
+                    if (levelTiles[index] == null)
+                        levelTiles[index] = pool.obtain(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888);
+                    levelTiles[index].eraseColor(backgroundColor);
+                    canvas = new Canvas(levelTiles[index]);
+                }
+                mipRect.set(dx * half, dy * half, dx * half + half, dy * half + half);
+                canvas.drawBitmap(childTile, null, mipRect, mipPaint);
+            }
+        }
+        if (canvas == null && levelTiles[index] != null) {
+            pool.release(levelTiles[index]);  // Покрываемые плитки стали пустыми
+            levelTiles[index] = null;
+        }
+        mipStale[level - 1][index] = false;
+        return levelTiles[index];
+    }
+
+    // Освобождение всех уровней пирамиды
+    private void releaseMips() {
+        for (int level = 0; level < MIP_LEVELS; level++) {
+            if (mips[level] != null)
+                for (Bitmap tile : mips[level])
+                    pool.release(tile);
+            mips[level] = null;
+            mipStale[level] = null;
+        }
+    }
+
+    // Размеры сетки плиток уровня пирамиды (уровень 0 - исходная сетка)
+    private int mipColumns(int level) {
+        return (columns + (1 << level) - 1) >> level;
+    }
+
+    private int mipRows(int level) {
+        return (rows + (1 << level) - 1) >> level;
+    }
+
+    // Плитка уровня пирамиды, покрывающая исходную плитку index
+    private int mipIndex(int index, int level) {
+        return ((index / columns) >> level) * mipColumns(level) + ((index % columns) >> level);
+    }
+
+    private void releaseTile(int index) {
+        pool.release(tiles[index]);
+        tiles[index] = null;
+        canvases[index] = null;
+    }
+
+    // Количество плиток, покрывающих size пикселов изображения
+    private static int tilesFor(int size, float scale) {
+        return (int) Math.ceil(size * scale / TILE_SIZE);
+    }
+
+    // Строка или столбец плиток, содержащий координату изображения
+    private int tileOf(float coordinate) {
+        return (int) Math.floor(coordinate * scale / TILE_SIZE);
+    }
+
+    // Область плитки в координатах изображения
+    private void setTileRect(int index) {
+        float span = TILE_SIZE / scale;
+        int left = (int) Math.floor((index % columns) * span);
+        int top = (int) Math.floor((index / columns) * span);
+        tileRect.set(left, top, (int) Math.ceil(left + span), (int) Math.ceil(top + span));
+    }
+
+    // Область плитки в пикселах плиток в пределах изображения;
+    // false - плитка за его пределами
+    private boolean setTilePixelRect(int index) {
+        int left = (index % columns) * TILE_SIZE;
+        int top = (index / columns) * TILE_SIZE;
+        tileRect.set(left, top, left + TILE_SIZE, top + TILE_SIZE);
+        return tileRect.intersect(0, 0, getPixelWidth(), getPixelHeight());
+    }
+
+    // Неизменяемые копии плиток на момент снимка
+    public static class Snapshot implements ImageSaver.Source {
+        private final Bitmap[] tiles;
+        private final int columns;
+        private final int width;
+        private final int height;
+        private final int backgroundColor;
+        private final float scale;
+
+        private Snapshot(Bitmap[] tiles, int columns, int width, int height,
+                         int backgroundColor, float scale) {
+            this.tiles = tiles;
+            this.columns = columns;
+            this.width = width;
+            this.height = height;
+            this.backgroundColor = backgroundColor;
+            this.scale = scale;
+        }
+
+        // Сборка снимка в один объект Bitmap
+        @Override
+        public Bitmap toBitmap() {
+            return compose(tiles, columns, width, height, backgroundColor, scale);
+        }
+
+        // Вывод плиток снимка поверх canvas (без сборки в отдельный Bitmap)
+        public void draw(Canvas canvas, Paint paint) {
+            drawTiles(tiles, columns, width, height, scale, canvas, paint);
+        }
+
+        // Возврат копий плиток в пул
+        @Override
+        public void recycle() {
+            for (int i = 0; i < tiles.length; i++) {
+                BitmapPool.getShared().release(tiles[i]);
+                tiles[i] = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package by.kononovich.quicksketch;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+/**
+ * Воспроизведение рисунка линия за линией на собственных слоях.
+ * Изображение строится постепенно: за кадр рисуются только сегменты,
+ * пройденные с предыдущего кадра, поверх уже нарисованного. Незавершенная
+ * линия контуром выводится поверх плиток и переносится на них целиком.
+ * Память не зависит от длительности: хранятся только слои и копия журнала
+ */
+
+public class TimeLapse {
+    // Запас в пикселах вокруг сегмента (сглаживание краев)
+    private static final float DIRTY_MARGIN = 2;
+
+    private final StrokeLog log = new StrokeLog();
+    private final ReplayTimeline timeline;
+    private final LayerStack layers;
+    private final StrokeRenderer renderer;
+    private final int width;
+    private final int height;
+    private int stroke;  // Рисуемая линия
+    private boolean started;  // Первая точка линии stroke уже нарисована
+    private final RectF segmentBounds = new RectF();
+    private final Rect imageRect;
+
+    // Воспроизводятся примененные линии видимых слоев журнала source
+    // на пустой копии слоев layout (размеры, формат хранения, параметры слоев)
+    public TimeLapse(StrokeLog source, LayerStack layout, float strokeGap,
+                     FloodFill floodFill, BrushTipCache tipCache) {
+        layers = layout.emptyCopy();
+        width = layers.getActive().getTiles().getWidth();
+        height = layers.getActive().getTiles().getHeight();
+        imageRect = new Rect(0, 0, width, height);
+        for (int i = 0; i < source.size(); i++) {
+            Layer layer = layers.findById(source.getLayer(i));
+            if (layer != null && layer.isVisible())
+                log.append(source, i);
+        }
+        timeline = new ReplayTimeline(log, strokeGap);
+        renderer = new StrokeRenderer(floodFill, tipCache);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    // Длина воспроизведения в пикселах пройденного пути
+    public float getLength() {
+        return timeline.getLength();
+    }
+
+    public boolean isFinished() {
+        return timeline.isFinished() && stroke >= log.size();
+    }
+
+    // Продвижение на pixels пикселов: новые сегменты рисуются поверх
+    // прежних. Область, которую нужно перерисовать, добавляется к dirty
+    // (если не null). Возвращает true, если воспроизведение завершено
+    public boolean advance(float pixels, Rect dirty) {
+        timeline.advance(pixels);
+        while (stroke < timeline.getStroke() ||
+                stroke == timeline.getStroke() && timeline.getPoint() > 0) {
+            if (!started)
+                beginStroke(dirty);
+
+            boolean complete = stroke < timeline.getStroke();
+            segmentBounds.setEmpty();
+            renderer.advanceTo(complete ? log.getPointCount(stroke) : timeline.getPoint(),
+                    segmentBounds);
+            if (dirty != null && !segmentBounds.isEmpty()) {
+                float margin = log.getWidth(stroke) / 2 + DIRTY_MARGIN;
+                dirty.union((int) Math.floor(segmentBounds.left - margin),
+                        (int) Math.floor(segmentBounds.top - margin),
+                        (int) Math.ceil(segmentBounds.right + margin),
+                        (int) Math.ceil(segmentBounds.bottom + margin));
+            }
+            if (!complete)
+                break;
+            renderer.finish();
+            stroke++;
+            started = false;
+        }
+
+        // Плитки, на которых поставлены отпечатки, залиты области или
+        // нарисованы завершенные линии
+        if (dirty != null)
+            layers.getActive().getTiles().collectDirty(dirty);
+        return isFinished();
+    }
+
+    // Первая точка линии stroke; активным становится слой линии
+    private void beginStroke(Rect dirty) {
+        Layer layer = layers.findById(log.getLayer(stroke));
+        if (layer != layers.getActive()) {
+            // Нижние и верхние слои собираются заново - перерисовывается все
+            layers.setActive(layers.indexOf(layer));
+            if (dirty != null)
+                dirty.union(imageRect);
+        }
+        renderer.begin(log, stroke, layer.getTiles());
+        started = true;
+    }
+
+    // Вывод текущего кадра: слои и незавершенная линия на своем слое
+    public void draw(Canvas canvas, Rect clip) {
+        layers.drawBelow(canvas, clip);
+        if (started && renderer.isDrawingPath())
+            canvas.drawPath(renderer.getPath(), renderer.getPaint());
+        layers.drawAbove(canvas, clip);
+    }
+
+    // Кадры воспроизведения с шагом step пикселов для сохранения
+    // последовательности изображений. Все кадры выводятся в один Bitmap
+    public ImageSaver.Frames frames(final float step) {
+        return new ImageSaver.Frames() {
+            private Bitmap frame;
+            private Canvas canvas;
+
+            @Override
+            public Bitmap next() {
+                if (frame == null) {
+                    frame = BitmapPool.getShared().obtain(width, height,
+                            layers.getOpaqueConfig());
+                    canvas = new Canvas(frame);
+                } else if (isFinished()) {
+                    return null;  // Последний кадр уже выведен
+                } else {
+                    advance(step, null);
+                }
+                draw(canvas, imageRect);
+                return frame;
+            }
+
+            @Override
+            public void recycle() {
+                BitmapPool.getShared().release(frame);
+                frame = null;
+                release();
+            }
+        };
+    }
+
+    // Освобождение слоев
+    public void release() {
+        layers.clear();
+    }
+}
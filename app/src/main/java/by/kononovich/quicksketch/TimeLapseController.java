@@ -0,0 +1,102 @@
+package by.kononovich.quicksketch;
+
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.view.Choreographer;
+
+/**
+ * Воспроизведение рисунка на экране с частотой обновления экрана и
+ * построение кадров для сохранения. Кадр передается владельцу (onTimeLapseFrame),
+ * который под своей блокировкой вызывает advance; методы вызываются в
+ * потоке интерфейса под блокировкой владельца
+ */
+
+public class TimeLapseController {
+    // Вызывается в потоке интерфейса на каждом кадре воспроизведения
+    public interface Listener {
+        void onTimeLapseFrame(long frameTimeNanos);
+    }
+
+    // Скорость при множителе 1 (dp в секунду), пауза перед каждой линией
+    // (dp), наибольший учитываемый интервал между кадрами (после задержки
+    // воспроизведение не перескакивает) и частота кадров сохраняемой
+    // последовательности
+    private static final float SPEED = 600;
+    private static final float GAP = 60;
+    private static final long MAX_FRAME_NANOS = 100000000L;
+    private static final int EXPORT_FPS = 30;
+
+    private final float density;
+    private final Listener listener;
+    private TimeLapse timeLapse;
+    private float speed;  // Пикселов пути в наносекунду
+    private long lastFrameNanos;
+
+    public TimeLapseController(float density, Listener listener) {
+        this.density = density;
+        this.listener = listener;
+    }
+
+    private final Choreographer.FrameCallback frameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            listener.onTimeLapseFrame(frameTimeNanos);
+        }
+    };
+
+    // Начало воспроизведения примененных линий log на копии слоев layers
+    // с множителем скорости speed; прежнее воспроизведение завершается
+    public void start(StrokeLog log, LayerStack layers, FloodFill floodFill,
+                      BrushTipCache tipCache, float speed) {
+        stop();
+        timeLapse = newTimeLapse(log, layers, floodFill, tipCache);
+        this.speed = speed * SPEED * density / 1e9f;
+        lastFrameNanos = 0;
+        Choreographer.getInstance().postFrameCallback(frameCallback);
+    }
+
+    // Завершение воспроизведения; false - оно не выполнялось
+    public boolean stop() {
+        if (timeLapse == null)
+            return false;
+        Choreographer.getInstance().removeFrameCallback(frameCallback);
+        timeLapse.release();
+        timeLapse = null;
+        return true;
+    }
+
+    public boolean isPlaying() {
+        return timeLapse != null;
+    }
+
+    // Продвижение на путь, пройденный со времени предыдущего кадра; область
+    // новых сегментов добавляется к dirty. Последний кадр остается на
+    // экране до stop
+    public void advance(long frameTimeNanos, Rect dirty) {
+        if (timeLapse == null)
+            return;
+        long elapsed = lastFrameNanos == 0 ? 0 :
+                Math.min(frameTimeNanos - lastFrameNanos, MAX_FRAME_NANOS);
+        lastFrameNanos = frameTimeNanos;
+        if (!timeLapse.advance(elapsed * speed, dirty))
+            Choreographer.getInstance().postFrameCallback(frameCallback);
+    }
+
+    // Вывод воспроизводимого рисунка в пределах clip
+    public void draw(Canvas canvas, Rect clip) {
+        timeLapse.draw(canvas, clip);
+    }
+
+    // Кадры воспроизведения для сохранения (строятся в потоке сохранения,
+    // поэтому заливка и кончики кисти - собственные)
+    public ImageSaver.Frames frames(StrokeLog log, LayerStack layers, FloodFill floodFill,
+                                    BrushTipCache tipCache, float speed) {
+        return newTimeLapse(log, layers, floodFill, tipCache)
+                .frames(speed * SPEED * density / EXPORT_FPS);
+    }
+
+    private TimeLapse newTimeLapse(StrokeLog log, LayerStack layers, FloodFill floodFill,
+                                   BrushTipCache tipCache) {
+        return new TimeLapse(log, layers, GAP * density, floodFill, tipCache);
+    }
+}
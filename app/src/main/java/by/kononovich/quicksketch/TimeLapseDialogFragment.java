@@ -0,0 +1,78 @@
+package by.kononovich.quicksketch;
+
+import android.app.AlertDialog;
+import android.app.Dialog;
+import android.content.Context;
+import android.content.DialogInterface;
+import android.os.Bundle;
+import android.support.v4.app.DialogFragment;
+import android.view.View;
+import android.widget.CheckBox;
+import android.widget.Spinner;
+
+// Используется для выбора скорости воспроизведения рисунка
+// и сохранения его кадров
+public class TimeLapseDialogFragment extends DialogFragment {
+    private Spinner speedSpinner;
+    private CheckBox saveFramesCheckBox;
+
+    @Override
+    public Dialog onCreateDialog(Bundle bundle) {
+        // Создание диалогового окна
+        AlertDialog.Builder builder =
+                new AlertDialog.Builder(getActivity());
+        View timeLapseDialogView =
+                getActivity().getLayoutInflater().inflate(
+                        R.layout.fragment_time_lapse, null);
+        builder.setView(timeLapseDialogView);
+
+        // Назначение сообщения AlertDialog
+        builder.setTitle(R.string.title_time_lapse_dialog);
+
+        speedSpinner = (Spinner) timeLapseDialogView.findViewById(R.id.timeLapseSpeedSpinner);
+        saveFramesCheckBox = (CheckBox) timeLapseDialogView.findViewById(R.id.saveFramesCheckBox);
+
+        // Воспроизведение на экране или сохранение кадров
+        builder.setPositiveButton(R.string.button_play,
+                new DialogInterface.OnClickListener() {
+                    public void onClick(DialogInterface dialog, int id) {
+                        float speed = 1 << speedSpinner.getSelectedItemPosition();
+                        MainActivityFragment fragment = getSketchFragment();
+                        if (saveFramesCheckBox.isChecked())
+                            fragment.exportTimeLapse(speed);
+                        else
+                            fragment.getSketchEngine().startTimeLapse(speed);
+                    }
+                }
+        );
+        builder.setNegativeButton(R.string.button_cancel, null);
+
+        return builder.create(); // Возвращение диалогового окна
+    }
+
+    // Возвращает ссылку на MainActivityFragment
+    private MainActivityFragment getSketchFragment() {
+        return (MainActivityFragment) getFragmentManager().findFragmentById(
+                R.id.sketchFragment);
+    }
+
+    // Сообщает MainActivityFragment, что диалоговое окно находится на экране
+    @Override
+    public void onAttach(Context context) {
+        super.onAttach(context);
+        MainActivityFragment fragment = getSketchFragment();
+
+        if (fragment != null)
+            fragment.setDialogOnScreen(true);
+    }
+
+    // Сообщает MainActivityFragment, что диалоговое окно не отображается
+    @Override
+    public void onDetach() {
+        super.onDetach();
+        MainActivityFragment fragment = getSketchFragment();
+
+        if (fragment != null)
+            fragment.setDialogOnScreen(false);
+    }
+}
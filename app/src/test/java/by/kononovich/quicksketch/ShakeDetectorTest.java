@@ -0,0 +1,130 @@
+package by.kononovich.quicksketch;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ShakeDetectorTest {
+    private static final long PERIOD = 20000000L;  // 50 Гц, как SENSOR_DELAY_GAME
+    private static final float G = 9.81f;
+
+    // Количество срабатываний на записи seconds секунд: к силе тяжести по оси z
+    // добавляется синусоида по оси x и шум
+    private static int countShakes(ShakeDetector detector, float seconds, float frequency,
+                                   float amplitude, float noise, long seed) {
+        Random random = new Random(seed);
+        int shakes = 0;
+        int samples = (int) (seconds * 1e9f / PERIOD);
+        for (int i = 0; i < samples; i++) {
+            long time = i * PERIOD;
+            float x = amplitude * (float) Math.sin(2 * Math.PI * frequency * time / 1e9);
+            if (detector.onSample(time,
+                    x + noise * (float) random.nextGaussian(),
+                    noise * (float) random.nextGaussian(),
+                    G + noise * (float) random.nextGaussian()))
+                shakes++;
+        }
+        return shakes;
+    }
+
+    // Моменты срабатываний (мс) на трассе из ресурса name: строки
+    // "t_ms,x,y,z", строки с # - комментарии
+    private static List<Long> replayTrace(ShakeDetector detector, String name)
+            throws IOException {
+        InputStream stream = ShakeDetectorTest.class.getResourceAsStream(name);
+        assertNotNull(name, stream);
+        List<Long> shakes = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(stream, "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#"))
+                    continue;
+                String[] fields = line.split(",");
+                long time = Long.parseLong(fields[0]);
+                if (detector.onSample(time * 1000000L, Float.parseFloat(fields[1]),
+                        Float.parseFloat(fields[2]), Float.parseFloat(fields[3])))
+                    shakes.add(time);
+            }
+        } finally {
+            reader.close();
+        }
+        return shakes;
+    }
+
+    private static ShakeDetector singlePeakDetector() {
+        return new ShakeDetector(ShakeDetector.DEFAULT_THRESHOLD, 1,
+                ShakeDetector.DEFAULT_WINDOW_NANOS, ShakeDetector.DEFAULT_DEBOUNCE_NANOS);
+    }
+
+    @Test
+    public void shakeTrace_triggersOnceWhileShaking() throws Exception {
+        List<Long> shakes = replayTrace(new ShakeDetector(), "shake_trace.csv");
+        assertEquals(1, shakes.size());
+        // Встряхивание на трассе - с 1000 до 2300 мс
+        assertTrue(shakes.get(0) > 1000 && shakes.get(0) < 2300);
+    }
+
+    @Test
+    public void walkingTrace_doesNotTrigger() throws Exception {
+        // Удары шагов превышают порог, но по одному за шаг
+        assertFalse(replayTrace(singlePeakDetector(), "walking_trace.csv").isEmpty());
+        assertEquals(0, replayTrace(new ShakeDetector(), "walking_trace.csv").size());
+    }
+
+    @Test
+    public void handlingTrace_doesNotTrigger() throws Exception {
+        // Подъем, поворот экрана, касания и стук о стол
+        assertFalse(replayTrace(singlePeakDetector(), "handling_trace.csv").isEmpty());
+        assertEquals(0, replayTrace(new ShakeDetector(), "handling_trace.csv").size());
+    }
+
+    @Test
+    public void restingDevice_doesNotTrigger() throws Exception {
+        assertEquals(0, countShakes(new ShakeDetector(), 10, 0, 0, 0.3f, 1));
+    }
+
+    @Test
+    public void walking_doesNotTrigger() throws Exception {
+        // Ходьба: около 2 шагов в секунду, ускорение несколько м/с2
+        assertEquals(0, countShakes(new ShakeDetector(), 10, 2, 4, 0.5f, 2));
+    }
+
+    @Test
+    public void singleBump_doesNotTrigger() throws Exception {
+        ShakeDetector detector = new ShakeDetector();
+        assertFalse(detector.onSample(0, 0, 0, G));
+        assertFalse(detector.onSample(PERIOD, 30, 0, G));
+        for (int i = 2; i < 100; i++)
+            assertFalse(detector.onSample(i * PERIOD, 0, 0, G));
+    }
+
+    @Test
+    public void vigorousShake_triggersOnceWithinDebounce() throws Exception {
+        final int[] notified = new int[1];
+        ShakeDetector detector = new ShakeDetector();
+        detector.setListener(new ShakeDetector.Listener() {
+            @Override
+            public void onShake() {
+                notified[0]++;
+            }
+        });
+
+        // Секунда встряхивания с частотой 5 Гц - меньше интервала debounce
+        assertEquals(1, countShakes(detector, 1, 5, 20, 0.5f, 3));
+        assertEquals(1, notified[0]);
+    }
+
+    @Test
+    public void longShake_triggersAgainAfterDebounce() throws Exception {
+        assertEquals(2, countShakes(new ShakeDetector(), 2.5f, 5, 20, 0.5f, 4));
+    }
+}
@@ -0,0 +1,60 @@
+package by.kononovich.quicksketch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+// Построение кривых линии: отпечатки вдоль квадратичных сегментов через
+// середины отрезков и упрощение точек завершенной линии (время на линию)
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CurveBenchmark {
+    @Param({"100", "1000"})
+    public int points;
+
+    private float[] trace;
+    private final BrushStamper stamper = new BrushStamper();
+    private final StrokeSimplifier simplifier = new StrokeSimplifier(0.7f);
+    private int stamps;
+
+    private final BrushStamper.Target counter = new BrushStamper.Target() {
+        @Override
+        public void stamp(float x, float y) {
+            stamps++;
+        }
+    };
+
+    @Setup
+    public void setUp() {
+        trace = SyntheticStrokes.trace(points, 2);
+    }
+
+    @Benchmark
+    public int stampPositions() {
+        stamps = 0;
+        float lastX = trace[0];
+        float lastY = trace[1];
+        stamper.begin(lastX, lastY, 2, counter);
+        for (int i = 1; i < points; i++) {
+            float x = trace[i * 2];
+            float y = trace[i * 2 + 1];
+            stamper.quadTo(lastX, lastY, (x + lastX) / 2, (y + lastY) / 2, counter);
+            lastX = x;
+            lastY = y;
+        }
+        return stamps;
+    }
+
+    @Benchmark
+    public int simplify() {
+        return simplifier.simplify(trace, points);
+    }
+}
@@ -0,0 +1,77 @@
+package by.kononovich.quicksketch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// Заливка области изображения 1024 x 1024, разделенного кольцами, с разным
+// количеством потоков; заливка занимает миллисекунды, поэтому копирование
+// исходных пикселов перед каждым вызовом почти не влияет на результат
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FloodFillBenchmark {
+    private static final int SIZE = SyntheticStrokes.IMAGE_SIZE;
+
+    @Param({"1", "2", "4"})
+    public int parallelism;
+
+    @Param({"0", "30"})
+    public int tolerance;
+
+    private ExecutorService executor;
+    private FloodFill floodFill;
+    private int[] source;
+    private int[] pixels;
+    private final int[] bounds = new int[4];
+
+    @Setup
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(Math.max(1, parallelism - 1));
+        floodFill = new FloodFill(executor, parallelism);
+
+        // Белое изображение с незамкнутыми кольцами и оттенками серого у колец,
+        // которые заливаются только при ненулевом допуске
+        source = new int[SIZE * SIZE];
+        Arrays.fill(source, 0xFFFFFFFF);
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                double distance = Math.hypot(x - SIZE / 2, y - SIZE / 2);
+                int ring = (int) distance % 64;
+                if (ring < 3 && Math.abs(x - SIZE / 2) > 8)
+                    source[y * SIZE + x] = 0xFF000000;
+                else if (ring < 6)
+                    source[y * SIZE + x] = 0xFFE8E8E8;
+            }
+        }
+        pixels = new int[source.length];
+    }
+
+    @Setup(Level.Invocation)
+    public void resetPixels() {
+        System.arraycopy(source, 0, pixels, 0, source.length);
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public int fill() {
+        return floodFill.fill(pixels, SIZE, SIZE, SIZE / 2, SIZE / 2 + 20, 0xFF3060C0,
+                tolerance, bounds, null);
+    }
+}
@@ -0,0 +1,51 @@
+package by.kononovich.quicksketch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+// Кодирование и разбор журнала рисунка из 200 линий по 100 точек
+// (время на весь журнал)
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JournalBenchmark {
+    private static final int STROKES = 200;
+    private static final int POINTS = 100;
+
+    private StrokeLog log;
+    private final SketchJournal.ByteSink sink = new SketchJournal.ByteSink();
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() {
+        log = SyntheticStrokes.log(STROKES, POINTS, 4);
+        encode();
+        encoded = Arrays.copyOf(sink.array(), sink.size());
+    }
+
+    @Benchmark
+    public int encode() {
+        sink.reset();
+        SketchJournal.writeHeader(sink);
+        for (int i = 0; i < log.size(); i++)
+            SketchJournal.encodeStroke(sink, log.getPoints(), log.getPointOffset(i),
+                    log.getPointCount(i), log.getColor(i), log.getWidth(i), log.getBrush(i),
+                    log.getLayer(i), log.getOwner(i), log.getStamp(i));
+        return sink.size();
+    }
+
+    @Benchmark
+    public int decode() {
+        StrokeLog decoded = new StrokeLog();
+        SketchJournal.decode(encoded, decoded);
+        return decoded.size();
+    }
+}
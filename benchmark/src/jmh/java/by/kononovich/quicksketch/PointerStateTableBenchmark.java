@@ -0,0 +1,62 @@
+package by.kononovich.quicksketch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+// Состояние пальцев при касании десятью пальцами: на каждое перемещение
+// чтение последней точки и конца сегмента и добавление точки (время на перемещение)
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PointerStateTableBenchmark {
+    private static final int FINGERS = 10;
+    private static final int MOVES = 200;
+
+    private PointerStateTable<Object> pointers;
+    private float[][] traces;
+
+    @Setup
+    public void setUp() {
+        Object[] paths = new Object[PointerStateTable.MAX_POINTERS];
+        for (int i = 0; i < paths.length; i++)
+            paths[i] = new Object();
+        pointers = new PointerStateTable<>(paths);
+        traces = new float[FINGERS][];
+        for (int i = 0; i < FINGERS; i++)
+            traces[i] = SyntheticStrokes.trace(MOVES, 10 + i);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FINGERS * MOVES)
+    public float multiTouch() {
+        for (int id = 0; id < FINGERS; id++)
+            pointers.start(id, traces[id][0], traces[id][1]);
+        float sum = 0;
+        for (int move = 1; move < MOVES; move++) {
+            for (int id = 0; id < FINGERS; id++) {
+                if (!pointers.isActive(id))
+                    continue;
+                float lastX = pointers.getLastX(id);
+                float lastY = pointers.getLastY(id);
+                float x = traces[id][move * 2];
+                float y = traces[id][move * 2 + 1];
+                sum += pointers.getSegmentEndX(id) + pointers.getSegmentEndY(id);
+                pointers.setSegmentEnd(id, (x + lastX) / 2, (y + lastY) / 2);
+                pointers.addPoint(id, x, y);
+            }
+        }
+        for (int id = 0; id < FINGERS; id++) {
+            sum += pointers.getPointCount(id);
+            pointers.end(id);
+        }
+        return sum;
+    }
+}
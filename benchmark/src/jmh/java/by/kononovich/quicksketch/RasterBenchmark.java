@@ -0,0 +1,93 @@
+package by.kononovich.quicksketch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+// Растеризация кончиков кисти и линий из отпечатков: кончик смешивается
+// с непрозрачным изображением (SRC_OVER) в каждой точке, которую дает
+// BrushStamper, как это делает Canvas на плитках
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RasterBenchmark {
+    private static final int POINTS = 200;
+
+    @Param({"ROUND", "SQUARE", "CHALK"})
+    public String shape;
+
+    @Param({"8", "32"})
+    public int width;
+
+    private Brush brush;
+    private int size;
+    private int[] tip;
+    private float[] trace;
+    private final int[] image =
+            new int[SyntheticStrokes.IMAGE_SIZE * SyntheticStrokes.IMAGE_SIZE];
+    private final BrushStamper stamper = new BrushStamper();
+
+    private final BrushStamper.Target blend = new BrushStamper.Target() {
+        @Override
+        public void stamp(float x, float y) {
+            blendTip(Math.round(x - size / 2f), Math.round(y - size / 2f));
+        }
+    };
+
+    @Setup
+    public void setUp() {
+        brush = new Brush(Brush.Shape.valueOf(shape), 60);
+        size = Brush.tipSize(width);
+        tip = brush.rasterize(size, 0xC0204080);
+        trace = SyntheticStrokes.trace(POINTS, 3);
+        Arrays.fill(image, 0xFFFFFFFF);
+    }
+
+    @Benchmark
+    public int[] rasterizeTip() {
+        return brush.rasterize(size, 0xC0204080);
+    }
+
+    @Benchmark
+    public int stampStroke() {
+        float lastX = trace[0];
+        float lastY = trace[1];
+        stamper.begin(lastX, lastY, brush.getSpacing(width), blend);
+        for (int i = 1; i < POINTS; i++) {
+            float x = trace[i * 2];
+            float y = trace[i * 2 + 1];
+            stamper.quadTo(lastX, lastY, (x + lastX) / 2, (y + lastY) / 2, blend);
+            lastX = x;
+            lastY = y;
+        }
+        return image[image.length / 2];
+    }
+
+    // Наложение кончика (без предварительного умножения) на непрозрачное изображение
+    private void blendTip(int left, int top) {
+        int imageSize = SyntheticStrokes.IMAGE_SIZE;
+        for (int y = Math.max(0, -top); y < size && top + y < imageSize; y++) {
+            int row = (top + y) * imageSize + left;
+            for (int x = Math.max(0, -left); x < size && left + x < imageSize; x++) {
+                int source = tip[y * size + x];
+                int alpha = source >>> 24;
+                if (alpha == 0)
+                    continue;
+                int target = image[row + x];
+                int inverse = 255 - alpha;
+                int r = (((source >> 16) & 0xFF) * alpha + ((target >> 16) & 0xFF) * inverse) / 255;
+                int g = (((source >> 8) & 0xFF) * alpha + ((target >> 8) & 0xFF) * inverse) / 255;
+                int b = ((source & 0xFF) * alpha + (target & 0xFF) * inverse) / 255;
+                image[row + x] = 0xFF000000 | r << 16 | g << 8 | b;
+            }
+        }
+    }
+}
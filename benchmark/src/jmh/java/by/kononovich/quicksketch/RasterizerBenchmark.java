@@ -0,0 +1,46 @@
+package by.kononovich.quicksketch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+// Вывод всего рисунка программным растеризатором: один поток против
+// плиток, выводимых параллельно
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RasterizerBenchmark {
+    @Param({"1", "4"})
+    public int threads;
+
+    private ForkJoinPool pool;
+    private SketchRasterizer rasterizer;
+    private StrokeLog log;
+
+    @Setup
+    public void setUp() {
+        pool = new ForkJoinPool(threads);
+        rasterizer = new SketchRasterizer(pool);
+        log = SyntheticStrokes.log(50, 200, 11);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public int[] render() {
+        return rasterizer.render(log, null, SyntheticStrokes.IMAGE_SIZE,
+                SyntheticStrokes.IMAGE_SIZE, 1);
+    }
+}
@@ -0,0 +1,48 @@
+package by.kononovich.quicksketch;
+
+import java.util.Random;
+
+/**
+ * Повторяемые данные для тестов производительности: отсчеты касания
+ * (плавное движение пальца по дугам с дрожанием датчика) и журнал линий
+ */
+
+final class SyntheticStrokes {
+    // Интервал между отсчетами касания (частота датчика 120 Гц)
+    static final int SAMPLE_INTERVAL_MILLIS = 8;
+    static final int IMAGE_SIZE = 1024;
+
+    private SyntheticStrokes() {
+    }
+
+    // count отсчетов (x, y подряд) внутри изображения IMAGE_SIZE x IMAGE_SIZE
+    static float[] trace(int count, long seed) {
+        Random random = new Random(seed);
+        float[] xy = new float[count * 2];
+        double centerX = IMAGE_SIZE * (0.3 + 0.4 * random.nextDouble());
+        double centerY = IMAGE_SIZE * (0.3 + 0.4 * random.nextDouble());
+        double radius = IMAGE_SIZE * (0.1 + 0.15 * random.nextDouble());
+        double angle = random.nextDouble() * Math.PI * 2;
+        double turn = 0.02;  // Около 8 пикселов между отсчетами
+        for (int i = 0; i < count; i++) {
+            // Кривизна меняется медленно, отсчеты дрожат на полпиксела
+            turn += random.nextGaussian() * 0.002;
+            angle += turn;
+            radius += random.nextGaussian();
+            xy[i * 2] = (float) (centerX + radius * Math.cos(angle) + random.nextGaussian() * 0.5);
+            xy[i * 2 + 1] = (float) (centerY + radius * Math.sin(angle) +
+                    random.nextGaussian() * 0.5);
+        }
+        return xy;
+    }
+
+    // Журнал из strokes линий по points точек разных цветов и толщин
+    static StrokeLog log(int strokes, int points, long seed) {
+        StrokeLog log = new StrokeLog();
+        Random random = new Random(seed);
+        for (int i = 0; i < strokes; i++)
+            log.append(trace(points, seed + i), points, random.nextInt() | 0xFF000000,
+                    2 + random.nextInt(30));
+        return log;
+    }
+}
@@ -0,0 +1,55 @@
+package by.kononovich.quicksketch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+// Обработка отсчетов касания фильтрами линии (время на один отсчет)
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TouchSampleBenchmark {
+    private static final int SAMPLES = 1000;
+    private static final float DENSITY = 2.75f;  // xxhdpi
+
+    @Param({"oneEuro", "oneEuroPrediction", "fixed"})
+    public String filter;
+
+    private StrokeFilter strokeFilter;
+    private float[] trace;
+
+    @Setup
+    public void setUp() {
+        switch (filter) {
+            case "oneEuro":
+                strokeFilter = new OneEuroStrokeFilter(DENSITY, 0);
+                break;
+            case "oneEuroPrediction":
+                strokeFilter = new OneEuroStrokeFilter(DENSITY, 16);
+                break;
+            default:
+                strokeFilter = new FixedToleranceFilter(10);
+        }
+        trace = SyntheticStrokes.trace(SAMPLES, 1);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public int filterSamples() {
+        strokeFilter.reset(trace[0], trace[1], 0);
+        int accepted = 0;
+        for (int i = 1; i < SAMPLES; i++)
+            if (strokeFilter.addSample(trace[i * 2], trace[i * 2 + 1],
+                    i * SyntheticStrokes.SAMPLE_INTERVAL_MILLIS))
+                accepted++;
+        return accepted + (int) strokeFilter.getPredictedX();
+    }
+}
@@ -0,0 +1,195 @@
+package by.kononovich.quicksketch;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Базовые результаты тестов производительности: сравнение результатов JMH
+ * (формат CSV) с сохраненными и замена сохраненных новыми. Результат
+ * считается ухудшившимся, если он хуже базового больше чем на заданный
+ * процент: в режиме thrpt - меньше, в остальных режимах (время) - больше.
+ * Тесты без базового результата только выводятся; если базовых результатов
+ * нет совсем, сравнение завершается ошибкой
+ */
+
+public class BenchmarkBaseline {
+    private static final String MODE_THROUGHPUT = "thrpt";
+
+    // Результат одного теста с одним набором параметров
+    public static class Result {
+        final String key;  // Имя теста, параметры и режим
+        final String mode;
+        final double score;
+        final double error;
+        final String unit;
+
+        Result(String key, String mode, double score, double error, String unit) {
+            this.key = key;
+            this.mode = mode;
+            this.score = score;
+            this.error = error;
+            this.unit = unit;
+        }
+
+        // Изменение по сравнению с base в процентах; положительное - ухудшение
+        double regressionPercent(Result base) {
+            double change = (score - base.score) / base.score * 100;
+            return MODE_THROUGHPUT.equals(mode) ? -change : change;
+        }
+    }
+
+    // Чтение результатов в порядке следования
+    public static Map<String, Result> read(Reader reader) throws IOException {
+        BufferedReader in = new BufferedReader(reader);
+        Map<String, Result> results = new LinkedHashMap<>();
+        String line = in.readLine();
+        if (line == null)
+            return results;
+        List<String> header = splitCsv(line);
+        int benchmark = header.indexOf("Benchmark");
+        int mode = header.indexOf("Mode");
+        int score = header.indexOf("Score");
+        int unit = header.indexOf("Unit");
+        int error = -1;
+        for (int i = 0; i < header.size(); i++)
+            if (header.get(i).startsWith("Score Error"))
+                error = i;
+        if (benchmark < 0 || mode < 0 || score < 0)
+            throw new IOException("Not a JMH CSV file");
+
+        while ((line = in.readLine()) != null) {
+            if (line.trim().isEmpty())
+                continue;
+            List<String> fields = splitCsv(line);
+            // Ключ: имя теста, значения параметров и режим
+            StringBuilder key = new StringBuilder(fields.get(benchmark));
+            for (int i = 0; i < header.size(); i++) {
+                if (header.get(i).startsWith("Param: ") && i < fields.size() &&
+                        !fields.get(i).isEmpty())
+                    key.append(' ').append(header.get(i).substring(7))
+                            .append('=').append(fields.get(i));
+            }
+            key.append(" [").append(fields.get(mode)).append(']');
+            results.put(key.toString(), new Result(key.toString(), fields.get(mode),
+                    parseNumber(fields.get(score)),
+                    error >= 0 ? parseNumber(fields.get(error)) : Double.NaN,
+                    unit >= 0 ? fields.get(unit) : ""));
+        }
+        return results;
+    }
+
+    // Описания тестов, результат которых хуже базового больше чем на thresholdPercent
+    public static List<String> findRegressions(Map<String, Result> baseline,
+                                               Map<String, Result> current,
+                                               double thresholdPercent) {
+        List<String> regressions = new ArrayList<>();
+        for (Result result : current.values()) {
+            Result base = baseline.get(result.key);
+            if (base == null || base.score == 0)
+                continue;
+            double percent = result.regressionPercent(base);
+            if (percent > thresholdPercent)
+                regressions.add(String.format(Locale.US, "%s: %.3f -> %.3f %s (%.1f%% worse)",
+                        result.key, base.score, result.score, result.unit, percent));
+        }
+        return regressions;
+    }
+
+    // compare <базовые> <новые> <процент> | update <базовые> <новые>
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("Usage: compare <baseline.csv> <results.csv> <threshold %>" +
+                    " | update <baseline.csv> <results.csv>");
+            System.exit(2);
+        }
+        File baselineFile = new File(args[1]);
+        File resultsFile = new File(args[2]);
+        if (args[0].equals("update")) {
+            File directory = baselineFile.getAbsoluteFile().getParentFile();
+            if (!directory.isDirectory() && !directory.mkdirs())
+                throw new IOException("Cannot create " + directory);
+            Files.copy(resultsFile.toPath(), baselineFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+            System.out.println("Baseline updated: " + baselineFile);
+            return;
+        }
+
+        // Без базовых результатов сравнивать не с чем - это ошибка, а не успех
+        if (!baselineFile.isFile()) {
+            System.err.println("No baseline at " + baselineFile +
+                    "; run updateBenchmarkBaseline on a reference machine and commit it");
+            System.exit(1);
+        }
+        Map<String, Result> current = readFile(resultsFile);
+        Map<String, Result> baseline = readFile(baselineFile);
+        for (Result result : current.values()) {
+            Result base = baseline.get(result.key);
+            System.out.println(base == null ?
+                    String.format(Locale.US, "%-70s %12.3f %s (new)",
+                            result.key, result.score, result.unit) :
+                    String.format(Locale.US, "%-70s %12.3f %s (%+.1f%%)", result.key,
+                            result.score, result.unit, -result.regressionPercent(base)));
+        }
+
+        List<String> regressions = findRegressions(baseline, current,
+                Double.parseDouble(args[3]));
+        if (!regressions.isEmpty()) {
+            System.err.println("Regressions:");
+            for (String regression : regressions)
+                System.err.println("  " + regression);
+            System.exit(1);
+        }
+    }
+
+    private static Map<String, Result> readFile(File file) throws IOException {
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8")) {
+            return read(reader);
+        }
+    }
+
+    // Разбор строки CSV: поля в кавычках могут содержать запятые, "" - кавычка
+    static List<String> splitCsv(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    // Числа в кавычках могут быть записаны с десятичной запятой
+    private static double parseNumber(String value) {
+        value = value.trim().replace(',', '.');
+        return value.isEmpty() || value.equals("NaN") ? Double.NaN : Double.parseDouble(value);
+    }
+}
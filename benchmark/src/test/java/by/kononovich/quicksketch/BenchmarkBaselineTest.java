@@ -0,0 +1,49 @@
+package by.kononovich.quicksketch;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class BenchmarkBaselineTest {
+    private static final String HEADER = "\"Benchmark\",\"Mode\",\"Threads\",\"Samples\"," +
+            "\"Score\",\"Score Error (99.9%)\",\"Unit\",\"Param: parallelism\"\n";
+
+    private static Map<String, BenchmarkBaseline.Result> read(String rows) throws Exception {
+        return BenchmarkBaseline.read(new StringReader(HEADER + rows));
+    }
+
+    @Test
+    public void read_keysResultsByNameParametersAndMode() throws Exception {
+        Map<String, BenchmarkBaseline.Result> results = read(
+                "\"FloodFillBenchmark.fill\",\"avgt\",1,10,812.5,12.1,\"us/op\",1\n" +
+                "\"FloodFillBenchmark.fill\",\"avgt\",1,10,\"301,25\",\"4,5\",\"us/op\",4\n");
+
+        assertEquals(2, results.size());
+        BenchmarkBaseline.Result parallel =
+                results.get("FloodFillBenchmark.fill parallelism=4 [avgt]");
+        assertNotNull(parallel);
+        assertEquals(301.25, parallel.score, 1e-9);
+        assertEquals("us/op", parallel.unit);
+    }
+
+    @Test
+    public void findRegressions_respectsModeDirectionAndThreshold() throws Exception {
+        Map<String, BenchmarkBaseline.Result> baseline = read(
+                "\"A.time\",\"avgt\",1,10,100,1,\"us/op\",\n" +
+                "\"B.rate\",\"thrpt\",1,10,100,1,\"ops/us\",\n" +
+                "\"C.time\",\"avgt\",1,10,100,1,\"us/op\",\n");
+        Map<String, BenchmarkBaseline.Result> current = read(
+                "\"A.time\",\"avgt\",1,10,115,1,\"us/op\",\n" +   // Медленнее на 15%
+                "\"B.rate\",\"thrpt\",1,10,120,1,\"ops/us\",\n" + // Быстрее
+                "\"C.time\",\"avgt\",1,10,105,1,\"us/op\",\n" +   // В пределах допуска
+                "\"D.new\",\"avgt\",1,10,1,1,\"us/op\",\n");      // Нет базового
+
+        List<String> regressions = BenchmarkBaseline.findRegressions(baseline, current, 10);
+        assertEquals(1, regressions.size());
+        assertTrue(regressions.get(0).startsWith("A.time [avgt]"));
+    }
+}
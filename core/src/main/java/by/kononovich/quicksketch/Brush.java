@@ -0,0 +1,139 @@
+package by.kononovich.quicksketch;
+
+import java.util.Random;
+
+/**
+ * Кисть: форма отпечатка, жесткость края и шаг между отпечатками.
+ * Кисть LINE рисует линию контуром Path (как раньше), FILL заливает
+ * область от точки касания (жесткость задает допуск цвета), ERASER удаляет
+ * линии, которых касается (в журнал не записывается), остальные -
+ * отпечатками заранее растеризованного кончика вдоль линии.
+ * Кисть кодируется одним int для журнала линий и сохранения состояния
+ */
+
+public final class Brush {
+    // Форма кончика кисти
+    public enum Shape {
+        LINE,    // Линия контуром Path с закругленными концами
+        ROUND,   // Круглый кончик
+        SQUARE,  // Квадратный кончик
+        CHALK,   // Круглый кончик с зернистой текстурой
+        FILL,    // Заливка области
+        ERASER   // Удаление линий целиком
+    }
+
+    public static final Brush LINE = new Brush(Shape.LINE, 100);
+
+    private final Shape shape;
+    private final int hardness;  // Жесткость края, 0 (мягкий) - 100 (резкий)
+
+    public Brush(Shape shape, int hardness) {
+        this.shape = shape;
+        this.hardness = Math.max(0, Math.min(100, hardness));
+    }
+
+    public Shape getShape() {
+        return shape;
+    }
+
+    public int getHardness() {
+        return hardness;
+    }
+
+    // Рисуется ли кисть отпечатками
+    public boolean isStamped() {
+        return shape != Shape.LINE && shape != Shape.FILL && shape != Shape.ERASER;
+    }
+
+    public boolean isFill() {
+        return shape == Shape.FILL;
+    }
+
+    public boolean isEraser() {
+        return shape == Shape.ERASER;
+    }
+
+    // Допуск цвета заливки в процентах
+    public int getTolerance() {
+        return hardness;
+    }
+
+    // Шаг между отпечатками для линии толщиной width (в пикселах);
+    // текстурной кисти нужен больший шаг, чтобы зерно не сливалось
+    public float getSpacing(float width) {
+        float ratio = shape == Shape.CHALK ? 0.35f : 0.2f;
+        return Math.max(1, width * ratio);
+    }
+
+    // Размер стороны кончика в пикселах для линии толщиной width
+    public static int tipSize(float width) {
+        return Math.max(1, (int) Math.ceil(width));
+    }
+
+    // Растеризация кончика size x size пикселов цвета color (ARGB без
+    // предварительного умножения на прозрачность)
+    public int[] rasterize(int size, int color) {
+        int[] pixels = new int[size * size];
+        float radius = size / 2f;
+        // Доля радиуса, внутри которой кончик непрозрачен
+        float inner = hardness / 100f;
+        int alpha = color >>> 24;
+        int rgb = color & 0xFFFFFF;
+        // Зерно текстуры зависит только от размера, чтобы повтор линии
+        // из журнала давал тот же результат
+        Random grain = new Random(size);
+
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                float dx = Math.abs(x + 0.5f - radius);
+                float dy = Math.abs(y + 0.5f - radius);
+                float distance = shape == Shape.SQUARE ?
+                        Math.max(dx, dy) : (float) Math.sqrt(dx * dx + dy * dy);
+
+                // Сглаживание границы (покрытие пиксела) и спад мягкого края
+                float coverage = clamp(radius - distance + 0.5f);
+                float falloff = 1;
+                if (inner < 1) {
+                    float t = clamp((distance / radius - inner) / (1 - inner));
+                    falloff = 1 - t * t * (3 - 2 * t);
+                }
+                float value = Math.min(coverage, falloff);
+                if (shape == Shape.CHALK && grain.nextFloat() < 0.45f)
+                    value *= 0.2f;
+
+                pixels[y * size + x] = Math.round(alpha * value) << 24 | rgb;
+            }
+        }
+        return pixels;
+    }
+
+    private static float clamp(float value) {
+        return value < 0 ? 0 : value > 1 ? 1 : value;
+    }
+
+    // Кодирование: форма в младшем байте, жесткость - во втором; LINE - 0
+    public int encode() {
+        return shape == Shape.LINE ? 0 : shape.ordinal() | hardness << 8;
+    }
+
+    public static Brush decode(int code) {
+        Shape[] shapes = Shape.values();
+        int shape = code & 0xFF;
+        if (shape >= shapes.length)
+            return LINE;  // Кисть из более новой версии приложения
+        return shape == 0 ? LINE : new Brush(shapes[shape], (code >> 8) & 0xFF);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof Brush))
+            return false;
+        Brush brush = (Brush) other;
+        return shape == brush.shape && hardness == brush.hardness;
+    }
+
+    @Override
+    public int hashCode() {
+        return encode();
+    }
+}
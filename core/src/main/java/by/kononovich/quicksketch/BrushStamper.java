@@ -0,0 +1,89 @@
+package by.kononovich.quicksketch;
+
+/**
+ * Расстановка отпечатков кисти вдоль линии с постоянным шагом.
+ * Линия подается теми же сегментами, что и контур Path (квадратичные
+ * кривые); остаток шага переносится между сегментами, поэтому расстановка
+ * не зависит от того, как часто приходили отсчеты касания
+ */
+
+public class BrushStamper {
+    // Приемник отпечатков (плитки рисунка или экран)
+    public interface Target {
+        void stamp(float x, float y);
+    }
+
+    // Наибольшая длина отрезка при разбиении кривой (в пикселах)
+    private static final float FLATTEN_STEP = 4;
+    private static final int MAX_FLATTEN_SEGMENTS = 64;
+
+    private float spacing = 1;
+    private float x;         // Текущее положение
+    private float y;
+    private float traveled;  // Расстояние от последнего отпечатка
+
+    // Начало линии: отпечаток в начальной точке
+    public void begin(float x, float y, float spacing, Target target) {
+        this.spacing = Math.max(spacing, 0.5f);
+        this.x = x;
+        this.y = y;
+        traveled = 0;
+        target.stamp(x, y);
+    }
+
+    // Копирование состояния (для вывода продолжения линии без его изменения)
+    public void copyFrom(BrushStamper other) {
+        spacing = other.spacing;
+        x = other.x;
+        y = other.y;
+        traveled = other.traveled;
+    }
+
+    public float getX() {
+        return x;
+    }
+
+    public float getY() {
+        return y;
+    }
+
+    // Квадратичная кривая от текущего положения через контрольную точку;
+    // кривая разбивается на отрезки длиной не более FLATTEN_STEP
+    public void quadTo(float controlX, float controlY, float endX, float endY, Target target) {
+        float startX = x;
+        float startY = y;
+        float length = distance(startX, startY, controlX, controlY) +
+                distance(controlX, controlY, endX, endY);
+        int segments = Math.max(1, Math.min(MAX_FLATTEN_SEGMENTS,
+                (int) Math.ceil(length / FLATTEN_STEP)));
+
+        for (int i = 1; i <= segments; i++) {
+            float t = (float) i / segments;
+            float u = 1 - t;
+            lineTo(u * u * startX + 2 * u * t * controlX + t * t * endX,
+                    u * u * startY + 2 * u * t * controlY + t * t * endY, target);
+        }
+    }
+
+    // Отрезок от текущего положения; отпечатки ставятся через каждые spacing пикселов
+    public void lineTo(float endX, float endY, Target target) {
+        float length = distance(x, y, endX, endY);
+        if (length > 0) {
+            float position = spacing - traveled;  // Расстояние до следующего отпечатка
+            while (position <= length) {
+                float t = position / length;
+                target.stamp(x + (endX - x) * t, y + (endY - y) * t);
+                position += spacing;
+            }
+            traveled = length - (position - spacing);
+        }
+        x = endX;
+        y = endY;
+    }
+
+    private static float distance(float x1, float y1, float x2, float y2) {
+        float dx = x2 - x1;
+        float dy = y2 - y1;
+        return (float) Math.sqrt(dx * dx + dy * dy);
+    }
+}
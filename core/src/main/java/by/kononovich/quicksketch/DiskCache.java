@@ -0,0 +1,155 @@
+package by.kononovich.quicksketch;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Кэш данных в файлах каталога с ограниченным общим объемом. Каждая
+ * запись - отдельный файл с именем ключа; при превышении объема удаляются
+ * давно не использовавшиеся записи. Порядок использования хранится во
+ * времени изменения файлов, поэтому переживает перезапуск процесса.
+ * Методы синхронизированы и выполняются в фоновых потоках
+ */
+
+public class DiskCache {
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File directory;
+    private final long maxBytes;
+    // Размеры записей в порядке использования (давно использованные - в начале)
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    // Открытие каталога; записи, оставшиеся от прежних запусков, сохраняются
+    public DiskCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        directory.mkdirs();
+        File[] files = directory.listFiles();
+        if (files == null)
+            return;
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File first, File second) {
+                long a = first.lastModified();
+                long b = second.lastModified();
+                return a < b ? -1 : a > b ? 1 : 0;
+            }
+        });
+        for (File file : files) {
+            if (file.getName().endsWith(TEMP_SUFFIX)) {
+                file.delete();  // Недописанная запись
+                continue;
+            }
+            entries.put(file.getName(), file.length());
+            bytes += file.length();
+        }
+        trimToSize();
+    }
+
+    // Данные записи или null, если ее нет
+    public synchronized byte[] get(String key) {
+        Long size = entries.get(checkKey(key));
+        if (size == null)
+            return null;
+        File file = new File(directory, key);
+        try {
+            byte[] data = new byte[(int) file.length()];
+            FileInputStream in = new FileInputStream(file);
+            try {
+                int read = 0;
+                while (read < data.length) {
+                    int count = in.read(data, read, data.length - read);
+                    if (count < 0)
+                        throw new IOException("Truncated " + file);
+                    read += count;
+                }
+            } finally {
+                in.close();
+            }
+            file.setLastModified(System.currentTimeMillis());
+            return data;
+        } catch (IOException e) {
+            remove(key);
+            return null;
+        }
+    }
+
+    // Запись данных; сначала во временный файл, чтобы не оставлять
+    // недописанных записей
+    public synchronized void put(String key, byte[] data) throws IOException {
+        checkKey(key);
+        if (data.length > maxBytes)
+            return;
+        File temp = new File(directory, key + TEMP_SUFFIX);
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        remove(key);
+        if (!temp.renameTo(new File(directory, key))) {
+            temp.delete();
+            throw new IOException("Cannot rename " + temp);
+        }
+        entries.put(key, (long) data.length);
+        bytes += data.length;
+        trimToSize();
+    }
+
+    public synchronized boolean contains(String key) {
+        return entries.containsKey(checkKey(key));
+    }
+
+    public synchronized void remove(String key) {
+        Long size = entries.remove(checkKey(key));
+        if (size != null) {
+            bytes -= size;
+            new File(directory, key).delete();
+        }
+    }
+
+    // Удаление всех записей
+    public synchronized void clear() {
+        for (String key : entries.keySet())
+            new File(directory, key).delete();
+        entries.clear();
+        bytes = 0;
+    }
+
+    // Общий объем записей в байтах
+    public synchronized long getSize() {
+        return bytes;
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Long> oldest = it.next();
+            it.remove();
+            bytes -= oldest.getValue();
+            new File(directory, oldest.getKey()).delete();
+        }
+    }
+
+    // Ключ используется как имя файла: только буквы, цифры, '_' и '-'
+    private static String checkKey(String key) {
+        if (key.isEmpty())
+            throw new IllegalArgumentException("Empty key");
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' ||
+                    c == '_' || c == '-'))
+                throw new IllegalArgumentException("Invalid key " + key);
+        }
+        return key;
+    }
+}
@@ -0,0 +1,100 @@
+package by.kononovich.quicksketch;
+
+import java.util.Arrays;
+
+/**
+ * Касание ластика: положение пальца и линии, которых он коснулся.
+ * Пока палец на экране, задетые линии только копятся (и скрываются
+ * владельцем); из журнала они удаляются одной записью в finish.
+ * Линии, задетые последним событием, идут после уже скрытых, чтобы
+ * перерисовывать только их область
+ */
+
+public class EraserSession {
+    private int[] hits = new int[16];  // Задетые линии; первые sorted - по возрастанию
+    private int count;
+    private int sorted;
+    private boolean active;  // Палец ластика на экране
+    private float x;
+    private float y;
+
+    // Перемещение пальца в точку (x, y) рисунка
+    public void moveTo(float x, float y) {
+        active = true;
+        this.x = x;
+        this.y = y;
+    }
+
+    // Палец отведен или касание передано жесту; задетые линии остаются до finish
+    public void stop() {
+        active = false;
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    public float getX() {
+        return x;
+    }
+
+    public float getY() {
+        return y;
+    }
+
+    // Добавление задетых линий strokes слоя layerId, которые еще не
+    // задеты; линии других устройств общего холста ластиком не удаляются
+    public void collect(StrokeLog log, int[] strokes, int layerId) {
+        for (int stroke : strokes) {
+            if (log.getLayer(stroke) != layerId || log.getOwner(stroke) != StrokeLog.LOCAL ||
+                    isErased(stroke))
+                continue;
+            if (count == hits.length)
+                hits = Arrays.copyOf(hits, count * 2);
+            hits[count++] = stroke;
+        }
+    }
+
+    // Количество задетых линий
+    public int size() {
+        return count;
+    }
+
+    // Задетая линия i: после sort - по возрастанию, до него новые линии
+    // идут после уже отсортированных
+    public int get(int i) {
+        return hits[i];
+    }
+
+    // Сортировка задетых линий по возрастанию номеров
+    public void sort() {
+        Arrays.sort(hits, 0, count);
+        sorted = count;
+    }
+
+    public boolean isErased(int stroke) {
+        if (Arrays.binarySearch(hits, 0, sorted, stroke) >= 0)
+            return true;
+        for (int i = sorted; i < count; i++)
+            if (hits[i] == stroke)
+                return true;
+        return false;
+    }
+
+    // Номера задетых линий по возрастанию для удаления из журнала (null -
+    // линий нет); касание начинается заново
+    public int[] finish() {
+        if (count == 0)
+            return null;
+        sort();
+        int[] erased = Arrays.copyOf(hits, count);
+        clear();
+        return erased;
+    }
+
+    // Отказ от задетых линий (журнал заменен или стерт)
+    public void clear() {
+        count = 0;
+        sorted = 0;
+    }
+}
@@ -0,0 +1,161 @@
+package by.kononovich.quicksketch;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Заливка на копии пикселов в фоновом потоке; одновременно выполняется
+ * не больше одной заливки. Ход выполнения и результат передаются через
+ * resultExecutor (поток интерфейса), а владелец принимает результат
+ * через finish: результат отмененной или замененной заливки отбрасывается,
+ * даже если она успела завершиться. Методы вызываются под блокировкой
+ * владельца; к данным data заливки контроллер не обращается
+ */
+
+public class FillController<T> {
+    // Вызывается через resultExecutor
+    public interface Listener<T> {
+        void onFillProgress(Fill<T> fill, int percent);
+        void onFillDone(Fill<T> fill);
+    }
+
+    private final FloodFill floodFill;
+    private final Executor executor;
+    private final Executor resultExecutor;
+    private final Listener<T> listener;
+    private Fill<T> pending;  // Выполняемая заливка
+
+    public FillController(FloodFill floodFill, Executor executor, Executor resultExecutor,
+                          Listener<T> listener) {
+        this.floodFill = floodFill;
+        this.executor = executor;
+        this.resultExecutor = resultExecutor;
+        this.listener = listener;
+    }
+
+    // Начало заливки пикселов pixels (width x height) от точки (seedX, seedY);
+    // выполняемая заливка отменяется
+    public Fill<T> start(int[] pixels, int width, int height, int seedX, int seedY, int color,
+                         int tolerance, T data) {
+        cancel();
+        pending = new Fill<>(this, pixels, width, height, seedX, seedY, color, tolerance, data);
+        executor.execute(pending);
+        return pending;
+    }
+
+    public boolean isFilling() {
+        return pending != null;
+    }
+
+    public Fill<T> getPending() {
+        return pending;
+    }
+
+    // Прием результата fill (в onFillDone); false - заливка отменена
+    public boolean finish(Fill<T> fill) {
+        if (fill != pending)
+            return false;
+        pending = null;
+        return true;
+    }
+
+    // Отмена выполняемой заливки; возвращает ее (null - заливки нет)
+    public Fill<T> cancel() {
+        Fill<T> fill = pending;
+        if (fill != null) {
+            fill.cancelled = true;
+            pending = null;
+        }
+        return fill;
+    }
+
+    // Заливка и ее результат: количество залитых пикселов и границы области
+    public static class Fill<T> implements Runnable, FloodFill.Monitor {
+        private final FillController<T> controller;
+        private final int[] pixels;
+        private final int width;
+        private final int height;
+        private final int seedX;
+        private final int seedY;
+        private final int color;
+        private final int tolerance;
+        private final T data;
+        private final int[] bounds = new int[4];
+        private volatile boolean cancelled;
+        private volatile int filled;
+        private int reportedPercent = -1;
+
+        Fill(FillController<T> controller, int[] pixels, int width, int height, int seedX,
+             int seedY, int color, int tolerance, T data) {
+            this.controller = controller;
+            this.pixels = pixels;
+            this.width = width;
+            this.height = height;
+            this.seedX = seedX;
+            this.seedY = seedY;
+            this.color = color;
+            this.tolerance = tolerance;
+            this.data = data;
+        }
+
+        @Override
+        public void run() {
+            filled = controller.floodFill.fill(pixels, width, height, seedX, seedY, color,
+                    tolerance, bounds, this);
+            controller.resultExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    controller.listener.onFillDone(Fill.this);
+                }
+            });
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public void onProgress(final int percent) {
+            if (percent == reportedPercent)
+                return;
+            reportedPercent = percent;
+            controller.resultExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    controller.listener.onFillProgress(Fill.this, percent);
+                }
+            });
+        }
+
+        // Пикселы после заливки (границы - getBounds)
+        public int[] getPixels() {
+            return pixels;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public int getColor() {
+            return color;
+        }
+
+        public T getData() {
+            return data;
+        }
+
+        // Количество залитых пикселов (-1 - отменена, 0 - не изменилось ничего)
+        public int getFilled() {
+            return filled;
+        }
+
+        // Границы залитой области: left, top, right, bottom (не включительно)
+        public int[] getBounds() {
+            return bounds;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package by.kononovich.quicksketch;
+
+/**
+ * Исходное поведение: точка добавляется, когда смещение по одной из осей
+ * достигает постоянного порога; сглаживания и предсказания нет
+ */
+
+public class FixedToleranceFilter implements StrokeFilter {
+    private final float tolerance;  // Смещение, необходимое для продолжения рисования
+    private float lastX;  // Последняя принятая точка
+    private float lastY;
+    private float x;      // Последний отсчет
+    private float y;
+
+    public FixedToleranceFilter(float tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    @Override
+    public void reset(float x, float y, long time) {
+        lastX = this.x = x;
+        lastY = this.y = y;
+    }
+
+    @Override
+    public boolean addSample(float x, float y, long time) {
+        this.x = x;
+        this.y = y;
+
+        // Если расстояние достаточно велико
+        if (Math.abs(x - lastX) >= tolerance || Math.abs(y - lastY) >= tolerance) {
+            lastX = x;
+            lastY = y;
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public float getX() {
+        return x;
+    }
+
+    @Override
+    public float getY() {
+        return y;
+    }
+
+    @Override
+    public float getPredictedX() {
+        return x;
+    }
+
+    @Override
+    public float getPredictedY() {
+        return y;
+    }
+}
@@ -0,0 +1,249 @@
+package by.kononovich.quicksketch;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Заливка области построчным (scanline) алгоритмом на массиве пикселов ARGB.
+ * Проверка цвета и запись результата - самые дорогие этапы - выполняются
+ * полосами строк параллельно; сам обход области идет по байтовой маске
+ * и занимает один поток. Работу можно прервать через Monitor
+ */
+
+public class FloodFill {
+    // Состояние и отмена заливки (вызывается в потоке, выполняющем fill)
+    public interface Monitor {
+        boolean isCancelled();
+        void onProgress(int percent);
+    }
+
+    // Изображения меньше этого размера обрабатываются в одном потоке
+    private static final int MIN_PARALLEL_PIXELS = 64 * 1024;
+    private static final int ROWS_PER_BAND = 32;
+
+    // Значения маски (0 - цвет не подходит)
+    private static final byte MATCH = 1;    // Цвет подходит
+    private static final byte FILLED = 2;   // Пиксел входит в область
+
+    private final Executor executor;
+    private final int parallelism;
+
+    // parallelism - количество потоков, включая вызывающий
+    public FloodFill(Executor executor, int parallelism) {
+        this.executor = executor;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    // Заливка области, содержащей (seedX, seedY), цветом color; подходят пикселы,
+    // каналы которых отличаются от начального не более чем на tolerance процентов.
+    // Возвращает количество залитых пикселов (-1 - отменено, pixels не изменен);
+    // bounds получает границы области: left, top, right, bottom (не включительно)
+    public int fill(final int[] pixels, final int width, final int height, int seedX, int seedY,
+                    final int color, int tolerance, int[] bounds, final Monitor monitor) {
+        if (seedX < 0 || seedY < 0 || seedX >= width || seedY >= height)
+            return 0;
+
+        final int target = pixels[seedY * width + seedX];
+        final int maxDifference = Math.max(0, Math.min(100, tolerance)) * 255 / 100;
+        final byte[] mask = new byte[width * height];
+
+        // Этап 1: отметка пикселов подходящего цвета
+        boolean completed = runBands(height, width, 0, 45, monitor, new Band() {
+            @Override
+            public void run(int firstRow, int lastRow) {
+                for (int i = firstRow * width; i < lastRow * width; i++)
+                    if (difference(pixels[i], target) <= maxDifference)
+                        mask[i] = MATCH;
+            }
+        });
+        if (!completed)
+            return -1;
+
+        // Этап 2: обход связной области по маске
+        int filled = scan(mask, width, height, seedX, seedY, bounds, monitor);
+        if (filled < 0)
+            return -1;
+
+        // Этап 3: запись цвета в пикселы области; начатая запись не прерывается,
+        // чтобы изображение не осталось залитым частично
+        final int top = bounds[1];
+        final int left = bounds[0];
+        final int right = bounds[2];
+        runBands(bounds[3] - top, right - left, 90, 100, null, new Band() {
+            @Override
+            public void run(int firstRow, int lastRow) {
+                for (int y = top + firstRow; y < top + lastRow; y++)
+                    for (int i = y * width + left; i < y * width + right; i++)
+                        if (mask[i] == FILLED)
+                            pixels[i] = blend(color, pixels[i]);
+            }
+        });
+        if (monitor != null)
+            monitor.onProgress(100);
+        return filled;
+    }
+
+    // Построчный обход: каждый отрезок строки заливается целиком, затем
+    // в стек помещаются начала подходящих отрезков в соседних строках
+    private static int scan(byte[] mask, int width, int height, int seedX, int seedY,
+                            int[] bounds, Monitor monitor) {
+        int[] stack = new int[256];
+        int size = 0;
+        stack[size++] = seedY * width + seedX;
+        int filled = 0;
+        int rowsDone = 0;
+        int left = seedX;
+        int right = seedX + 1;
+        int top = seedY;
+        int bottom = seedY + 1;
+
+        while (size > 0) {
+            int start = stack[--size];
+            if (mask[start] != MATCH)
+                continue;
+
+            int y = start / width;
+            int rowStart = y * width;
+            int x1 = start - rowStart;
+            int x2 = x1;
+            while (x1 > 0 && mask[rowStart + x1 - 1] == MATCH)
+                x1--;
+            while (x2 < width - 1 && mask[rowStart + x2 + 1] == MATCH)
+                x2++;
+            Arrays.fill(mask, rowStart + x1, rowStart + x2 + 1, FILLED);
+            filled += x2 - x1 + 1;
+
+            left = Math.min(left, x1);
+            right = Math.max(right, x2 + 1);
+            top = Math.min(top, y);
+            bottom = Math.max(bottom, y + 1);
+
+            // Начала отрезков в строках выше и ниже
+            for (int neighbor = y - 1; neighbor <= y + 1; neighbor += 2) {
+                if (neighbor < 0 || neighbor >= height)
+                    continue;
+                int neighborStart = neighbor * width;
+                boolean inSpan = false;
+                for (int x = x1; x <= x2; x++) {
+                    boolean match = mask[neighborStart + x] == MATCH;
+                    if (match && !inSpan) {
+                        if (size == stack.length)
+                            stack = Arrays.copyOf(stack, size * 2);
+                        stack[size++] = neighborStart + x;
+                    }
+                    inSpan = match;
+                }
+            }
+
+            if (monitor != null && (++rowsDone & 0xFF) == 0) {
+                if (monitor.isCancelled())
+                    return -1;
+                monitor.onProgress(45 + (int) (45L * Math.min(rowsDone, height) / height));
+            }
+        }
+
+        bounds[0] = left;
+        bounds[1] = top;
+        bounds[2] = right;
+        bounds[3] = bottom;
+        return filled;
+    }
+
+    // Обработка строк [firstRow, lastRow)
+    private interface Band {
+        void run(int firstRow, int lastRow);
+    }
+
+    // Выполнение band для всех строк полосами по ROWS_PER_BAND; вызывающий
+    // поток обрабатывает полосы вместе с потоками executor, поэтому ожидание
+    // не может заблокировать пул. Прогресс сообщается в диапазоне from - to
+    private boolean runBands(final int rows, int rowPixels, int from, int to,
+                             final Monitor monitor, final Band band) {
+        final int bands = (rows + ROWS_PER_BAND - 1) / ROWS_PER_BAND;
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger done = new AtomicInteger();
+        int helpers = bands > 1 && (long) rows * rowPixels >= MIN_PARALLEL_PIXELS ?
+                Math.min(parallelism, bands) - 1 : 0;
+        final CountDownLatch finished = new CountDownLatch(helpers);
+
+        Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runBandsFrom(next, done, bands, rows, monitor, band);
+                } finally {
+                    finished.countDown();
+                }
+            }
+        };
+        for (int i = 0; i < helpers; i++)
+            executor.execute(worker);
+
+        // Вызывающий поток тоже обрабатывает полосы и сообщает о прогрессе
+        int index;
+        while ((index = next.getAndIncrement()) < bands) {
+            if (monitor != null && monitor.isCancelled())
+                break;
+            int firstRow = index * ROWS_PER_BAND;
+            band.run(firstRow, Math.min(rows, firstRow + ROWS_PER_BAND));
+            int completed = done.incrementAndGet();
+            if (monitor != null)
+                monitor.onProgress(from + (to - from) * completed / bands);
+        }
+
+        boolean interrupted = false;
+        while (true) {
+            try {
+                finished.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        return done.get() == bands;
+    }
+
+    private static void runBandsFrom(AtomicInteger next, AtomicInteger done, int bands,
+                                     int rows, Monitor monitor, Band band) {
+        int index;
+        while ((index = next.getAndIncrement()) < bands) {
+            if (monitor != null && monitor.isCancelled())
+                return;
+            int firstRow = index * ROWS_PER_BAND;
+            band.run(firstRow, Math.min(rows, firstRow + ROWS_PER_BAND));
+            done.incrementAndGet();
+        }
+    }
+
+    // Наибольшая разность каналов двух цветов ARGB
+    private static int difference(int a, int b) {
+        int da = Math.abs((a >>> 24) - (b >>> 24));
+        int dr = Math.abs(((a >> 16) & 0xFF) - ((b >> 16) & 0xFF));
+        int dg = Math.abs(((a >> 8) & 0xFF) - ((b >> 8) & 0xFF));
+        int db = Math.abs((a & 0xFF) - (b & 0xFF));
+        return Math.max(Math.max(da, dr), Math.max(dg, db));
+    }
+
+    // Наложение цвета source поверх destination (без предварительного умножения)
+    static int blend(int source, int destination) {
+        int sourceAlpha = source >>> 24;
+        if (sourceAlpha == 255)
+            return source;
+        if (sourceAlpha == 0)
+            return destination;
+
+        int destinationAlpha = (destination >>> 24) * (255 - sourceAlpha) / 255;
+        int alpha = sourceAlpha + destinationAlpha;
+        int result = alpha << 24;
+        for (int shift = 0; shift <= 16; shift += 8) {
+            int channel = (((source >> shift) & 0xFF) * sourceAlpha +
+                    ((destination >> shift) & 0xFF) * destinationAlpha) / alpha;
+            result |= channel << shift;
+        }
+        return result;
+    }
+}
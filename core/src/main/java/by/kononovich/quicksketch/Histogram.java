@@ -0,0 +1,105 @@
+package by.kononovich.quicksketch;
+
+import java.util.Arrays;
+
+/**
+ * Гистограмма неотрицательных значений (длительностей в наносекундах,
+ * количества объектов) с постоянным временем записи и без создания объектов.
+ * Значения до 32 хранятся точно; больше - в корзинах по степеням двойки,
+ * каждая из которых делится на SUB_BUCKETS равных частей, поэтому
+ * погрешность процентилей не превышает 1/SUB_BUCKETS значения
+ */
+
+public class Histogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Значения меньше 2 * SUB_BUCKETS попадают в корзины без сдвига
+    private static final int EXACT_BITS = SUB_BUCKET_BITS + 1;
+    private static final int BUCKET_COUNT = (63 - EXACT_BITS + 2) * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long count;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max;
+
+    public void record(long value) {
+        if (value < 0)
+            value = 0;
+        counts[bucketOf(value)]++;
+        count++;
+        sum += value;
+        if (value < min)
+            min = value;
+        if (value > max)
+            max = value;
+    }
+
+    // Добавление всех значений other
+    public void add(Histogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++)
+            counts[i] += other.counts[i];
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMin() {
+        return count > 0 ? min : 0;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return count > 0 ? (double) sum / count : 0;
+    }
+
+    // Значение, которое не превышают percentile процентов записанных
+    // (верхняя граница корзины, но не больше наибольшего значения)
+    public long getValueAtPercentile(double percentile) {
+        if (count == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(count * Math.min(100, percentile) / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank)
+                return Math.min(max, highestValueIn(i));
+        }
+        return max;
+    }
+
+    // Номер корзины значения
+    static int bucketOf(long value) {
+        int bits = 64 - Long.numberOfLeadingZeros(value);
+        if (bits <= EXACT_BITS)
+            return (int) value;
+        int shift = bits - EXACT_BITS;
+        int top = (int) (value >>> shift);  // От SUB_BUCKETS до 2 * SUB_BUCKETS - 1
+        return (shift + 1) * SUB_BUCKETS + top - SUB_BUCKETS;
+    }
+
+    // Наибольшее значение, попадающее в корзину
+    static long highestValueIn(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS)
+            return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        long top = bucket % SUB_BUCKETS + SUB_BUCKETS;
+        return ((top + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,118 @@
+package by.kononovich.quicksketch;
+
+/**
+ * Сглаживающий фильтр "One Euro" (Casiez, Roussel, Vogel, 2012): частота
+ * среза растет со скоростью, поэтому медленные движения сглаживаются
+ * сильно (нет дрожания), а быстрые - слабо (нет запаздывания).
+ * Порог добавления точки тоже зависит от скорости и плотности экрана,
+ * а предсказание продолжает движение по сглаженной скорости
+ */
+
+public class OneEuroStrokeFilter implements StrokeFilter {
+    // Параметры по умолчанию (расстояния в dp, частоты в Гц)
+    public static final float DEFAULT_MIN_CUTOFF = 1.5f;
+    public static final float DEFAULT_BETA = 0.02f;  // Рост частоты среза на 1 dp/с скорости
+    private static final float DERIVATIVE_CUTOFF = 1f;
+    private static final float MIN_TOLERANCE_DP = 1.5f;   // Порог на малой скорости
+    private static final float MAX_TOLERANCE_DP = 6f;     // Порог на большой скорости
+    private static final float TOLERANCE_SPEED_DP = 2000f; // Скорость (dp/с), дающая MAX_TOLERANCE_DP
+    private static final float MAX_PREDICTION_DP = 24f;   // Ограничение длины предсказания
+    private static final float MIN_INTERVAL = 0.001f;     // Наименьший интервал между отсчетами (с)
+
+    private final float density;     // Пикселов в одном dp
+    private final float minCutoff;
+    private final float beta;        // В расчете на пикселы
+    private final float predictionHorizon;  // Время предсказания (с); 0 - без предсказания
+
+    private float x;  // Сглаженное положение
+    private float y;
+    private float velocityX;  // Сглаженная скорость (пиксел/с)
+    private float velocityY;
+    private float lastX;  // Последняя принятая точка
+    private float lastY;
+    private long lastTime;
+
+    // density - DisplayMetrics.density; predictionMillis - время предсказания (0 - выключено)
+    public OneEuroStrokeFilter(float density, float minCutoff, float beta, float predictionMillis) {
+        this.density = density;
+        this.minCutoff = minCutoff;
+        this.beta = beta / density;
+        this.predictionHorizon = predictionMillis / 1000f;
+    }
+
+    public OneEuroStrokeFilter(float density, float predictionMillis) {
+        this(density, DEFAULT_MIN_CUTOFF, DEFAULT_BETA, predictionMillis);
+    }
+
+    @Override
+    public void reset(float x, float y, long time) {
+        this.x = lastX = x;
+        this.y = lastY = y;
+        velocityX = 0;
+        velocityY = 0;
+        lastTime = time;
+    }
+
+    @Override
+    public boolean addSample(float rawX, float rawY, long time) {
+        float dt = Math.max(MIN_INTERVAL, (time - lastTime) / 1000f);
+        lastTime = time;
+
+        // Сглаживание скорости с постоянной частотой среза
+        float derivativeAlpha = alpha(DERIVATIVE_CUTOFF, dt);
+        velocityX += derivativeAlpha * ((rawX - x) / dt - velocityX);
+        velocityY += derivativeAlpha * ((rawY - y) / dt - velocityY);
+        float speed = (float) Math.sqrt(velocityX * velocityX + velocityY * velocityY);
+
+        // Сглаживание положения с частотой среза, растущей со скоростью
+        float alpha = alpha(minCutoff + beta * speed, dt);
+        x += alpha * (rawX - x);
+        y += alpha * (rawY - y);
+
+        // Порог добавления точки растет со скоростью
+        float t = Math.min(1f, speed / (TOLERANCE_SPEED_DP * density));
+        float tolerance = density * (MIN_TOLERANCE_DP + (MAX_TOLERANCE_DP - MIN_TOLERANCE_DP) * t);
+        float dx = x - lastX;
+        float dy = y - lastY;
+        if (dx * dx + dy * dy >= tolerance * tolerance) {
+            lastX = x;
+            lastY = y;
+            return true;
+        }
+        return false;
+    }
+
+    // Коэффициент экспоненциального сглаживания для частоты среза cutoff
+    private static float alpha(float cutoff, float dt) {
+        float tau = 1f / (2f * (float) Math.PI * cutoff);
+        return 1f / (1f + tau / dt);
+    }
+
+    @Override
+    public float getX() {
+        return x;
+    }
+
+    @Override
+    public float getY() {
+        return y;
+    }
+
+    @Override
+    public float getPredictedX() {
+        return x + clampPrediction(velocityX * predictionHorizon, velocityY * predictionHorizon, true);
+    }
+
+    @Override
+    public float getPredictedY() {
+        return y + clampPrediction(velocityX * predictionHorizon, velocityY * predictionHorizon, false);
+    }
+
+    // Ограничение длины вектора предсказания; возвращает его координату x или y
+    private float clampPrediction(float dx, float dy, boolean xComponent) {
+        float max = MAX_PREDICTION_DP * density;
+        float length = (float) Math.sqrt(dx * dx + dy * dy);
+        float scale = length > max ? max / length : 1f;
+        return (xComponent ? dx : dy) * scale;
+    }
+}
@@ -0,0 +1,127 @@
+package by.kononovich.quicksketch;
+
+import java.util.Arrays;
+
+/**
+ * Таблица состояний указателей (пальцев) фиксированной емкости,
+ * индексируемая идентификатором указателя. Хранит контур, принятые точки
+ * линии и признак активности; при обработке касаний и рисовании
+ * объекты не создаются (буфер точек только изредка увеличивается)
+ */
+
+public class PointerStateTable<P> {
+    // Идентификаторы указателей MotionEvent лежат в диапазоне 0..31
+    public static final int MAX_POINTERS = 32;
+    private static final int INITIAL_POINTS = 64;
+
+    private final P[] paths;  // Контуры, созданные заранее
+    private final float[] lastX;  // Последняя принятая точка
+    private final float[] lastY;
+    private final float[] segmentEndX;  // Конец последнего сегмента контура
+    private final float[] segmentEndY;
+    private final boolean[] active;  // Палец касается экрана
+    private final float[][] points;  // Принятые точки линии (x, y подряд)
+    private final int[] pointCounts;
+
+    public PointerStateTable(P[] paths) {
+        this.paths = paths;
+        lastX = new float[paths.length];
+        lastY = new float[paths.length];
+        segmentEndX = new float[paths.length];
+        segmentEndY = new float[paths.length];
+        active = new boolean[paths.length];
+        points = new float[paths.length][INITIAL_POINTS * 2];
+        pointCounts = new int[paths.length];
+    }
+
+    // Количество идентификаторов, которые может хранить таблица
+    public int capacity() {
+        return paths.length;
+    }
+
+    // Проверка, что идентификатор помещается в таблицу
+    public boolean contains(int id) {
+        return id >= 0 && id < paths.length;
+    }
+
+    public boolean isActive(int id) {
+        return contains(id) && active[id];
+    }
+
+    public P getPath(int id) {
+        return paths[id];
+    }
+
+    // Начало касания; возвращает false, если идентификатор не помещается в таблицу
+    public boolean start(int id, float x, float y) {
+        if (!contains(id))
+            return false;
+
+        active[id] = true;
+        lastX[id] = x;
+        lastY[id] = y;
+        segmentEndX[id] = x;
+        segmentEndY[id] = y;
+        pointCounts[id] = 0;
+        appendPoint(id, x, y);
+        return true;
+    }
+
+    // Завершение касания
+    public void end(int id) {
+        if (contains(id))
+            active[id] = false;
+    }
+
+    // Сброс всех указателей
+    public void clear() {
+        for (int i = 0; i < active.length; i++)
+            active[i] = false;
+    }
+
+    public float getLastX(int id) {
+        return lastX[id];
+    }
+
+    public float getLastY(int id) {
+        return lastY[id];
+    }
+
+    // Добавление принятой точки линии
+    public void addPoint(int id, float x, float y) {
+        lastX[id] = x;
+        lastY[id] = y;
+        appendPoint(id, x, y);
+    }
+
+    // Точки линии указателя (x, y подряд); действительны первые getPointCount * 2 значений
+    public float[] getPoints(int id) {
+        return points[id];
+    }
+
+    public int getPointCount(int id) {
+        return pointCounts[id];
+    }
+
+    private void appendPoint(int id, float x, float y) {
+        int offset = pointCounts[id] * 2;
+        if (offset + 2 > points[id].length)
+            points[id] = Arrays.copyOf(points[id], points[id].length * 2);
+        points[id][offset] = x;
+        points[id][offset + 1] = y;
+        pointCounts[id]++;
+    }
+
+    public float getSegmentEndX(int id) {
+        return segmentEndX[id];
+    }
+
+    public float getSegmentEndY(int id) {
+        return segmentEndY[id];
+    }
+
+    public void setSegmentEnd(int id, float x, float y) {
+        segmentEndX[id] = x;
+        segmentEndY[id] = y;
+    }
+}
@@ -0,0 +1,71 @@
+package by.kononovich.quicksketch;
+
+/**
+ * Положение воспроизведения линий журнала. Журнал не хранит время
+ * рисования, поэтому линии проходятся с постоянной скоростью: advance
+ * получает пройденное расстояние в пикселах, а перед каждой линией
+ * делается пауза длиной strokeGap (за нее же появляются заливки и точки)
+ */
+
+public class ReplayTimeline {
+    private final StrokeLog log;
+    private final float strokeGap;
+    private int stroke;      // Номер воспроизводимой линии (log.size() - воспроизведение завершено)
+    private int point;       // Количество пройденных точек этой линии (0 - линия еще не начата)
+    private float progress;  // Расстояние, пройденное к следующей точке
+
+    public ReplayTimeline(StrokeLog log, float strokeGap) {
+        this.log = log;
+        this.strokeGap = Math.max(0, strokeGap);
+    }
+
+    // Продвижение на pixels пикселов; возвращает true, если пройдена
+    // хотя бы одна точка
+    public boolean advance(float pixels) {
+        boolean moved = false;
+        progress += pixels;
+        while (stroke < log.size()) {
+            float next = point == 0 ? strokeGap : distance(stroke, point);
+            if (progress < next)
+                break;
+            progress -= next;
+            moved = true;
+            if (++point == log.getPointCount(stroke)) {
+                stroke++;
+                point = 0;
+            }
+        }
+        if (isFinished())
+            progress = 0;
+        return moved;
+    }
+
+    // Длина всего воспроизведения в пикселах
+    public float getLength() {
+        float length = 0;
+        for (int i = 0; i < log.size(); i++) {
+            length += strokeGap;
+            for (int p = 1; p < log.getPointCount(i); p++)
+                length += distance(i, p);
+        }
+        return length;
+    }
+
+    public int getStroke() {
+        return stroke;
+    }
+
+    public int getPoint() {
+        return point;
+    }
+
+    public boolean isFinished() {
+        return stroke >= log.size();
+    }
+
+    // Длина отрезка от точки p - 1 до точки p линии index
+    private float distance(int index, int p) {
+        return (float) Math.hypot(log.getX(index, p) - log.getX(index, p - 1),
+                log.getY(index, p) - log.getY(index, p - 1));
+    }
+}
@@ -0,0 +1,618 @@
+package by.kononovich.quicksketch;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Двоичный журнал рисунка, дописываемый в файл по мере завершения линий.
+ * Позволяет восстановить рисунок после аварийного завершения процесса.
+ * Запись выполняется в отдельном потоке через буферизованный FileChannel,
+ * поэтому обработка касаний никогда не ждет файловых операций.
+ *
+ * Формат: заголовок (MAGIC, VERSION), затем записи. Запись линии - тип,
+ * владелец, отметка порядка (StrokeLog.stamp), цвет, толщина, код кисти,
+ * слой, количество точек и точки в фиксированной точке (1/8 пиксела):
+ * первая абсолютно, остальные - разностями. Владелец и отметка
+ * записываются у всех линий, чтобы журнал восстанавливал тот же порядок
+ * линий общего холста; записи линий без них (RECORD_STROKE,
+ * RECORD_BRUSH_STROKE, RECORD_LAYER_STROKE) только читаются из журналов
+ * прежних версий.
+ * Запись слоев - описание всех слоев после изменения, запись ластика -
+ * номера удаленных линий разностями. Все числа кодируются varint.
+ * Журнал прежней версии читается и при восстановлении перезаписывается
+ * в текущей; журнал более новой версии считается чужим
+ */
+
+public class SketchJournal {
+    private static final int MAGIC = 0x514B534A; // "QSKJ"
+    // 2 - записи слоев и ластика, 3 - линии общего холста; прежние
+    // приложения не должны их читать
+    private static final int VERSION = 3;
+    private static final int HEADER_SIZE = 5;
+
+    // Типы записей
+    private static final int RECORD_STROKE = 1;        // Линия прежних версий
+    private static final int RECORD_UNDO = 2;
+    private static final int RECORD_REDO = 3;
+    private static final int RECORD_CLEAR = 4;
+    private static final int RECORD_BRUSH_STROKE = 5;  // Линия с кодом кисти
+    private static final int RECORD_LAYERS = 6;        // Описание слоев
+    private static final int RECORD_LAYER_STROKE = 7;  // Линия с кодом кисти и слоем
+    private static final int RECORD_ERASE = 8;         // Удаление линий ластиком
+    private static final int RECORD_SHARED_STROKE = 9; // Линия с владельцем и отметкой
+
+    private static final float POINT_SCALE = 8;  // Точность координат - 1/8 пиксела
+    private static final float WIDTH_SCALE = 4;  // Точность толщины - 1/4 пиксела
+
+    private static final int FLUSH_THRESHOLD = 64 * 1024;
+    // Журнал сжимается, когда записей больше, чем 2 * (число линий) + COMPACTION_SLACK
+    private static final int COMPACTION_SLACK = 256;
+
+    // Уведомление о прочитанном журнале (вызывается в потоке журнала)
+    public interface RecoveryCallback {
+        void onRecovered(StrokeLog log);
+    }
+
+    private final File file;
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1,
+            0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "QuickSketch-journal");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    // Используются только в потоке журнала
+    private FileChannel channel;
+    private final ByteSink pending = new ByteSink();
+
+    // Используется только в вызывающем потоке
+    private int recordCount;  // Записей в файле после последнего сжатия
+
+    public SketchJournal(File file) {
+        this.file = file;
+    }
+
+    // Чтение журнала в фоновом потоке; недописанная последняя запись отбрасывается
+    public void recover(final RecoveryCallback callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                StrokeLog log = new StrokeLog();
+                try {
+                    long valid = read(file, log);
+                    if (valid < HEADER_SIZE) {
+                        // Пустой или чужой файл - журнал начинается заново
+                        closeChannel();
+                        file.delete();
+                    } else if (readVersion(file) != VERSION) {
+                        replace(log);  // Новые записи дописываются уже в текущем формате
+                    } else {
+                        openChannel().truncate(valid);
+                    }
+                    openChannel();
+                } catch (IOException | RuntimeException e) {
+                    // Рисунок не восстанавливается, но уведомление приходит всегда
+                    log.clear();
+                }
+                callback.onRecovered(log);
+            }
+        });
+    }
+
+    // Запись завершенной линии; точки копируются в вызывающем потоке
+    public void appendStroke(float[] xy, int pointCount, int color, float width) {
+        appendStroke(xy, pointCount, color, width, 0, 0);
+    }
+
+    // Запись линии, нарисованной кистью с кодом brush
+    public void appendStroke(float[] xy, int pointCount, int color, float width, int brush) {
+        appendStroke(xy, pointCount, color, width, brush, 0);
+    }
+
+    // Запись линии на слое layer
+    public void appendStroke(float[] xy, int pointCount, int color, float width, int brush,
+                             int layer) {
+        appendStroke(xy, pointCount, color, width, brush, layer, StrokeLog.LOCAL, 0);
+    }
+
+    // Запись линии с владельцем и отметкой порядка (StrokeLog.getOwner, getStamp)
+    public void appendStroke(float[] xy, int pointCount, final int color, final float width,
+                             final int brush, final int layer, final int owner,
+                             final long stamp) {
+        final float[] points = Arrays.copyOf(xy, pointCount * 2);
+        recordCount++;
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                encodeStroke(pending, points, 0, points.length / 2, color, width, brush, layer,
+                        owner, stamp);
+            }
+        });
+    }
+
+    // Запись описания слоев после их изменения
+    public void appendLayers(int[] layerState) {
+        final int[] state = layerState.clone();
+        recordCount++;
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                encodeLayers(pending, state);
+            }
+        });
+    }
+
+    // Запись удаления линий с номерами indices (по возрастанию)
+    public void appendErase(int[] indices) {
+        final int[] erased = indices.clone();
+        recordCount++;
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                encodeErase(pending, erased);
+            }
+        });
+    }
+
+    public void appendUndo() {
+        appendRecord(RECORD_UNDO);
+    }
+
+    public void appendRedo() {
+        appendRecord(RECORD_REDO);
+    }
+
+    public void appendClear() {
+        appendRecord(RECORD_CLEAR);
+    }
+
+    // Проверка, что журнал содержит слишком много лишних записей
+    public boolean needsCompaction(int liveStrokes) {
+        return recordCount > liveStrokes * 2 + COMPACTION_SLACK;
+    }
+
+    // Перезапись журнала только с примененными линиями (в потоке журнала);
+    // liveStrokes - количество линий, которые останутся в журнале
+    public void compact(int liveStrokes) {
+        compact(liveStrokes, 0);
+    }
+
+    // Сжатие журнала с линиями, доступными для повтора: каждая из redoStrokes
+    // линий записывается вместе с отменой (StrokeLog.recordedSize() - size())
+    public void compact(int liveStrokes, int redoStrokes) {
+        recordCount = liveStrokes + redoStrokes * 2;
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flushPending();
+                    StrokeLog log = new StrokeLog();
+                    read(file, log);
+                    replace(log);
+                } catch (IOException | RuntimeException e) {
+                    // Журнал остается несжатым
+                }
+            }
+        });
+    }
+
+    // Замена файла журналом, содержащим только линии log (в потоке журнала)
+    private void replace(StrokeLog log) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            write(out.getChannel(), log);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+
+        closeChannel();
+        if (!temp.renameTo(file))
+            throw new IOException("Cannot replace " + file);
+    }
+
+    // Ожидание записи всех поставленных в очередь данных
+    public void flush() throws IOException {
+        try {
+            executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    flushPending();
+                    return null;
+                }
+            }).get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IOException(e);
+        }
+    }
+
+    // Запись оставшихся данных и остановка потока журнала
+    public void close() {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                closeChannel();
+            }
+        });
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void appendRecord(final int type) {
+        recordCount++;
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                pending.writeByte(type);
+            }
+        });
+    }
+
+    // Выполнение записи в потоке журнала; данные сбрасываются в файл,
+    // когда очередь пуста или буфер заполнен
+    private void execute(final Runnable encoder) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                encoder.run();
+                if (pending.size() >= FLUSH_THRESHOLD ||
+                        executor.getQueue().isEmpty()) {
+                    try {
+                        flushPending();
+                    } catch (IOException e) {
+                        pending.reset();  // Запись потеряна, журнал продолжает работать
+                    }
+                }
+            }
+        });
+    }
+
+    private void flushPending() throws IOException {
+        if (pending.size() == 0)
+            return;
+        writeFully(openChannel(), pending);
+    }
+
+    // Открытие файла журнала для дописывания; пустой файл получает заголовок
+    private FileChannel openChannel() throws IOException {
+        if (channel == null) {
+            channel = new RandomAccessFile(file, "rw").getChannel();
+            if (channel.size() < HEADER_SIZE) {
+                channel.truncate(0);
+                ByteSink header = new ByteSink();
+                writeHeader(header);
+                writeFully(channel, header);
+            }
+            channel.position(channel.size());
+        }
+        return channel;
+    }
+
+    private void closeChannel() {
+        try {
+            flushPending();
+        } catch (IOException ignored) {
+        }
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            channel = null;
+        }
+    }
+
+    // Запись журнала, содержащего только линии log: примененные, затем
+    // доступные для повтора с отменами, чтобы повтор после восстановления
+    // возвращал их в прежнем порядке
+    static void write(FileChannel out, StrokeLog log) throws IOException {
+        ByteSink sink = new ByteSink();
+        writeHeader(sink);
+        if (log.getLayerState() != null)
+            encodeLayers(sink, log.getLayerState());
+        for (int i = 0; i < log.recordedSize(); i++) {
+            encodeStroke(sink, log.getPoints(), log.getPointOffset(i), log.getPointCount(i),
+                    log.getColor(i), log.getWidth(i), log.getBrush(i), log.getLayer(i),
+                    log.getOwner(i), log.getStamp(i));
+            if (sink.size() >= FLUSH_THRESHOLD)
+                writeFully(out, sink);
+        }
+        for (int i = log.size(); i < log.recordedSize(); i++)
+            sink.writeByte(RECORD_UNDO);
+        writeFully(out, sink);
+    }
+
+    // Запись содержимого буфера в канал; буфер очищается
+    private static void writeFully(FileChannel out, ByteSink sink) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(sink.array(), 0, sink.size());
+        while (buffer.hasRemaining())
+            out.write(buffer);
+        sink.reset();
+    }
+
+    // Чтение журнала в log; возвращает длину корректной части файла
+    static long read(File file, StrokeLog log) throws IOException {
+        if (!file.exists())
+            return 0;
+
+        byte[] data;
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // Чтение файла целиком
+            }
+            data = buffer.array();
+        } finally {
+            in.close();
+        }
+        return decode(data, log);
+    }
+
+    // Версия формата журнала в файле (0 - пустой или чужой файл)
+    private static int readVersion(File file) throws IOException {
+        byte[] header = new byte[HEADER_SIZE];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            if (in.read(header) != HEADER_SIZE)
+                return 0;
+        } finally {
+            in.close();
+        }
+        ByteSource source = new ByteSource(header);
+        return source.readInt() == MAGIC ? source.readByte() : 0;
+    }
+
+    // Разбор записей; возвращает длину корректной части данных (0 - чужой или пустой файл).
+    // Разбор останавливается на первой поврежденной или недописанной записи
+    static int decode(byte[] data, StrokeLog log) {
+        ByteSource in = new ByteSource(data);
+        if (data.length < HEADER_SIZE || in.readInt() != MAGIC)
+            return 0;
+        int version = in.readByte();
+        if (version < 1 || version > VERSION)
+            return 0;
+
+        float[] points = new float[256];
+        int valid = in.position();
+        try {
+            while (in.position() < data.length) {
+                int type = in.readByte();
+                switch (type) {
+                    case RECORD_STROKE:
+                    case RECORD_BRUSH_STROKE:
+                    case RECORD_LAYER_STROKE:
+                    case RECORD_SHARED_STROKE:
+                        int owner = StrokeLog.LOCAL;
+                        long stamp = 0;
+                        if (type == RECORD_SHARED_STROKE) {
+                            owner = in.readVarint();
+                            int clock = in.readVarint();
+                            stamp = StrokeLog.stamp(clock, in.readVarint());
+                        }
+                        int color = in.readVarint();
+                        float width = in.readVarint() / WIDTH_SCALE;
+                        int brush = type != RECORD_STROKE ? in.readVarint() : 0;
+                        int layer = type == RECORD_LAYER_STROKE ||
+                                type == RECORD_SHARED_STROKE ? in.readVarint() : 0;
+                        int pointCount = in.readVarint();
+                        // Каждая точка занимает не меньше двух байтов
+                        if (pointCount < 0 || pointCount > in.remaining() / 2)
+                            return valid;
+                        if (pointCount * 2 > points.length)
+                            points = new float[pointCount * 2];
+                        int x = 0;
+                        int y = 0;
+                        for (int i = 0; i < pointCount; i++) {
+                            x += zigZagDecode(in.readVarint());
+                            y += zigZagDecode(in.readVarint());
+                            points[i * 2] = x / POINT_SCALE;
+                            points[i * 2 + 1] = y / POINT_SCALE;
+                        }
+                        if (type == RECORD_SHARED_STROKE)
+                            log.add(points, pointCount, color, width, brush, layer, owner, stamp);
+                        else
+                            log.append(points, pointCount, color, width, brush, layer);
+                        break;
+                    case RECORD_LAYERS:
+                        int stateLength = in.readVarint();
+                        if (stateLength < 0 || stateLength > in.remaining())
+                            return valid;
+                        int[] state = new int[stateLength];
+                        for (int i = 0; i < state.length; i++)
+                            state[i] = in.readVarint();
+                        log.setLayerState(state);
+                        break;
+                    case RECORD_ERASE:
+                        int erasedCount = in.readVarint();
+                        if (erasedCount < 0 || erasedCount > in.remaining())
+                            return valid;
+                        int[] erased = new int[erasedCount];
+                        int index = 0;
+                        for (int i = 0; i < erased.length; i++) {
+                            index += in.readVarint();
+                            if ((i > 0 && index <= erased[i - 1]) || index >= log.size())
+                                return valid;  // Поврежденная запись
+                            erased[i] = index;
+                        }
+                        if (erased.length > 0)
+                            log.remove(erased);
+                        break;
+                    case RECORD_UNDO:
+                        log.undo();
+                        break;
+                    case RECORD_REDO:
+                        log.redo();
+                        break;
+                    case RECORD_CLEAR:
+                        log.clear();
+                        break;
+                    default:
+                        return valid;  // Поврежденная запись
+                }
+                valid = in.position();
+            }
+        } catch (RuntimeException e) {
+            // Последняя запись не дописана или повреждена - она отбрасывается
+        }
+        return valid;
+    }
+
+    static void writeHeader(ByteSink out) {
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+    }
+
+    // Кодирование линии: владелец, отметка, цвет, толщина, кисть, слой,
+    // количество точек и разности координат
+    static void encodeStroke(ByteSink out, float[] xy, int offset, int pointCount,
+                             int color, float width, int brush, int layer, int owner,
+                             long stamp) {
+        out.writeByte(RECORD_SHARED_STROKE);
+        out.writeVarint(owner);
+        out.writeVarint(StrokeLog.stampClock(stamp));
+        out.writeVarint(StrokeLog.stampPeer(stamp));
+        out.writeVarint(color);
+        out.writeVarint(Math.round(width * WIDTH_SCALE));
+        out.writeVarint(brush);
+        out.writeVarint(layer);
+        out.writeVarint(pointCount);
+        int lastX = 0;
+        int lastY = 0;
+        for (int i = 0; i < pointCount; i++) {
+            int x = Math.round(xy[offset + i * 2] * POINT_SCALE);
+            int y = Math.round(xy[offset + i * 2 + 1] * POINT_SCALE);
+            out.writeVarint(zigZagEncode(x - lastX));
+            out.writeVarint(zigZagEncode(y - lastY));
+            lastX = x;
+            lastY = y;
+        }
+    }
+
+    // Кодирование описания слоев: длина и значения
+    static void encodeLayers(ByteSink out, int[] state) {
+        out.writeByte(RECORD_LAYERS);
+        out.writeVarint(state.length);
+        for (int value : state)
+            out.writeVarint(value);
+    }
+
+    // Кодирование удаления линий: количество и номера разностями
+    static void encodeErase(ByteSink out, int[] indices) {
+        out.writeByte(RECORD_ERASE);
+        out.writeVarint(indices.length);
+        int last = 0;
+        for (int index : indices) {
+            out.writeVarint(index - last);
+            last = index;
+        }
+    }
+
+    static int zigZagEncode(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    static int zigZagDecode(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    // Растущий буфер байтов
+    static class ByteSink {
+        private byte[] bytes = new byte[4096];
+        private int size;
+
+        void writeByte(int value) {
+            if (size == bytes.length)
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            bytes[size++] = (byte) value;
+        }
+
+        void writeInt(int value) {
+            writeByte(value >>> 24);
+            writeByte(value >>> 16);
+            writeByte(value >>> 8);
+            writeByte(value);
+        }
+
+        // Беззнаковое число по 7 бит в байте, старший бит - признак продолжения
+        void writeVarint(int value) {
+            while ((value & ~0x7F) != 0) {
+                writeByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            writeByte(value);
+        }
+
+        byte[] array() {
+            return bytes;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void reset() {
+            size = 0;
+        }
+    }
+
+    // Чтение байтов из массива
+    static class ByteSource {
+        private final byte[] bytes;
+        private int position;
+
+        ByteSource(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        int readByte() {
+            return bytes[position++] & 0xFF;
+        }
+
+        int readInt() {
+            return (readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+        }
+
+        int readVarint() {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0)
+                    return value;
+            }
+            throw new ArrayIndexOutOfBoundsException("Malformed varint");
+        }
+
+        int position() {
+            return position;
+        }
+
+        // Непрочитанных байтов
+        int remaining() {
+            return bytes.length - position;
+        }
+    }
+}
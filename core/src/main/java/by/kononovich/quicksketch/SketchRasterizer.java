@@ -0,0 +1,517 @@
+package by.kononovich.quicksketch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Растеризация линий журнала в массив пикселов без android.graphics -
+ * для пакетной обработки на сервере (миниатюры, вывод для печати в большом
+ * разрешении). Линии рисуются так же, как в приложении: контур из тех же
+ * квадратичных кривых с закругленными концами и сглаживанием края в один
+ * пиксел, отпечатки кончиков Brush.rasterize с билинейной интерполяцией,
+ * заливки FloodFill, слои со своими видимостью, непрозрачностью и режимом
+ * наложения на белом листе. Изображение делится на плитки, которые рисуются
+ * параллельно (fork/join); заливка зависит от всего слоя, поэтому линии
+ * между заливками рисуются плитками, а сама заливка - целиком
+ */
+
+public class SketchRasterizer {
+    public static final int TILE_SIZE = 64;  // Размер стороны плитки в пикселах
+    // Наибольшая длина отрезка при разбиении кривых (в пикселах)
+    private static final float FLATTEN_STEP = 2;
+    private static final int MAX_FLATTEN_SEGMENTS = 256;
+    private static final int PAPER = 0xFFFFFFFF;
+
+    // Режимы наложения в порядке Layer.Blend
+    private static final int BLEND_MULTIPLY = 1;
+    private static final int BLEND_SCREEN = 2;
+    private static final int BLEND_DARKEN = 3;
+    private static final int BLEND_LIGHTEN = 4;
+    private static final int BLEND_ADD = 5;
+    private static final int BLEND_OVERLAY = 6;
+
+    private final ForkJoinPool pool;
+    private final FloodFill floodFill;
+
+    // Плитки рисуются потоками pool; render нельзя вызывать из них
+    public SketchRasterizer(ForkJoinPool pool) {
+        this.pool = pool;
+        floodFill = new FloodFill(pool, pool.getParallelism());
+    }
+
+    // Изображение примененных линий log размером width x height (ARGB по
+    // строкам). layerState - описание слоев LayerStack.encodeState (null -
+    // один слой); координаты и толщина линий умножаются на scale
+    public int[] render(StrokeLog log, int[] layerState, final int width, final int height,
+                        float scale) {
+        // Слои снизу вверх: идентификатор, видимость, непрозрачность, режим наложения
+        final int[] layers;
+        if (layerState != null && layerState.length >= 3 &&
+                layerState.length >= 3 + layerState[2] * 4) {
+            layers = Arrays.copyOfRange(layerState, 3, 3 + layerState[2] * 4);
+        } else {
+            layers = new int[]{0, 1, 255, 0};
+        }
+
+        // Пикселы слоев (с предварительным умножением на прозрачность);
+        // создаются при первой линии слоя
+        final int[][] buffers = new int[layers.length / 4][];
+        List<Shape> shapes = new ArrayList<>();
+        for (int i = 0; i < log.size(); i++) {
+            int layer = indexOfLayer(layers, log.getLayer(i));
+            if (layer < 0)
+                continue;  // Линия удаленного слоя
+            if (buffers[layer] == null)
+                buffers[layer] = new int[width * height];
+
+            Brush brush = Brush.decode(log.getBrush(i));
+            if (brush.isFill()) {
+                // Заливка видит все линии слоя, нарисованные до нее
+                drawShapes(shapes, buffers, width, height);
+                shapes.clear();
+                fill(log, i, brush, scale, buffers[layer], width, height);
+            } else if (brush.isStamped()) {
+                shapes.add(new StampShape(log, i, brush, scale, layer));
+            } else if (log.getPointCount(i) > 1) {
+                shapes.add(new LineShape(log, i, scale, layer));  // Точка без сегментов не рисуется
+            }
+        }
+        drawShapes(shapes, buffers, width, height);
+
+        // Наложение видимых слоев на лист
+        final int[] image = new int[width * height];
+        forEachTile(width, height, new TileWork() {
+            @Override
+            public void run(int left, int top, int right, int bottom) {
+                for (int y = top; y < bottom; y++) {
+                    for (int i = y * width + left; i < y * width + right; i++) {
+                        int pixel = PAPER;
+                        for (int layer = 0; layer < buffers.length; layer++) {
+                            if (buffers[layer] == null || layers[layer * 4 + 1] == 0 ||
+                                    buffers[layer][i] == 0)
+                                continue;
+                            pixel = blend(layers[layer * 4 + 3],
+                                    scaleAlpha(buffers[layer][i], layers[layer * 4 + 2]), pixel);
+                        }
+                        image[i] = pixel;
+                    }
+                }
+            }
+        });
+        return image;
+    }
+
+    private static int indexOfLayer(int[] layers, int id) {
+        for (int i = 0; i < layers.length; i += 4)
+            if (layers[i] == id)
+                return i / 4;
+        return -1;
+    }
+
+    // Рисование фигур на плитках; каждая плитка проходит по пересекающим
+    // ее фигурам в порядке журнала
+    private void drawShapes(final List<Shape> shapes, final int[][] buffers, final int width,
+                            int height) {
+        if (shapes.isEmpty())
+            return;
+        forEachTile(width, height, new TileWork() {
+            @Override
+            public void run(int left, int top, int right, int bottom) {
+                float[] scratch = new float[TILE_SIZE * TILE_SIZE];
+                for (Shape shape : shapes)
+                    if (shape.intersects(left, top, right, bottom))
+                        shape.draw(buffers[shape.layer], width, left, top, right, bottom,
+                                scratch);
+            }
+        });
+    }
+
+    // Заливка слоя от первой точки линии index (на пикселах без умножения
+    // на прозрачность, как Bitmap.getPixels в приложении)
+    private void fill(StrokeLog log, int index, Brush brush, float scale, int[] buffer,
+                      int width, int height) {
+        int[] pixels = new int[buffer.length];
+        for (int i = 0; i < buffer.length; i++)
+            pixels[i] = unpremultiply(buffer[i]);
+        int color = log.getColor(index);
+        int[] bounds = new int[4];
+        if (floodFill.fill(pixels, width, height, (int) (log.getX(index, 0) * scale),
+                (int) (log.getY(index, 0) * scale), color, brush.getTolerance(),
+                bounds, null) <= 0)
+            return;
+        int filled = premultiply(color, color >>> 24);
+        for (int y = bounds[1]; y < bounds[3]; y++)
+            for (int i = y * width + bounds[0]; i < y * width + bounds[2]; i++)
+                if (pixels[i] == color)
+                    buffer[i] = filled;
+    }
+
+    // Работа над прямоугольником плитки; плитки не пересекаются, поэтому
+    // выполняются параллельно без синхронизации
+    private interface TileWork {
+        void run(int left, int top, int right, int bottom);
+    }
+
+    private void forEachTile(int width, int height, TileWork work) {
+        int columns = (width + TILE_SIZE - 1) / TILE_SIZE;
+        int rows = (height + TILE_SIZE - 1) / TILE_SIZE;
+        if (columns * rows > 0)
+            pool.invoke(new TileTask(0, columns * rows, columns, width, height, work));
+    }
+
+    // Плитки [first, last), делящиеся пополам до одной
+    private static class TileTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;  // Задачи не сериализуются
+
+        private final int first;
+        private final int last;
+        private final int columns;
+        private final int width;
+        private final int height;
+        private final TileWork work;
+
+        TileTask(int first, int last, int columns, int width, int height, TileWork work) {
+            this.first = first;
+            this.last = last;
+            this.columns = columns;
+            this.width = width;
+            this.height = height;
+            this.work = work;
+        }
+
+        @Override
+        protected void compute() {
+            if (last - first > 1) {
+                int middle = (first + last) >>> 1;
+                invokeAll(new TileTask(first, middle, columns, width, height, work),
+                        new TileTask(middle, last, columns, width, height, work));
+                return;
+            }
+            int left = (first % columns) * TILE_SIZE;
+            int top = (first / columns) * TILE_SIZE;
+            work.run(left, top, Math.min(width, left + TILE_SIZE),
+                    Math.min(height, top + TILE_SIZE));
+        }
+    }
+
+    // Фигура одной линии на слое layer и ее границы с учетом сглаживания
+    private abstract static class Shape {
+        final int layer;
+        float left = Float.MAX_VALUE;
+        float top = Float.MAX_VALUE;
+        float right = -Float.MAX_VALUE;
+        float bottom = -Float.MAX_VALUE;
+
+        Shape(int layer) {
+            this.layer = layer;
+        }
+
+        boolean intersects(int tileLeft, int tileTop, int tileRight, int tileBottom) {
+            return left < tileRight && right > tileLeft && top < tileBottom && bottom > tileTop;
+        }
+
+        void include(float x1, float y1, float x2, float y2) {
+            left = Math.min(left, x1);
+            top = Math.min(top, y1);
+            right = Math.max(right, x2);
+            bottom = Math.max(bottom, y2);
+        }
+
+        // Рисование части фигуры внутри плитки; scratch - рабочий массив
+        // размером с плитку
+        abstract void draw(int[] buffer, int width, int tileLeft, int tileTop,
+                           int tileRight, int tileBottom, float[] scratch);
+    }
+
+    // Линия контуром: ломаная, приближающая кривые; покрытие пиксела
+    // определяется расстоянием от его центра до ломаной, поэтому
+    // перекрывающиеся сегменты одной линии не накладываются друг на друга
+    private static class LineShape extends Shape {
+        private float[] points = new float[64];  // Вершины ломаной (x, y подряд)
+        private int pointCount;
+        private final float radius;
+        private final int color;
+
+        LineShape(StrokeLog log, int index, float scale, int layer) {
+            super(layer);
+            radius = log.getWidth(index) * scale / 2;
+            color = log.getColor(index);
+            // Те же сегменты, что и контур Path: кривая к середине следующего отрезка
+            float lastX = log.getX(index, 0) * scale;
+            float lastY = log.getY(index, 0) * scale;
+            addPoint(lastX, lastY);
+            for (int i = 1; i < log.getPointCount(index); i++) {
+                float x = log.getX(index, i) * scale;
+                float y = log.getY(index, i) * scale;
+                quadTo(lastX, lastY, (x + lastX) / 2, (y + lastY) / 2);
+                lastX = x;
+                lastY = y;
+            }
+            float margin = radius + 1;
+            for (int i = 0; i < pointCount; i++)
+                include(points[i * 2] - margin, points[i * 2 + 1] - margin,
+                        points[i * 2] + margin, points[i * 2 + 1] + margin);
+        }
+
+        private void quadTo(float controlX, float controlY, float endX, float endY) {
+            float startX = points[pointCount * 2 - 2];
+            float startY = points[pointCount * 2 - 1];
+            float length = (float) (Math.hypot(controlX - startX, controlY - startY) +
+                    Math.hypot(endX - controlX, endY - controlY));
+            int segments = Math.max(1, Math.min(MAX_FLATTEN_SEGMENTS,
+                    (int) Math.ceil(length / FLATTEN_STEP)));
+            for (int i = 1; i <= segments; i++) {
+                float t = (float) i / segments;
+                float u = 1 - t;
+                addPoint(u * u * startX + 2 * u * t * controlX + t * t * endX,
+                        u * u * startY + 2 * u * t * controlY + t * t * endY);
+            }
+        }
+
+        private void addPoint(float x, float y) {
+            if (pointCount * 2 == points.length)
+                points = Arrays.copyOf(points, points.length * 2);
+            points[pointCount * 2] = x;
+            points[pointCount * 2 + 1] = y;
+            pointCount++;
+        }
+
+        @Override
+        void draw(int[] buffer, int width, int tileLeft, int tileTop, int tileRight,
+                  int tileBottom, float[] scratch) {
+            // Часть границ линии внутри плитки
+            int x0 = Math.max(tileLeft, (int) Math.floor(left));
+            int y0 = Math.max(tileTop, (int) Math.floor(top));
+            int x1 = Math.min(tileRight, (int) Math.ceil(right));
+            int y1 = Math.min(tileBottom, (int) Math.ceil(bottom));
+            for (int y = y0; y < y1; y++)
+                Arrays.fill(scratch, (y - tileTop) * TILE_SIZE + x0 - tileLeft,
+                        (y - tileTop) * TILE_SIZE + x1 - tileLeft, Float.MAX_VALUE);
+
+            // Квадрат расстояния до ближайшего сегмента
+            float margin = radius + 1;
+            for (int i = 1; i < pointCount; i++) {
+                float ax = points[i * 2 - 2];
+                float ay = points[i * 2 - 1];
+                float bx = points[i * 2];
+                float by = points[i * 2 + 1];
+                int sx0 = Math.max(x0, (int) Math.floor(Math.min(ax, bx) - margin));
+                int sy0 = Math.max(y0, (int) Math.floor(Math.min(ay, by) - margin));
+                int sx1 = Math.min(x1, (int) Math.ceil(Math.max(ax, bx) + margin));
+                int sy1 = Math.min(y1, (int) Math.ceil(Math.max(ay, by) + margin));
+                float dx = bx - ax;
+                float dy = by - ay;
+                float lengthSquared = dx * dx + dy * dy;
+                for (int y = sy0; y < sy1; y++) {
+                    int row = (y - tileTop) * TILE_SIZE - tileLeft;
+                    float py = y + 0.5f - ay;
+                    for (int x = sx0; x < sx1; x++) {
+                        float px = x + 0.5f - ax;
+                        float t = lengthSquared > 0 ?
+                                Math.max(0, Math.min(1, (px * dx + py * dy) / lengthSquared)) : 0;
+                        float ex = px - t * dx;
+                        float ey = py - t * dy;
+                        float distance = ex * ex + ey * ey;
+                        if (distance < scratch[row + x])
+                            scratch[row + x] = distance;
+                    }
+                }
+            }
+
+            // Покрытие: полное внутри линии, спад на один пиксел у края
+            int alpha = color >>> 24;
+            for (int y = y0; y < y1; y++) {
+                int row = (y - tileTop) * TILE_SIZE - tileLeft;
+                for (int x = x0; x < x1; x++) {
+                    float distance = scratch[row + x];
+                    if (distance == Float.MAX_VALUE)
+                        continue;
+                    float coverage = radius + 0.5f - (float) Math.sqrt(distance);
+                    if (coverage <= 0)
+                        continue;
+                    int a = Math.round(alpha * Math.min(1, coverage));
+                    if (a > 0)
+                        buffer[y * width + x] = srcOver(premultiply(color, a),
+                                buffer[y * width + x]);
+                }
+            }
+        }
+    }
+
+    // Линия отпечатками кончика; отпечатки ставятся в дробных координатах
+    // и накладываются по одному, как при рисовании Bitmap с фильтрацией
+    private static class StampShape extends Shape {
+        private float[] stamps = new float[64];  // Левые верхние углы отпечатков
+        private int stampCount;
+        private final int[] tip;  // С предварительным умножением на прозрачность
+        private final int size;
+
+        StampShape(StrokeLog log, int index, Brush brush, float scale, int layer) {
+            super(layer);
+            float width = log.getWidth(index) * scale;
+            size = Brush.tipSize(width);
+            tip = brush.rasterize(size, log.getColor(index));
+            for (int i = 0; i < tip.length; i++)
+                tip[i] = premultiply(tip[i], tip[i] >>> 24);
+
+            BrushStamper stamper = new BrushStamper();
+            BrushStamper.Target target = new BrushStamper.Target() {
+                @Override
+                public void stamp(float x, float y) {
+                    addStamp(x - size / 2f, y - size / 2f);
+                }
+            };
+            float lastX = log.getX(index, 0) * scale;
+            float lastY = log.getY(index, 0) * scale;
+            stamper.begin(lastX, lastY, brush.getSpacing(width), target);
+            for (int i = 1; i < log.getPointCount(index); i++) {
+                float x = log.getX(index, i) * scale;
+                float y = log.getY(index, i) * scale;
+                stamper.quadTo(lastX, lastY, (x + lastX) / 2, (y + lastY) / 2, target);
+                lastX = x;
+                lastY = y;
+            }
+        }
+
+        private void addStamp(float x, float y) {
+            if (stampCount * 2 == stamps.length)
+                stamps = Arrays.copyOf(stamps, stamps.length * 2);
+            stamps[stampCount * 2] = x;
+            stamps[stampCount * 2 + 1] = y;
+            stampCount++;
+            include(x, y, x + size + 1, y + size + 1);
+        }
+
+        @Override
+        void draw(int[] buffer, int width, int tileLeft, int tileTop, int tileRight,
+                  int tileBottom, float[] scratch) {
+            for (int s = 0; s < stampCount; s++) {
+                float stampX = stamps[s * 2];
+                float stampY = stamps[s * 2 + 1];
+                int x0 = Math.max(tileLeft, (int) Math.floor(stampX));
+                int y0 = Math.max(tileTop, (int) Math.floor(stampY));
+                int x1 = Math.min(tileRight, (int) Math.floor(stampX) + size + 1);
+                int y1 = Math.min(tileBottom, (int) Math.floor(stampY) + size + 1);
+                for (int y = y0; y < y1; y++) {
+                    // Центр пиксела в координатах кончика (центры текселов - в i + 0.5)
+                    float v = y - stampY;
+                    int ty = (int) Math.floor(v);
+                    float fy = v - ty;
+                    for (int x = x0; x < x1; x++) {
+                        float u = x - stampX;
+                        int tx = (int) Math.floor(u);
+                        float fx = u - tx;
+                        int pixel = bilinear(texel(tx, ty), texel(tx + 1, ty),
+                                texel(tx, ty + 1), texel(tx + 1, ty + 1), fx, fy);
+                        if (pixel != 0)
+                            buffer[y * width + x] = srcOver(pixel, buffer[y * width + x]);
+                    }
+                }
+            }
+        }
+
+        // Тексел кончика; за его пределами - прозрачный
+        private int texel(int x, int y) {
+            return x < 0 || y < 0 || x >= size || y >= size ? 0 : tip[y * size + x];
+        }
+    }
+
+    private static int bilinear(int p00, int p10, int p01, int p11, float fx, float fy) {
+        if ((p00 | p10 | p01 | p11) == 0)
+            return 0;
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            float top = ((p00 >>> shift) & 0xFF) * (1 - fx) + ((p10 >>> shift) & 0xFF) * fx;
+            float bottom = ((p01 >>> shift) & 0xFF) * (1 - fx) + ((p11 >>> shift) & 0xFF) * fx;
+            result |= Math.round(top * (1 - fy) + bottom * fy) << shift;
+        }
+        return result;
+    }
+
+    // Цвет ARGB с прозрачностью alpha, умноженный на нее
+    static int premultiply(int color, int alpha) {
+        return alpha << 24 | multiply((color >> 16) & 0xFF, alpha) << 16 |
+                multiply((color >> 8) & 0xFF, alpha) << 8 | multiply(color & 0xFF, alpha);
+    }
+
+    static int unpremultiply(int pixel) {
+        int alpha = pixel >>> 24;
+        if (alpha == 0 || alpha == 255)
+            return alpha == 0 ? 0 : pixel;
+        return alpha << 24 | divide((pixel >> 16) & 0xFF, alpha) << 16 |
+                divide((pixel >> 8) & 0xFF, alpha) << 8 | divide(pixel & 0xFF, alpha);
+    }
+
+    // Пиксел с умножением на прозрачность, ослабленный до opacity
+    private static int scaleAlpha(int pixel, int opacity) {
+        if (opacity >= 255)
+            return pixel;
+        return multiply(pixel >>> 24, opacity) << 24 |
+                multiply((pixel >> 16) & 0xFF, opacity) << 16 |
+                multiply((pixel >> 8) & 0xFF, opacity) << 8 | multiply(pixel & 0xFF, opacity);
+    }
+
+    private static int srcOver(int source, int destination) {
+        int inverse = 255 - (source >>> 24);
+        if (inverse == 0)
+            return source;
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 8)
+            result |= (((source >>> shift) & 0xFF) +
+                    multiply((destination >>> shift) & 0xFF, inverse)) << shift;
+        return result;
+    }
+
+    // Наложение source на destination (оба с умножением на прозрачность)
+    // по формулам режимов смешивания SVG/PDF
+    private static int blend(int mode, int source, int destination) {
+        if (mode == 0)
+            return srcOver(source, destination);
+        float sa = (source >>> 24) / 255f;
+        float da = (destination >>> 24) / 255f;
+        int result = Math.round(255 * (mode == BLEND_ADD ?
+                Math.min(1, sa + da) : sa + da - sa * da)) << 24;
+        for (int shift = 0; shift < 24; shift += 8) {
+            float s = ((source >>> shift) & 0xFF) / 255f;
+            float d = ((destination >>> shift) & 0xFF) / 255f;
+            float value;
+            switch (mode) {
+                case BLEND_MULTIPLY:
+                    value = s * d + s * (1 - da) + d * (1 - sa);
+                    break;
+                case BLEND_SCREEN:
+                    value = s + d - s * d;
+                    break;
+                case BLEND_DARKEN:
+                    value = s + d - Math.max(s * da, d * sa);
+                    break;
+                case BLEND_LIGHTEN:
+                    value = s + d - Math.min(s * da, d * sa);
+                    break;
+                case BLEND_ADD:
+                    value = Math.min(1, s + d);
+                    break;
+                case BLEND_OVERLAY:
+                    value = (2 * d <= da ? 2 * s * d : sa * da - 2 * (da - d) * (sa - s)) +
+                            s * (1 - da) + d * (1 - sa);
+                    break;
+                default:
+                    value = s + d * (1 - sa);
+            }
+            result |= Math.round(255 * Math.max(0, Math.min(1, value))) << shift;
+        }
+        return result;
+    }
+
+    private static int multiply(int value, int alpha) {
+        int product = value * alpha + 128;
+        return (product + (product >> 8)) >> 8;  // value * alpha / 255 с округлением
+    }
+
+    private static int divide(int value, int alpha) {
+        return Math.min(255, (value * 255 + alpha / 2) / alpha);
+    }
+}
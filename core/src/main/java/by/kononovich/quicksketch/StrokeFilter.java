@@ -0,0 +1,31 @@
+package by.kononovich.quicksketch;
+
+/**
+ * Фильтр между отсчетами касания и контуром линии: решает, какие точки
+ * добавляются к линии, сглаживает их и предсказывает положение пальца.
+ * Один экземпляр обслуживает один палец; реализации не создают объектов
+ * при обработке отсчетов
+ */
+
+public interface StrokeFilter {
+    // Создание фильтров (по одному на каждый палец)
+    interface Factory {
+        StrokeFilter create();
+    }
+
+    // Начало линии в точке касания; time - время отсчета в миллисекундах
+    void reset(float x, float y, long time);
+
+    // Обработка отсчета; true - точку (getX, getY) нужно добавить к линии
+    boolean addSample(float x, float y, long time);
+
+    // Текущее (сглаженное) положение пальца
+    float getX();
+
+    float getY();
+
+    // Предсказанное положение пальца; без предсказания совпадает с getX, getY
+    float getPredictedX();
+
+    float getPredictedY();
+}
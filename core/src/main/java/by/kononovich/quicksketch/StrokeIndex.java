@@ -0,0 +1,214 @@
+package by.kononovich.quicksketch;
+
+import java.util.Arrays;
+
+/**
+ * Равномерная сетка над изображением для поиска линий журнала по месту:
+ * каждая ячейка хранит номера линий, прямоугольник которых (с учетом
+ * толщины) ее пересекает. Поиск просматривает только ячейки вокруг точки,
+ * поэтому время попадания ластика не зависит от количества линий.
+ * Линии за пределами изображения относятся к крайним ячейкам
+ */
+
+public class StrokeIndex {
+    // Запас в пикселах вокруг линии (сглаживание краев)
+    private static final float MARGIN = 2;
+
+    private final int cellSize;
+    private int columns = 1;  // До построения сетки - одна ячейка
+    private int rows = 1;
+    private int[][] cells = new int[1][];  // Номера линий по возрастанию
+    private int[] cellSizes = new int[1];
+    private int strokeCount;  // Количество проиндексированных линий
+
+    // Отметки уже найденных линий при поиске (без повторов)
+    private int[] marks = new int[64];
+    private int generation;
+    private int[] found = new int[64];
+    private final float[] bounds = new float[4];
+
+    public StrokeIndex(int cellSize) {
+        this.cellSize = Math.max(1, cellSize);
+    }
+
+    // Построение сетки заново для изображения width x height по линиям журнала
+    public void rebuild(StrokeLog log, int width, int height) {
+        columns = Math.max(1, (width + cellSize - 1) / cellSize);
+        rows = Math.max(1, (height + cellSize - 1) / cellSize);
+        cells = new int[columns * rows][];
+        cellSizes = new int[columns * rows];
+        strokeCount = 0;
+        for (int i = 0; i < log.recordedSize(); i++)
+            add(log, i);
+    }
+
+    // Удаление всех линий
+    public void clear() {
+        Arrays.fill(cellSizes, 0);
+        strokeCount = 0;
+    }
+
+    public int size() {
+        return strokeCount;
+    }
+
+    // Добавление линии index; линии с номерами от index и больше
+    // (отброшенные для повтора) удаляются
+    public void add(StrokeLog log, int index) {
+        truncate(index);
+        strokeBounds(log, index, bounds);
+        int firstColumn = column(bounds[0]);
+        int lastColumn = column(bounds[2]);
+        int firstRow = row(bounds[1]);
+        int lastRow = row(bounds[3]);
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                int cell = row * columns + column;
+                int[] strokes = cells[cell];
+                if (strokes == null)
+                    strokes = cells[cell] = new int[8];
+                else if (cellSizes[cell] == strokes.length)
+                    strokes = cells[cell] = Arrays.copyOf(strokes, strokes.length * 2);
+                strokes[cellSizes[cell]++] = index;
+            }
+        }
+        strokeCount = index + 1;
+    }
+
+    // Линия log встала в журнал на место index перед уже проиндексированными
+    // (StrokeLog.add, StrokeLog.redo): номера следующих линий сдвигаются
+    public void insert(StrokeLog log, int index) {
+        truncate(index);
+        for (int i = index; i < log.size(); i++)
+            add(log, i);
+    }
+
+    // Удаление линий с номерами от count и больше
+    public void truncate(int count) {
+        if (count >= strokeCount)
+            return;
+        for (int cell = 0; cell < cellSizes.length; cell++)
+            while (cellSizes[cell] > 0 && cells[cell][cellSizes[cell] - 1] >= count)
+                cellSizes[cell]--;
+        strokeCount = count;
+    }
+
+    // Удаление линий removed (номера по возрастанию) из первых count линий,
+    // как в StrokeLog.remove: номера следующих линий уменьшаются, линии
+    // после count (доступные для повтора) отбрасываются
+    public void remove(int[] removed, int count) {
+        truncate(count);
+        for (int cell = 0; cell < cellSizes.length; cell++) {
+            int size = 0;
+            int before = 0;  // Удаленных линий с меньшими номерами
+            for (int i = 0; i < cellSizes[cell]; i++) {
+                int stroke = cells[cell][i];
+                while (before < removed.length && removed[before] < stroke)
+                    before++;
+                if (before < removed.length && removed[before] == stroke)
+                    continue;
+                cells[cell][size++] = stroke - before;
+            }
+            cellSizes[cell] = size;
+        }
+        int before = 0;
+        while (before < removed.length && removed[before] < strokeCount)
+            before++;
+        strokeCount -= before;
+    }
+
+    // Номера линий (меньше limit, по возрастанию), прямоугольник которых
+    // может пересекать заданную область
+    public int[] query(float left, float top, float right, float bottom, int limit) {
+        if (++generation == 0) {  // Счетчик отметок переполнился
+            Arrays.fill(marks, 0);
+            generation = 1;
+        }
+        if (marks.length < strokeCount)
+            marks = Arrays.copyOf(marks, Math.max(marks.length * 2, strokeCount));
+
+        int count = 0;
+        for (int row = row(top); row <= row(bottom); row++) {
+            for (int column = column(left); column <= column(right); column++) {
+                int cell = row * columns + column;
+                for (int i = 0; i < cellSizes[cell]; i++) {
+                    int stroke = cells[cell][i];
+                    if (stroke >= limit || marks[stroke] == generation)
+                        continue;
+                    marks[stroke] = generation;
+                    if (count == found.length)
+                        found = Arrays.copyOf(found, count * 2);
+                    found[count++] = stroke;
+                }
+            }
+        }
+        int[] result = Arrays.copyOf(found, count);
+        Arrays.sort(result);
+        return result;
+    }
+
+    // Номера примененных линий (по возрастанию), проходящих не дальше radius
+    // от точки (x, y) с учетом их толщины
+    public int[] hitTest(StrokeLog log, float x, float y, float radius) {
+        int[] candidates = query(x - radius, y - radius, x + radius, y + radius, log.size());
+        int count = 0;
+        for (int stroke : candidates)
+            if (distanceTo(log, stroke, x, y) <= radius + log.getWidth(stroke) / 2)
+                candidates[count++] = stroke;
+        return Arrays.copyOf(candidates, count);
+    }
+
+    // Прямоугольник линии с учетом толщины: left, top, right, bottom
+    public static void strokeBounds(StrokeLog log, int index, float[] out) {
+        float left = Float.MAX_VALUE;
+        float top = Float.MAX_VALUE;
+        float right = -Float.MAX_VALUE;
+        float bottom = -Float.MAX_VALUE;
+        for (int i = 0; i < log.getPointCount(index); i++) {
+            float x = log.getX(index, i);
+            float y = log.getY(index, i);
+            left = Math.min(left, x);
+            top = Math.min(top, y);
+            right = Math.max(right, x);
+            bottom = Math.max(bottom, y);
+        }
+        float margin = log.getWidth(index) / 2 + MARGIN;
+        out[0] = left - margin;
+        out[1] = top - margin;
+        out[2] = right + margin;
+        out[3] = bottom + margin;
+    }
+
+    // Расстояние от точки до ломаной по точкам линии; кривые линии
+    // проходят внутри этой ломаной, поэтому ее достаточно для ластика
+    static float distanceTo(StrokeLog log, int index, float x, float y) {
+        float lastX = log.getX(index, 0);
+        float lastY = log.getY(index, 0);
+        float best = (float) Math.hypot(x - lastX, y - lastY);
+        for (int i = 1; i < log.getPointCount(index); i++) {
+            float nextX = log.getX(index, i);
+            float nextY = log.getY(index, i);
+            best = Math.min(best, distanceToSegment(x, y, lastX, lastY, nextX, nextY));
+            lastX = nextX;
+            lastY = nextY;
+        }
+        return best;
+    }
+
+    static float distanceToSegment(float x, float y, float x1, float y1, float x2, float y2) {
+        float dx = x2 - x1;
+        float dy = y2 - y1;
+        float lengthSquared = dx * dx + dy * dy;
+        float t = lengthSquared > 0 ?
+                Math.max(0, Math.min(1, ((x - x1) * dx + (y - y1) * dy) / lengthSquared)) : 0;
+        return (float) Math.hypot(x - (x1 + t * dx), y - (y1 + t * dy));
+    }
+
+    private int column(float x) {
+        return Math.max(0, Math.min(columns - 1, (int) Math.floor(x / cellSize)));
+    }
+
+    private int row(float y) {
+        return Math.max(0, Math.min(rows - 1, (int) Math.floor(y / cellSize)));
+    }
+}
@@ -0,0 +1,335 @@
+package by.kononovich.quicksketch;
+
+import java.util.Arrays;
+
+/**
+ * Журнал завершенных линий (точки, цвет, толщина, кисть, слой) в компактных массивах.
+ * Свои линии добавляются в конец; отмена и повтор перемещают позицию,
+ * отделяющую примененные линии от линий, доступных для повтора.
+ * Вместе с линиями хранится описание слоев (LayerStack.encodeState).
+ *
+ * Линии общего холста помечены устройством-владельцем и упорядочены
+ * по отметкам Лэмпорта (счетчик и номер устройства), поэтому на всех
+ * устройствах журнал приходит к одному порядку. Отмена затрагивает
+ * только свои линии, линии других устройств ей не отбрасываются
+ */
+
+public class StrokeLog {
+    private float[] points = new float[1024];  // Точки всех линий (x, y подряд)
+    private int pointsSize;  // Количество занятых значений в points
+    private int[] pointOffsets = new int[65];  // Начало каждой линии в points; последний элемент - конец
+    private int[] colors = new int[64];
+    private float[] widths = new float[64];
+    private int[] brushes = new int[64];  // Коды кистей (Brush.encode)
+    private int[] layers = new int[64];   // Идентификаторы слоев
+    private int[] owners = new int[64];   // Устройство линии общего холста (LOCAL - своя)
+    private long[] stamps = new long[64]; // Отметки порядка (stamp), по возрастанию
+    private int clock;      // Счетчик Лэмпорта: не меньше счетчиков всех линий
+    private int localPeer;  // Номер этого устройства в отметках своих линий
+    private int[] layerState;  // Описание слоев; null - один слой по умолчанию
+    private int count;     // Количество записанных линий (включая доступные для повтора)
+    private int position;  // Количество примененных линий
+
+    // Владелец своих линий
+    public static final int LOCAL = 0;
+
+    // Отметка порядка линии: счетчик Лэмпорта, при равенстве - номер устройства
+    public static long stamp(int clock, int peer) {
+        return ((long) clock << 32) | (peer & 0xffffffffL);
+    }
+
+    public static int stampClock(long stamp) {
+        return (int) (stamp >>> 32);
+    }
+
+    public static int stampPeer(long stamp) {
+        return (int) stamp;
+    }
+
+    // Добавление линии; линии, доступные для повтора, отбрасываются
+    public void append(float[] xy, int pointCount, int color, float width) {
+        append(xy, 0, pointCount, color, width, 0, 0);
+    }
+
+    // Добавление линии, нарисованной кистью с кодом brush
+    public void append(float[] xy, int pointCount, int color, float width, int brush) {
+        append(xy, 0, pointCount, color, width, brush, 0);
+    }
+
+    // Добавление линии на слое layer
+    public void append(float[] xy, int pointCount, int color, float width, int brush,
+                       int layer) {
+        append(xy, 0, pointCount, color, width, brush, layer);
+    }
+
+    // Копия линии из другого журнала (с владельцем; отметки не убывают)
+    public void append(StrokeLog other, int index) {
+        append(other.points, other.pointOffsets[index], other.getPointCount(index),
+                other.colors[index], other.widths[index], other.brushes[index],
+                other.layers[index]);
+        owners[position - 1] = other.owners[index];
+        if (position > 1)
+            stamps[position - 1] = Math.max(other.stamps[index], stamps[position - 2]);
+        else
+            stamps[position - 1] = other.stamps[index];
+        clock = Math.max(clock, stampClock(stamps[position - 1]));
+    }
+
+    // Добавление линии с известными владельцем и отметкой (из журнала на
+    // диске или с другого устройства); возвращает номер линии. Своя линия
+    // добавляется в конец, как append; линия другого устройства вставляется
+    // среди примененных по отметке, а линии для повтора сохраняются
+    public int add(float[] xy, int pointCount, int color, float width, int brush, int layer,
+                   int owner, long stamp) {
+        clock = Math.max(clock, stampClock(stamp));
+        if (owner == LOCAL) {
+            append(xy, 0, pointCount, color, width, brush, layer);
+            stamps[position - 1] = stamp;
+            return position - 1;
+        }
+        write(count, xy, 0, pointCount, color, width, brush, layer);
+        owners[count] = owner;
+        stamps[count] = stamp;
+        count++;
+        int index = position;
+        while (index > 0 && stamps[index - 1] > stamp)
+            index--;
+        moveStroke(count - 1, index);
+        position++;
+        return index;
+    }
+
+    // Номер этого устройства на общем холсте (для отметок новых своих линий)
+    public void setLocalPeer(int peer) {
+        localPeer = peer;
+    }
+
+    // Добавление своей линии из массива, начиная со смещения offset
+    private void append(float[] xy, int offset, int pointCount, int color, float width,
+                        int brush, int layer) {
+        count = position;
+        write(count, xy, offset, pointCount, color, width, brush, layer);
+        owners[count] = LOCAL;
+        stamps[count] = stamp(++clock, localPeer);
+        count++;
+        position = count;
+    }
+
+    // Запись линии на место index = count (в конец записанных линий)
+    private void write(int index, float[] xy, int offset, int pointCount, int color,
+                       float width, int brush, int layer) {
+        pointsSize = pointOffsets[index];
+        ensureStrokeCapacity(index + 1);
+        if (pointsSize + pointCount * 2 > points.length)
+            points = Arrays.copyOf(points,
+                    Math.max(points.length * 2, pointsSize + pointCount * 2));
+
+        System.arraycopy(xy, offset, points, pointsSize, pointCount * 2);
+        pointsSize += pointCount * 2;
+        colors[index] = color;
+        widths[index] = width;
+        brushes[index] = brush;
+        layers[index] = layer;
+        pointOffsets[index + 1] = pointsSize;
+    }
+
+    // Количество примененных линий
+    public int size() {
+        return position;
+    }
+
+    // Количество записанных линий, включая доступные для повтора
+    public int recordedSize() {
+        return count;
+    }
+
+    public boolean canUndo() {
+        return lastLocal() >= 0;
+    }
+
+    public boolean canRedo() {
+        return position < count;
+    }
+
+    // Отмена последней своей линии; возвращает номер, который она занимала
+    // среди примененных, или -1. Отмененная линия становится первой линией
+    // для повтора (номер size()); следующие за ней линии других устройств
+    // сдвигаются на ее место
+    public int undo() {
+        int index = lastLocal();
+        if (index < 0)
+            return -1;
+        moveStroke(index, position - 1);
+        position--;
+        return index;
+    }
+
+    // Повтор отмененной линии; возвращает номер, на который она встала
+    // среди примененных (по отметке), или -1
+    public int redo() {
+        if (position == count)
+            return -1;
+        int index = position;
+        while (index > 0 && stamps[index - 1] > stamps[position])
+            index--;
+        moveStroke(position, index);
+        position++;
+        return index;
+    }
+
+    private int lastLocal() {
+        for (int i = position - 1; i >= 0; i--)
+            if (owners[i] == LOCAL)
+                return i;
+        return -1;
+    }
+
+    // Перемещение линии from на место to; линии между ними сдвигаются
+    private void moveStroke(int from, int to) {
+        if (from == to)
+            return;
+        int start = pointOffsets[from];
+        int length = pointOffsets[from + 1] - start;
+        float[] moved = Arrays.copyOfRange(points, start, start + length);
+        int color = colors[from];
+        float width = widths[from];
+        int brush = brushes[from];
+        int layer = layers[from];
+        int owner = owners[from];
+        long stamp = stamps[from];
+        if (from < to) {
+            int end = pointOffsets[to + 1];
+            System.arraycopy(points, start + length, points, start, end - start - length);
+            for (int i = from; i < to; i++) {
+                copyStroke(i + 1, i);
+                pointOffsets[i + 1] = pointOffsets[i + 2] - length;
+            }
+        } else {
+            int begin = pointOffsets[to];
+            System.arraycopy(points, begin, points, begin + length, start - begin);
+            for (int i = from; i > to; i--) {
+                copyStroke(i - 1, i);
+                pointOffsets[i] = pointOffsets[i - 1] + length;
+            }
+        }
+        System.arraycopy(moved, 0, points, pointOffsets[to], length);
+        colors[to] = color;
+        widths[to] = width;
+        brushes[to] = brush;
+        layers[to] = layer;
+        owners[to] = owner;
+        stamps[to] = stamp;
+    }
+
+    // Параметры линии source переносятся на место target (без точек)
+    private void copyStroke(int source, int target) {
+        colors[target] = colors[source];
+        widths[target] = widths[source];
+        brushes[target] = brushes[source];
+        layers[target] = layers[source];
+        owners[target] = owners[source];
+        stamps[target] = stamps[source];
+    }
+
+    // Удаление примененных линий с номерами indices (по возрастанию);
+    // линии, доступные для повтора, отбрасываются
+    public void remove(int[] indices) {
+        count = position;
+        int removed = 0;
+        int newPointsSize = pointOffsets[indices[0]];
+        for (int i = indices[0]; i < count; i++) {
+            if (removed < indices.length && indices[removed] == i) {
+                removed++;
+                continue;
+            }
+            // Линия сдвигается на место удаленных
+            int start = pointOffsets[i];
+            int length = pointOffsets[i + 1] - start;
+            int target = i - removed;
+            System.arraycopy(points, start, points, newPointsSize, length);
+            pointOffsets[target] = newPointsSize;
+            newPointsSize += length;
+            copyStroke(i, target);
+        }
+        count -= removed;
+        position = count;
+        pointsSize = newPointsSize;
+        pointOffsets[count] = pointsSize;
+    }
+
+    // Удаление всех линий и слоев
+    public void clear() {
+        count = 0;
+        position = 0;
+        pointsSize = 0;
+        layerState = null;
+    }
+
+    public int getPointCount(int index) {
+        return (pointOffsets[index + 1] - pointOffsets[index]) / 2;
+    }
+
+    public float getX(int index, int point) {
+        return points[pointOffsets[index] + point * 2];
+    }
+
+    public float getY(int index, int point) {
+        return points[pointOffsets[index] + point * 2 + 1];
+    }
+
+    public int getColor(int index) {
+        return colors[index];
+    }
+
+    public float getWidth(int index) {
+        return widths[index];
+    }
+
+    public int getBrush(int index) {
+        return brushes[index];
+    }
+
+    public int getLayer(int index) {
+        return layers[index];
+    }
+
+    // Устройство линии общего холста (LOCAL - своя линия)
+    public int getOwner(int index) {
+        return owners[index];
+    }
+
+    public long getStamp(int index) {
+        return stamps[index];
+    }
+
+    public int[] getLayerState() {
+        return layerState;
+    }
+
+    public void setLayerState(int[] layerState) {
+        this.layerState = layerState;
+    }
+
+    // Общий массив точек и смещение линии в нем (для чтения без копирования)
+    public float[] getPoints() {
+        return points;
+    }
+
+    public int getPointOffset(int index) {
+        return pointOffsets[index];
+    }
+
+    private void ensureStrokeCapacity(int strokes) {
+        if (strokes < colors.length)
+            return;
+
+        int capacity = Math.max(colors.length * 2, strokes + 1);
+        colors = Arrays.copyOf(colors, capacity);
+        widths = Arrays.copyOf(widths, capacity);
+        brushes = Arrays.copyOf(brushes, capacity);
+        layers = Arrays.copyOf(layers, capacity);
+        owners = Arrays.copyOf(owners, capacity);
+        stamps = Arrays.copyOf(stamps, capacity);
+        pointOffsets = Arrays.copyOf(pointOffsets, capacity + 1);
+    }
+}
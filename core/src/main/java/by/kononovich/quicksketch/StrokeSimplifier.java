@@ -0,0 +1,242 @@
+package by.kononovich.quicksketch;
+
+import java.util.Arrays;
+
+/**
+ * Упрощение точек завершенной линии с ограниченной погрешностью.
+ * Сначала алгоритм Рамера - Дугласа - Пекера оставляет точки, от которых
+ * ломаная отклоняется больше допуска; затем кривая, которую рисует движок
+ * по оставшимся точкам (квадратичные сегменты через середины), сравнивается
+ * с кривой по исходным точкам, и в участки с большим отклонением точки
+ * возвращаются, пока кривые не совпадут с заданной точностью.
+ * Считает общее количество исходных и сохраненных точек
+ */
+
+public class StrokeSimplifier {
+    // Количество отрезков, которыми приближается каждый квадратичный сегмент
+    private static final int FLATTEN_STEPS = 8;
+    // Наибольшее число проходов уточнения; если их не хватило, линия не упрощается
+    private static final int MAX_REFINE_PASSES = 16;
+
+    private float tolerance;  // Допустимое отклонение в пикселах
+    private float[] output = new float[256];
+    private boolean[] keep = new boolean[128];
+    private int[] stack = new int[64];
+    private int[] kept = new int[128];  // Номера оставленных точек
+    private float[] spanError = new float[128];
+    private int[] spanWorst = new int[128];
+    private final float[] original = new float[(FLATTEN_STEPS + 1) * 2];
+    private final float[] simplified = new float[(FLATTEN_STEPS + 1) * 2];
+    private long inputPoints;
+    private long outputPoints;
+
+    public StrokeSimplifier(float tolerance) {
+        setTolerance(tolerance);
+    }
+
+    // Допуск 0 отключает упрощение
+    public void setTolerance(float tolerance) {
+        this.tolerance = Math.max(0, tolerance);
+    }
+
+    public float getTolerance() {
+        return tolerance;
+    }
+
+    // Упрощение pointCount точек xy (x, y подряд); возвращает количество точек
+    // результата, которые доступны через getPoints
+    public int simplify(float[] xy, int pointCount) {
+        if (output.length < pointCount * 2)
+            output = new float[pointCount * 2];
+        int count = tolerance > 0 && pointCount > 2 ?
+                simplifyPoints(xy, pointCount) : copyAll(xy, pointCount);
+        inputPoints += pointCount;
+        outputPoints += count;
+        return count;
+    }
+
+    // Результат последнего вызова simplify
+    public float[] getPoints() {
+        return output;
+    }
+
+    // Отношение количества исходных точек к сохраненным (1 - без сжатия)
+    public float getCompressionRatio() {
+        return outputPoints > 0 ? (float) inputPoints / outputPoints : 1;
+    }
+
+    public long getInputPoints() {
+        return inputPoints;
+    }
+
+    public long getOutputPoints() {
+        return outputPoints;
+    }
+
+    public void resetStatistics() {
+        inputPoints = 0;
+        outputPoints = 0;
+    }
+
+    private int copyAll(float[] xy, int pointCount) {
+        System.arraycopy(xy, 0, output, 0, pointCount * 2);
+        return pointCount;
+    }
+
+    private int simplifyPoints(float[] xy, int pointCount) {
+        if (keep.length < pointCount) {
+            keep = new boolean[pointCount];
+            kept = new int[pointCount];
+            spanError = new float[pointCount];
+            spanWorst = new int[pointCount];
+        }
+        Arrays.fill(keep, 0, pointCount, false);
+
+        // Повтор последней точки доводит кривую до конца линии; он сохраняется
+        int last = pointCount - 1;
+        boolean repeatedEnd = xy[last * 2] == xy[last * 2 - 2] &&
+                xy[last * 2 + 1] == xy[last * 2 - 1];
+        if (repeatedEnd)
+            last--;
+        markDouglasPeucker(xy, 0, last);
+        if (repeatedEnd)
+            keep[last + 1] = true;
+
+        // Уточнение по отклонению кривых
+        for (int pass = 0; pass < MAX_REFINE_PASSES; pass++) {
+            if (!refine(xy, pointCount))
+                return collect(xy, pointCount);
+        }
+        return copyAll(xy, pointCount);  // Точность не достигнута
+    }
+
+    // Отметка точек ломаной first - last, которые нужно оставить (без рекурсии)
+    private void markDouglasPeucker(float[] xy, int first, int last) {
+        keep[first] = true;
+        keep[last] = true;
+        int size = 0;
+        stack[size++] = first;
+        stack[size++] = last;
+        while (size > 0) {
+            int end = stack[--size];
+            int start = stack[--size];
+            float worst = 0;
+            int worstIndex = -1;
+            for (int i = start + 1; i < end; i++) {
+                float distance = StrokeIndex.distanceToSegment(xy[i * 2], xy[i * 2 + 1],
+                        xy[start * 2], xy[start * 2 + 1], xy[end * 2], xy[end * 2 + 1]);
+                if (distance > worst) {
+                    worst = distance;
+                    worstIndex = i;
+                }
+            }
+            if (worstIndex >= 0 && worst > tolerance) {
+                keep[worstIndex] = true;
+                if (size + 4 > stack.length)
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                stack[size++] = start;
+                stack[size++] = worstIndex;
+                stack[size++] = worstIndex;
+                stack[size++] = end;
+            }
+        }
+    }
+
+    // Сравнение кривой по оставленным точкам с исходной; в каждый участок
+    // между оставленными точками с отклонением больше допуска добавляется
+    // точка. Возвращает true, если точки добавлялись
+    private boolean refine(float[] xy, int pointCount) {
+        int keptCount = 0;
+        for (int i = 0; i < pointCount; i++)
+            if (keep[i])
+                kept[keptCount++] = i;
+        Arrays.fill(spanError, 0, keptCount, 0);
+
+        // Исходный сегмент i (i >= 1) управляется точкой i - 1; участок j -
+        // точки от kept[j] до kept[j + 1]. Сегмент сравнивается с сегментами
+        // упрощенной кривой, управляемыми соседними оставленными точками
+        int span = 0;
+        for (int i = 1; i < pointCount; i++) {
+            while (span + 1 < keptCount && kept[span + 1] <= i - 1)
+                span++;
+            flatten(xy, i - 1, i, original);
+            for (int step = 0; step <= FLATTEN_STEPS; step++) {
+                float x = original[step * 2];
+                float y = original[step * 2 + 1];
+                float best = Float.MAX_VALUE;
+                for (int s = Math.max(1, span); s <= Math.min(keptCount - 1, span + 2); s++)
+                    best = Math.min(best, distanceToKeptSegment(xy, s, x, y));
+                if (best > spanError[span]) {
+                    spanError[span] = best;
+                    spanWorst[span] = i - 1;
+                }
+            }
+        }
+
+        boolean added = false;
+        for (int j = 0; j + 1 < keptCount; j++) {
+            if (spanError[j] <= tolerance || kept[j + 1] - kept[j] < 2)
+                continue;
+            int point = spanWorst[j] > kept[j] ? spanWorst[j] : (kept[j] + kept[j + 1]) / 2;
+            keep[point] = true;
+            added = true;
+        }
+        return added;
+    }
+
+    // Расстояние от точки до сегмента s упрощенной кривой
+    private float distanceToKeptSegment(float[] xy, int s, float x, float y) {
+        flattenKept(xy, s, simplified);
+        float best = Float.MAX_VALUE;
+        for (int step = 0; step < FLATTEN_STEPS; step++)
+            best = Math.min(best, StrokeIndex.distanceToSegment(x, y,
+                    simplified[step * 2], simplified[step * 2 + 1],
+                    simplified[step * 2 + 2], simplified[step * 2 + 3]));
+        return best;
+    }
+
+    // Сегмент s упрощенной кривой (точки kept) в виде ломаной
+    private void flattenKept(float[] xy, int s, float[] out) {
+        int control = kept[s - 1];
+        int next = kept[s];
+        int previous = s >= 2 ? kept[s - 2] : control;
+        quadPoints(s >= 2 ? (xy[previous * 2] + xy[control * 2]) / 2 : xy[control * 2],
+                s >= 2 ? (xy[previous * 2 + 1] + xy[control * 2 + 1]) / 2 : xy[control * 2 + 1],
+                xy[control * 2], xy[control * 2 + 1],
+                (xy[control * 2] + xy[next * 2]) / 2, (xy[control * 2 + 1] + xy[next * 2 + 1]) / 2,
+                out);
+    }
+
+    // Сегмент исходной кривой, управляемый точкой control и заканчивающийся
+    // на середине отрезка до next, в виде ломаной
+    private static void flatten(float[] xy, int control, int next, float[] out) {
+        float startX = control > 0 ? (xy[control * 2 - 2] + xy[control * 2]) / 2 : xy[0];
+        float startY = control > 0 ? (xy[control * 2 - 1] + xy[control * 2 + 1]) / 2 : xy[1];
+        quadPoints(startX, startY, xy[control * 2], xy[control * 2 + 1],
+                (xy[control * 2] + xy[next * 2]) / 2, (xy[control * 2 + 1] + xy[next * 2 + 1]) / 2,
+                out);
+    }
+
+    private static void quadPoints(float x0, float y0, float x1, float y1, float x2, float y2,
+                                   float[] out) {
+        for (int step = 0; step <= FLATTEN_STEPS; step++) {
+            float t = (float) step / FLATTEN_STEPS;
+            float u = 1 - t;
+            out[step * 2] = u * u * x0 + 2 * u * t * x1 + t * t * x2;
+            out[step * 2 + 1] = u * u * y0 + 2 * u * t * y1 + t * t * y2;
+        }
+    }
+
+    // Копирование оставленных точек в результат
+    private int collect(float[] xy, int pointCount) {
+        int count = 0;
+        for (int i = 0; i < pointCount; i++) {
+            if (keep[i]) {
+                output[count * 2] = xy[i * 2];
+                output[count * 2 + 1] = xy[i * 2 + 1];
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,136 @@
+package by.kononovich.quicksketch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * Соединение общего холста с ретранслятором: пакеты StrokeStreamWriter
+ * отправляются, а пакеты других устройств принимаются в отдельных потоках.
+ * Ретранслятор пересылает каждый пакет всем остальным подключенным
+ * устройствам. Пакет передается как длина (4 байта) и содержимое.
+ * Отправка ждет данных, затем еще BATCH_MILLIS, чтобы собрать точки
+ * нескольких событий касания в один пакет
+ */
+
+public class StrokeStreamLink {
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+    private static final long BATCH_MILLIS = 16;
+    private static final long IDLE_MILLIS = 1000;
+    // Наибольший размер принимаемого пакета
+    private static final int MAX_BATCH_BYTES = 4 * 1024 * 1024;
+
+    // Принятые пакеты и разрыв соединения (вызываются в потоке приема)
+    public interface Callback {
+        void onBatchReceived(byte[] batch);
+
+        // Соединение разорвано или не установлено (не вызывается после close)
+        void onDisconnected(IOException error);
+    }
+
+    private final String host;
+    private final int port;
+    private final StrokeStreamWriter writer;
+    private final Callback callback;
+    private final Socket socket = new Socket();
+    private volatile boolean closed;
+    private Thread sender;
+
+    public StrokeStreamLink(String host, int port, StrokeStreamWriter writer, Callback callback) {
+        this.host = host;
+        this.port = port;
+        this.writer = writer;
+        this.callback = callback;
+    }
+
+    // Подключение и запуск потоков отправки и приема
+    public synchronized void start() {
+        sender = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+                    socket.setTcpNoDelay(true);
+                    Thread receiver = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            receive();
+                        }
+                    }, "QuickSketch-stream-in");
+                    receiver.setDaemon(true);
+                    receiver.start();
+                    send();
+                } catch (IOException e) {
+                    disconnected(e);
+                } catch (InterruptedException e) {
+                    // Соединение закрыто
+                }
+            }
+        }, "QuickSketch-stream-out");
+        sender.setDaemon(true);
+        sender.start();
+    }
+
+    // Закрытие соединения; неотправленные данные теряются
+    public synchronized void close() {
+        closed = true;
+        if (sender != null)
+            sender.interrupt();
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    // Отправка пакетов, пока соединение открыто
+    private void send() throws IOException, InterruptedException {
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(socket.getOutputStream()));
+        SketchJournal.ByteSink batch = new SketchJournal.ByteSink();
+        while (!closed) {
+            if (!writer.awaitPending(IDLE_MILLIS))
+                continue;
+            Thread.sleep(BATCH_MILLIS);
+            if (writer.isOverflowed())
+                throw new IOException("Peer is too slow");
+            batch.reset();
+            if (!writer.encodeBatch(batch))
+                continue;
+            // Запись в сокет вне блокировки writer: касания в это время не ждут
+            out.writeInt(batch.size());
+            out.write(batch.array(), 0, batch.size());
+            out.flush();
+        }
+    }
+
+    // Прием пакетов до разрыва соединения
+    private void receive() {
+        try {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(socket.getInputStream()));
+            while (!closed) {
+                int size = in.readInt();
+                if (size < 0 || size > MAX_BATCH_BYTES)
+                    throw new IOException("Malformed batch size " + size);
+                byte[] batch = new byte[size];
+                in.readFully(batch);
+                callback.onBatchReceived(batch);
+            }
+        } catch (IOException e) {
+            disconnected(e);
+        }
+    }
+
+    private void disconnected(IOException error) {
+        synchronized (this) {
+            if (closed)
+                return;
+            close();
+        }
+        callback.onDisconnected(error);
+    }
+}
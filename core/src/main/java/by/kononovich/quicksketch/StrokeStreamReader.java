@@ -0,0 +1,249 @@
+package by.kononovich.quicksketch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Входящий поток линий общего холста: разбор пакетов StrokeStreamWriter
+ * других устройств. Пакеты каждого устройства применяются по порядку
+ * номеров: повторы отбрасываются, пакеты, пришедшие раньше предыдущих,
+ * ждут их (если пропуск слишком велик, он пропускается). Указатели у
+ * каждого устройства свои, поэтому рисуемые линии различаются по паре
+ * (устройство, указатель). Методы вызываются в одном потоке
+ */
+
+public class StrokeStreamReader {
+    // Наибольшее количество пакетов устройства, ожидающих пропущенный
+    private static final int MAX_PENDING_BATCHES = 64;
+
+    // Изменения линий других устройств
+    public interface Listener {
+        // Начата или продолжена рисуемая линия: добавлены точки начиная с from
+        void onStrokeUpdated(RemoteStroke stroke, int from);
+
+        // Рисуемая линия больше не выводится (завершена или устройство отключилось)
+        void onStrokeRemoved(RemoteStroke stroke);
+
+        // Завершенная линия
+        void onStrokeCommitted(RemoteStroke stroke);
+    }
+
+    // Линия другого устройства
+    public static class RemoteStroke {
+        private final int peer;
+        private final int pointer;
+        private int clock;  // Счетчик Лэмпорта завершенной линии
+        private int color;
+        private float width;
+        private int brush;
+        private int layer;
+        private float[] points = new float[64];
+        private int pointCount;
+        private int lastX;  // Последняя точка в фиксированной точке
+        private int lastY;
+
+        RemoteStroke(int peer, int pointer) {
+            this.peer = peer;
+            this.pointer = pointer;
+        }
+
+        public int getPeer() {
+            return peer;
+        }
+
+        public int getPointer() {
+            return pointer;
+        }
+
+        public int getClock() {
+            return clock;
+        }
+
+        public int getColor() {
+            return color;
+        }
+
+        public float getWidth() {
+            return width;
+        }
+
+        public int getBrush() {
+            return brush;
+        }
+
+        public int getLayer() {
+            return layer;
+        }
+
+        // Точки (x, y подряд); действительны первые getPointCount * 2 значений
+        public float[] getPoints() {
+            return points;
+        }
+
+        public int getPointCount() {
+            return pointCount;
+        }
+
+        private void readStyle(SketchJournal.ByteSource in) {
+            color = in.readVarint();
+            width = in.readVarint() / StrokeStreamWriter.WIDTH_SCALE;
+            brush = in.readVarint();
+            layer = in.readVarint();
+        }
+
+        // Точки разностями от (lastX, lastY); каждая точка занимает не меньше двух байтов
+        private void readPoints(SketchJournal.ByteSource in, int count, int length) {
+            if (count < 0 || count > (length - in.position()) / 2)
+                throw new ArrayIndexOutOfBoundsException("Malformed point count");
+            if ((pointCount + count) * 2 > points.length)
+                points = Arrays.copyOf(points, Math.max(points.length * 2, (pointCount + count) * 2));
+            for (int i = 0; i < count; i++) {
+                lastX += SketchJournal.zigZagDecode(in.readVarint());
+                lastY += SketchJournal.zigZagDecode(in.readVarint());
+                points[pointCount * 2] = lastX / StrokeStreamWriter.POINT_SCALE;
+                points[pointCount * 2 + 1] = lastY / StrokeStreamWriter.POINT_SCALE;
+                pointCount++;
+            }
+        }
+    }
+
+    // Состояние устройства: следующий ожидаемый пакет, пакеты после пропуска
+    // и рисуемые линии по указателям
+    private static class Peer {
+        int nextSequence;
+        final TreeMap<Integer, byte[]> pending = new TreeMap<>();
+        final Map<Integer, RemoteStroke> strokes = new HashMap<>();
+    }
+
+    private final Listener listener;
+    private final Map<Integer, Peer> peers = new HashMap<>();
+
+    public StrokeStreamReader(Listener listener) {
+        this.listener = listener;
+    }
+
+    // Прием пакета; возвращает false, если пакет поврежден
+    public boolean receive(byte[] batch) {
+        SketchJournal.ByteSource in = new SketchJournal.ByteSource(batch);
+        int peerId;
+        int sequence;
+        try {
+            if (in.readByte() != StrokeStreamWriter.VERSION)
+                return false;
+            peerId = in.readVarint();
+            sequence = in.readVarint();
+        } catch (ArrayIndexOutOfBoundsException e) {
+            return false;
+        }
+
+        Peer peer = peers.get(peerId);
+        if (peer == null) {
+            // Устройство подключилось позже - отсчет с его текущего пакета
+            peer = new Peer();
+            peer.nextSequence = sequence;
+            peers.put(peerId, peer);
+        }
+        if (sequence < peer.nextSequence)
+            return true;  // Повтор
+        if (sequence > peer.nextSequence) {
+            peer.pending.put(sequence, batch);
+            if (peer.pending.size() > MAX_PENDING_BATCHES)
+                peer.nextSequence = peer.pending.firstKey();  // Пропущенные пакеты не придут
+            else
+                return true;
+        } else {
+            peer.pending.put(sequence, batch);
+        }
+
+        // Применение всех пакетов подряд, начиная с ожидаемого
+        boolean valid = true;
+        byte[] next;
+        while ((next = peer.pending.remove(peer.nextSequence)) != null) {
+            peer.nextSequence++;
+            valid &= apply(peerId, peer, next);
+        }
+        return valid;
+    }
+
+    // Рисуемые линии всех устройств
+    public Collection<RemoteStroke> getActiveStrokes() {
+        List<RemoteStroke> strokes = new ArrayList<>();
+        for (Peer peer : peers.values())
+            strokes.addAll(peer.strokes.values());
+        return strokes;
+    }
+
+    // Отключение устройства: его рисуемые линии больше не выводятся
+    public void removePeer(int peerId) {
+        Peer peer = peers.remove(peerId);
+        if (peer != null)
+            for (RemoteStroke stroke : peer.strokes.values())
+                listener.onStrokeRemoved(stroke);
+    }
+
+    // Отключение от всех устройств
+    public void clear() {
+        for (Integer peerId : new ArrayList<>(peers.keySet()))
+            removePeer(peerId);
+    }
+
+    // Разбор сообщений пакета (заголовок уже прочитан и разбирается заново)
+    private boolean apply(int peerId, Peer peer, byte[] batch) {
+        SketchJournal.ByteSource in = new SketchJournal.ByteSource(batch);
+        try {
+            in.readByte();
+            in.readVarint();
+            in.readVarint();
+            while (in.position() < batch.length) {
+                int type = in.readByte();
+                int pointer = in.readVarint();
+                RemoteStroke stroke;
+                switch (type) {
+                    case StrokeStreamWriter.MESSAGE_BEGIN:
+                        stroke = peer.strokes.get(pointer);
+                        if (stroke == null) {
+                            stroke = new RemoteStroke(peerId, pointer);
+                            peer.strokes.put(pointer, stroke);
+                        }
+                        stroke.readStyle(in);
+                        stroke.pointCount = 0;
+                        stroke.lastX = 0;
+                        stroke.lastY = 0;
+                        stroke.readPoints(in, 1, batch.length);
+                        listener.onStrokeUpdated(stroke, 0);
+                        break;
+                    case StrokeStreamWriter.MESSAGE_POINTS:
+                        int count = in.readVarint();
+                        stroke = peer.strokes.get(pointer);
+                        if (stroke == null)
+                            return false;  // Начало линии потеряно
+                        int from = stroke.pointCount;
+                        stroke.readPoints(in, count, batch.length);
+                        listener.onStrokeUpdated(stroke, from);
+                        break;
+                    case StrokeStreamWriter.MESSAGE_COMMIT:
+                        stroke = peer.strokes.remove(pointer);
+                        if (stroke != null)
+                            listener.onStrokeRemoved(stroke);
+                        stroke = new RemoteStroke(peerId, pointer);
+                        stroke.clock = in.readVarint();
+                        stroke.readStyle(in);
+                        stroke.readPoints(in, in.readVarint(), batch.length);
+                        if (stroke.pointCount > 0)  // Линия без точек - отмененная
+                            listener.onStrokeCommitted(stroke);
+                        break;
+                    default:
+                        return false;  // Поврежденное сообщение
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            return false;  // Пакет обрезан
+        }
+        return true;
+    }
+}
@@ -0,0 +1,234 @@
+package by.kononovich.quicksketch;
+
+import java.util.Arrays;
+
+/**
+ * Исходящий поток линий общего холста. Поток касаний сообщает о начале
+ * линии, принятых точках и завершенной линии; данные только копируются
+ * в память, а поток отправки забирает их пакетами (encodeBatch). Пока
+ * пакет отправляется, новые точки каждого пальца накапливаются и уходят
+ * следующим пакетом, поэтому медленное соединение не задерживает касания.
+ * Если завершенных линий накопилось больше, чем допустимо, поток
+ * считается переполненным, и соединение следует разорвать.
+ *
+ * Пакет: версия, номер устройства, порядковый номер пакета, затем
+ * сообщения. Начало линии - указатель, цвет, толщина, кисть, слой и
+ * первая точка; точки - указатель, количество и разности координат от
+ * последней отправленной точки этого указателя; завершенная линия -
+ * указатель, счетчик Лэмпорта (порядок линий на всех устройствах,
+ * StrokeLog.stamp), параметры и упрощенные точки разностями. Координаты в
+ * фиксированной точке (1/8 пиксела), все числа кодируются varint
+ */
+
+public class StrokeStreamWriter {
+    static final int VERSION = 2;  // 2 - счетчик Лэмпорта завершенных линий
+
+    // Типы сообщений
+    static final int MESSAGE_BEGIN = 1;
+    static final int MESSAGE_POINTS = 2;
+    static final int MESSAGE_COMMIT = 3;
+
+    static final float POINT_SCALE = 8;  // Точность координат - 1/8 пиксела
+    static final float WIDTH_SCALE = 4;  // Точность толщины - 1/4 пиксела
+
+    // Указатель для линий без касания (заливка)
+    public static final int NO_POINTER = PointerStateTable.MAX_POINTERS;
+    // Наибольшее количество точек неотправленных завершенных линий
+    private static final int MAX_PENDING_POINTS = 256 * 1024;
+
+    private final int peer;
+    private int sequence;
+
+    // Линии пальцев; неотправленные точки - от sentCounts до количества точек
+    private final PointerStateTable<Object> pointers =
+            new PointerStateTable<>(new Object[PointerStateTable.MAX_POINTERS]);
+    private final boolean[] begun = new boolean[PointerStateTable.MAX_POINTERS];
+    private final int[] sentCounts = new int[PointerStateTable.MAX_POINTERS];
+    private final int[] colors = new int[PointerStateTable.MAX_POINTERS];
+    private final float[] widths = new float[PointerStateTable.MAX_POINTERS];
+    private final int[] brushes = new int[PointerStateTable.MAX_POINTERS];
+    private final int[] layers = new int[PointerStateTable.MAX_POINTERS];
+    private final int[] lastX = new int[PointerStateTable.MAX_POINTERS];  // Последняя отправленная точка
+    private final int[] lastY = new int[PointerStateTable.MAX_POINTERS];
+
+    // Завершенные линии, ожидающие отправки, и их указатели
+    private final StrokeLog commits = new StrokeLog();
+    private int[] commitPointers = new int[16];
+    private int[] commitClocks = new int[16];
+    private int pendingPoints;
+    private boolean overflowed;
+
+    public StrokeStreamWriter(int peer) {
+        this.peer = peer;
+    }
+
+    public int getPeer() {
+        return peer;
+    }
+
+    // Начало линии указателем pointer
+    public synchronized void begin(int pointer, float x, float y, int color, float width,
+                                   int brush, int layer) {
+        if (!pointers.start(pointer, x, y))
+            return;
+        begun[pointer] = false;
+        sentCounts[pointer] = 0;
+        colors[pointer] = color;
+        widths[pointer] = width;
+        brushes[pointer] = brush;
+        layers[pointer] = layer;
+        notifyAll();
+    }
+
+    // Принятая точка рисуемой линии
+    public synchronized void addPoint(int pointer, float x, float y) {
+        if (!pointers.isActive(pointer))
+            return;
+        pointers.addPoint(pointer, x, y);
+        notifyAll();
+    }
+
+    // Завершенная линия (точки после упрощения); незавершенная линия
+    // указателя заменяется ею. Возвращает false, если поток переполнен
+    public boolean commit(int pointer, float[] xy, int pointCount, int color, float width,
+                          int brush, int layer) {
+        return commit(pointer, xy, pointCount, color, width, brush, layer, 0);
+    }
+
+    // Завершенная линия со счетчиком Лэмпорта clock (StrokeLog.stampClock)
+    public synchronized boolean commit(int pointer, float[] xy, int pointCount, int color,
+                                       float width, int brush, int layer, int clock) {
+        pointers.end(pointer);
+        if (overflowed)
+            return false;
+        if (pendingPoints + pointCount > MAX_PENDING_POINTS) {
+            overflowed = true;
+            return false;
+        }
+        if (commits.size() == commitPointers.length) {
+            commitPointers = Arrays.copyOf(commitPointers, commits.size() * 2);
+            commitClocks = Arrays.copyOf(commitClocks, commits.size() * 2);
+        }
+        commitPointers[commits.size()] = pointer;
+        commitClocks[commits.size()] = clock;
+        commits.append(xy, pointCount, color, width, brush, layer);
+        pendingPoints += pointCount;
+        notifyAll();
+        return true;
+    }
+
+    // Отмена рисуемой линии (касание оказалось жестом): если ее начало уже
+    // отправлено, передается завершенная линия без точек
+    public synchronized void cancel(int pointer) {
+        if (!pointers.isActive(pointer))
+            return;
+        pointers.end(pointer);
+        if (begun[pointer])
+            commit(pointer, new float[0], 0, colors[pointer], widths[pointer],
+                    brushes[pointer], layers[pointer]);
+    }
+
+    // Завершенные линии не успевают отправляться
+    public synchronized boolean isOverflowed() {
+        return overflowed;
+    }
+
+    // Есть ли данные для отправки
+    public synchronized boolean hasPending() {
+        if (commits.size() > 0)
+            return true;
+        for (int i = 0; i < PointerStateTable.MAX_POINTERS; i++)
+            if (pointers.isActive(i) && sentCounts[i] < pointers.getPointCount(i))
+                return true;
+        return false;
+    }
+
+    // Ожидание данных для отправки не дольше timeoutMillis
+    public synchronized boolean awaitPending(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        long remaining = timeoutMillis;
+        while (!hasPending() && remaining > 0) {
+            wait(remaining);
+            remaining = deadline - System.currentTimeMillis();
+        }
+        return hasPending();
+    }
+
+    // Кодирование всех неотправленных данных в пакет; возвращает false,
+    // если отправлять нечего (out при этом не меняется)
+    public synchronized boolean encodeBatch(SketchJournal.ByteSink out) {
+        if (!hasPending())
+            return false;
+        out.writeByte(VERSION);
+        out.writeVarint(peer);
+        out.writeVarint(sequence++);
+
+        // Сначала завершенные линии: указатель уже мог начать следующую
+        float[] committed = commits.getPoints();
+        for (int i = 0; i < commits.size(); i++) {
+            out.writeByte(MESSAGE_COMMIT);
+            out.writeVarint(commitPointers[i]);
+            out.writeVarint(commitClocks[i]);
+            writeStyle(out, commits.getColor(i), commits.getWidth(i), commits.getBrush(i),
+                    commits.getLayer(i));
+            int offset = commits.getPointOffset(i);
+            int count = commits.getPointCount(i);
+            out.writeVarint(count);
+            int x0 = 0;
+            int y0 = 0;
+            for (int p = 0; p < count; p++) {
+                int x = Math.round(committed[offset + p * 2] * POINT_SCALE);
+                int y = Math.round(committed[offset + p * 2 + 1] * POINT_SCALE);
+                out.writeVarint(SketchJournal.zigZagEncode(x - x0));
+                out.writeVarint(SketchJournal.zigZagEncode(y - y0));
+                x0 = x;
+                y0 = y;
+            }
+        }
+        commits.clear();
+        pendingPoints = 0;
+
+        // Новые точки рисуемых линий
+        for (int i = 0; i < PointerStateTable.MAX_POINTERS; i++) {
+            if (!pointers.isActive(i) || sentCounts[i] == pointers.getPointCount(i))
+                continue;
+            float[] points = pointers.getPoints(i);
+            int from = sentCounts[i];
+            if (!begun[i]) {
+                out.writeByte(MESSAGE_BEGIN);
+                out.writeVarint(i);
+                writeStyle(out, colors[i], widths[i], brushes[i], layers[i]);
+                lastX[i] = Math.round(points[0] * POINT_SCALE);
+                lastY[i] = Math.round(points[1] * POINT_SCALE);
+                out.writeVarint(SketchJournal.zigZagEncode(lastX[i]));
+                out.writeVarint(SketchJournal.zigZagEncode(lastY[i]));
+                begun[i] = true;
+                from = 1;
+            }
+            int count = pointers.getPointCount(i);
+            if (from < count) {
+                out.writeByte(MESSAGE_POINTS);
+                out.writeVarint(i);
+                out.writeVarint(count - from);
+                for (int p = from; p < count; p++) {
+                    int x = Math.round(points[p * 2] * POINT_SCALE);
+                    int y = Math.round(points[p * 2 + 1] * POINT_SCALE);
+                    out.writeVarint(SketchJournal.zigZagEncode(x - lastX[i]));
+                    out.writeVarint(SketchJournal.zigZagEncode(y - lastY[i]));
+                    lastX[i] = x;
+                    lastY[i] = y;
+                }
+            }
+            sentCounts[i] = count;
+        }
+        return true;
+    }
+
+    private static void writeStyle(SketchJournal.ByteSink out, int color, float width,
+                                   int brush, int layer) {
+        out.writeVarint(color);
+        out.writeVarint(Math.round(width * WIDTH_SCALE));
+        out.writeVarint(brush);
+        out.writeVarint(layer);
+    }
+}
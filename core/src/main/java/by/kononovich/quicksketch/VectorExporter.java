@@ -0,0 +1,422 @@
+package by.kononovich.quicksketch;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Векторный экспорт линий журнала в SVG или PDF. Каждая линия сразу
+ * записывается в поток вывода (кривые, цвет, толщина, концы), поэтому
+ * память не зависит от количества линий. Слои выводятся снизу вверх
+ * со своими видимостью, непрозрачностью и режимом наложения; заливки
+ * областей не являются векторными и не экспортируются
+ */
+
+public class VectorExporter {
+    public enum Format {
+        SVG("image/svg+xml", ".svg"),
+        PDF("application/pdf", ".pdf");
+
+        private final String mimeType;
+        private final String extension;
+
+        Format(String mimeType, String extension) {
+            this.mimeType = mimeType;
+            this.extension = extension;
+        }
+
+        public String getMimeType() {
+            return mimeType;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+    }
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // Названия режимов наложения в порядке Layer.Blend
+    private static final String[] SVG_BLENDS =
+            {"normal", "multiply", "screen", "darken", "lighten", "plus-lighter", "overlay"};
+    // В PDF нет сложения - оно выводится обычным наложением
+    private static final String[] PDF_BLENDS =
+            {"Normal", "Multiply", "Screen", "Darken", "Lighten", "Normal", "Overlay"};
+
+    // Номера постоянных объектов PDF; далее - по два объекта на видимый слой
+    // (форма слоя и ее длина)
+    private static final int OBJECT_CATALOG = 1;
+    private static final int OBJECT_PAGES = 2;
+    private static final int OBJECT_PAGE = 3;
+    private static final int OBJECT_RESOURCES = 4;
+    private static final int OBJECT_CONTENTS = 5;
+    private static final int OBJECT_CONTENTS_LENGTH = 6;
+    private static final int OBJECT_FIRST_LAYER = 7;
+
+    private final StrokeLog log;
+    private final int width;
+    private final int height;
+    // Слои снизу вверх: идентификатор, видимость, непрозрачность, режим наложения
+    private final int[] layers;
+    private final StringBuilder text = new StringBuilder(256);
+
+    // log - применяемые линии (копия, не изменяющаяся во время экспорта);
+    // layerState - описание слоев LayerStack.encodeState (null - один слой)
+    public VectorExporter(StrokeLog log, int[] layerState, int width, int height) {
+        this.log = log;
+        this.width = width;
+        this.height = height;
+        if (layerState != null && layerState.length >= 3 &&
+                layerState.length >= 3 + layerState[2] * 4) {
+            layers = new int[layerState[2] * 4];
+            System.arraycopy(layerState, 3, layers, 0, layers.length);
+        } else {
+            layers = new int[]{0, 1, 255, 0};
+        }
+    }
+
+    public void export(Format format, OutputStream out) throws IOException {
+        if (format == Format.SVG)
+            writeSvg(out);
+        else
+            writePdf(out);
+    }
+
+    // Экспортируется ли линия: заливки и линии удаленных слоев пропускаются
+    private boolean isExported(int index, int layerId) {
+        return log.getLayer(index) == layerId && !Brush.decode(log.getBrush(index)).isFill();
+    }
+
+    private void writeSvg(OutputStream stream) throws IOException {
+        OutputStream out = new BufferedOutputStream(stream, BUFFER_SIZE);
+        text.setLength(0);
+        text.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                .append("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"").append(width)
+                .append("\" height=\"").append(height).append("\" viewBox=\"0 0 ")
+                .append(width).append(' ').append(height).append("\">\n")
+                .append("<rect width=\"100%\" height=\"100%\" fill=\"#ffffff\"/>\n");
+        flushText(out);
+
+        for (int layer = 0; layer < layers.length; layer += 4) {
+            if (layers[layer + 1] == 0)
+                continue;  // Скрытый слой
+            text.append("<g");
+            if (layers[layer + 2] < 255) {
+                text.append(" opacity=\"");
+                appendNumber(layers[layer + 2] / 255f);
+                text.append('"');
+            }
+            int blend = layers[layer + 3];
+            if (blend > 0 && blend < SVG_BLENDS.length)
+                text.append(" style=\"mix-blend-mode:").append(SVG_BLENDS[blend]).append('"');
+            text.append(">\n");
+            flushText(out);
+
+            for (int i = 0; i < log.size(); i++) {
+                if (isExported(i, layers[layer])) {
+                    appendSvgPath(i);
+                    flushText(out);
+                }
+            }
+            text.append("</g>\n");
+        }
+        text.append("</svg>\n");
+        flushText(out);
+        out.flush();
+    }
+
+    private void appendSvgPath(int index) {
+        int color = log.getColor(index);
+        Brush brush = Brush.decode(log.getBrush(index));
+        text.append("<path d=\"M");
+        appendPoint(index, 0);
+        float lastX = log.getX(index, 0);
+        float lastY = log.getY(index, 0);
+        if (log.getPointCount(index) == 1 && brush.isStamped()) {
+            text.append('L');  // Отпечаток кисти в одной точке
+            appendPoint(index, 0);
+        }
+        for (int i = 1; i < log.getPointCount(index); i++) {
+            float x = log.getX(index, i);
+            float y = log.getY(index, i);
+            text.append('Q');
+            appendNumber(lastX);
+            text.append(' ');
+            appendNumber(lastY);
+            text.append(' ');
+            appendNumber((x + lastX) / 2);
+            text.append(' ');
+            appendNumber((y + lastY) / 2);
+            lastX = x;
+            lastY = y;
+        }
+        text.append("\" fill=\"none\" stroke=\"#");
+        String rgb = Integer.toHexString(color & 0xFFFFFF);
+        for (int i = rgb.length(); i < 6; i++)
+            text.append('0');
+        text.append(rgb).append('"');
+        if (color >>> 24 < 255) {
+            text.append(" stroke-opacity=\"");
+            appendNumber((color >>> 24) / 255f);
+            text.append('"');
+        }
+        text.append(" stroke-width=\"");
+        appendNumber(log.getWidth(index));
+        text.append(brush.getShape() == Brush.Shape.SQUARE ?
+                "\" stroke-linecap=\"square\" stroke-linejoin=\"miter\"/>\n" :
+                "\" stroke-linecap=\"round\" stroke-linejoin=\"round\"/>\n");
+    }
+
+    private void appendPoint(int index, int point) {
+        appendNumber(log.getX(index, point));
+        text.append(' ');
+        appendNumber(log.getY(index, point));
+    }
+
+    private void writePdf(OutputStream stream) throws IOException {
+        CountingOutputStream out =
+                new CountingOutputStream(new BufferedOutputStream(stream, BUFFER_SIZE));
+        int layerCount = layers.length / 4;
+        int[] layerObjects = new int[layerCount];  // 0 - слой скрыт
+        int nextObject = OBJECT_FIRST_LAYER;
+        for (int layer = 0; layer < layerCount; layer++) {
+            if (layers[layer * 4 + 1] != 0) {
+                layerObjects[layer] = nextObject;
+                nextObject += 2;
+            }
+        }
+        long[] offsets = new long[nextObject];
+        boolean[] alphas = new boolean[256];  // Используемые прозрачности линий
+
+        text.append("%PDF-1.4\n%âãÏÓ\n");
+        flushText(out);
+
+        // Формы слоев: линии каждого слоя записываются сжатым потоком
+        for (int layer = 0; layer < layerCount; layer++) {
+            int object = layerObjects[layer];
+            if (object == 0)
+                continue;
+            offsets[object] = out.getCount();
+            text.append(object).append(" 0 obj\n<< /Type /XObject /Subtype /Form /BBox [0 0 ")
+                    .append(width).append(' ').append(height)
+                    .append("] /Group << /S /Transparency >> /Resources ")
+                    .append(OBJECT_RESOURCES).append(" 0 R /Filter /FlateDecode /Length ")
+                    .append(object + 1).append(" 0 R >>\nstream\n");
+            flushText(out);
+
+            long start = out.getCount();
+            Deflater deflater = new Deflater();
+            DeflaterOutputStream content = new DeflaterOutputStream(out, deflater, BUFFER_SIZE);
+            // Начало координат - в левом верхнем углу, как на экране
+            text.append("1 0 0 -1 0 ").append(height).append(" cm\n");
+            for (int i = 0; i < log.size(); i++) {
+                if (isExported(i, layers[layer * 4])) {
+                    appendPdfPath(i, alphas);
+                    flushText(content);
+                }
+            }
+            flushText(content);
+            content.finish();
+            deflater.end();
+            long length = out.getCount() - start;
+            text.append("\nendstream\nendobj\n");
+            writeObjectStart(out, offsets, object + 1);
+            text.append(length).append("\nendobj\n");
+            flushText(out);
+        }
+
+        // Содержимое страницы: белый лист и формы слоев со своими параметрами
+        offsets[OBJECT_CONTENTS] = out.getCount();
+        text.append(OBJECT_CONTENTS).append(" 0 obj\n<< /Length ")
+                .append(OBJECT_CONTENTS_LENGTH).append(" 0 R >>\nstream\n");
+        flushText(out);
+        long start = out.getCount();
+        text.append("1 1 1 rg 0 0 ").append(width).append(' ').append(height).append(" re f\n");
+        for (int layer = 0; layer < layerCount; layer++)
+            if (layerObjects[layer] != 0)
+                text.append("q /L").append(layer).append(" gs /F").append(layer)
+                        .append(" Do Q\n");
+        flushText(out);
+        long length = out.getCount() - start;
+        text.append("endstream\nendobj\n");
+        writeObjectStart(out, offsets, OBJECT_CONTENTS_LENGTH);
+        text.append(length).append("\nendobj\n");
+
+        // Общие ресурсы: прозрачности линий, параметры и формы слоев
+        writeObjectStart(out, offsets, OBJECT_RESOURCES);
+        text.append("<< /ExtGState <<");
+        for (int alpha = 0; alpha < alphas.length; alpha++) {
+            if (alphas[alpha]) {
+                text.append(" /A").append(alpha).append(" << /CA ");
+                appendNumber(alpha / 255f);
+                text.append(" >>");
+            }
+        }
+        for (int layer = 0; layer < layerCount; layer++) {
+            if (layerObjects[layer] == 0)
+                continue;
+            int blend = layers[layer * 4 + 3];
+            text.append(" /L").append(layer).append(" << /CA ");
+            appendNumber(layers[layer * 4 + 2] / 255f);
+            text.append(" /ca ");
+            appendNumber(layers[layer * 4 + 2] / 255f);
+            text.append(" /BM /")
+                    .append(blend < PDF_BLENDS.length ? PDF_BLENDS[blend] : PDF_BLENDS[0])
+                    .append(" >>");
+        }
+        text.append(" >> /XObject <<");
+        for (int layer = 0; layer < layerCount; layer++)
+            if (layerObjects[layer] != 0)
+                text.append(" /F").append(layer).append(' ')
+                        .append(layerObjects[layer]).append(" 0 R");
+        text.append(" >> >>\nendobj\n");
+
+        writeObjectStart(out, offsets, OBJECT_PAGE);
+        text.append("<< /Type /Page /Parent ").append(OBJECT_PAGES)
+                .append(" 0 R /MediaBox [0 0 ").append(width).append(' ').append(height)
+                .append("] /Resources ").append(OBJECT_RESOURCES)
+                .append(" 0 R /Contents ").append(OBJECT_CONTENTS)
+                .append(" 0 R /Group << /S /Transparency /CS /DeviceRGB >> >>\nendobj\n");
+        writeObjectStart(out, offsets, OBJECT_PAGES);
+        text.append("<< /Type /Pages /Kids [").append(OBJECT_PAGE)
+                .append(" 0 R] /Count 1 >>\nendobj\n");
+        writeObjectStart(out, offsets, OBJECT_CATALOG);
+        text.append("<< /Type /Catalog /Pages ").append(OBJECT_PAGES).append(" 0 R >>\nendobj\n");
+        flushText(out);
+
+        // Таблица смещений объектов
+        long xref = out.getCount();
+        text.append("xref\n0 ").append(offsets.length).append("\n0000000000 65535 f \n");
+        for (int object = 1; object < offsets.length; object++) {
+            String offset = Long.toString(offsets[object]);
+            for (int i = offset.length(); i < 10; i++)
+                text.append('0');
+            text.append(offset).append(" 00000 n \n");
+            if (text.length() > BUFFER_SIZE)
+                flushText(out);
+        }
+        text.append("trailer\n<< /Size ").append(offsets.length).append(" /Root ")
+                .append(OBJECT_CATALOG).append(" 0 R >>\nstartxref\n").append(xref)
+                .append("\n%%EOF\n");
+        flushText(out);
+        out.flush();
+    }
+
+    // Квадратичные сегменты записываются равными им кубическими
+    private void appendPdfPath(int index, boolean[] alphas) {
+        int color = log.getColor(index);
+        int alpha = color >>> 24;
+        alphas[alpha] = true;
+        Brush brush = Brush.decode(log.getBrush(index));
+        text.append("/A").append(alpha).append(" gs ");
+        appendNumber(((color >> 16) & 0xFF) / 255f);
+        text.append(' ');
+        appendNumber(((color >> 8) & 0xFF) / 255f);
+        text.append(' ');
+        appendNumber((color & 0xFF) / 255f);
+        text.append(" RG ");
+        appendNumber(log.getWidth(index));
+        text.append(brush.getShape() == Brush.Shape.SQUARE ? " w 2 J 0 j\n" : " w 1 J 1 j\n");
+
+        float startX = log.getX(index, 0);
+        float startY = log.getY(index, 0);
+        appendPdfPoint(startX, startY);
+        text.append(" m\n");
+        if (log.getPointCount(index) == 1 && brush.isStamped()) {
+            appendPdfPoint(startX, startY);  // Отпечаток кисти в одной точке
+            text.append(" l\n");
+        }
+        float lastX = startX;
+        float lastY = startY;
+        for (int i = 1; i < log.getPointCount(index); i++) {
+            float x = log.getX(index, i);
+            float y = log.getY(index, i);
+            float endX = (x + lastX) / 2;
+            float endY = (y + lastY) / 2;
+            appendPdfPoint(startX + (lastX - startX) * 2 / 3, startY + (lastY - startY) * 2 / 3);
+            text.append(' ');
+            appendPdfPoint(endX + (lastX - endX) * 2 / 3, endY + (lastY - endY) * 2 / 3);
+            text.append(' ');
+            appendPdfPoint(endX, endY);
+            text.append(" c\n");
+            startX = endX;
+            startY = endY;
+            lastX = x;
+            lastY = y;
+        }
+        text.append("S\n");
+    }
+
+    private void appendPdfPoint(float x, float y) {
+        appendNumber(x);
+        text.append(' ');
+        appendNumber(y);
+    }
+
+    private void writeObjectStart(CountingOutputStream out, long[] offsets, int object)
+            throws IOException {
+        flushText(out);
+        offsets[object] = out.getCount();
+        text.append(object).append(" 0 obj\n");
+    }
+
+    // Число с точностью до сотых без лишних нулей (независимо от локали)
+    private void appendNumber(float value) {
+        long hundredths = Math.round(value * 100.0);
+        if (hundredths < 0) {
+            text.append('-');
+            hundredths = -hundredths;
+        }
+        text.append(hundredths / 100);
+        long fraction = hundredths % 100;
+        if (fraction != 0) {
+            text.append('.');
+            if (fraction < 10)
+                text.append('0');
+            text.append(fraction % 10 == 0 ? fraction / 10 : fraction);
+        }
+    }
+
+    // Запись накопленного текста в поток (все символы, кроме UTF-8 в SVG, - ASCII)
+    private void flushText(OutputStream out) throws IOException {
+        if (text.length() == 0)
+            return;
+        out.write(text.toString().getBytes(UTF_8));
+        text.setLength(0);
+    }
+
+    // Подсчет записанных байтов для таблицы смещений PDF
+    private static class CountingOutputStream extends OutputStream {
+        private final OutputStream out;
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+    }
+}
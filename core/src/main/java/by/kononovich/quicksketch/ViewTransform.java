@@ -0,0 +1,97 @@
+package by.kononovich.quicksketch;
+
+/**
+ * Масштаб и сдвиг рисунка на поверхности: точка рисунка (x, y) выводится
+ * в точке поверхности (x * zoom + panX, y * zoom + panY). Жест двумя
+ * пальцами меняет масштаб пропорционально расстоянию между пальцами,
+ * а точка рисунка под серединой между ними следует за пальцами
+ */
+
+public class ViewTransform {
+    public static final float MIN_ZOOM = 0.125f;
+    public static final float MAX_ZOOM = 8;
+    // Наименьшее расстояние между пальцами (пикселы), при котором меняется масштаб
+    private static final float MIN_SPAN = 1;
+
+    private float zoom = 1;
+    private float panX;
+    private float panY;
+
+    public float getZoom() {
+        return zoom;
+    }
+
+    public float getPanX() {
+        return panX;
+    }
+
+    public float getPanY() {
+        return panY;
+    }
+
+    // Рисунок выводится без масштаба и сдвига
+    public boolean isIdentity() {
+        return zoom == 1 && panX == 0 && panY == 0;
+    }
+
+    public void reset() {
+        zoom = 1;
+        panX = 0;
+        panY = 0;
+    }
+
+    // Координаты поверхности в координатах рисунка
+    public float toCanvasX(float screenX) {
+        return (screenX - panX) / zoom;
+    }
+
+    public float toCanvasY(float screenY) {
+        return (screenY - panY) / zoom;
+    }
+
+    // Координаты рисунка в координатах поверхности
+    public float toScreenX(float canvasX) {
+        return canvasX * zoom + panX;
+    }
+
+    public float toScreenY(float canvasY) {
+        return canvasY * zoom + panY;
+    }
+
+    // Перемещение двух пальцев из (ax0, ay0), (bx0, by0) в (ax1, ay1), (bx1, by1)
+    // (координаты поверхности)
+    public void pinch(float ax0, float ay0, float bx0, float by0,
+                      float ax1, float ay1, float bx1, float by1) {
+        float midX0 = (ax0 + bx0) / 2;
+        float midY0 = (ay0 + by0) / 2;
+        float canvasX = toCanvasX(midX0);
+        float canvasY = toCanvasY(midY0);
+
+        float span0 = (float) Math.hypot(bx0 - ax0, by0 - ay0);
+        float span1 = (float) Math.hypot(bx1 - ax1, by1 - ay1);
+        if (span0 >= MIN_SPAN && span1 >= MIN_SPAN)
+            zoom = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, zoom * span1 / span0));
+
+        // Точка рисунка под прежней серединой переходит под новую
+        panX = (ax1 + bx1) / 2 - canvasX * zoom;
+        panY = (ay1 + by1) / 2 - canvasY * zoom;
+    }
+
+    // Ограничение сдвига: края рисунка width x height не заходят за
+    // середину поверхности viewWidth x viewHeight
+    public void constrain(float viewWidth, float viewHeight, float width, float height) {
+        panX = Math.max(viewWidth / 2 - width * zoom, Math.min(viewWidth / 2, panX));
+        panY = Math.max(viewHeight / 2 - height * zoom, Math.min(viewHeight / 2, panY));
+    }
+
+    // Уровень пирамиды уменьшенных копий (0 - исходное изображение,
+    // уровень L уменьшен в 2^L раз) для вывода в масштабе zoom: самый
+    // мелкий уровень, разрешение которого не меньше экранного. resolution -
+    // пикселов исходного уровня на пиксел рисунка
+    public static int mipLevel(float resolution, float zoom, int maxLevel) {
+        int level = 0;
+        while (level < maxLevel && resolution / (1 << (level + 1)) >= zoom)
+            level++;
+        return level;
+    }
+}
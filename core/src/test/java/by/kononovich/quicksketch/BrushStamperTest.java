@@ -0,0 +1,87 @@
+package by.kononovich.quicksketch;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BrushStamperTest {
+    // Запоминает координаты отпечатков
+    private static class Recorder implements BrushStamper.Target {
+        final List<float[]> stamps = new ArrayList<>();
+
+        @Override
+        public void stamp(float x, float y) {
+            stamps.add(new float[]{x, y});
+        }
+    }
+
+    @Test
+    public void line_isStampedAtEvenSpacing() throws Exception {
+        Recorder recorder = new Recorder();
+        BrushStamper stamper = new BrushStamper();
+        stamper.begin(0, 0, 5, recorder);
+        stamper.lineTo(23, 0, recorder);
+
+        assertEquals(5, recorder.stamps.size());  // 0, 5, 10, 15, 20
+        for (int i = 0; i < recorder.stamps.size(); i++)
+            assertEquals(i * 5f, recorder.stamps.get(i)[0], 1e-4f);
+    }
+
+    @Test
+    public void spacing_carriesOverAcrossSegments() throws Exception {
+        Recorder whole = new Recorder();
+        BrushStamper stamper = new BrushStamper();
+        stamper.begin(0, 0, 4, whole);
+        stamper.lineTo(30, 0, whole);
+
+        Recorder split = new Recorder();
+        stamper.begin(0, 0, 4, split);
+        for (int x = 3; x <= 30; x += 3)
+            stamper.lineTo(x, 0, split);
+
+        assertEquals(whole.stamps.size(), split.stamps.size());
+        for (int i = 0; i < whole.stamps.size(); i++)
+            assertEquals(whole.stamps.get(i)[0], split.stamps.get(i)[0], 1e-3f);
+    }
+
+    @Test
+    public void curve_stampsStayCloseToEachOther() throws Exception {
+        Recorder recorder = new Recorder();
+        BrushStamper stamper = new BrushStamper();
+        stamper.begin(0, 0, 3, recorder);
+        stamper.quadTo(100, 0, 100, 100, recorder);
+
+        for (int i = 1; i < recorder.stamps.size(); i++) {
+            float dx = recorder.stamps.get(i)[0] - recorder.stamps.get(i - 1)[0];
+            float dy = recorder.stamps.get(i)[1] - recorder.stamps.get(i - 1)[1];
+            assertTrue(Math.sqrt(dx * dx + dy * dy) <= 3.001);
+        }
+        assertEquals(100f, stamper.getX(), 0f);
+        assertEquals(100f, stamper.getY(), 0f);
+    }
+
+    @Test
+    public void brush_encodingRoundTrips() throws Exception {
+        Brush soft = new Brush(Brush.Shape.ROUND, 30);
+        assertEquals(soft, Brush.decode(soft.encode()));
+        assertSame(Brush.LINE, Brush.decode(0));
+        assertEquals(0, Brush.LINE.encode());
+        assertFalse(Brush.LINE.isStamped());
+    }
+
+    @Test
+    public void softTip_fadesTowardsTheEdge() throws Exception {
+        int[] hard = new Brush(Brush.Shape.ROUND, 100).rasterize(21, 0xff000000);
+        int[] soft = new Brush(Brush.Shape.ROUND, 0).rasterize(21, 0xff000000);
+        int center = 10 * 21 + 10;
+        int nearEdge = 10 * 21 + 2;
+
+        assertEquals(255, hard[center] >>> 24);
+        assertEquals(255, hard[nearEdge] >>> 24);
+        assertTrue((soft[nearEdge] >>> 24) < 64);
+        assertEquals(0, hard[0] >>> 24);  // Угол вне круга
+    }
+}
@@ -0,0 +1,72 @@
+package by.kononovich.quicksketch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class DiskCacheTest {
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("thumbnails").toFile();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        new DiskCache(directory, 0);  // Удаляет все записи
+        directory.delete();
+    }
+
+    private static byte[] data(int value) {
+        byte[] data = new byte[10];
+        data[0] = (byte) value;
+        return data;
+    }
+
+    @Test
+    public void put_evictsLeastRecentlyUsedEntries() throws Exception {
+        DiskCache cache = new DiskCache(directory, 30);
+        cache.put("a", data(1));
+        cache.put("b", data(2));
+        cache.put("c", data(3));
+        assertEquals(1, cache.get("a")[0]);  // "a" использована последней
+
+        cache.put("d", data(4));
+        assertFalse(cache.contains("b"));
+        assertTrue(cache.contains("a"));
+        assertEquals(30, cache.getSize());
+        assertNull(cache.get("b"));
+
+        cache.put("a", data(5));  // Замена записи не меняет объем
+        assertEquals(5, cache.get("a")[0]);
+        assertEquals(30, cache.getSize());
+    }
+
+    @Test
+    public void reopen_keepsEntriesInUseOrder() throws Exception {
+        DiskCache cache = new DiskCache(directory, 100);
+        cache.put("old", data(1));
+        cache.put("new", data(2));
+        new File(directory, "old").setLastModified(1000000000000L);
+        new File(directory, "new").setLastModified(1000000060000L);
+        assertTrue(new File(directory, "partial.tmp").createNewFile());
+
+        // Меньший объем при открытии - остается последняя использованная запись
+        DiskCache reopened = new DiskCache(directory, 15);
+        assertFalse(reopened.contains("old"));
+        assertEquals(2, reopened.get("new")[0]);
+        assertEquals(10, reopened.getSize());
+        assertFalse(new File(directory, "partial.tmp").exists());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void put_rejectsKeysThatAreNotFileNames() throws Exception {
+        new DiskCache(directory, 100).put("../escape", data(1));
+    }
+}
@@ -0,0 +1,64 @@
+package by.kononovich.quicksketch;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class EraserSessionTest {
+    // Журнал из count своих линий на слое 0
+    private static StrokeLog log(int count) {
+        StrokeLog log = new StrokeLog();
+        for (int i = 0; i < count; i++)
+            log.append(new float[]{i, i}, 1, i, 4);
+        return log;
+    }
+
+    @Test
+    public void hitsOfSeveralEvents_areErasedInOneSortedBatch() throws Exception {
+        StrokeLog log = log(6);
+        EraserSession eraser = new EraserSession();
+
+        eraser.collect(log, new int[]{4, 1}, 0);
+        eraser.sort();  // Линии первого события скрыты
+        eraser.collect(log, new int[]{1, 3, 4, 0}, 0);
+        assertEquals(4, eraser.size());
+        assertEquals(3, eraser.get(2));  // Новые линии - после скрытых
+        assertEquals(0, eraser.get(3));
+        assertTrue(eraser.isErased(0));
+        assertFalse(eraser.isErased(2));
+
+        assertArrayEquals(new int[]{0, 1, 3, 4}, eraser.finish());
+        assertEquals(0, eraser.size());
+        assertNull(eraser.finish());
+        assertFalse(eraser.isErased(1));
+    }
+
+    @Test
+    public void collect_skipsOtherLayersAndPeerStrokes() throws Exception {
+        StrokeLog log = log(2);
+        log.append(new float[]{0, 0}, 1, 2, 4, 0, 5);  // Линия слоя 5
+        log.add(new float[]{0, 0}, 1, 3, 4, 0, 0, 7, StrokeLog.stamp(100, 7));
+        EraserSession eraser = new EraserSession();
+
+        eraser.collect(log, new int[]{0, 2, 3}, 0);
+        assertArrayEquals(new int[]{0}, eraser.finish());
+    }
+
+    @Test
+    public void stop_keepsHitsUntilFinish() throws Exception {
+        StrokeLog log = log(3);
+        EraserSession eraser = new EraserSession();
+        eraser.moveTo(10, 20);
+        eraser.collect(log, new int[]{2}, 0);
+        assertTrue(eraser.isActive());
+        assertEquals(20, eraser.getY(), 0f);
+
+        eraser.stop();
+        assertFalse(eraser.isActive());
+        assertArrayEquals(new int[]{2}, eraser.finish());
+
+        eraser.collect(log, new int[]{1}, 0);
+        eraser.clear();
+        assertNull(eraser.finish());
+    }
+}
@@ -0,0 +1,99 @@
+package by.kononovich.quicksketch;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class FillControllerTest {
+    private static final int WHITE = 0xffffffff;
+    private static final int RED = 0xffff0000;
+
+    // Задачи выполняются по вызову runAll (фоновый поток и поток интерфейса)
+    private static class QueueExecutor implements Executor {
+        final List<Runnable> queue = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            queue.add(command);
+        }
+
+        void runAll() {
+            while (!queue.isEmpty())
+                queue.remove(0).run();
+        }
+    }
+
+    private final QueueExecutor worker = new QueueExecutor();
+    private final QueueExecutor results = new QueueExecutor();
+    private final List<FillController.Fill<String>> done = new ArrayList<>();
+    private final FillController<String> fills = new FillController<>(
+            new FloodFill(worker, 1), worker, results,
+            new FillController.Listener<String>() {
+                @Override
+                public void onFillProgress(FillController.Fill<String> fill, int percent) {
+                }
+
+                @Override
+                public void onFillDone(FillController.Fill<String> fill) {
+                    done.add(fill);
+                }
+            });
+
+    private static int[] white(int size) {
+        int[] pixels = new int[size];
+        Arrays.fill(pixels, WHITE);
+        return pixels;
+    }
+
+    @Test
+    public void finishedFill_isAcceptedOnce() throws Exception {
+        FillController.Fill<String> fill = fills.start(white(16), 4, 4, 1, 1, RED, 0, "a");
+        assertTrue(fills.isFilling());
+        worker.runAll();
+        results.runAll();
+
+        assertEquals(1, done.size());
+        assertTrue(fills.finish(fill));
+        assertFalse(fills.isFilling());
+        assertFalse(fills.finish(fill));
+        assertEquals(16, fill.getFilled());
+        assertArrayEquals(new int[]{0, 0, 4, 4}, fill.getBounds());
+        assertEquals("a", fill.getData());
+    }
+
+    @Test
+    public void cancelBeforeRun_leavesPixelsAndRejectsResult() throws Exception {
+        int[] pixels = white(16);
+        FillController.Fill<String> fill = fills.start(pixels, 4, 4, 0, 0, RED, 0, "a");
+        assertSame(fill, fills.cancel());
+        assertFalse(fills.isFilling());
+        assertNull(fills.cancel());
+
+        worker.runAll();
+        results.runAll();
+        assertEquals(1, done.size());  // Результат приходит, но не принимается
+        assertFalse(fills.finish(fill));
+        assertEquals(-1, fill.getFilled());
+        assertEquals(WHITE, pixels[0]);
+    }
+
+    @Test
+    public void cancelAfterRun_rejectsCompletedResult() throws Exception {
+        FillController.Fill<String> first = fills.start(white(16), 4, 4, 0, 0, RED, 0, "a");
+        worker.runAll();
+        fills.cancel();  // Заливка завершилась, но результат еще не принят
+        FillController.Fill<String> second = fills.start(white(16), 4, 4, 0, 0, RED, 0, "b");
+        worker.runAll();
+        results.runAll();
+
+        assertEquals(2, done.size());
+        assertFalse(fills.finish(first));
+        assertSame(second, fills.getPending());
+        assertTrue(fills.finish(second));
+    }
+}
@@ -0,0 +1,112 @@
+package by.kononovich.quicksketch;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class FloodFillTest {
+    private static final int WHITE = 0xffffffff;
+    private static final int BLACK = 0xff000000;
+    private static final int RED = 0xffff0000;
+    private static final ExecutorService executor = Executors.newFixedThreadPool(3);
+
+    @AfterClass
+    public static void shutdown() {
+        executor.shutdown();
+    }
+
+    // Белое изображение с черной рамкой-квадратом [left, right) x [left, right)
+    private static int[] imageWithSquare(int width, int height, int left, int right) {
+        int[] pixels = new int[width * height];
+        Arrays.fill(pixels, WHITE);
+        for (int i = left; i < right; i++) {
+            pixels[left * width + i] = BLACK;
+            pixels[(right - 1) * width + i] = BLACK;
+            pixels[i * width + left] = BLACK;
+            pixels[i * width + right - 1] = BLACK;
+        }
+        return pixels;
+    }
+
+    @Test
+    public void fill_staysInsideTheOutline() throws Exception {
+        int[] pixels = imageWithSquare(20, 20, 5, 15);
+        int[] bounds = new int[4];
+        int filled = new FloodFill(executor, 1).fill(pixels, 20, 20, 10, 10, RED, 0, bounds, null);
+
+        assertEquals(8 * 8, filled);
+        assertArrayEquals(new int[]{6, 6, 14, 14}, bounds);
+        assertEquals(RED, pixels[10 * 20 + 10]);
+        assertEquals(BLACK, pixels[5 * 20 + 10]);
+        assertEquals(WHITE, pixels[0]);
+    }
+
+    @Test
+    public void tolerance_includesSimilarColors() throws Exception {
+        int[] pixels = new int[10];
+        Arrays.fill(pixels, WHITE);
+        pixels[5] = 0xfff0f0f0;  // Отличается на 15 из 255 (6%)
+
+        int[] strict = pixels.clone();
+        assertEquals(5, new FloodFill(executor, 1).fill(strict, 10, 1, 0, 0, RED, 5, new int[4], null));
+        assertEquals(10, new FloodFill(executor, 1).fill(pixels, 10, 1, 0, 0, RED, 10, new int[4], null));
+    }
+
+    @Test
+    public void parallelFill_matchesSingleThreadedFill() throws Exception {
+        int width = 600;
+        int height = 400;
+        int[] sequential = imageWithSquare(width, height, 50, 350);
+        // Диагональная линия делит квадрат на две области
+        for (int i = 50; i < 350; i++)
+            sequential[i * width + i] = BLACK;
+        int[] parallel = sequential.clone();
+
+        int[] sequentialBounds = new int[4];
+        int[] parallelBounds = new int[4];
+        int expected = new FloodFill(executor, 1).fill(sequential, width, height, 300, 100,
+                0x8000ff00, 0, sequentialBounds, null);
+        int actual = new FloodFill(executor, 4).fill(parallel, width, height, 300, 100,
+                0x8000ff00, 0, parallelBounds, null);
+
+        assertEquals(expected, actual);
+        assertArrayEquals(sequentialBounds, parallelBounds);
+        assertArrayEquals(sequential, parallel);
+    }
+
+    @Test
+    public void cancelledFill_leavesPixelsUntouched() throws Exception {
+        int[] pixels = new int[512 * 512];
+        Arrays.fill(pixels, WHITE);
+        final int[] progress = {0};
+        int filled = new FloodFill(executor, 4).fill(pixels, 512, 512, 0, 0, RED, 0, new int[4],
+                new FloodFill.Monitor() {
+                    @Override
+                    public boolean isCancelled() {
+                        return progress[0] > 10;
+                    }
+
+                    @Override
+                    public void onProgress(int percent) {
+                        progress[0] = percent;
+                    }
+                });
+
+        assertEquals(-1, filled);
+        for (int pixel : pixels)
+            assertEquals(WHITE, pixel);
+    }
+
+    @Test
+    public void translucentColor_isBlendedOverThePixel() throws Exception {
+        int gray = FloodFill.blend(0x80000000, WHITE);
+        assertEquals(255, gray >>> 24);
+        assertEquals(127, (gray >> 16) & 0xFF, 1);
+        assertEquals(RED, FloodFill.blend(RED, WHITE));
+    }
+}
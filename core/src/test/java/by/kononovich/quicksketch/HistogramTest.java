@@ -0,0 +1,55 @@
+package by.kononovich.quicksketch;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class HistogramTest {
+    @Test
+    public void bucketOf_keepsSmallValuesExactAndLargeWithinOneSixteenth() throws Exception {
+        for (long value = 0; value < 32; value++)
+            assertEquals(value, Histogram.highestValueIn(Histogram.bucketOf(value)));
+
+        for (long value = 32; value < 10000000000L; value = value * 3 / 2 + 7) {
+            long highest = Histogram.highestValueIn(Histogram.bucketOf(value));
+            assertTrue(highest >= value);
+            assertTrue(highest - value <= value / 16);
+        }
+        assertEquals(Long.MAX_VALUE, Histogram.highestValueIn(Histogram.bucketOf(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void percentiles_followRecordedDistribution() throws Exception {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 1000; i++)
+            histogram.record(i * 1000L);  // От 1 до 1000 мкс
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000, histogram.getMin());
+        assertEquals(1000000, histogram.getMax());
+        assertEquals(500500, histogram.getMean(), 1e-6);
+        assertEquals(500000, histogram.getValueAtPercentile(50), 500000 / 16);
+        assertEquals(990000, histogram.getValueAtPercentile(99), 990000 / 16);
+        assertEquals(1000000, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void add_mergesAndResetEmpties() throws Exception {
+        Histogram first = new Histogram();
+        Histogram second = new Histogram();
+        first.record(10);
+        second.record(20);
+        second.record(-5);  // Отрицательные значения считаются нулем
+
+        first.add(second);
+        assertEquals(3, first.getCount());
+        assertEquals(0, first.getMin());
+        assertEquals(20, first.getMax());
+        assertEquals(10, first.getValueAtPercentile(50));
+
+        first.reset();
+        assertEquals(0, first.getCount());
+        assertEquals(0, first.getMin());
+        assertEquals(0, first.getValueAtPercentile(99));
+    }
+}
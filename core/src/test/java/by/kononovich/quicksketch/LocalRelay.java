@@ -0,0 +1,76 @@
+package by.kononovich.quicksketch;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Ретранслятор общего холста для проверок: пересылает каждый пакет
+// всем остальным клиентам, подключенным к локальному порту
+class LocalRelay {
+    private final ServerSocket server = new ServerSocket(0);
+    private final List<DataOutputStream> clients = new CopyOnWriteArrayList<>();
+
+    LocalRelay() throws IOException {
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true)
+                        serve(server.accept());
+                } catch (IOException e) {
+                    // Ретранслятор остановлен
+                }
+            }
+        }, "relay");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    int getPort() {
+        return server.getLocalPort();
+    }
+
+    int getClientCount() {
+        return clients.size();
+    }
+
+    void close() throws IOException {
+        server.close();
+        for (DataOutputStream client : clients)
+            client.close();
+    }
+
+    private void serve(final Socket socket) throws IOException {
+        final DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        clients.add(out);
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    DataInputStream in = new DataInputStream(socket.getInputStream());
+                    while (true) {
+                        byte[] batch = new byte[in.readInt()];
+                        in.readFully(batch);
+                        for (DataOutputStream client : clients) {
+                            if (client == out)
+                                continue;
+                            synchronized (client) {
+                                client.writeInt(batch.length);
+                                client.write(batch);
+                                client.flush();
+                            }
+                        }
+                    }
+                } catch (IOException e) {
+                    clients.remove(out);
+                }
+            }
+        }, "relay-client");
+        reader.setDaemon(true);
+        reader.start();
+    }
+}
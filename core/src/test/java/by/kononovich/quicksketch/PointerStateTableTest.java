@@ -0,0 +1,81 @@
+package by.kononovich.quicksketch;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PointerStateTableTest {
+    private PointerStateTable<String> newTable() {
+        String[] paths = new String[PointerStateTable.MAX_POINTERS];
+        for (int i = 0; i < paths.length; i++)
+            paths[i] = "path" + i;
+        return new PointerStateTable<>(paths);
+    }
+
+    @Test
+    public void start_activatesPointerAndStoresPoint() throws Exception {
+        PointerStateTable<String> table = newTable();
+
+        assertTrue(table.start(3, 10.5f, 20.25f));
+        assertTrue(table.isActive(3));
+        assertFalse(table.isActive(2));
+        assertEquals("path3", table.getPath(3));
+        assertEquals(10.5f, table.getLastX(3), 0f);
+        assertEquals(20.25f, table.getLastY(3), 0f);
+        assertEquals(10.5f, table.getSegmentEndX(3), 0f);
+        assertEquals(20.25f, table.getSegmentEndY(3), 0f);
+    }
+
+    @Test
+    public void addPoint_recordsStrokePointsBeyondInitialCapacity() throws Exception {
+        PointerStateTable<String> table = newTable();
+        table.start(1, 0, 0);
+
+        for (int i = 1; i < 200; i++)
+            table.addPoint(1, i, -i);
+
+        assertEquals(200, table.getPointCount(1));
+        assertEquals(199f, table.getLastX(1), 0f);
+        assertEquals(-199f, table.getLastY(1), 0f);
+        float[] points = table.getPoints(1);
+        assertEquals(150f, points[300], 0f);
+        assertEquals(-150f, points[301], 0f);
+
+        table.start(1, 5, 5);
+        assertEquals(1, table.getPointCount(1));
+    }
+
+    @Test
+    public void end_deactivatesOnlyThatPointer() throws Exception {
+        PointerStateTable<String> table = newTable();
+        table.start(0, 1, 1);
+        table.start(1, 2, 2);
+
+        table.end(0);
+
+        assertFalse(table.isActive(0));
+        assertTrue(table.isActive(1));
+    }
+
+    @Test
+    public void outOfRangeIds_areIgnored() throws Exception {
+        PointerStateTable<String> table = newTable();
+
+        assertFalse(table.start(-1, 0, 0));
+        assertFalse(table.start(PointerStateTable.MAX_POINTERS, 0, 0));
+        assertFalse(table.isActive(PointerStateTable.MAX_POINTERS));
+        table.end(PointerStateTable.MAX_POINTERS);
+    }
+
+    @Test
+    public void clear_deactivatesAllPointers() throws Exception {
+        PointerStateTable<String> table = newTable();
+        table.start(0, 1, 1);
+        table.start(5, 2, 2);
+
+        table.clear();
+
+        for (int i = 0; i < table.capacity(); i++)
+            assertFalse(table.isActive(i));
+    }
+}
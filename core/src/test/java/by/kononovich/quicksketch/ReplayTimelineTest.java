@@ -0,0 +1,52 @@
+package by.kononovich.quicksketch;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ReplayTimelineTest {
+    // Горизонтальная линия из трех точек с отрезками длиной 10
+    private static void appendLine(StrokeLog log, float y) {
+        log.append(new float[]{0, y, 10, y, 20, y}, 3, 0, 4);
+    }
+
+    @Test
+    public void advance_walksPointsAtConstantSpeedWithGapBeforeEachStroke() throws Exception {
+        StrokeLog log = new StrokeLog();
+        appendLine(log, 0);
+        appendLine(log, 50);
+        ReplayTimeline timeline = new ReplayTimeline(log, 5);
+        assertEquals(50, timeline.getLength(), 1e-4);
+
+        assertFalse(timeline.advance(4));  // Пауза перед первой линией
+        assertEquals(0, timeline.getPoint());
+        assertTrue(timeline.advance(1));
+        assertEquals(0, timeline.getStroke());
+        assertEquals(1, timeline.getPoint());
+
+        timeline.advance(20);  // Отрезки первой линии целиком
+        assertEquals(1, timeline.getStroke());
+        assertEquals(0, timeline.getPoint());
+        timeline.advance(16);
+        assertEquals(1, timeline.getStroke());
+        assertEquals(2, timeline.getPoint());
+        assertFalse(timeline.isFinished());
+
+        timeline.advance(1000);
+        assertTrue(timeline.isFinished());
+        assertEquals(2, timeline.getStroke());
+        assertFalse(timeline.advance(1000));
+    }
+
+    @Test
+    public void advance_passesSinglePointStrokesAfterGap() throws Exception {
+        StrokeLog log = new StrokeLog();
+        log.append(new float[]{5, 5}, 1, 0, 4);  // Заливка
+        appendLine(log, 0);
+        ReplayTimeline timeline = new ReplayTimeline(log, 10);
+
+        timeline.advance(10);
+        assertEquals(1, timeline.getStroke());
+        assertEquals(0, timeline.getPoint());
+    }
+}
@@ -0,0 +1,299 @@
+package by.kononovich.quicksketch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class SketchJournalTest {
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("sketch", ".journal");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        file.delete();
+    }
+
+    private static StrokeLog recover(File file) throws Exception {
+        final AtomicReference<StrokeLog> result = new AtomicReference<>();
+        SketchJournal journal = new SketchJournal(file);
+        journal.recover(new SketchJournal.RecoveryCallback() {
+            @Override
+            public void onRecovered(StrokeLog log) {
+                result.set(log);
+            }
+        });
+        journal.close();
+        return result.get();
+    }
+
+    @Test
+    public void sharedStrokes_keepOwnerAndOrder() throws Exception {
+        StrokeLog live = new StrokeLog();
+        live.setLocalPeer(3);
+        SketchJournal journal = new SketchJournal(file);
+        live.append(new float[]{0, 0}, 1, 1, 5, 0, 0);
+        live.add(new float[]{5, 5}, 1, 2, 5, 0, 1, 8, StrokeLog.stamp(1, 8));
+        live.undo();  // Своя линия 0 отменяется, линия устройства 8 остается
+        for (int i = 0; i < live.recordedSize(); i++)
+            journal.appendStroke(new float[]{live.getX(i, 0), live.getY(i, 0)}, 1,
+                    live.getColor(i), 5, 0, live.getLayer(i), live.getOwner(i),
+                    live.getStamp(i));
+        journal.appendUndo();
+        journal.close();
+
+        StrokeLog log = recover(file);
+        assertEquals(1, log.size());
+        assertEquals(2, log.getColor(0));
+        assertEquals(8, log.getOwner(0));
+        assertEquals(1, log.getLayer(0));
+        assertEquals(0, log.redo());  // Отметка 1:3 идет перед 1:8
+        assertEquals(1, log.getColor(0));
+        assertEquals(StrokeLog.stamp(1, 3), log.getStamp(0));
+    }
+
+    @Test
+    public void strokes_roundTripWithEighthPixelPrecision() throws Exception {
+        SketchJournal journal = new SketchJournal(file);
+        journal.appendStroke(new float[]{10.125f, 20.5f, 300, 5, 12.25f, 4000.75f}, 3,
+                0x80ff0000, 12.5f);
+        journal.appendStroke(new float[]{1, 1}, 1, 0xff000000, 5);
+        journal.close();
+
+        StrokeLog log = recover(file);
+
+        assertEquals(2, log.size());
+        assertEquals(3, log.getPointCount(0));
+        assertEquals(10.125f, log.getX(0, 0), 0f);
+        assertEquals(20.5f, log.getY(0, 0), 0f);
+        assertEquals(12.25f, log.getX(0, 2), 0f);
+        assertEquals(4000.75f, log.getY(0, 2), 0f);
+        assertEquals(0x80ff0000, log.getColor(0));
+        assertEquals(12.5f, log.getWidth(0), 0f);
+        assertEquals(0xff000000, log.getColor(1));
+    }
+
+    @Test
+    public void brushStrokes_keepBrushCodeNextToPlainStrokes() throws Exception {
+        int chalk = new Brush(Brush.Shape.CHALK, 40).encode();
+        SketchJournal journal = new SketchJournal(file);
+        journal.appendStroke(new float[]{0, 0, 10, 10}, 2, 1, 5);
+        journal.appendStroke(new float[]{0, 0, 10, 10}, 2, 2, 20, chalk);
+        journal.close();
+
+        StrokeLog log = recover(file);
+
+        assertEquals(2, log.size());
+        assertEquals(0, log.getBrush(0));
+        assertEquals(chalk, log.getBrush(1));
+        assertEquals(new Brush(Brush.Shape.CHALK, 40), Brush.decode(log.getBrush(1)));
+        assertEquals(20f, log.getWidth(1), 0f);
+        assertEquals(10f, log.getY(1, 1), 0f);
+    }
+
+    @Test
+    public void layerStrokesAndLayerState_surviveCompaction() throws Exception {
+        int[] state = {3, 2, 2, 0, 1, 255, 0, 2, 0, 128, 1};
+        SketchJournal journal = new SketchJournal(file);
+        journal.appendStroke(new float[]{0, 0, 10, 10}, 2, 1, 5);
+        journal.appendLayers(new int[]{2, 1, 2, 0, 1, 255, 0, 1, 1, 255, 0});
+        journal.appendStroke(new float[]{0, 0, 10, 10}, 2, 2, 5, 0, 2);
+        journal.appendLayers(state);
+        journal.compact(2);
+        journal.close();
+
+        StrokeLog log = recover(file);
+
+        assertEquals(2, log.size());
+        assertEquals(0, log.getLayer(0));
+        assertEquals(2, log.getLayer(1));
+        assertEquals(0, log.getBrush(1));
+        assertArrayEquals(state, log.getLayerState());
+    }
+
+    @Test
+    public void erasedStrokes_areRemovedOnRecovery() throws Exception {
+        SketchJournal journal = new SketchJournal(file);
+        for (int i = 0; i < 4; i++)
+            journal.appendStroke(new float[]{i, i, i + 10, i + 10}, 2, i, 5);
+        journal.appendErase(new int[]{1, 3});
+        journal.appendStroke(new float[]{0, 0}, 1, 9, 5);
+        journal.close();
+
+        StrokeLog log = recover(file);
+
+        assertEquals(3, log.size());
+        assertEquals(0, log.getColor(0));
+        assertEquals(2, log.getColor(1));
+        assertEquals(9, log.getColor(2));
+    }
+
+    @Test
+    public void undoRedoAndClear_areReplayed() throws Exception {
+        SketchJournal journal = new SketchJournal(file);
+        journal.appendStroke(new float[]{0, 0, 10, 10}, 2, 1, 5);
+        journal.appendClear();
+        journal.appendStroke(new float[]{0, 0, 10, 10}, 2, 2, 5);
+        journal.appendStroke(new float[]{0, 0, 10, 10}, 2, 3, 5);
+        journal.appendUndo();
+        journal.appendUndo();
+        journal.appendRedo();
+        journal.close();
+
+        StrokeLog log = recover(file);
+
+        assertEquals(1, log.size());
+        assertEquals(2, log.getColor(0));
+        assertTrue(log.canRedo());
+    }
+
+    @Test
+    public void truncatedLastRecord_isDroppedAndJournalStaysWritable() throws Exception {
+        SketchJournal journal = new SketchJournal(file);
+        journal.appendStroke(new float[]{0, 0, 10, 10}, 2, 1, 5);
+        journal.appendStroke(new float[]{0, 0, 10, 10, 20, 20}, 3, 2, 5);
+        journal.close();
+
+        // Имитация аварийного завершения во время записи
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 2);
+        raf.close();
+
+        StrokeLog recovered = recover(file);
+        assertEquals(1, recovered.size());
+
+        journal = new SketchJournal(file);
+        journal.recover(new SketchJournal.RecoveryCallback() {
+            @Override
+            public void onRecovered(StrokeLog log) {
+            }
+        });
+        journal.appendStroke(new float[]{5, 5}, 1, 3, 5);
+        journal.close();
+
+        StrokeLog log = recover(file);
+        assertEquals(2, log.size());
+        assertEquals(3, log.getColor(1));
+    }
+
+    @Test
+    public void compact_keepsOnlyAppliedStrokes() throws Exception {
+        SketchJournal journal = new SketchJournal(file);
+        for (int i = 0; i < 400; i++) {
+            journal.appendStroke(new float[]{i, i, i + 1, i + 1}, 2, i, 5);
+            journal.appendUndo();
+        }
+        journal.appendStroke(new float[]{1, 2, 3, 4}, 2, 7, 3);
+        assertTrue(journal.needsCompaction(1));
+        journal.flush();
+        long before = file.length();
+
+        journal.compact(1);
+        journal.flush();
+        assertFalse(journal.needsCompaction(1));
+        journal.close();
+
+        assertTrue(file.length() < before);
+        StrokeLog log = recover(file);
+        assertEquals(1, log.size());
+        assertEquals(7, log.getColor(0));
+        assertFalse(log.canRedo());
+    }
+
+    @Test
+    public void compact_keepsRedoTailBetweenUndoAndRedo() throws Exception {
+        SketchJournal journal = new SketchJournal(file);
+        for (int i = 0; i < 4; i++)
+            journal.appendStroke(new float[]{i, i, i + 1, i + 1}, 2, i, 5);
+        journal.appendUndo();
+        journal.appendUndo();
+        journal.compact(2, 2);
+        assertFalse(journal.needsCompaction(4));
+        journal.appendRedo();
+        journal.close();
+
+        StrokeLog log = recover(file);
+        assertEquals(3, log.size());
+        assertEquals(4, log.recordedSize());
+        assertEquals(2, log.getColor(2));  // Повторяется последняя отмененная линия
+        assertEquals(3, log.redo());
+        assertEquals(3, log.getColor(3));
+    }
+
+    @Test
+    public void compact_countsLiveStrokesAsRecords() throws Exception {
+        SketchJournal journal = new SketchJournal(file);
+        journal.compact(300);
+        // После сжатия в журнале 300 линий; если их стало меньше, он снова сжимается
+        assertTrue(journal.needsCompaction(10));
+        assertFalse(journal.needsCompaction(300));
+        journal.close();
+    }
+
+    @Test
+    public void corruptCounts_truncateInsteadOfFailingRecovery() throws Exception {
+        SketchJournal journal = new SketchJournal(file);
+        journal.appendStroke(new float[]{0, 0, 10, 10}, 2, 1, 5);
+        journal.close();
+        long valid = file.length();
+
+        // Линия с огромным и отрицательным количеством точек, слои и ластик
+        // с отрицательной длиной
+        byte[][] tails = {
+                {1, 1, 20, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x07, 0, 0},
+                {1, 1, 20, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x0f},
+                {6, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x0f},
+                {8, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x07, 0}};
+        for (byte[] tail : tails) {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            raf.setLength(valid);
+            raf.seek(valid);
+            raf.write(tail);
+            raf.close();
+
+            StrokeLog log = recover(file);
+            assertNotNull(log);
+            assertEquals(1, log.size());
+            assertEquals(valid, file.length());  // Поврежденный конец отрезан
+        }
+    }
+
+    @Test
+    public void previousVersion_isReadAndRewrittenInCurrentFormat() throws Exception {
+        SketchJournal journal = new SketchJournal(file);
+        journal.appendStroke(new float[]{0, 0, 10, 10}, 2, 1, 5);
+        journal.close();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(4);
+        raf.write(1);  // Заголовок журнала первой версии
+        raf.close();
+
+        assertEquals(1, recover(file).size());
+        raf = new RandomAccessFile(file, "r");
+        raf.seek(4);
+        assertEquals(3, raf.read());  // Текущая версия
+        raf.close();
+        assertEquals(1, recover(file).size());
+    }
+
+    @Test
+    public void missingOrForeignFile_recoversEmptyLog() throws Exception {
+        assertEquals(0, recover(file).size());
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.write(new byte[]{1, 2, 3, 4, 5, 6, 7});
+        raf.close();
+
+        assertEquals(0, recover(file).size());
+    }
+}
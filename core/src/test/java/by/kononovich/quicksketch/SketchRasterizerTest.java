@@ -0,0 +1,170 @@
+package by.kononovich.quicksketch;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class SketchRasterizerTest {
+    private static final int WHITE = 0xffffffff;
+    private static final int RED = 0xffff0000;
+    private static final ForkJoinPool pool = new ForkJoinPool(4);
+
+    @AfterClass
+    public static void shutdown() {
+        pool.shutdown();
+    }
+
+    // Наибольшая разница каналов двух изображений
+    private static int maxDifference(int[] first, int[] second) {
+        int max = 0;
+        for (int i = 0; i < first.length; i++)
+            for (int shift = 0; shift < 32; shift += 8)
+                max = Math.max(max, Math.abs(((first[i] >>> shift) & 0xFF) -
+                        ((second[i] >>> shift) & 0xFF)));
+        return max;
+    }
+
+    // Эталон: отрезок с закругленными концами черного цвета на белом
+    // листе, покрытие пикселов считается по 16 x 16 подпикселам
+    private static int[] supersampledCapsule(int width, int height, float ax, float ay,
+                                             float bx, float by, float radius) {
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int inside = 0;
+                for (int sy = 0; sy < 16; sy++) {
+                    for (int sx = 0; sx < 16; sx++) {
+                        float px = x + (sx + 0.5f) / 16 - ax;
+                        float py = y + (sy + 0.5f) / 16 - ay;
+                        float dx = bx - ax;
+                        float dy = by - ay;
+                        float t = Math.max(0, Math.min(1, (px * dx + py * dy) / (dx * dx + dy * dy)));
+                        float ex = px - t * dx;
+                        float ey = py - t * dy;
+                        if (ex * ex + ey * ey <= radius * radius)
+                            inside++;
+                    }
+                }
+                int value = 255 - Math.round(255 * inside / 256f);
+                pixels[y * width + x] = 0xff000000 | value << 16 | value << 8 | value;
+            }
+        }
+        return pixels;
+    }
+
+    // Случайный рисунок на двух слоях: линии, отпечатки и заливка
+    private static StrokeLog randomSketch(Random random, int size) {
+        StrokeLog log = new StrokeLog();
+        int[] brushes = {0, new Brush(Brush.Shape.ROUND, 50).encode(),
+                new Brush(Brush.Shape.CHALK, 80).encode(), new Brush(Brush.Shape.SQUARE, 100).encode()};
+        for (int stroke = 0; stroke < 20; stroke++) {
+            float[] xy = new float[20];
+            for (int i = 0; i < xy.length; i++)
+                xy[i] = random.nextFloat() * size;
+            log.append(xy, 10, random.nextInt() | 0x80000000, 1 + random.nextFloat() * 12,
+                    brushes[stroke % brushes.length], stroke % 2);
+        }
+        log.append(new float[]{size / 2f, size / 2f}, 1, RED, 5,
+                new Brush(Brush.Shape.FILL, 10).encode(), 0);
+        log.setLayerState(new int[]{2, 1, 2, 0, 1, 255, 0, 1, 1, 128, 1});
+        return log;
+    }
+
+    @Test
+    public void line_matchesSupersampledReference() throws Exception {
+        // Путь заканчивается на середине последнего отрезка: от (10.3, 20.6) до (70.3, 23.6)
+        StrokeLog log = new StrokeLog();
+        log.append(new float[]{10.3f, 20.6f, 50.3f, 22.6f, 90.3f, 24.6f}, 3, 0xff000000, 9);
+        int[] pixels = new SketchRasterizer(pool).render(log, null, 100, 48, 1);
+
+        int[] reference = supersampledCapsule(100, 48, 10.3f, 20.6f, 70.3f, 23.6f, 4.5f);
+        assertTrue(maxDifference(pixels, reference) <= 16);
+        assertEquals(0xff000000, pixels[22 * 100 + 40]);
+        assertEquals(WHITE, pixels[5 * 100 + 40]);
+    }
+
+    @Test
+    public void stamp_atPixelCenterEqualsRasterizedTip() throws Exception {
+        Brush brush = new Brush(Brush.Shape.ROUND, 30);
+        StrokeLog log = new StrokeLog();
+        log.append(new float[]{20, 20}, 1, 0xff0000ff, 8, brush.encode());
+        int[] pixels = new SketchRasterizer(pool).render(log, null, 40, 40, 1);
+
+        // Отпечаток в целых координатах копирует кончик без интерполяции
+        int[] tip = brush.rasterize(8, 0xff0000ff);
+        for (int y = 0; y < 8; y++) {
+            for (int x = 0; x < 8; x++) {
+                int alpha = tip[y * 8 + x] >>> 24;
+                int expected = 255 - alpha;
+                assertEquals(expected, (pixels[(16 + y) * 40 + 16 + x] >> 16) & 0xFF, 1);
+            }
+        }
+        assertEquals(WHITE, pixels[0]);
+    }
+
+    @Test
+    public void fill_coversOutlinedRegionOnly() throws Exception {
+        StrokeLog log = new StrokeLog();
+        // Замкнутый контур: точки повторяются, чтобы путь дошел до углов
+        log.append(new float[]{10, 10, 10, 10, 50, 10, 50, 10, 50, 50, 50, 50,
+                10, 50, 10, 50, 10, 10, 10, 10}, 10, 0xff000000, 3);
+        log.append(new float[]{30, 30}, 1, RED, 3, new Brush(Brush.Shape.FILL, 0).encode());
+        int[] pixels = new SketchRasterizer(pool).render(log, null, 60, 60, 1);
+
+        assertEquals(RED, pixels[30 * 60 + 30]);
+        assertEquals(0xff000000, pixels[10 * 60 + 30]);
+        assertEquals(WHITE, pixels[55 * 60 + 55]);
+    }
+
+    @Test
+    public void layers_useVisibilityAndOpacity() throws Exception {
+        StrokeLog log = new StrokeLog();
+        log.append(new float[]{0, 5, 20, 5, 40, 5}, 3, 0xff000000, 4, 0, 0);
+        log.append(new float[]{0, 15, 20, 15, 40, 15}, 3, 0xff000000, 4, 0, 1);
+        log.append(new float[]{0, 25, 20, 25, 40, 25}, 3, 0xff000000, 4, 0, 2);
+        // Слой 0 обычный, слой 1 наполовину прозрачный, слой 2 скрыт
+        int[] layers = {3, 0, 3, 0, 1, 255, 0, 1, 1, 128, 0, 2, 0, 255, 0};
+        int[] pixels = new SketchRasterizer(pool).render(log, layers, 40, 30, 1);
+
+        assertEquals(0xff000000, pixels[5 * 40 + 10]);
+        assertEquals(127, pixels[15 * 40 + 10] & 0xFF, 1);
+        assertEquals(WHITE, pixels[25 * 40 + 10]);
+    }
+
+    @Test
+    public void tiles_renderTheSameInParallelAndAcrossTileBorders() throws Exception {
+        StrokeLog log = randomSketch(new Random(7), 150);
+        int[] parallel = new SketchRasterizer(pool).render(log, log.getLayerState(), 150, 150, 1);
+        ForkJoinPool single = new ForkJoinPool(1);
+        int[] sequential = new SketchRasterizer(single).render(log, log.getLayerState(),
+                150, 150, 1);
+        single.shutdown();
+        assertArrayEquals(sequential, parallel);
+
+        // Сдвиг на полплитки меняет границы плиток, но не изображение
+        int shift = SketchRasterizer.TILE_SIZE / 2;
+        StrokeLog shifted = new StrokeLog();
+        shifted.setLayerState(log.getLayerState());
+        for (int i = 0; i < log.size(); i++) {
+            float[] xy = new float[log.getPointCount(i) * 2];
+            for (int p = 0; p < log.getPointCount(i); p++) {
+                xy[p * 2] = log.getX(i, p) + shift;
+                xy[p * 2 + 1] = log.getY(i, p) + shift;
+            }
+            shifted.append(xy, log.getPointCount(i), log.getColor(i), log.getWidth(i),
+                    log.getBrush(i), log.getLayer(i));
+        }
+        int size = 150 + shift;
+        int[] moved = new SketchRasterizer(pool).render(shifted, log.getLayerState(),
+                size, size, 1);
+        int[] cropped = new int[150 * 150];
+        for (int y = 0; y < 150; y++)
+            System.arraycopy(moved, (y + shift) * size + shift, cropped, y * 150, 150);
+        // Координаты со сдвигом округляются иначе - допускается разница округления
+        assertTrue(maxDifference(parallel, cropped) <= 2);
+    }
+}
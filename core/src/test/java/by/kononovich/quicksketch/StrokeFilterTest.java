@@ -0,0 +1,91 @@
+package by.kononovich.quicksketch;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class StrokeFilterTest {
+    private static final float DENSITY = 2f;
+
+    // Количество точек, принятых фильтром на прямой с шагом step пикселов через 8 мс
+    private static int acceptedOnLine(StrokeFilter filter, float step, int samples) {
+        filter.reset(0, 0, 0);
+        int accepted = 0;
+        for (int i = 1; i <= samples; i++)
+            if (filter.addSample(i * step, 0, i * 8))
+                accepted++;
+        return accepted;
+    }
+
+    @Test
+    public void fixedTolerance_acceptsPointsAtTheThreshold() throws Exception {
+        FixedToleranceFilter filter = new FixedToleranceFilter(10);
+        filter.reset(0, 0, 0);
+
+        assertFalse(filter.addSample(9, 0, 8));
+        assertTrue(filter.addSample(10, 3, 16));
+        assertEquals(10f, filter.getX(), 0f);
+        assertFalse(filter.addSample(15, 12, 24));
+        assertTrue(filter.addSample(15, 13, 32));
+        assertEquals(filter.getX(), filter.getPredictedX(), 0f);
+    }
+
+    @Test
+    public void oneEuro_suppressesJitterOfAStillFinger() throws Exception {
+        OneEuroStrokeFilter filter = new OneEuroStrokeFilter(DENSITY, 0);
+        filter.reset(100, 100, 0);
+
+        int accepted = 0;
+        for (int i = 1; i <= 200; i++) {
+            float jitter = (i % 2 == 0 ? 1.5f : -1.5f);
+            if (filter.addSample(100 + jitter, 100 - jitter, i * 8))
+                accepted++;
+            assertEquals(100f, filter.getX(), 1f);
+        }
+        assertEquals(0, accepted);
+    }
+
+    @Test
+    public void oneEuro_followsFastMovementClosely() throws Exception {
+        OneEuroStrokeFilter filter = new OneEuroStrokeFilter(DENSITY, 0);
+        filter.reset(0, 0, 0);
+        for (int i = 1; i <= 30; i++)
+            filter.addSample(i * 20, 0, i * 8);
+
+        // 2500 пикселов/с: запаздывание меньше одного отсчета
+        assertEquals(600f, filter.getX(), 20f);
+    }
+
+    @Test
+    public void oneEuro_toleranceGrowsWithSpeed() throws Exception {
+        float slowSpacing = 300f / acceptedOnLine(new OneEuroStrokeFilter(DENSITY, 0), 1, 300);
+        float fastSpacing = 6000f / acceptedOnLine(new OneEuroStrokeFilter(DENSITY, 0), 20, 300);
+
+        assertTrue(slowSpacing < fastSpacing);
+        assertTrue(slowSpacing >= 1.5f * DENSITY);
+    }
+
+    @Test
+    public void oneEuro_predictsAheadAlongTheMotionWithinALimit() throws Exception {
+        OneEuroStrokeFilter filter = new OneEuroStrokeFilter(DENSITY, 16);
+        filter.reset(0, 0, 0);
+        for (int i = 1; i <= 50; i++)
+            filter.addSample(i * 4, 0, i * 8);
+
+        float ahead = filter.getPredictedX() - filter.getX();
+        assertTrue(ahead > 0);
+        assertTrue(ahead <= 24 * DENSITY);
+        assertEquals(filter.getY(), filter.getPredictedY(), 0.001f);
+    }
+
+    @Test
+    public void oneEuro_toleratesRepeatedTimestamps() throws Exception {
+        OneEuroStrokeFilter filter = new OneEuroStrokeFilter(DENSITY, 16);
+        filter.reset(0, 0, 10);
+        filter.addSample(5, 5, 10);
+        filter.addSample(6, 6, 10);
+
+        assertFalse(Float.isNaN(filter.getX()));
+        assertFalse(Float.isInfinite(filter.getPredictedX()));
+    }
+}
@@ -0,0 +1,152 @@
+package by.kononovich.quicksketch;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class StrokeIndexTest {
+    // Горизонтальная линия от (x, y) длиной 20
+    private static void appendLine(StrokeLog log, float x, float y, int color) {
+        log.append(new float[]{x, y, x + 10, y, x + 20, y}, 3, color, 4);
+    }
+
+    @Test
+    public void hitTest_findsOnlyStrokesNearThePoint() throws Exception {
+        StrokeLog log = new StrokeLog();
+        appendLine(log, 10, 10, 0);
+        appendLine(log, 10, 30, 1);
+        appendLine(log, 500, 500, 2);
+        StrokeIndex index = new StrokeIndex(64);
+        index.rebuild(log, 1000, 1000);
+
+        assertArrayEquals(new int[]{0}, index.hitTest(log, 20, 14, 3));
+        assertArrayEquals(new int[]{0, 1}, index.hitTest(log, 20, 20, 9));
+        assertArrayEquals(new int[0], index.hitTest(log, 200, 200, 10));
+        assertArrayEquals(new int[]{2}, index.hitTest(log, 520, 500, 1));
+    }
+
+    @Test
+    public void hitTest_ignoresUndoneStrokesAndAddReplacesThem() throws Exception {
+        StrokeLog log = new StrokeLog();
+        StrokeIndex index = new StrokeIndex(64);
+        index.rebuild(log, 1000, 1000);
+        appendLine(log, 10, 10, 0);
+        index.add(log, 0);
+        appendLine(log, 300, 300, 1);
+        index.add(log, 1);
+
+        log.undo();
+        assertArrayEquals(new int[0], index.hitTest(log, 310, 300, 2));
+
+        // Новая линия с тем же номером заменяет отброшенную
+        appendLine(log, 600, 600, 2);
+        index.add(log, 1);
+        assertEquals(2, index.size());
+        assertArrayEquals(new int[0], index.hitTest(log, 310, 300, 2));
+        assertArrayEquals(new int[]{1}, index.hitTest(log, 610, 600, 2));
+    }
+
+    @Test
+    public void query_returnsEachStrokeOnceInOrder() throws Exception {
+        StrokeLog log = new StrokeLog();
+        log.append(new float[]{0, 0, 900, 900}, 2, 0, 2);  // Через много ячеек
+        appendLine(log, 100, 100, 1);
+        StrokeIndex index = new StrokeIndex(32);
+        index.rebuild(log, 1000, 1000);
+
+        assertArrayEquals(new int[]{0, 1}, index.query(0, 0, 1000, 1000, 2));
+        assertArrayEquals(new int[]{0}, index.query(0, 0, 1000, 1000, 1));
+    }
+
+    @Test
+    public void remove_shiftsLaterStrokesLikeTheLog() throws Exception {
+        StrokeLog log = new StrokeLog();
+        for (int i = 0; i < 5; i++)
+            appendLine(log, 10, 100 * i, i);
+        log.undo();  // Линия 4 доступна для повтора и отбрасывается удалением
+        StrokeIndex index = new StrokeIndex(64);
+        index.rebuild(log, 1000, 1000);
+
+        int[] removed = {0, 2};
+        index.remove(removed, log.size());
+        log.remove(removed);
+        assertEquals(2, index.size());
+        assertArrayEquals(new int[0], index.hitTest(log, 20, 0, 1));
+        assertArrayEquals(new int[]{0}, index.hitTest(log, 20, 100, 1));
+        assertArrayEquals(new int[]{1}, index.hitTest(log, 20, 300, 1));
+        assertEquals(3, log.getColor(index.hitTest(log, 20, 300, 1)[0]));
+        assertArrayEquals(new int[0], index.query(0, 350, 1000, 1000, 10));
+    }
+
+    // Примененные линии индекса совпадают с построенным заново по журналу
+    // (линии для повтора могут быть уже отброшены)
+    private static void assertMatchesRebuilt(StrokeIndex index, StrokeLog log) {
+        StrokeIndex rebuilt = new StrokeIndex(64);
+        rebuilt.rebuild(log, 1000, 1000);
+        assertTrue(index.size() >= log.size());
+        assertArrayEquals(rebuilt.query(0, 0, 1000, 1000, log.size()),
+                index.query(0, 0, 1000, 1000, log.size()));
+        for (int i = 0; i < log.size(); i++)
+            assertArrayEquals(rebuilt.hitTest(log, log.getX(i, 0), log.getY(i, 0), 1),
+                    index.hitTest(log, log.getX(i, 0), log.getY(i, 0), 1));
+    }
+
+    @Test
+    public void undoAndRedoAmongPeerStrokes_reindexLikeRebuild() throws Exception {
+        StrokeLog log = new StrokeLog();
+        StrokeIndex index = new StrokeIndex(64);
+        index.rebuild(log, 1000, 1000);
+        for (int i = 0; i < 3; i++) {
+            appendLine(log, 10, 100 * i, i);
+            index.add(log, i);
+        }
+        // Линия другого устройства встает перед последней своей
+        long stamp = StrokeLog.stamp(StrokeLog.stampClock(log.getStamp(2)) - 1, 9);
+        int count = log.size();
+        int inserted = log.add(new float[]{10, 500, 30, 500}, 2, 7, 4, 0, 0, 9, stamp);
+        assertEquals(2, inserted);
+        index.insert(log, inserted);
+        assertMatchesRebuilt(index, log);
+
+        // Отмена своей линии, за которой шла линия другого устройства (SketchEngine.undo)
+        log.add(new float[]{10, 600, 30, 600}, 2, 8, 4, 0, 0, 9, StrokeLog.stamp(100, 9));
+        index.add(log, log.size() - 1);
+        count = log.size();
+        int undone = log.undo();
+        assertEquals(3, undone);
+        index.remove(new int[]{undone}, count);
+        assertMatchesRebuilt(index, log);
+        assertArrayEquals(new int[]{3}, index.hitTest(log, 20, 600, 1));
+
+        // Повтор возвращает линию на прежнее место (SketchEngine.insertedStroke)
+        count = log.size();
+        int redone = log.redo();
+        assertEquals(3, redone);
+        index.insert(log, redone);
+        assertMatchesRebuilt(index, log);
+        assertArrayEquals(new int[]{3}, index.hitTest(log, 20, 200, 1));
+        assertArrayEquals(new int[]{4}, index.hitTest(log, 20, 600, 1));
+    }
+
+    @Test
+    public void strokesOutsideTheImage_areFoundAtTheEdge() throws Exception {
+        StrokeLog log = new StrokeLog();
+        appendLine(log, -50, -50, 0);
+        StrokeIndex index = new StrokeIndex(64);
+        index.rebuild(log, 200, 200);
+
+        assertArrayEquals(new int[]{0}, index.hitTest(log, -40, -50, 1));
+    }
+
+    @Test
+    public void hitTest_withThousandsOfStrokes_checksOnlyNearbyCells() throws Exception {
+        StrokeLog log = new StrokeLog();
+        for (int i = 0; i < 10000; i++)
+            appendLine(log, (i % 100) * 40, (i / 100) * 40, i);
+        StrokeIndex index = new StrokeIndex(64);
+        index.rebuild(log, 4000, 4000);
+
+        assertTrue(index.query(2000, 2000, 2010, 2010, log.size()).length < 20);
+        assertArrayEquals(new int[]{50 * 100 + 50}, index.hitTest(log, 2010, 2000, 1));
+    }
+}
@@ -0,0 +1,141 @@
+package by.kononovich.quicksketch;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class StrokeLogTest {
+    private static void appendLine(StrokeLog log, float offset, int color) {
+        log.append(new float[]{offset, offset, offset + 10, offset + 20}, 2, color, 5);
+    }
+
+    @Test
+    public void append_storesPointsColorAndWidth() throws Exception {
+        StrokeLog log = new StrokeLog();
+        log.append(new float[]{1, 2, 3, 4, 5, 6, 99}, 3, 0xff00ff00, 7.5f);
+
+        assertEquals(1, log.size());
+        assertEquals(3, log.getPointCount(0));
+        assertEquals(5f, log.getX(0, 2), 0f);
+        assertEquals(6f, log.getY(0, 2), 0f);
+        assertEquals(0xff00ff00, log.getColor(0));
+        assertEquals(7.5f, log.getWidth(0), 0f);
+    }
+
+    @Test
+    public void undoRedo_moveThePosition() throws Exception {
+        StrokeLog log = new StrokeLog();
+        appendLine(log, 0, 1);
+        appendLine(log, 100, 2);
+
+        assertEquals(1, log.undo());
+        assertTrue(log.canRedo());
+        assertEquals(1, log.redo());
+        assertEquals(2, log.size());
+        assertFalse(log.canRedo());
+        assertEquals(-1, log.redo());
+    }
+
+    @Test
+    public void append_afterUndo_dropsRedoTail() throws Exception {
+        StrokeLog log = new StrokeLog();
+        appendLine(log, 0, 1);
+        appendLine(log, 100, 2);
+        log.undo();
+
+        appendLine(log, 200, 3);
+
+        assertEquals(2, log.size());
+        assertEquals(2, log.recordedSize());
+        assertEquals(3, log.getColor(1));
+        assertEquals(200f, log.getX(1, 0), 0f);
+        assertFalse(log.canRedo());
+    }
+
+    @Test
+    public void append_growsBeyondInitialCapacity() throws Exception {
+        StrokeLog log = new StrokeLog();
+        for (int i = 0; i < 1000; i++)
+            appendLine(log, i, i);
+
+        assertEquals(1000, log.size());
+        assertEquals(999, log.getColor(999));
+        assertEquals(1009f, log.getX(999, 1), 0f);
+        assertEquals(500f, log.getY(500, 0), 0f);
+    }
+
+    @Test
+    public void remove_compactsStrokesAndDropsRedoTail() throws Exception {
+        StrokeLog log = new StrokeLog();
+        for (int i = 0; i < 5; i++)
+            appendLine(log, i * 100, i);
+        log.undo();
+
+        log.remove(new int[]{0, 2});
+
+        assertEquals(2, log.size());
+        assertFalse(log.canRedo());
+        assertEquals(1, log.getColor(0));
+        assertEquals(3, log.getColor(1));
+        assertEquals(310f, log.getX(1, 1), 0f);
+        assertEquals(320f, log.getY(1, 1), 0f);
+
+        appendLine(log, 700, 7);
+        assertEquals(700f, log.getX(2, 0), 0f);
+    }
+
+    // Линия другого устройства peer со счетчиком Лэмпорта clock
+    private static int addRemote(StrokeLog log, float offset, int color, int peer, int clock) {
+        return log.add(new float[]{offset, offset}, 1, color, 5, 0, 0, peer,
+                StrokeLog.stamp(clock, peer));
+    }
+
+    @Test
+    public void remoteStrokes_areOrderedByStamp() throws Exception {
+        StrokeLog log = new StrokeLog();
+        log.setLocalPeer(5);
+        appendLine(log, 0, 1);   // Счетчик 1
+        appendLine(log, 100, 2); // Счетчик 2
+
+        // Одновременная линия: при равных счетчиках раньше - меньший номер устройства
+        assertEquals(1, addRemote(log, 200, 3, 4, 2));
+        assertEquals(3, addRemote(log, 300, 4, 9, 7));
+        appendLine(log, 400, 5);  // Счетчик больше принятого
+        assertEquals(8, StrokeLog.stampClock(log.getStamp(4)));
+        assertEquals(1, log.getColor(0));
+        assertEquals(3, log.getColor(1));
+        assertEquals(200f, log.getX(1, 0), 0f);
+        assertEquals(2, log.getColor(2));
+        assertEquals(100f, log.getX(2, 0), 0f);
+        assertEquals(9, log.getOwner(3));
+        assertEquals(StrokeLog.LOCAL, log.getOwner(4));
+    }
+
+    @Test
+    public void undo_skipsRemoteStrokesAndRedoRestoresOrder() throws Exception {
+        StrokeLog log = new StrokeLog();
+        appendLine(log, 0, 1);
+        appendLine(log, 100, 2);
+        addRemote(log, 200, 3, 4, 10);
+
+        assertEquals(1, log.undo());  // Отменяется своя линия 1, а не линия устройства 4
+        assertEquals(2, log.size());
+        assertEquals(3, log.getColor(1));
+        assertEquals(200f, log.getX(1, 0), 0f);
+
+        // Линии других устройств не отбрасывают повтор
+        addRemote(log, 300, 4, 4, 11);
+        assertTrue(log.canRedo());
+        assertEquals(1, log.redo());
+        assertArrayEquals(new int[]{1, 2, 3, 4}, new int[]{log.getColor(0), log.getColor(1),
+                log.getColor(2), log.getColor(3)});
+        assertEquals(110f, log.getX(1, 1), 0f);
+        assertEquals(300f, log.getX(3, 0), 0f);
+
+        log.undo();
+        log.undo();
+        assertFalse(log.canUndo());  // Остались только чужие линии
+        assertEquals(-1, log.undo());
+        assertEquals(2, log.size());
+    }
+}
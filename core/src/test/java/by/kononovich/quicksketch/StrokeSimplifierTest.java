@@ -0,0 +1,106 @@
+package by.kononovich.quicksketch;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class StrokeSimplifierTest {
+    // Точки кривой, которую рисует движок (квадратичные сегменты через середины)
+    private static float[] renderedCurve(float[] xy, int pointCount) {
+        int steps = 32;
+        float[] out = new float[Math.max(1, pointCount - 1) * (steps + 1) * 2];
+        int size = 0;
+        float startX = xy[0];
+        float startY = xy[1];
+        for (int i = 1; i < pointCount; i++) {
+            float cx = xy[i * 2 - 2];
+            float cy = xy[i * 2 - 1];
+            float endX = (cx + xy[i * 2]) / 2;
+            float endY = (cy + xy[i * 2 + 1]) / 2;
+            for (int s = 0; s <= steps; s++) {
+                float t = (float) s / steps;
+                float u = 1 - t;
+                out[size++] = u * u * startX + 2 * u * t * cx + t * t * endX;
+                out[size++] = u * u * startY + 2 * u * t * cy + t * t * endY;
+            }
+            startX = endX;
+            startY = endY;
+        }
+        return Arrays.copyOf(out, size);
+    }
+
+    // Наибольшее расстояние от точек кривой a до ломаной b
+    private static float deviation(float[] a, float[] b) {
+        float worst = 0;
+        for (int i = 0; i < a.length; i += 2) {
+            float best = Float.MAX_VALUE;
+            for (int j = 0; j + 3 < b.length; j += 2)
+                best = Math.min(best, StrokeIndex.distanceToSegment(a[i], a[i + 1],
+                        b[j], b[j + 1], b[j + 2], b[j + 3]));
+            worst = Math.max(worst, best);
+        }
+        return worst;
+    }
+
+    @Test
+    public void straightLine_keepsOnlyEndpoints() throws Exception {
+        float[] xy = new float[200];
+        for (int i = 0; i < 100; i++) {
+            xy[i * 2] = i * 3;
+            xy[i * 2 + 1] = i * 2;
+        }
+        StrokeSimplifier simplifier = new StrokeSimplifier(0.5f);
+
+        int count = simplifier.simplify(xy, 100);
+
+        assertTrue(count <= 4);
+        assertEquals(0f, simplifier.getPoints()[0], 0f);
+        assertEquals(297f, simplifier.getPoints()[count * 2 - 2], 0f);
+        assertTrue(simplifier.getCompressionRatio() >= 25);
+    }
+
+    @Test
+    public void curve_staysWithinTheErrorBound() throws Exception {
+        int n = 400;
+        float[] xy = new float[n * 2];
+        for (int i = 0; i < n; i++) {
+            double angle = i * 0.02;
+            xy[i * 2] = (float) (200 + 150 * Math.cos(angle) + 10 * Math.sin(i * 0.3));
+            xy[i * 2 + 1] = (float) (200 + 150 * Math.sin(angle));
+        }
+        float tolerance = 1f;
+        StrokeSimplifier simplifier = new StrokeSimplifier(tolerance);
+
+        int count = simplifier.simplify(xy, n);
+
+        assertTrue(count < n);
+        float[] before = renderedCurve(xy, n);
+        float[] after = renderedCurve(simplifier.getPoints(), count);
+        // Запас на приближение кривых ломаными
+        assertTrue(deviation(before, after) <= tolerance + 0.1f);
+    }
+
+    @Test
+    public void repeatedLastPoint_isKept() throws Exception {
+        float[] xy = {0, 0, 10, 0, 20, 0, 30, 0, 40, 5, 40, 5};
+        StrokeSimplifier simplifier = new StrokeSimplifier(0.5f);
+
+        int count = simplifier.simplify(xy, 6);
+        float[] out = simplifier.getPoints();
+
+        assertEquals(40f, out[count * 2 - 2], 0f);
+        assertEquals(40f, out[count * 2 - 4], 0f);
+        assertEquals(5f, out[count * 2 - 3], 0f);
+    }
+
+    @Test
+    public void zeroTolerance_keepsAllPoints() throws Exception {
+        float[] xy = {0, 0, 1, 0, 2, 0, 3, 0};
+        StrokeSimplifier simplifier = new StrokeSimplifier(0);
+
+        assertEquals(4, simplifier.simplify(xy, 4));
+        assertEquals(1f, simplifier.getCompressionRatio(), 0f);
+    }
+}
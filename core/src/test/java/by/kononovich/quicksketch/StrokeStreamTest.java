@@ -0,0 +1,223 @@
+package by.kononovich.quicksketch;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class StrokeStreamTest {
+    // Запись событий входящего потока в виде строк
+    private static class Recorder implements StrokeStreamReader.Listener {
+        final List<String> events = new ArrayList<>();
+        final List<float[]> committed = new ArrayList<>();
+        final List<Integer> clocks = new ArrayList<>();
+
+        @Override
+        public void onStrokeUpdated(StrokeStreamReader.RemoteStroke stroke, int from) {
+            events.add("update " + stroke.getPeer() + ":" + stroke.getPointer() + " " + from +
+                    ".." + stroke.getPointCount());
+        }
+
+        @Override
+        public void onStrokeRemoved(StrokeStreamReader.RemoteStroke stroke) {
+            events.add("remove " + stroke.getPeer() + ":" + stroke.getPointer());
+        }
+
+        @Override
+        public void onStrokeCommitted(StrokeStreamReader.RemoteStroke stroke) {
+            events.add("commit " + stroke.getPeer() + ":" + stroke.getPointer() + " " +
+                    Integer.toHexString(stroke.getColor()) + " " + stroke.getWidth() + " " +
+                    stroke.getLayer());
+            committed.add(Arrays.copyOf(stroke.getPoints(), stroke.getPointCount() * 2));
+            clocks.add(stroke.getClock());
+        }
+    }
+
+    private static byte[] batch(StrokeStreamWriter writer) {
+        SketchJournal.ByteSink sink = new SketchJournal.ByteSink();
+        if (!writer.encodeBatch(sink))
+            return null;
+        return Arrays.copyOf(sink.array(), sink.size());
+    }
+
+    @Test
+    public void batches_carryNewPointsAndCommittedStroke() throws Exception {
+        StrokeStreamWriter writer = new StrokeStreamWriter(7);
+        Recorder recorder = new Recorder();
+        StrokeStreamReader reader = new StrokeStreamReader(recorder);
+
+        assertNull(batch(writer));  // Отправлять нечего
+        writer.begin(3, 10, 20, 0xff112233, 5.5f, 0, 1);
+        writer.addPoint(3, 11.3f, 20.9f);
+        writer.addPoint(3, 12.6f, 22);
+        assertTrue(reader.receive(batch(writer)));
+        writer.addPoint(3, 14, 23.1f);
+        assertTrue(reader.receive(batch(writer)));
+        assertEquals(1, reader.getActiveStrokes().size());
+        StrokeStreamReader.RemoteStroke active = reader.getActiveStrokes().iterator().next();
+        assertEquals(4, active.getPointCount());
+        assertEquals(14, active.getPoints()[6], 1 / 16f);
+        assertEquals(23.1f, active.getPoints()[7], 1 / 16f);
+
+        writer.commit(3, new float[]{10, 20, 14, 23.1f}, 2, 0xff112233, 5.5f, 0, 1, 42);
+        assertTrue(reader.receive(batch(writer)));
+        assertEquals(42, recorder.clocks.get(0).intValue());
+        assertEquals(Arrays.asList("update 7:3 0..1", "update 7:3 1..3", "update 7:3 3..4", "remove 7:3",
+                "commit 7:3 ff112233 5.5 1"), recorder.events);
+        assertArrayEquals(new float[]{10, 20, 14, 23.125f}, recorder.committed.get(0), 0);
+        assertTrue(reader.getActiveStrokes().isEmpty());
+    }
+
+    @Test
+    public void batches_areAppliedInSequenceOrderWithoutDuplicates() throws Exception {
+        StrokeStreamWriter writer = new StrokeStreamWriter(1);
+        byte[][] batches = new byte[3][];
+        for (int i = 0; i < batches.length; i++) {
+            writer.commit(StrokeStreamWriter.NO_POINTER, new float[]{i, i}, 1, i, 1, 0, 0);
+            batches[i] = batch(writer);
+        }
+
+        Recorder recorder = new Recorder();
+        StrokeStreamReader reader = new StrokeStreamReader(recorder);
+        reader.receive(batches[0]);
+        reader.receive(batches[2]);  // Ждет пакет 1
+        assertEquals(1, recorder.committed.size());
+        reader.receive(batches[1]);
+        reader.receive(batches[1]);  // Повтор
+        reader.receive(batches[0]);
+        assertEquals(3, recorder.committed.size());
+        for (int i = 0; i < 3; i++)
+            assertEquals(i, recorder.committed.get(i)[0], 0);
+    }
+
+    @Test
+    public void pointers_areSeparatedByPeer() throws Exception {
+        StrokeStreamWriter first = new StrokeStreamWriter(1);
+        StrokeStreamWriter second = new StrokeStreamWriter(2);
+        Recorder recorder = new Recorder();
+        StrokeStreamReader reader = new StrokeStreamReader(recorder);
+
+        first.begin(0, 1, 1, 0, 1, 0, 0);
+        second.begin(0, 50, 50, 0, 1, 0, 0);
+        reader.receive(batch(first));
+        reader.receive(batch(second));
+        assertEquals(2, reader.getActiveStrokes().size());
+
+        // Завершение линии одного устройства не затрагивает другое
+        first.commit(0, new float[]{1, 1}, 1, 0, 1, 0, 0);
+        reader.receive(batch(first));
+        assertEquals(1, reader.getActiveStrokes().size());
+        assertEquals(2, reader.getActiveStrokes().iterator().next().getPeer());
+
+        reader.removePeer(2);
+        assertTrue(reader.getActiveStrokes().isEmpty());
+        assertEquals("remove 2:0", recorder.events.get(recorder.events.size() - 1));
+    }
+
+    @Test
+    public void cancel_removesSentStrokeWithoutCommitting() throws Exception {
+        StrokeStreamWriter writer = new StrokeStreamWriter(4);
+        Recorder recorder = new Recorder();
+        StrokeStreamReader reader = new StrokeStreamReader(recorder);
+
+        writer.begin(1, 10, 10, 0xff000000, 2, 0, 0);
+        writer.cancel(1);
+        assertNull(batch(writer));  // Начало не отправлено - отправлять нечего
+
+        writer.begin(1, 10, 10, 0xff000000, 2, 0, 0);
+        writer.addPoint(1, 12, 12);
+        assertTrue(reader.receive(batch(writer)));
+        writer.cancel(1);
+        assertTrue(reader.receive(batch(writer)));
+        assertEquals(Arrays.asList("update 4:1 0..1", "update 4:1 1..2", "remove 4:1"),
+                recorder.events);
+        assertTrue(reader.getActiveStrokes().isEmpty());
+    }
+
+    @Test
+    public void points_areDeltaEncodedCompactly() throws Exception {
+        StrokeStreamWriter writer = new StrokeStreamWriter(1);
+        writer.begin(0, 500, 500, 0xff000000, 4, 0, 0);
+        batch(writer);
+        for (int i = 1; i <= 100; i++)
+            writer.addPoint(0, 500 + i * 0.75f, 500 - i * 0.5f);
+        // Смещение меньше пиксела - по байту на координату
+        assertTrue(batch(writer).length <= 100 * 2 + 8);
+    }
+
+    @Test
+    public void commits_overflowInsteadOfBlockingWhenNotDrained() throws Exception {
+        StrokeStreamWriter writer = new StrokeStreamWriter(1);
+        float[] points = new float[2000];
+        int accepted = 0;
+        while (writer.commit(0, points, 1000, 0, 1, 0, 0))
+            accepted++;
+        assertTrue(accepted > 0);
+        assertTrue(writer.isOverflowed());
+
+        // Рисуемые линии по-прежнему принимаются без ожидания
+        writer.begin(1, 0, 0, 0, 1, 0, 0);
+        writer.addPoint(1, 1, 1);
+        assertTrue(writer.hasPending());
+    }
+
+    @Test
+    public void link_streamsStrokesThroughRelay() throws Exception {
+        LocalRelay relay = new LocalRelay();
+        final BlockingQueue<byte[]> received = new LinkedBlockingQueue<>();
+        StrokeStreamWriter sender = new StrokeStreamWriter(1);
+        StrokeStreamLink senderLink = new StrokeStreamLink("127.0.0.1", relay.getPort(), sender,
+                new StrokeStreamLink.Callback() {
+                    @Override
+                    public void onBatchReceived(byte[] batch) {
+                    }
+
+                    @Override
+                    public void onDisconnected(IOException error) {
+                    }
+                });
+        StrokeStreamLink receiverLink = new StrokeStreamLink("127.0.0.1", relay.getPort(),
+                new StrokeStreamWriter(2), new StrokeStreamLink.Callback() {
+                    @Override
+                    public void onBatchReceived(byte[] batch) {
+                        received.add(batch);
+                    }
+
+                    @Override
+                    public void onDisconnected(IOException error) {
+                    }
+                });
+        senderLink.start();
+        receiverLink.start();
+        for (int i = 0; i < 500 && relay.getClientCount() < 2; i++)
+            Thread.sleep(10);
+        assertEquals(2, relay.getClientCount());
+
+        sender.begin(0, 10, 10, 0xff0000ff, 3, 0, 0);
+        for (int i = 1; i <= 50; i++)
+            sender.addPoint(0, 10 + i, 10 + i / 2f);
+        sender.commit(0, new float[]{10, 10, 60, 35}, 2, 0xff0000ff, 3, 0, 0);
+
+        Recorder recorder = new Recorder();
+        StrokeStreamReader reader = new StrokeStreamReader(recorder);
+        while (recorder.committed.isEmpty()) {
+            byte[] batch = received.poll(5, TimeUnit.SECONDS);
+            assertNotNull(batch);
+            assertTrue(reader.receive(batch));
+        }
+        assertEquals("commit 1:0 ff0000ff 3.0 0",
+                recorder.events.get(recorder.events.size() - 1));
+        assertArrayEquals(new float[]{10, 10, 60, 35}, recorder.committed.get(0), 0);
+
+        senderLink.close();
+        receiverLink.close();
+        relay.close();
+    }
+}
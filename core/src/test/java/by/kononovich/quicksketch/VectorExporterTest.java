@@ -0,0 +1,97 @@
+package by.kononovich.quicksketch;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.Assert.*;
+
+public class VectorExporterTest {
+    private static final Charset LATIN_1 = Charset.forName("ISO-8859-1");
+
+    private static StrokeLog sampleLog() {
+        StrokeLog log = new StrokeLog();
+        log.append(new float[]{10, 10, 20, 30, 40, 30, 40, 30}, 4, 0xff102030, 5);
+        log.append(new float[]{50, 50}, 1, 0x80ff0000, 8,
+                new Brush(Brush.Shape.FILL, 10).encode(), 0);
+        log.append(new float[]{5.5f, 5.25f, 90, 90}, 2, 0x80ff0000, 3,
+                new Brush(Brush.Shape.SQUARE, 100).encode(), 1);
+        log.append(new float[]{1, 1, 2, 2}, 2, 0xff000000, 3, 0, 2);  // Скрытый слой
+        return log;
+    }
+
+    // Слои 0 (обычный), 1 (умножение, непрозрачность 128) и скрытый слой 2
+    private static final int[] LAYERS = {3, 0, 3, 0, 1, 255, 0, 1, 1, 128, 1, 2, 0, 255, 0};
+
+    private static String export(VectorExporter.Format format) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new VectorExporter(sampleLog(), LAYERS, 100, 80).export(format, out);
+        return new String(out.toByteArray(), LATIN_1);
+    }
+
+    private static int count(String text, String part) {
+        int count = 0;
+        for (int i = text.indexOf(part); i >= 0; i = text.indexOf(part, i + 1))
+            count++;
+        return count;
+    }
+
+    @Test
+    public void svg_writesVisibleStrokesAsCurves() throws Exception {
+        String svg = export(VectorExporter.Format.SVG);
+
+        assertTrue(svg.startsWith("<?xml"));
+        assertTrue(svg.endsWith("</svg>\n"));
+        assertEquals(2, count(svg, "<path "));  // Без заливки и скрытого слоя
+        assertTrue(svg.contains("d=\"M10 10Q10 10 15 20Q20 30 30 30Q40 30 40 30\""));
+        assertTrue(svg.contains("stroke=\"#102030\""));
+        assertTrue(svg.contains("d=\"M5.5 5.25Q5.5 5.25 47.75 47.63\""));
+        assertTrue(svg.contains("stroke-opacity=\"0.5\""));
+        assertTrue(svg.contains("stroke-linecap=\"square\""));
+        assertTrue(svg.contains("<g opacity=\"0.5\" style=\"mix-blend-mode:multiply\">"));
+    }
+
+    @Test
+    public void pdf_hasValidCrossReferenceAndCurves() throws Exception {
+        String pdf = export(VectorExporter.Format.PDF);
+
+        assertTrue(pdf.startsWith("%PDF-1.4"));
+        assertTrue(pdf.endsWith("%%EOF\n"));
+        Matcher startxref = Pattern.compile("startxref\n(\\d+)\n").matcher(pdf);
+        assertTrue(startxref.find());
+        int xref = Integer.parseInt(startxref.group(1));
+        assertTrue(pdf.startsWith("xref\n0 ", xref));
+
+        // Каждая запись таблицы указывает на начало своего объекта
+        Matcher entries = Pattern.compile("(\\d{10}) 00000 n ").matcher(pdf.substring(xref));
+        int object = 1;
+        while (entries.find()) {
+            int offset = Integer.parseInt(entries.group(1));
+            assertTrue(pdf.startsWith(object + " 0 obj\n", offset));
+            object++;
+        }
+        assertEquals(7 + 2 * 2, object);  // Скрытый слой не записывается
+        assertTrue(pdf.contains("/BM /Multiply"));
+
+        // Линии нижнего слоя - в сжатом потоке первой формы
+        int start = pdf.indexOf("stream\n") + "stream\n".length();
+        byte[] bytes = pdf.getBytes(LATIN_1);
+        InputStream in = new InflaterInputStream(
+                new ByteArrayInputStream(bytes, start, bytes.length - start));
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1)
+            content.write(b);
+        String layer = new String(content.toByteArray(), LATIN_1);
+        assertTrue(layer.startsWith("1 0 0 -1 0 80 cm\n"));
+        assertTrue(layer.contains("10 10 m\n"));
+        assertTrue(layer.contains("10 10 11.67 13.33 15 20 c\n"));
+        assertEquals(1, count(layer, "S\n"));
+    }
+}
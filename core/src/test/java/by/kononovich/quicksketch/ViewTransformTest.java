@@ -0,0 +1,52 @@
+package by.kononovich.quicksketch;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ViewTransformTest {
+    @Test
+    public void pinch_keepsCanvasPointUnderFingersMidpoint() throws Exception {
+        ViewTransform view = new ViewTransform();
+        // Пальцы расходятся вдвое вокруг (100, 100) и сдвигаются на (50, 20)
+        view.pinch(90, 100, 110, 100, 130, 120, 170, 120);
+        assertEquals(2, view.getZoom(), 1e-6f);
+        assertEquals(100, view.toCanvasX(150), 1e-4f);
+        assertEquals(100, view.toCanvasY(120), 1e-4f);
+        assertEquals(150, view.toScreenX(view.toCanvasX(150)), 1e-4f);
+        assertFalse(view.isIdentity());
+
+        view.reset();
+        assertTrue(view.isIdentity());
+        assertEquals(42, view.toCanvasX(42), 0);
+    }
+
+    @Test
+    public void pinch_clampsZoomAndConstrainKeepsCanvasInView() throws Exception {
+        ViewTransform view = new ViewTransform();
+        for (int i = 0; i < 10; i++)
+            view.pinch(0, 0, 100, 0, 0, 0, 1000, 0);
+        assertEquals(ViewTransform.MAX_ZOOM, view.getZoom(), 0);
+        view.pinch(0, 0, 100, 0, 0, 0, 0.5f, 0);  // Пальцы слишком близко - масштаб прежний
+        assertEquals(ViewTransform.MAX_ZOOM, view.getZoom(), 0);
+
+        view.reset();
+        view.pinch(0, 0, 10, 0, 5000, 5000, 5010, 0);
+        view.constrain(400, 300, 400, 300);
+        assertEquals(200, view.getPanX(), 0);  // Левый край рисунка - в середине
+        assertEquals(150, view.getPanY(), 0);
+    }
+
+    @Test
+    public void mipLevel_choosesCoarsestLevelNotBelowScreenResolution() throws Exception {
+        assertEquals(0, ViewTransform.mipLevel(1, 2, 3));
+        assertEquals(0, ViewTransform.mipLevel(1, 0.75f, 3));
+        assertEquals(1, ViewTransform.mipLevel(1, 0.5f, 3));
+        assertEquals(1, ViewTransform.mipLevel(1, 0.3f, 3));
+        assertEquals(2, ViewTransform.mipLevel(1, 0.25f, 3));
+        assertEquals(3, ViewTransform.mipLevel(1, 0.01f, 3));
+        // Плитки в половинном масштабе уменьшаются на уровень позже
+        assertEquals(0, ViewTransform.mipLevel(0.5f, 0.5f, 3));
+        assertEquals(1, ViewTransform.mipLevel(0.5f, 0.25f, 3));
+    }
+}